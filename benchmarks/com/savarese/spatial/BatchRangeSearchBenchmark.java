@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Times {@link BatchRangeSearch} against one
+ * {@link KDTree#iterator(Point, Point)} per query.  The tree holds
+ * uniformly distributed points inserted in random order, and each
+ * workload is a list of rectangles: large tiles covering the whole
+ * space, small boxes scattered over the space, and small boxes
+ * clustered so that they overlap heavily.
+ */
+public final class BatchRangeSearchBenchmark {
+  static final int SIZE   = 1 << 20;
+  static final int RANGE  = 1 << 20;
+  static final long SEED  = 0x5EED;
+
+  private BatchRangeSearchBenchmark() { }
+
+  static final class Counter
+    implements RangeCallback<Integer, GenericPoint<Integer>, Integer>
+  {
+    int _count;
+
+    public void found(int query,
+                      Map.Entry<GenericPoint<Integer>, Integer> entry)
+    {
+      ++_count;
+    }
+  }
+
+  static void benchmark(String name,
+                        final KDTree<Integer, GenericPoint<Integer>, Integer> tree,
+                        final List<GenericPoint<Integer>> lower,
+                        final List<GenericPoint<Integer>> upper)
+  {
+    final BatchRangeSearch<Integer, GenericPoint<Integer>, Integer> batch =
+      new BatchRangeSearch<Integer, GenericPoint<Integer>, Integer>();
+    final Counter counter = new Counter();
+
+    double batched = new Benchmark() {
+        void run() {
+          counter._count = 0;
+          batch.search(tree, lower, upper, counter);
+          sink+=counter._count;
+        }
+      }.median();
+    final int found = counter._count;
+
+    double iterated = new Benchmark() {
+        void run() {
+          int count = 0;
+          for(int q = 0; q < lower.size(); ++q) {
+            Iterator<Map.Entry<GenericPoint<Integer>, Integer>> it =
+              tree.iterator(lower.get(q), upper.get(q));
+            while(it.hasNext()) {
+              it.next();
+              ++count;
+            }
+          }
+          sink+=count;
+        }
+      }.median();
+
+    System.out.printf("%-10s %7d %9d %12.2f %12.2f %8.2fx%n", name,
+                      lower.size(), found, iterated, batched,
+                      iterated / batched);
+  }
+
+  // Adds count square boxes with the given side whose lower corners
+  // fall uniformly within [origin, origin + spread) in each dimension.
+  static void boxes(Random random, int count, int side, int origin,
+                    int spread, List<GenericPoint<Integer>> lower,
+                    List<GenericPoint<Integer>> upper)
+  {
+    lower.clear();
+    upper.clear();
+
+    for(int i = 0; i < count; ++i) {
+      int x = origin + random.nextInt(spread);
+      int y = origin + random.nextInt(spread);
+      lower.add(new GenericPoint<Integer>(x, y));
+      upper.add(new GenericPoint<Integer>(x + side - 1, y + side - 1));
+    }
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(SEED);
+    KDTree<Integer, GenericPoint<Integer>, Integer> tree =
+      new KDTree<Integer, GenericPoint<Integer>, Integer>(2);
+    List<GenericPoint<Integer>> lower = new ArrayList<GenericPoint<Integer>>();
+    List<GenericPoint<Integer>> upper = new ArrayList<GenericPoint<Integer>>();
+
+    for(int i = 0; i < SIZE; ++i)
+      tree.put(new GenericPoint<Integer>(random.nextInt(RANGE),
+                                         random.nextInt(RANGE)), i);
+
+    // Let the collector move the tree out of the young generation
+    // before any timing, since doing so changes its memory layout.
+    Benchmark.usedMemory();
+
+    System.out.printf("%-10s %7s %9s %12s %12s %9s%n", "workload",
+                      "queries", "found", "iterator ms", "batch ms",
+                      "speedup");
+
+    // 400 tiles, each containing about 2600 points.
+    lower.clear();
+    upper.clear();
+    for(int x = 0; x < 20; ++x)
+      for(int y = 0; y < 20; ++y) {
+        int side = (RANGE + 19) / 20;
+        lower.add(new GenericPoint<Integer>(x*side, y*side));
+        upper.add(new GenericPoint<Integer>((x + 1)*side - 1,
+                                            (y + 1)*side - 1));
+      }
+    benchmark("tiled", tree, lower, upper);
+
+    // Boxes of about 16 points each.
+    boxes(random, 20000, 4096, 0, RANGE - 4096, lower, upper);
+    benchmark("scattered", tree, lower, upper);
+
+    boxes(random, 20000, 4096, RANGE / 2, 16384, lower, upper);
+    benchmark("clustered", tree, lower, upper);
+
+    boxes(random, 20000, 4096, RANGE / 2, 2048, lower, upper);
+    benchmark("stacked", tree, lower, upper);
+
+    // Boxes of about one point each.
+    boxes(random, 100000, 1024, 0, RANGE - 1024, lower, upper);
+    benchmark("tiny", tree, lower, upper);
+
+    boxes(random, 100000, 1024, RANGE / 2, 4096, lower, upper);
+    benchmark("tiny-clust", tree, lower, upper);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+/**
+ * A Benchmark is a kernel that is run several times to warm up the
+ * virtual machine and then timed over a fixed number of rounds.  The
+ * median round is reported so that a single round disturbed by
+ * garbage collection or compilation does not skew the result.  The
+ * number of rounds can be set with the <code>benchmark.warmup</code>
+ * and <code>benchmark.rounds</code> system properties.
+ */
+abstract class Benchmark {
+  static final int WARMUP_ROUNDS =
+    Integer.getInteger("benchmark.warmup", 5).intValue();
+  static final int TIMED_ROUNDS =
+    Integer.getInteger("benchmark.rounds", 11).intValue();
+
+  /**
+   * Kernels add their results here so the virtual machine cannot
+   * discard the computation.
+   */
+  static volatile double sink;
+
+  /** Prepares the next round.  Not included in the timing. */
+  void prepare() { }
+
+  /** Runs one round of the kernel. */
+  abstract void run();
+
+  /**
+   * Runs the warm-up rounds followed by the timed rounds.
+   *
+   * @return The median time of a timed round in milliseconds.
+   */
+  double median() {
+    double[] times = new double[TIMED_ROUNDS];
+
+    for(int i = 0; i < WARMUP_ROUNDS; ++i) {
+      prepare();
+      run();
+    }
+
+    for(int i = 0; i < times.length; ++i) {
+      prepare();
+      long start = System.nanoTime();
+      run();
+      times[i] = (System.nanoTime() - start) / 1e6;
+    }
+
+    java.util.Arrays.sort(times);
+
+    return times[times.length / 2];
+  }
+
+  /**
+   * Runs the warm-up rounds of several kernels followed by their timed
+   * rounds, alternating between the kernels at every round so that
+   * they are all exposed to the same disturbances of the machine.
+   *
+   * @param kernels The kernels to time.
+   * @return The median time of a timed round of each kernel in
+   * milliseconds.
+   */
+  static double[] medians(Benchmark... kernels) {
+    double[][] times = new double[kernels.length][TIMED_ROUNDS];
+    double[] result = new double[kernels.length];
+
+    for(int i = 0; i < WARMUP_ROUNDS; ++i) {
+      for(Benchmark kernel : kernels) {
+        kernel.prepare();
+        kernel.run();
+      }
+    }
+
+    for(int i = 0; i < TIMED_ROUNDS; ++i) {
+      for(int k = 0; k < kernels.length; ++k) {
+        kernels[k].prepare();
+        long start = System.nanoTime();
+        kernels[k].run();
+        times[k][i] = (System.nanoTime() - start) / 1e6;
+      }
+    }
+
+    for(int k = 0; k < kernels.length; ++k) {
+      java.util.Arrays.sort(times[k]);
+      result[k] = times[k][TIMED_ROUNDS / 2];
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the heap in use after a garbage collection.
+   *
+   * @return The number of bytes of heap in use.
+   */
+  static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+
+    for(int i = 0; i < 3; ++i) {
+      System.gc();
+      try {
+        Thread.sleep(100);
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
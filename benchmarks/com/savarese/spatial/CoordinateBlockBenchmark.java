@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.Random;
+
+/**
+ * Times {@link CoordinateBlock#distance2(double[], int, int, double[])}
+ * against {@link EuclideanDistance#distance2(Point, Point)} over
+ * {@link GenericPoint}s for a range of dimension counts.  Each round
+ * computes the distances from a fixed set of queries to every point,
+ * and the number of points is chosen so that every dimension count
+ * stores the same number of coordinates.
+ */
+public final class CoordinateBlockBenchmark {
+  static final int[] DIMENSIONS = { 1, 2, 3, 4, 8, 16, 32, 64, 128 };
+  static final int COORDINATES = 1 << 20;
+  static final int QUERIES     = 16;
+  static final long SEED       = 0x5EED;
+
+  private CoordinateBlockBenchmark() { }
+
+  @SuppressWarnings("unchecked")
+  static void benchmark(int dimensions) {
+    final int size = COORDINATES / dimensions;
+    final Random random = new Random(SEED + dimensions);
+    final GenericPoint<Double>[] points = new GenericPoint[size];
+    final GenericPoint<Double>[] queries = new GenericPoint[QUERIES];
+    final double[][] arrays = new double[QUERIES][];
+    final CoordinateBlock block = new CoordinateBlock(dimensions, size);
+    final EuclideanDistance<Double, GenericPoint<Double>> distance =
+      new EuclideanDistance<Double, GenericPoint<Double>>();
+    final double[] result = new double[size];
+
+    for(int i = 0; i < size; ++i) {
+      points[i] = new GenericPoint<Double>(dimensions);
+      for(int d = 0; d < dimensions; ++d)
+        points[i].setCoord(d, random.nextDouble());
+      block.setPoint(i, points[i]);
+    }
+
+    for(int q = 0; q < QUERIES; ++q) {
+      queries[q] = new GenericPoint<Double>(dimensions);
+      for(int d = 0; d < dimensions; ++d)
+        queries[q].setCoord(d, random.nextDouble());
+      arrays[q] = CoordinateBlock.toArray(queries[q]);
+    }
+
+    double boxed = new Benchmark() {
+        void run() {
+          double sum = 0;
+          for(GenericPoint<Double> query : queries)
+            for(GenericPoint<Double> point : points)
+              sum+=distance.distance2(query, point);
+          sink+=sum;
+        }
+      }.median();
+
+    double blocked = new Benchmark() {
+        void run() {
+          double sum = 0;
+          for(double[] query : arrays) {
+            block.distance2(query, 0, size, result);
+            sum+=result[size - 1];
+          }
+          sink+=sum;
+        }
+      }.median();
+
+    double scale = 1e6 / ((double)QUERIES * size);
+
+    System.out.printf("%9d %9d %12.2f %12.2f %8.1fx%n",
+                      dimensions, size, boxed * scale, blocked * scale,
+                      boxed / blocked);
+  }
+
+  public static void main(String[] args) {
+    System.out.printf("%9s %9s %12s %12s %9s%n", "dims", "points",
+                      "euclid ns", "block ns", "speedup");
+
+    for(int dimensions : DIMENSIONS)
+      benchmark(dimensions);
+  }
+}
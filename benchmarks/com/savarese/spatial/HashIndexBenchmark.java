@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.Random;
+
+/**
+ * Times the operations of a {@link KDTree} with and without its hash
+ * index (see {@link KDTree#setHashIndex}) and reports the heap each
+ * tree retains.  Lookups, updates, and removals use copies of mapped
+ * points, in random order, rather than the keys themselves.
+ */
+public final class HashIndexBenchmark {
+  static final int SIZE    = 1 << 18;
+  static final int LOOKUPS = 1 << 18;
+  static final long SEED   = 0x5EED;
+
+  static final String[] OPERATIONS = {
+    "insert", "get", "update (put)", "remove half"
+  };
+
+  private HashIndexBenchmark() { }
+
+  private static KDTree<Integer, GenericPoint<Integer>, Integer> __tree;
+
+  static KDTree<Integer, GenericPoint<Integer>, Integer>
+    build(GenericPoint<Integer>[] points, boolean indexed)
+  {
+    KDTree<Integer, GenericPoint<Integer>, Integer> tree =
+      new KDTree<Integer, GenericPoint<Integer>, Integer>(2);
+
+    tree.setHashIndex(indexed);
+
+    for(int i = 0; i < points.length; ++i)
+      tree.put(points[i], i);
+
+    return tree;
+  }
+
+  // Returns the median times of the operations in milliseconds,
+  // followed by the retained heap in bytes.
+  static double[] benchmark(final GenericPoint<Integer>[] points,
+                            final GenericPoint<Integer>[] lookups,
+                            final boolean indexed)
+  {
+    double[] result = new double[OPERATIONS.length + 1];
+
+    __tree = null;
+    long before = Benchmark.usedMemory();
+    __tree = build(points, indexed);
+    result[OPERATIONS.length] = Benchmark.usedMemory() - before;
+
+    result[0] = new Benchmark() {
+        void prepare() {
+          __tree = null;
+        }
+
+        void run() {
+          __tree = build(points, indexed);
+          sink+=__tree.size();
+        }
+      }.median();
+
+    result[1] = new Benchmark() {
+        void run() {
+          long sum = 0;
+          for(GenericPoint<Integer> point : lookups)
+            sum+=__tree.get(point);
+          sink+=sum;
+        }
+      }.median();
+
+    result[2] = new Benchmark() {
+        void run() {
+          for(int i = 0; i < lookups.length; ++i)
+            __tree.put(lookups[i], i);
+          sink+=__tree.size();
+        }
+      }.median();
+
+    result[3] = new Benchmark() {
+        void prepare() {
+          __tree = null;
+          __tree = build(points, indexed);
+        }
+
+        void run() {
+          for(int i = 0; i < points.length / 2; ++i)
+            __tree.remove(lookups[i]);
+          sink+=__tree.size();
+        }
+      }.median();
+
+    __tree = null;
+
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static void main(String[] args) {
+    Random random = new Random(SEED);
+    GenericPoint<Integer>[] points = new GenericPoint[SIZE];
+    GenericPoint<Integer>[] lookups = new GenericPoint[LOOKUPS];
+    java.util.HashSet<GenericPoint<Integer>> distinct =
+      new java.util.HashSet<GenericPoint<Integer>>();
+
+    while(distinct.size() < SIZE)
+      distinct.add(new GenericPoint<Integer>(random.nextInt(),
+                                             random.nextInt()));
+    distinct.toArray(points);
+
+    // A permutation of the points, so the first half of the lookups
+    // are distinct and the removals remove half the tree.
+    for(int i = 0; i < SIZE; ++i) {
+      int j = random.nextInt(i + 1);
+      lookups[i] = lookups[j];
+      lookups[j] = new GenericPoint<Integer>(points[i].getCoord(0),
+                                             points[i].getCoord(1));
+    }
+
+    double[] plain = benchmark(points, lookups, false);
+    double[] indexed = benchmark(points, lookups, true);
+
+    System.out.printf("%d points, %d lookups, median ms%n", SIZE, LOOKUPS);
+    System.out.printf("%-14s %10s %10s %8s%n", "operation", "no index",
+                      "index", "ratio");
+
+    for(int i = 0; i < OPERATIONS.length; ++i)
+      System.out.printf("%-14s %10.1f %10.1f %7.2fx%n", OPERATIONS[i],
+                        plain[i], indexed[i], plain[i] / indexed[i]);
+
+    System.out.printf("%-14s %8.1f MB %7.1f MB%n", "retained heap",
+                      plain[OPERATIONS.length] / (1 << 20),
+                      indexed[OPERATIONS.length] / (1 << 20));
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Times {@link MortonIndex} against {@link KDTree} on uniformly
+ * distributed and on clustered two-dimensional points, and reports
+ * the heap each structure retains.  Both structures are bulk loaded
+ * with <code>putAll</code>.  Range queries are small squares and
+ * nearest neighbors queries lie near points of the data, so on
+ * clustered data both fall inside the clusters rather than in the
+ * empty space between them.
+ */
+public final class MortonIndexBenchmark {
+  static final int SIZE     = 1 << 19;
+  static final int QUERIES  = 1 << 14;
+  static final int CLUSTERS = 64;
+  static final int NEIGHBORS = 10;
+  // Coordinates lie in [-SPAN, SPAN).
+  static final int SPAN     = 1 << 29;
+  static final long SEED    = 0x5EED;
+
+  static final String[] OPERATIONS = {
+    "load", "ranges", NEIGHBORS + "-NN", "get"
+  };
+
+  private MortonIndexBenchmark() { }
+
+  // The points to load, and the KDTree and MortonIndex being timed.
+  private static Map<GenericPoint<Integer>, Integer> __data;
+  private static Map<GenericPoint<Integer>, Integer>[] __maps;
+
+  static Map<GenericPoint<Integer>, Integer> build(boolean morton) {
+    Map<GenericPoint<Integer>, Integer> map;
+
+    if(morton)
+      map = new MortonIndex<Integer, GenericPoint<Integer>, Integer>(2);
+    else
+      map = new KDTree<Integer, GenericPoint<Integer>, Integer>(2);
+
+    map.putAll(__data);
+
+    return map;
+  }
+
+  static int clamp(double coord) {
+    return (int)Math.max(-SPAN, Math.min(SPAN - 1, Math.floor(coord)));
+  }
+
+  static GenericPoint<Integer> point(double x, double y) {
+    return new GenericPoint<Integer>(clamp(x), clamp(y));
+  }
+
+  static Benchmark load(final int m) {
+    return new Benchmark() {
+        void prepare() {
+          __maps[m] = null;
+        }
+
+        void run() {
+          __maps[m] = build(m == 1);
+          sink+=__maps[m].size();
+        }
+      };
+  }
+
+  static Benchmark ranges(final int m, final GenericPoint<Integer>[] lower,
+                          final GenericPoint<Integer>[] upper)
+  {
+    return new Benchmark() {
+        void run() {
+          RangeSearchTree<Integer, GenericPoint<Integer>, Integer> tree =
+            (RangeSearchTree<Integer, GenericPoint<Integer>, Integer>)
+            __maps[m];
+          int count = 0;
+
+          for(int q = 0; q < lower.length; ++q) {
+            Iterator<Map.Entry<GenericPoint<Integer>, Integer>> it =
+              tree.iterator(lower[q], upper[q]);
+
+            while(it.hasNext()) {
+              it.next();
+              ++count;
+            }
+          }
+
+          sink+=count;
+        }
+      };
+  }
+
+  static Benchmark neighbors(final int m,
+                             final GenericPoint<Integer>[] queries)
+  {
+    final NearestNeighbors<Integer, GenericPoint<Integer>, Integer> nn =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, Integer>();
+
+    return new Benchmark() {
+        void run() {
+          double sum = 0;
+
+          for(GenericPoint<Integer> query : queries) {
+            NearestNeighbors.Entry<Integer, GenericPoint<Integer>, Integer>[]
+              neighbors;
+
+            if(m == 1)
+              neighbors =
+                nn.get((MortonIndex<Integer, GenericPoint<Integer>, Integer>)
+                       __maps[m], query, NEIGHBORS);
+            else
+              neighbors =
+                nn.get((KDTree<Integer, GenericPoint<Integer>, Integer>)
+                       __maps[m], query, NEIGHBORS);
+
+            sum+=neighbors[neighbors.length - 1].getDistance2();
+          }
+
+          sink+=sum;
+        }
+      };
+  }
+
+  static Benchmark gets(final int m, final GenericPoint<Integer>[] lookups) {
+    return new Benchmark() {
+        void run() {
+          long sum = 0;
+          for(GenericPoint<Integer> point : lookups)
+            sum+=__maps[m].get(point);
+          sink+=sum;
+        }
+      };
+  }
+
+  // Returns the number of points found by the range queries.
+  static int count(GenericPoint<Integer>[] lower,
+                   GenericPoint<Integer>[] upper)
+  {
+    int count = 0;
+
+    for(int q = 0; q < lower.length; ++q) {
+      Iterator<Map.Entry<GenericPoint<Integer>, Integer>> it =
+        ((RangeSearchTree<Integer, GenericPoint<Integer>, Integer>)__maps[0])
+        .iterator(lower[q], upper[q]);
+
+      while(it.hasNext()) {
+        it.next();
+        ++count;
+      }
+    }
+
+    return count;
+  }
+
+  @SuppressWarnings("unchecked")
+  static void benchmark(String name, Random random,
+                        GenericPoint<Integer>[] points, double side,
+                        double jitter)
+  {
+    GenericPoint<Integer>[] lower = new GenericPoint[QUERIES];
+    GenericPoint<Integer>[] upper = new GenericPoint[QUERIES];
+    GenericPoint<Integer>[] queries = new GenericPoint[QUERIES];
+    GenericPoint<Integer>[] lookups = new GenericPoint[QUERIES];
+
+    __data = new HashMap<GenericPoint<Integer>, Integer>();
+
+    for(int i = 0; i < points.length; ++i)
+      __data.put(points[i], i);
+
+    // Ranges and neighbors queries are centered near random points of
+    // the data, and lookups use copies of random points.
+    for(int q = 0; q < QUERIES; ++q) {
+      GenericPoint<Integer> p = points[random.nextInt(points.length)];
+      double x = p.getCoord(0) + (random.nextDouble() - 0.5)*jitter;
+      double y = p.getCoord(1) + (random.nextDouble() - 0.5)*jitter;
+
+      lower[q] = point(x - side/2, y - side/2);
+      upper[q] = point(x + side/2, y + side/2);
+
+      p = points[random.nextInt(points.length)];
+      queries[q] = point(p.getCoord(0) + (random.nextDouble() - 0.5)*jitter,
+                         p.getCoord(1) + (random.nextDouble() - 0.5)*jitter);
+
+      p = points[random.nextInt(points.length)];
+      lookups[q] = new GenericPoint<Integer>(p.getCoord(0), p.getCoord(1));
+    }
+
+    // Each structure is measured alone for its heap, and the rounds of
+    // the two structures alternate so that they share any disturbance.
+    double[][] times = new double[OPERATIONS.length][];
+    long[] heap = new long[2];
+
+    __maps = new Map[2];
+
+    for(int m = 0; m < 2; ++m) {
+      long before = Benchmark.usedMemory();
+      __maps[m] = build(m == 1);
+      heap[m] = Benchmark.usedMemory() - before;
+    }
+
+    times[1] = Benchmark.medians(ranges(0, lower, upper),
+                                 ranges(1, lower, upper));
+    times[2] = Benchmark.medians(neighbors(0, queries), neighbors(1, queries));
+    times[3] = Benchmark.medians(gets(0, lookups), gets(1, lookups));
+    int found = count(lower, upper);
+    times[0] = Benchmark.medians(load(0), load(1));
+
+    __maps = null;
+    __data = null;
+
+    System.out.printf("%s: %d points, %d queries, %.1f points per range, " +
+                      "median ms%n", name, points.length, QUERIES,
+                      (double)found / QUERIES);
+    System.out.printf("%-14s %10s %11s %8s%n", "operation", "KDTree",
+                      "MortonIndex", "ratio");
+
+    for(int i = 0; i < OPERATIONS.length; ++i)
+      System.out.printf("%-14s %10.1f %11.1f %7.2fx%n", OPERATIONS[i],
+                        times[i][0], times[i][1], times[i][0] / times[i][1]);
+
+    System.out.printf("%-14s %7.1f MB %8.1f MB%n%n", "retained heap",
+                      heap[0] / (double)(1 << 20),
+                      heap[1] / (double)(1 << 20));
+  }
+
+  @SuppressWarnings("unchecked")
+  public static void main(String[] args) {
+    Random random = new Random(SEED);
+    java.util.HashSet<GenericPoint<Integer>> distinct =
+      new java.util.HashSet<GenericPoint<Integer>>();
+    GenericPoint<Integer>[] points = new GenericPoint[SIZE];
+    // Squares expected to hold about 64 uniform points.
+    double side = 2.0*SPAN*Math.sqrt(64.0 / SIZE);
+
+    while(distinct.size() < SIZE)
+      distinct.add(new GenericPoint<Integer>(random.nextInt(2*SPAN) - SPAN,
+                                             random.nextInt(2*SPAN) - SPAN));
+    distinct.toArray(points);
+    benchmark("uniform", random, points, side, side);
+
+    // Gaussian clusters whose standard deviation is a thousandth of
+    // the span, with centers spread uniformly.
+    double sigma = SPAN / 1000.0;
+    double[] centers = new double[2*CLUSTERS];
+
+    for(int i = 0; i < centers.length; ++i)
+      centers[i] = (random.nextDouble()*1.6 - 0.8)*SPAN;
+
+    distinct.clear();
+
+    while(distinct.size() < SIZE) {
+      int c = random.nextInt(CLUSTERS);
+      distinct.add(point(centers[2*c] + random.nextGaussian()*sigma,
+                         centers[2*c + 1] + random.nextGaussian()*sigma));
+    }
+
+    distinct.toArray(points);
+    benchmark("clustered", random, points, sigma / 8, sigma / 8);
+  }
+}
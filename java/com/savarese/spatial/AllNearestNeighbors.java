@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * AllNearestNeighbors finds the k-nearest neighbors of every point in a
+ * {@link KDTree} instance at once, using euclidean distances.  Rather
+ * than performing an independent search for each point, it traverses
+ * the tree against itself, pruning pairs of subtrees by the distance
+ * between their bounding boxes, so that nearby points share the work
+ * of the search.  The search can be divided among the threads of an
+ * ExecutorService.
+ */
+public class AllNearestNeighbors<Coord extends Number & Comparable<? super Coord>,
+                                 P extends Point<Coord>, V>
+{
+  private ExecutorService __executor;
+
+  /**
+   * Constructs an AllNearestNeighbors instance that runs searches on
+   * the given executor.
+   *
+   * @param executor The executor on which to run searches, or null to
+   *                 run them in the calling thread.
+   */
+  public AllNearestNeighbors(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Constructs an AllNearestNeighbors instance that runs searches in
+   * the calling thread.
+   */
+  public AllNearestNeighbors() {
+    this(null);
+  }
+
+  /**
+   * Sets the executor on which to run searches.
+   *
+   * @param executor The executor on which to run searches, or null to
+   *                 run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Finds the k-nearest neighbors of every point within a KDTree
+   * instance.  A point is never reported as its own neighbor, but
+   * other mappings at the same location are.
+   *
+   * @param tree The KDTree to search.
+   * @param numNeighbors The number of nearest neighbors to find for each
+   *        point.  Non-positive values result in no neighbors being found.
+   * @return The k-nearest neighbors graph of the points in the tree.
+   */
+  public NeighborGraph<Coord,P,V> get(KDTree<Coord,P,V> tree,
+                                      int numNeighbors)
+  {
+    PackedKDTree<Coord,P,V> packed = PackedKDTree.get(tree);
+    DualTreeNeighbors<Coord,P> search =
+      new DualTreeNeighbors<Coord,P>(packed, packed, numNeighbors, true);
+
+    search.run(__executor);
+
+    return new NeighborGraph<Coord,P,V>(search, packed._entries);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+/**
+ * A Ball is the {@link Region} of points within a given euclidean
+ * distance of a center point.  Its box tests are exact.
+ */
+public class Ball<Coord extends Number & Comparable<? super Coord>,
+                  P extends Point<Coord>>
+  extends NumericRegion<Coord, P>
+{
+  private double[] __center;
+  private double __radius, __radius2;
+
+  /**
+   * Creates a ball with the given center and radius.
+   *
+   * @param center The center of the ball.
+   * @param radius The radius of the ball.  Must not be negative.
+   */
+  public Ball(Point<Coord> center, double radius) {
+    assert(radius >= 0);
+    __center  = CoordinateBlock.toArray(center);
+    __radius  = radius;
+    __radius2 = radius*radius;
+  }
+
+  /**
+   * Returns the radius of the ball.
+   *
+   * @return The radius of the ball.
+   */
+  public double getRadius() {
+    return __radius;
+  }
+
+  public boolean contains(P point) {
+    double d2 = 0;
+
+    for(int i = 0; i < __center.length; ++i) {
+      double diff = point.getCoord(i).doubleValue() - __center[i];
+      d2+=(diff*diff);
+
+      if(d2 > __radius2)
+        return false;
+    }
+
+    return true;
+  }
+
+  public boolean intersects(Point<Coord> lower, Point<Coord> upper) {
+    double d2 = 0;
+
+    for(int i = 0; i < __center.length; ++i) {
+      double c = __center[i], diff;
+
+      if(c < (diff = lowerBound(lower, i)))
+        diff-=c;
+      else if(c > (diff = upperBound(upper, i)))
+        diff = c - diff;
+      else
+        continue;
+
+      d2+=(diff*diff);
+
+      if(d2 > __radius2)
+        return false;
+    }
+
+    return true;
+  }
+
+  public boolean contains(Point<Coord> lower, Point<Coord> upper) {
+    double d2 = 0;
+
+    for(int i = 0; i < __center.length; ++i) {
+      double c = __center[i];
+      double diff =
+        Math.max(c - lowerBound(lower, i), upperBound(upper, i) - c);
+
+      d2+=(diff*diff);
+
+      if(d2 > __radius2)
+        return false;
+    }
+
+    return true;
+  }
+}
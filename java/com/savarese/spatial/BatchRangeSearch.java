@@ -0,0 +1,240 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * BatchRangeSearch runs many rectangular range queries against a
+ * {@link KDTree} instance, traversing the tree once for each block of
+ * up to 1024 consecutive queries.  Each subtree is visited once for the
+ * whole block, together with the queries whose rectangles still
+ * intersect it; the queries that cannot reach a child are dropped at
+ * each split.  Queries that overlap or lie near one another therefore
+ * share most of their traversal, and the search allocates nothing per
+ * node visited, unlike
+ * {@link KDTree#iterator(Point, Point)}.  The mappings found are
+ * passed to a {@link RangeCallback} together with the index of the
+ * query, in the order in which {@link KDTree#iterator(Point, Point)}
+ * would return them for that query.  The batch can be divided among
+ * the threads of an ExecutorService, each thread traversing the tree
+ * for a part of the queries, in which case the callback must be
+ * thread-safe.
+ */
+public class BatchRangeSearch<Coord extends Comparable<? super Coord>,
+                              P extends Point<Coord>, V>
+{
+  // Number of parts into which a batch is divided when it is searched
+  // on an executor.  Queries in different parts never share a
+  // traversal, so there are few parts.
+  static final int TASKS = 16;
+
+  // Largest number of queries that share one traversal.  The bounds of
+  // all the active queries are read at every node, so larger blocks no
+  // longer fit in cache and cost more than the traversal they share.
+  static final int BLOCK = 1024;
+
+  private ExecutorService __executor;
+
+  private final class Search implements Runnable {
+    KDTree<Coord,P,V> _tree;
+    Object[] _lower, _upper;
+    RangeCallback<Coord,P,V> _callback;
+    int _begin, _end;
+    // Subtrees left to visit and the number of queries still active in
+    // each.  The indices of those queries are stored in _queries, one
+    // subtree after another in stack order, so that the queries of the
+    // subtree on top of the stack come last.
+    KDTree<Coord,P,V>.KDNode[] _nodes;
+    int[] _counts, _queries;
+
+    Search(KDTree<Coord,P,V> tree, Object[] lower, Object[] upper,
+           RangeCallback<Coord,P,V> callback, int begin, int end)
+    {
+      _tree     = tree;
+      _lower    = lower;
+      _upper    = upper;
+      _callback = callback;
+      _begin    = begin;
+      _end      = end;
+      _nodes    = (KDTree<Coord,P,V>.KDNode[])new KDTree.KDNode[64];
+      _counts   = new int[64];
+      _queries  = new int[4*Math.min(BLOCK, Math.max(16, end - begin))];
+    }
+
+    void push(KDTree<Coord,P,V>.KDNode node, int count, int top) {
+      if(top == _nodes.length) {
+        KDTree<Coord,P,V>.KDNode[] nodes =
+          (KDTree<Coord,P,V>.KDNode[])new KDTree.KDNode[2*top];
+        int[] counts = new int[2*top];
+
+        System.arraycopy(_nodes, 0, nodes, 0, top);
+        System.arraycopy(_counts, 0, counts, 0, top);
+        _nodes  = nodes;
+        _counts = counts;
+      }
+
+      _nodes[top]  = node;
+      _counts[top] = count;
+    }
+
+    // Visits the nodes in the same order as KDTree.MapEntryIterator,
+    // reporting each node to its active queries before dividing them
+    // between the node's children.
+    public void run() {
+      for(int begin = _begin; begin < _end; begin+=BLOCK)
+        search(begin, Math.min(_end, begin + BLOCK));
+    }
+
+    void search(int begin, int last) {
+      int top = 0, size = 0;
+
+      if(_tree._root == null || begin == last)
+        return;
+
+      for(int q = begin; q < last; ++q)
+        _queries[size++] = q;
+
+      push(_tree._root, size, top++);
+
+      while(top > 0) {
+        KDTree<Coord,P,V>.KDNode node = _nodes[--top];
+        final int count = _counts[top], base = size - count, end = size;
+        final int discriminator = node._discriminator;
+        final Coord split = node._point.getCoord(discriminator);
+        int[] queries = _queries;
+        int high, low;
+
+        _nodes[top] = null;
+
+        for(int i = base; i < end; ++i) {
+          int q = queries[i];
+
+          if(_tree.isInRange(node._point, (P)_lower[q], (P)_upper[q]))
+            _callback.found(q, node);
+        }
+
+        if(end + 2*count > queries.length) {
+          queries = new int[Math.max(2*queries.length, end + 2*count)];
+          System.arraycopy(_queries, 0, queries, 0, end);
+          _queries = queries;
+        }
+
+        // Append the queries reaching each child after those of the
+        // node, and then move them down in their place.
+        if(node._high != null) {
+          for(int i = base; i < end; ++i) {
+            P upper = (P)_upper[queries[i]];
+
+            if(upper == null ||
+               split.compareTo(upper.getCoord(discriminator)) <= 0)
+              queries[size++] = queries[i];
+          }
+        }
+
+        high = size - end;
+
+        if(node._low != null) {
+          for(int i = base; i < end; ++i) {
+            P lower = (P)_lower[queries[i]];
+
+            if(lower == null ||
+               split.compareTo(lower.getCoord(discriminator)) > 0)
+              queries[size++] = queries[i];
+          }
+        }
+
+        low = size - end - high;
+        System.arraycopy(queries, end, queries, base, high + low);
+        size = base + high + low;
+
+        if(high > 0)
+          push(node._high, high, top++);
+        if(low > 0)
+          push(node._low, low, top++);
+      }
+    }
+  }
+
+  /**
+   * Constructs a BatchRangeSearch instance that runs searches on the
+   * given executor.
+   *
+   * @param executor The executor on which to run searches, or null to
+   *                 run them in the calling thread.
+   */
+  public BatchRangeSearch(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Constructs a BatchRangeSearch instance that runs searches in the
+   * calling thread.
+   */
+  public BatchRangeSearch() {
+    this(null);
+  }
+
+  /**
+   * Sets the executor on which to run searches.
+   *
+   * @param executor The executor on which to run searches, or null to
+   *                 run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Finds the mappings contained in each of a list of rectangles.
+   * Query <code>i</code> is the rectangle whose lower left-hand and
+   * upper right-hand corners are <code>lower.get(i)</code> and
+   * <code>upper.get(i)</code>, bounds included.  As with
+   * {@link KDTree#iterator(Point, Point)}, a null corner leaves the
+   * rectangle unbounded in that direction.
+   *
+   * @param tree The tree to search.
+   * @param lower The lower left-hand corners of the rectangles.
+   * @param upper The upper right-hand corners of the rectangles.
+   * @param callback The callback receiving the mappings found.
+   * @exception IllegalArgumentException If the lists differ in size.
+   */
+  public void search(KDTree<Coord,P,V> tree, List<? extends P> lower,
+                     List<? extends P> upper,
+                     RangeCallback<Coord,P,V> callback)
+    throws IllegalArgumentException
+  {
+    if(lower.size() != upper.size())
+      throw new IllegalArgumentException("Corner lists differ in size.");
+
+    final int count = lower.size();
+    Object[] lowers = lower.toArray(), uppers = upper.toArray();
+    List<Search> tasks = new ArrayList<Search>();
+    int step = count;
+
+    if(__executor != null)
+      step = Math.max(1, (count + TASKS - 1) / TASKS);
+
+    for(int begin = 0; begin < count; begin+=step)
+      tasks.add(new Search(tree, lowers, uppers, callback, begin,
+                           Math.min(count, begin + step)));
+
+    Tasks.run(__executor, tasks);
+  }
+}
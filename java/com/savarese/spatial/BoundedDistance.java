@@ -0,0 +1,46 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+/**
+ * A BoundedDistance is a {@link Distance} that can abandon the
+ * computation of a squared distance once it is known to exceed a
+ * bound.  {@link NearestNeighbors} passes the distance of the farthest
+ * candidate found so far as the bound when its distance function
+ * implements this interface, and computes exact distances otherwise.
+ * The method is kept out of Distance so that existing implementations
+ * of Distance remain compatible.
+ */
+public interface BoundedDistance<Coord extends Number & Comparable<? super Coord>,
+                                 P extends Point<Coord>>
+  extends Distance<Coord, P>
+{
+  /**
+   * Returns the square of the distance between two points, allowing
+   * the computation to be abandoned once it is known to exceed a
+   * bound.  If the square of the distance is less than or equal to
+   * the bound, the exact value is returned.  Otherwise, the returned
+   * value is only guaranteed to be greater than the bound.
+   *
+   * @param from The first end point.
+   * @param to The second end point.
+   * @param bound The value beyond which the exact result is not needed.
+   * @return The square of the distance between from and to, or a
+   * value greater than bound if the square of the distance exceeds bound.
+   */
+  public double distance2(P from, P to, double bound);
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ChainIterator returns the elements of several iterators, one
+ * iterator after the other.  It is used by the indices that are made
+ * of several trees.
+ */
+final class ChainIterator<E> implements Iterator<E> {
+  private Iterator<Iterator<E>> __iterators;
+  private Iterator<E> __current;
+
+  /**
+   * Creates an iterator over the elements of a list of iterators.
+   *
+   * @param iterators The iterators whose elements should be returned.
+   */
+  ChainIterator(List<Iterator<E>> iterators) {
+    __iterators = iterators.iterator();
+    __current   = Collections.<E>emptyList().iterator();
+  }
+
+  public boolean hasNext() {
+    while(!__current.hasNext() && __iterators.hasNext())
+      __current = __iterators.next();
+    return __current.hasNext();
+  }
+
+  public E next() {
+    if(!hasNext())
+      throw new NoSuchElementException();
+    return __current.next();
+  }
+
+  public void remove() throws UnsupportedOperationException {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>ClosestPairs finds the closest pair of points in a {@link KDTree}
+ * instance, or every pair of points closer than a given distance,
+ * using euclidean distances.  The tree is traversed against itself,
+ * visiting each unordered pair of subtrees once, so that every pair of
+ * points is considered at most once and pairs of subtrees whose
+ * bounding boxes are too far apart are skipped as a whole.</p>
+ *
+ * <p>The search can be divided among the threads of an
+ * ExecutorService.  The subtrees near the root are then searched
+ * independently, first each against itself and then against each
+ * other, with the closest distance found so far shared among all the
+ * threads.  A {@link PairCallback} passed to a parallel search must be
+ * thread-safe.</p>
+ */
+public class ClosestPairs<Coord extends Number & Comparable<? super Coord>,
+                          P extends Point<Coord>, V>
+{
+  /**
+   * A Pair is a pair of point-value mappings and the distance between
+   * their points.
+   */
+  public static final class Pair<Coord extends Number & Comparable<? super Coord>,
+                                 P extends Point<Coord>, V>
+  {
+    private Map.Entry<P,V> __first, __second;
+    private double __distance2;
+
+    Pair(Map.Entry<P,V> first, Map.Entry<P,V> second, double distance2) {
+      __first     = first;
+      __second    = second;
+      __distance2 = distance2;
+    }
+
+    /**
+     * Returns the first mapping of the pair.
+     *
+     * @return The first mapping of the pair.
+     */
+    public Map.Entry<P,V> getFirst() {
+      return __first;
+    }
+
+    /**
+     * Returns the second mapping of the pair.
+     *
+     * @return The second mapping of the pair.
+     */
+    public Map.Entry<P,V> getSecond() {
+      return __second;
+    }
+
+    /**
+     * Returns the square of the distance between the points of the pair.
+     *
+     * @return The square of the distance between the points of the pair.
+     */
+    public double getDistance2() {
+      return __distance2;
+    }
+
+    /**
+     * Returns the distance between the points of the pair.
+     *
+     * @return The distance between the points of the pair.
+     */
+    public double getDistance() {
+      return StrictMath.sqrt(__distance2);
+    }
+  }
+
+  private ExecutorService __executor;
+  private PackedKDTree<Coord,P,V> __tree;
+  // Set when reporting every pair within __distance2; null when finding
+  // the closest pair.
+  private PairCallback<Coord,P,V,V> __callback;
+  private double __distance2;
+  // Bits of the square of the closest distance found so far.  The bits
+  // of non-negative doubles are ordered like the doubles themselves.
+  private AtomicLong __bound;
+
+  private final class Search implements Runnable {
+    int _a, _b, _first, _second;
+    double _best;
+    double[] _point, _distances;
+
+    // Searches the pairs within node a if a == b, else the pairs
+    // between a and b.
+    Search(int a, int b) {
+      _a         = a;
+      _b         = b;
+      _first     = _second = -1;
+      _best      = Double.POSITIVE_INFINITY;
+      _point     = new double[__tree._dimensions];
+      _distances = new double[__tree._maxLeafSize];
+    }
+
+    public void run() {
+      if(_a == _b)
+        self(_a);
+      else
+        cross(_a, _b);
+    }
+
+    void self(int node) {
+      final PackedKDTree<Coord,P,V> tree = __tree;
+
+      if(tree.isLeaf(node)) {
+        final int end = tree._end[node];
+
+        for(int i = tree._begin[node]; i < end - 1; ++i)
+          compare(i, i + 1, end, false);
+      } else {
+        final int low = tree._low[node], high = tree._high[node];
+
+        self(low);
+        self(high);
+        cross(low, high);
+      }
+    }
+
+    void cross(int a, int b) {
+      final PackedKDTree<Coord,P,V> tree = __tree;
+
+      if(__prune(tree.minDistance2(a, tree, b)))
+        return;
+
+      final boolean inside =
+        (__callback != null && tree.maxDistance2(a, tree, b) <= __distance2);
+      final boolean aleaf = tree.isLeaf(a), bleaf = tree.isLeaf(b);
+
+      if(inside || (aleaf && bleaf)) {
+        for(int i = tree._begin[a]; i < tree._end[a]; ++i)
+          compare(i, tree._begin[b], tree._end[b], inside);
+      } else if(bleaf || (!aleaf && tree.count(a) >= tree.count(b))) {
+        int near = tree._low[a], far = tree._high[a];
+
+        if(tree.minDistance2(far, tree, b) < tree.minDistance2(near, tree, b)) {
+          near = far;
+          far  = tree._low[a];
+        }
+
+        cross(near, b);
+        cross(far, b);
+      } else {
+        int near = tree._low[b], far = tree._high[b];
+
+        if(tree.minDistance2(a, tree, far) < tree.minDistance2(a, tree, near)) {
+          near = far;
+          far  = tree._low[b];
+        }
+
+        cross(a, near);
+        cross(a, far);
+      }
+    }
+
+    // Compares point i to the points in [begin, end).
+    void compare(int i, int begin, int end, boolean inside) {
+      final PackedKDTree<Coord,P,V> tree = __tree;
+      final int chunk = _distances.length;
+
+      for(int d = 0; d < _point.length; ++d)
+        _point[d] = tree._coords.getCoord(i, d);
+
+      for(int j = begin; j < end; j+=chunk) {
+        final int last = Math.min(end, j + chunk);
+
+        tree._coords.distance2(_point, j, last, _distances);
+
+        if(__callback != null) {
+          for(int m = j; m < last; ++m) {
+            double d2 = _distances[m - j];
+
+            if(inside || d2 <= __distance2)
+              __callback.pair(tree._entries[i], tree._entries[m], d2);
+          }
+        } else {
+          double best = Double.longBitsToDouble(__bound.get());
+
+          for(int m = j; m < last; ++m) {
+            double d2 = _distances[m - j];
+
+            if(d2 < best) {
+              best    = d2;
+              _best   = d2;
+              _first  = i;
+              _second = m;
+              __lower(d2);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private boolean __prune(double minDistance2) {
+    if(__callback != null)
+      return (minDistance2 > __distance2);
+    return (minDistance2 >= Double.longBitsToDouble(__bound.get()));
+  }
+
+  private void __lower(double distance2) {
+    final long bits = Double.doubleToLongBits(distance2);
+
+    while(true) {
+      long current = __bound.get();
+
+      if(current <= bits || __bound.compareAndSet(current, bits))
+        return;
+    }
+  }
+
+  // Divides the pairs within a node into tasks for subtrees no larger
+  // than maxCount, and collects the pairs of subtrees still to be
+  // searched against each other.
+  private void __splitSelf(int node, int maxCount,
+                           List<Search> tasks, List<int[]> crosses)
+  {
+    final PackedKDTree<Coord,P,V> tree = __tree;
+
+    if(tree.isLeaf(node) || tree.count(node) <= maxCount)
+      tasks.add(new Search(node, node));
+    else {
+      __splitSelf(tree._low[node], maxCount, tasks, crosses);
+      __splitSelf(tree._high[node], maxCount, tasks, crosses);
+      crosses.add(new int[] { tree._low[node], tree._high[node] });
+    }
+  }
+
+  private void __splitCross(int a, int b, int maxCount, List<Search> tasks) {
+    final PackedKDTree<Coord,P,V> tree = __tree;
+
+    if(__prune(tree.minDistance2(a, tree, b)))
+      return;
+
+    final boolean aleaf = tree.isLeaf(a), bleaf = tree.isLeaf(b);
+
+    if((aleaf && bleaf) || tree.count(a) + tree.count(b) <= maxCount)
+      tasks.add(new Search(a, b));
+    else if(bleaf || (!aleaf && tree.count(a) >= tree.count(b))) {
+      __splitCross(tree._low[a], b, maxCount, tasks);
+      __splitCross(tree._high[a], b, maxCount, tasks);
+    } else {
+      __splitCross(a, tree._low[b], maxCount, tasks);
+      __splitCross(a, tree._high[b], maxCount, tasks);
+    }
+  }
+
+  private List<Search> __search(KDTree<Coord,P,V> tree) {
+    List<Search> tasks = new ArrayList<Search>();
+
+    __tree = PackedKDTree.get(tree);
+    __bound = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+
+    if(__tree._size < 2)
+      return tasks;
+
+    if(__executor == null) {
+      tasks.add(new Search(0, 0));
+      Tasks.run(null, tasks);
+    } else {
+      final int maxCount =
+        Math.max(1, __tree._size / DualTreeNeighbors.TASKS);
+      List<int[]> crosses = new ArrayList<int[]>();
+      List<Search> crossTasks = new ArrayList<Search>();
+
+      __splitSelf(0, maxCount, tasks, crosses);
+      Tasks.run(__executor, tasks);
+
+      // The pairs within subtrees usually yield a tight enough bound to
+      // discard most pairs of subtrees before they are searched.
+      for(int[] cross : crosses)
+        __splitCross(cross[0], cross[1], 2*maxCount, crossTasks);
+
+      Tasks.run(__executor, crossTasks);
+      tasks.addAll(crossTasks);
+    }
+
+    return tasks;
+  }
+
+  /**
+   * Constructs a ClosestPairs instance that runs searches on the given
+   * executor.
+   *
+   * @param executor The executor on which to run searches, or null to
+   *                 run them in the calling thread.
+   */
+  public ClosestPairs(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Constructs a ClosestPairs instance that runs searches in the
+   * calling thread.
+   */
+  public ClosestPairs() {
+    this(null);
+  }
+
+  /**
+   * Sets the executor on which to run searches.
+   *
+   * @param executor The executor on which to run searches, or null to
+   *                 run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Finds the closest pair of points within a KDTree instance.  If
+   * several pairs are equally close, any one of them may be returned.
+   *
+   * @param tree The KDTree to search.
+   * @return The closest pair of points, or null if the tree contains
+   *         fewer than two points.
+   */
+  public Pair<Coord,P,V> closestPair(KDTree<Coord,P,V> tree) {
+    Search closest = null;
+
+    try {
+      __callback = null;
+
+      for(Search search : __search(tree))
+        if(search._first >= 0 && (closest == null ||
+                                  search._best < closest._best))
+          closest = search;
+
+      if(closest == null)
+        return null;
+
+      return new Pair<Coord,P,V>(__tree._entries[closest._first],
+                                 __tree._entries[closest._second],
+                                 closest._best);
+    } finally {
+      __tree  = null;
+      __bound = null;
+    }
+  }
+
+  /**
+   * Finds every pair of points within a KDTree instance that lie within
+   * a given distance of each other.  Each unordered pair is passed to
+   * the callback exactly once, in no particular order.
+   *
+   * @param tree The KDTree to search.
+   * @param distance The maximum distance between the points of a pair.
+   * @param callback The callback receiving the pairs.
+   */
+  public void pairsWithin(KDTree<Coord,P,V> tree, double distance,
+                          PairCallback<Coord,P,V,V> callback)
+  {
+    if(distance < 0)
+      return;
+
+    try {
+      __callback  = callback;
+      __distance2 = distance*distance;
+      __search(tree);
+    } finally {
+      __callback = null;
+      __tree     = null;
+      __bound    = null;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.Map;
+
+/**
+ * <p>A Clustering assigns each point of a {@link KDTree} to a cluster
+ * or marks it as noise.  The points are identified by indices from 0
+ * to {@link #size} - 1, in the order in which the tree's
+ * <code>entrySet</code>, <code>keySet</code>, and <code>values</code>
+ * iterators return them.  Clusters are numbered from 0 to
+ * {@link #getClusterCount} - 1.</p>
+ *
+ * <p>The clustering refers to the tree's mappings but is not updated
+ * when the tree is modified.</p>
+ */
+public class Clustering<Coord extends Number & Comparable<? super Coord>,
+                        P extends Point<Coord>, V>
+{
+  /** The label of points that do not belong to any cluster. */
+  public static final int NOISE = -1;
+
+  private int __clusterCount;
+  private int[] __labels;
+  private boolean[] __core;
+  private Map.Entry<P,V>[] __entries;
+
+  Clustering(int[] labels, boolean[] core, int clusterCount,
+             Map.Entry<P,V>[] entries)
+  {
+    __labels       = labels;
+    __core         = core;
+    __clusterCount = clusterCount;
+    __entries      = entries;
+  }
+
+  /**
+   * Returns the number of points in the clustering.
+   *
+   * @return The number of points in the clustering.
+   */
+  public int size() {
+    return __labels.length;
+  }
+
+  /**
+   * Returns the number of clusters.
+   *
+   * @return The number of clusters.
+   */
+  public int getClusterCount() {
+    return __clusterCount;
+  }
+
+  /**
+   * Returns the point-value mapping identified by an index.
+   *
+   * @param index The index of the point.
+   * @return The point-value mapping identified by the index.
+   */
+  public Map.Entry<P,V> getEntry(int index) {
+    return __entries[index];
+  }
+
+  /**
+   * Returns the cluster to which a point belongs.
+   *
+   * @param index The index of the point.
+   * @return The cluster to which the point belongs, or {@link #NOISE}.
+   */
+  public int getLabel(int index) {
+    return __labels[index];
+  }
+
+  /**
+   * Returns the clusters of all the points, indexed like the points.
+   * The array is not copied and should not be modified.
+   *
+   * @return The clusters of all the points.
+   */
+  public int[] getLabels() {
+    return __labels;
+  }
+
+  /**
+   * Returns true if a point is a core point of its cluster, meaning
+   * that enough points lie within the clustering distance of it.
+   *
+   * @param index The index of the point.
+   * @return True if the point is a core point, false otherwise.
+   */
+  public boolean isCore(int index) {
+    return __core[index];
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ConvexPolygon is a two-dimensional {@link ConvexPolytope} defined
+ * by its vertices.  Because the polygon also tests its own bounding
+ * box, its box intersection test is exact.
+ */
+public class ConvexPolygon<Coord extends Number & Comparable<? super Coord>,
+                           P extends Point<Coord>>
+  extends ConvexPolytope<Coord, P>
+{
+  private double __minX, __minY, __maxX, __maxY;
+
+  private static <Coord extends Number & Comparable<? super Coord>,
+                  P extends Point<Coord>>
+    List<HalfSpace<Coord, P>> __edges(List<? extends Point<Coord>> vertices)
+  {
+    final int n = vertices.size();
+    double[] x = new double[n], y = new double[n];
+    double area = 0;
+
+    assert(n >= 3);
+
+    for(int i = 0; i < n; ++i) {
+      Point<Coord> vertex = vertices.get(i);
+      x[i] = vertex.getCoord(0).doubleValue();
+      y[i] = vertex.getCoord(1).doubleValue();
+    }
+
+    for(int i = 0, j = n - 1; i < n; j = i++)
+      area+=(x[j]*y[i] - x[i]*y[j]);
+
+    // The interior lies to the left of each edge of a counterclockwise
+    // polygon.  Flip the normals if the vertices run clockwise.
+    final double sign = (area < 0 ? -1 : 1);
+    List<HalfSpace<Coord, P>> edges = new ArrayList<HalfSpace<Coord, P>>(n);
+
+    for(int i = 0, j = n - 1; i < n; j = i++) {
+      double[] normal = { sign*(y[i] - y[j]), sign*(x[j] - x[i]) };
+      edges.add(new HalfSpace<Coord, P>(normal,
+                                        normal[0]*x[j] + normal[1]*y[j]));
+    }
+
+    return edges;
+  }
+
+  /**
+   * Creates a polygon from its vertices, listed in either clockwise or
+   * counterclockwise order.
+   *
+   * @param vertices The vertices of the polygon.  There must be at
+   * least three and they must describe a convex polygon.
+   */
+  public ConvexPolygon(List<? extends Point<Coord>> vertices) {
+    super(ConvexPolygon.<Coord, P>__edges(vertices));
+
+    __minX = __minY = Double.POSITIVE_INFINITY;
+    __maxX = __maxY = Double.NEGATIVE_INFINITY;
+
+    for(Point<Coord> vertex : vertices) {
+      double x = vertex.getCoord(0).doubleValue();
+      double y = vertex.getCoord(1).doubleValue();
+
+      __minX = Math.min(__minX, x);
+      __maxX = Math.max(__maxX, x);
+      __minY = Math.min(__minY, y);
+      __maxY = Math.max(__maxY, y);
+    }
+  }
+
+  public boolean intersects(Point<Coord> lower, Point<Coord> upper) {
+    // Separating axis test: the box axes, then the polygon edges.
+    if(lowerBound(lower, 0) > __maxX || upperBound(upper, 0) < __minX ||
+       lowerBound(lower, 1) > __maxY || upperBound(upper, 1) < __minY)
+      return false;
+
+    return super.intersects(lower, upper);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ConvexPolytope is the {@link Region} formed by the intersection
+ * of a set of {@link HalfSpace} instances.  Point and box containment
+ * tests are exact.  The box intersection test is conservative: a box
+ * is reported as intersecting if it intersects every half-space, which
+ * is not always the case near the corners of the polytope.
+ */
+public class ConvexPolytope<Coord extends Number & Comparable<? super Coord>,
+                            P extends Point<Coord>>
+  extends NumericRegion<Coord, P>
+{
+  private List<HalfSpace<Coord, P>> __halfSpaces;
+
+  /**
+   * Creates the polytope formed by the intersection of the given
+   * half-spaces.
+   *
+   * @param halfSpaces The half-spaces bounding the polytope.
+   */
+  public ConvexPolytope(List<HalfSpace<Coord, P>> halfSpaces) {
+    __halfSpaces = new ArrayList<HalfSpace<Coord, P>>(halfSpaces);
+  }
+
+  /**
+   * Returns the half-spaces bounding the polytope.
+   *
+   * @return The half-spaces bounding the polytope.
+   */
+  public List<HalfSpace<Coord, P>> getHalfSpaces() {
+    return __halfSpaces;
+  }
+
+  public boolean contains(P point) {
+    for(HalfSpace<Coord, P> h : __halfSpaces) {
+      if(!h.contains(point))
+        return false;
+    }
+    return true;
+  }
+
+  public boolean intersects(Point<Coord> lower, Point<Coord> upper) {
+    for(HalfSpace<Coord, P> h : __halfSpaces) {
+      if(!h.intersects(lower, upper))
+        return false;
+    }
+    return true;
+  }
+
+  public boolean contains(Point<Coord> lower, Point<Coord> upper) {
+    for(HalfSpace<Coord, P> h : __halfSpaces) {
+      if(!h.contains(lower, upper))
+        return false;
+    }
+    return true;
+  }
+}
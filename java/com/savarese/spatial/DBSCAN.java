@@ -0,0 +1,373 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>DBSCAN implements density-based clustering of the points of a
+ * {@link KDTree} instance, using euclidean distances.  A point is a
+ * core point if at least a minimum number of points, itself included,
+ * lie within a given distance of it.  Core points within that distance
+ * of each other belong to the same cluster, and every other point within
+ * that distance of a core point joins one of the clusters of those core
+ * points.  The remaining points are noise.</p>
+ *
+ * <p>Core points are identified with radius searches that stop as soon
+ * as enough neighbors are found and that count whole subtrees lying
+ * within the search radius without visiting their points.  Subtrees
+ * small enough and dense enough that all their points are core points
+ * are identified without any searches.  The searches can be divided
+ * among the threads of an ExecutorService.  Clusters are then formed by
+ * traversing the tree against itself, linking all the core points of
+ * two subtrees at once when the subtrees lie within the clustering
+ * distance of each other.</p>
+ */
+public class DBSCAN<Coord extends Number & Comparable<? super Coord>,
+                    P extends Point<Coord>, V>
+{
+  private ExecutorService __executor;
+  private PackedKDTree<Coord,P,V> __tree;
+  private double __distance2;
+  private int __minPoints;
+  // Per point, in packed order.
+  private boolean[] __core;
+  private int[] __parent, __border;
+  // Number of core points under each node.
+  private int[] __cores;
+  private double[] __point, __distances;
+
+  private final class CoreSearch implements Runnable {
+    int _root;
+    double[] _point, _distances;
+
+    CoreSearch(int root) {
+      _root      = root;
+      _point     = new double[__tree._dimensions];
+      _distances = new double[__tree._maxLeafSize];
+    }
+
+    public void run() {
+      search(_root);
+    }
+
+    void search(int node) {
+      final PackedKDTree<Coord,P,V> tree = __tree;
+
+      if(tree.count(node) >= __minPoints &&
+         tree.maxDistance2(node, tree, node) <= __distance2)
+      {
+        for(int i = tree._begin[node]; i < tree._end[node]; ++i)
+          __core[i] = true;
+      } else if(tree.isLeaf(node)) {
+        for(int i = tree._begin[node]; i < tree._end[node]; ++i) {
+          for(int d = 0; d < _point.length; ++d)
+            _point[d] = tree._coords.getCoord(i, d);
+
+          __core[i] = (count(0, 0) >= __minPoints);
+        }
+      } else {
+        search(tree._low[node]);
+        search(tree._high[node]);
+      }
+    }
+
+    // Counts the points within the clustering distance of _point,
+    // stopping once the count reaches __minPoints.
+    int count(int node, int count) {
+      final PackedKDTree<Coord,P,V> tree = __tree;
+
+      if(tree.minDistance2(node, _point) > __distance2)
+        return count;
+
+      if(tree.maxDistance2(node, _point) <= __distance2)
+        return count + tree.count(node);
+
+      if(tree.isLeaf(node)) {
+        final int begin = tree._begin[node], end = tree._end[node];
+
+        tree._coords.distance2(_point, begin, end, _distances);
+
+        for(int i = begin; i < end; ++i)
+          if(_distances[i - begin] <= __distance2)
+            ++count;
+
+        return count;
+      }
+
+      count = count(tree._low[node], count);
+
+      if(count < __minPoints)
+        count = count(tree._high[node], count);
+
+      return count;
+    }
+  }
+
+  private int __find(int i) {
+    while(__parent[i] != i) {
+      __parent[i] = __parent[__parent[i]];
+      i = __parent[i];
+    }
+    return i;
+  }
+
+  private void __union(int i, int j) {
+    i = __find(i);
+    j = __find(j);
+
+    if(i < j)
+      __parent[j] = i;
+    else if(j < i)
+      __parent[i] = j;
+  }
+
+  // Returns a core point under a node, or -1 if there is none.
+  private int __firstCore(int node) {
+    if(__cores[node] > 0) {
+      for(int i = __tree._begin[node]; i < __tree._end[node]; ++i)
+        if(__core[i])
+          return i;
+    }
+    return -1;
+  }
+
+  // Links all the core points under a node to core point c, and assigns
+  // its unassigned non-core points to c.
+  private void __link(int node, int c) {
+    for(int i = __tree._begin[node]; i < __tree._end[node]; ++i) {
+      if(__core[i])
+        __union(c, i);
+      else if(__border[i] < 0)
+        __border[i] = c;
+    }
+  }
+
+  private void __pair(int i, int j) {
+    if(__core[i]) {
+      if(__core[j])
+        __union(i, j);
+      else if(__border[j] < 0)
+        __border[j] = i;
+    } else if(__core[j] && __border[i] < 0)
+      __border[i] = j;
+  }
+
+  private void __compare(int i, int begin, int end) {
+    final PackedKDTree<Coord,P,V> tree = __tree;
+
+    for(int d = 0; d < __point.length; ++d)
+      __point[d] = tree._coords.getCoord(i, d);
+
+    tree._coords.distance2(__point, begin, end, __distances);
+
+    for(int j = begin; j < end; ++j)
+      if(__distances[j - begin] <= __distance2)
+        __pair(i, j);
+  }
+
+  private void __self(int node) {
+    final PackedKDTree<Coord,P,V> tree = __tree;
+
+    if(__cores[node] == 0)
+      return;
+
+    if(tree.maxDistance2(node, tree, node) <= __distance2)
+      __link(node, __firstCore(node));
+    else if(tree.isLeaf(node)) {
+      final int end = tree._end[node];
+
+      for(int i = tree._begin[node]; i < end - 1; ++i)
+        __compare(i, i + 1, end);
+    } else {
+      __self(tree._low[node]);
+      __self(tree._high[node]);
+      __cross(tree._low[node], tree._high[node]);
+    }
+  }
+
+  private void __cross(int a, int b) {
+    final PackedKDTree<Coord,P,V> tree = __tree;
+
+    if((__cores[a] == 0 && __cores[b] == 0) ||
+       tree.minDistance2(a, tree, b) > __distance2)
+      return;
+
+    final boolean aleaf = tree.isLeaf(a), bleaf = tree.isLeaf(b);
+
+    if(tree.maxDistance2(a, tree, b) <= __distance2) {
+      // Every point of a lies within the clustering distance of every
+      // point of b, but not necessarily of the other points of a.
+      int acore = __firstCore(a), bcore = __firstCore(b);
+
+      if(acore >= 0)
+        __link(b, acore);
+      if(bcore >= 0)
+        __link(a, bcore);
+    } else if(aleaf && bleaf) {
+      for(int i = tree._begin[a]; i < tree._end[a]; ++i)
+        __compare(i, tree._begin[b], tree._end[b]);
+    } else if(bleaf || (!aleaf && tree.count(a) >= tree.count(b))) {
+      __cross(tree._low[a], b);
+      __cross(tree._high[a], b);
+    } else {
+      __cross(a, tree._low[b]);
+      __cross(a, tree._high[b]);
+    }
+  }
+
+  /**
+   * Constructs a DBSCAN instance that runs neighbor searches on the
+   * given executor.
+   *
+   * @param executor The executor on which to run neighbor searches, or
+   *                 null to run them in the calling thread.
+   */
+  public DBSCAN(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Constructs a DBSCAN instance that runs neighbor searches in the
+   * calling thread.
+   */
+  public DBSCAN() {
+    this(null);
+  }
+
+  /**
+   * Sets the executor on which to run neighbor searches.
+   *
+   * @param executor The executor on which to run neighbor searches, or
+   *                 null to run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Clusters the points of a KDTree instance.  A non-core point within
+   * the clustering distance of core points from several clusters is
+   * assigned to any one of them.
+   *
+   * @param tree The KDTree to cluster.
+   * @param distance The clustering distance.
+   * @param minPoints The minimum number of points, including the point
+   *        itself, that must lie within the clustering distance of a
+   *        point for it to be a core point.
+   * @return The clustering of the points of the tree.
+   */
+  public Clustering<Coord,P,V> cluster(KDTree<Coord,P,V> tree,
+                                       double distance, int minPoints)
+  {
+    final PackedKDTree<Coord,P,V> packed = PackedKDTree.get(tree);
+    final int size = packed._size;
+    int[] labels = new int[size];
+    boolean[] core = new boolean[size];
+    Map.Entry<P,V>[] entries = new Map.Entry[size];
+    int clusterCount = 0;
+
+    Arrays.fill(labels, Clustering.NOISE);
+
+    for(int i = 0; i < size; ++i)
+      entries[packed._index[i]] = packed._entries[i];
+
+    if(size == 0 || distance < 0)
+      return new Clustering<Coord,P,V>(labels, core, 0, entries);
+
+    try {
+      __tree      = packed;
+      __distance2 = distance*distance;
+      __minPoints = minPoints;
+      __core      = new boolean[size];
+      __parent    = new int[size];
+      __border    = new int[size];
+      __cores     = new int[packed._nodeCount];
+      __point     = new double[packed._dimensions];
+      __distances = new double[packed._maxLeafSize];
+
+      List<CoreSearch> tasks = new ArrayList<CoreSearch>();
+
+      if(__executor == null)
+        tasks.add(new CoreSearch(0));
+      else {
+        for(int node : packed.partition(Math.max(1, size / DualTreeNeighbors.TASKS)))
+          tasks.add(new CoreSearch(node));
+      }
+
+      Tasks.run(__executor, tasks);
+
+      // Children always follow their parents in preorder.
+      for(int node = packed._nodeCount - 1; node >= 0; --node) {
+        if(packed.isLeaf(node)) {
+          for(int i = packed._begin[node]; i < packed._end[node]; ++i)
+            if(__core[i])
+              ++__cores[node];
+        } else
+          __cores[node] = __cores[packed._low[node]] + __cores[packed._high[node]];
+      }
+
+      for(int i = 0; i < size; ++i)
+        __parent[i] = i;
+
+      Arrays.fill(__border, -1);
+
+      __self(0);
+
+      // Number the clusters in iteration order.
+      int[] cluster = new int[size];
+
+      Arrays.fill(cluster, Clustering.NOISE);
+
+      for(int i = 0; i < size; ++i)
+        if(__core[i])
+          core[packed._index[i]] = true;
+
+      int[] order = new int[size];
+
+      for(int i = 0; i < size; ++i)
+        order[packed._index[i]] = i;
+
+      for(int n = 0; n < size; ++n) {
+        int i = order[n], root;
+
+        if(__core[i])
+          root = __find(i);
+        else if(__border[i] >= 0)
+          root = __find(__border[i]);
+        else
+          continue;
+
+        if(cluster[root] == Clustering.NOISE)
+          cluster[root] = clusterCount++;
+
+        labels[n] = cluster[root];
+      }
+    } finally {
+      __tree = null;
+      __core = null;
+      __parent = __border = __cores = null;
+      __point = __distances = null;
+    }
+
+    return new Clustering<Coord,P,V>(labels, core, clusterCount, entries);
+  }
+}
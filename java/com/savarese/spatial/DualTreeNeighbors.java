@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>DualTreeNeighbors finds the k nearest points of a reference tree
+ * to every point of a query tree by traversing both trees together.
+ * A pair of nodes is skipped when the minimum distance between their
+ * bounding boxes exceeds the largest k-th neighbor distance found so
+ * far for any query point in the query node.  Because all the query
+ * points in a node share the work of each comparison, the search does
+ * much less than one independent search per query point.</p>
+ *
+ * <p>Results are stored per query point, in the packed order of the
+ * query tree, as indices into the packed order of the reference tree
+ * sorted from nearest to farthest.</p>
+ */
+final class DualTreeNeighbors<Coord extends Number & Comparable<? super Coord>,
+                              P extends Point<Coord>>
+{
+  // Number of units of work created for each parallel search.
+  static final int TASKS = 64;
+
+  PackedKDTree<Coord,P,?> _query, _reference;
+  int _numNeighbors;
+  boolean _excludeSelf;
+  // Neighbors of query point i occupy [i*_numNeighbors, i*_numNeighbors +
+  // _counts[i]).  They form a max-heap until the search completes.
+  int[] _neighbors, _counts;
+  double[] _distances2;
+  // Largest k-th neighbor distance of any point under each query node.
+  double[] _bounds;
+
+  final class Search implements Runnable {
+    int _root;
+    double[] _point, _distances;
+
+    Search(int root) {
+      _root      = root;
+      _point     = new double[_query._dimensions];
+      _distances = new double[_reference._maxLeafSize];
+    }
+
+    public void run() {
+      search(_root, 0);
+    }
+
+    void search(int q, int r) {
+      if(_query.minDistance2(q, _reference, r) > _bounds[q])
+        return;
+
+      final boolean qleaf = _query.isLeaf(q), rleaf = _reference.isLeaf(r);
+
+      if(qleaf && rleaf) {
+        baseCase(q, r);
+      } else if(rleaf || (!qleaf && _query.count(q) >= _reference.count(r))) {
+        final int low = _query._low[q], high = _query._high[q];
+
+        search(low, r);
+        search(high, r);
+
+        _bounds[q] = Math.max(_bounds[low], _bounds[high]);
+      } else {
+        int near = _reference._low[r], far = _reference._high[r];
+
+        if(_query.minDistance2(q, _reference, far) <
+           _query.minDistance2(q, _reference, near))
+        {
+          near = far;
+          far  = _reference._low[r];
+        }
+
+        search(q, near);
+        search(q, far);
+      }
+    }
+
+    void baseCase(int q, int r) {
+      final int rbegin = _reference._begin[r], rend = _reference._end[r];
+      final int k = _numNeighbors;
+      double bound = 0;
+
+      for(int i = _query._begin[q]; i < _query._end[q]; ++i) {
+        final int offset = i*k;
+        double max = (_counts[i] == k ? _distances2[offset] :
+                      Double.POSITIVE_INFINITY);
+
+        if(_reference.minDistance2(r, point(i)) <= max) {
+          _reference._coords.distance2(_point, rbegin, rend, _distances);
+
+          for(int j = rbegin; j < rend; ++j) {
+            double d2 = _distances[j - rbegin];
+
+            if(d2 < max && (j != i || !_excludeSelf)) {
+              insert(offset, _counts[i], j, d2);
+
+              if(_counts[i] < k)
+                ++_counts[i];
+
+              if(_counts[i] == k)
+                max = _distances2[offset];
+            }
+          }
+        }
+
+        if(max > bound)
+          bound = max;
+      }
+
+      _bounds[q] = bound;
+    }
+
+    double[] point(int i) {
+      for(int d = 0; d < _point.length; ++d)
+        _point[d] = _query._coords.getCoord(i, d);
+      return _point;
+    }
+  }
+
+  // Adds a neighbor to the max-heap at offset.  If the heap is full,
+  // the neighbor replaces the root.
+  void insert(int offset, int size, int neighbor, double d2) {
+    int i;
+
+    if(size < _numNeighbors) {
+      // Sift up.
+      i = size;
+
+      while(i > 0) {
+        int parent = (i - 1) >> 1;
+
+        if(_distances2[offset + parent] >= d2)
+          break;
+
+        _distances2[offset + i] = _distances2[offset + parent];
+        _neighbors[offset + i]  = _neighbors[offset + parent];
+        i = parent;
+      }
+    } else {
+      i = siftDown(offset, size, d2);
+    }
+
+    _distances2[offset + i] = d2;
+    _neighbors[offset + i]  = neighbor;
+  }
+
+  // Finds the slot for a value replacing the root of a heap of the given
+  // size, moving larger children up along the way.
+  int siftDown(int offset, int size, double d2) {
+    int i = 0, child;
+
+    while((child = 2*i + 1) < size) {
+      if(child + 1 < size &&
+         _distances2[offset + child + 1] > _distances2[offset + child])
+        ++child;
+
+      if(_distances2[offset + child] <= d2)
+        break;
+
+      _distances2[offset + i] = _distances2[offset + child];
+      _neighbors[offset + i]  = _neighbors[offset + child];
+      i = child;
+    }
+
+    return i;
+  }
+
+  // Sorts each heap from nearest to farthest.
+  void sort() {
+    for(int q = 0; q < _query._size; ++q) {
+      final int offset = q*_numNeighbors;
+
+      for(int size = _counts[q] - 1; size > 0; --size) {
+        double d2    = _distances2[offset + size];
+        int neighbor = _neighbors[offset + size];
+
+        _distances2[offset + size] = _distances2[offset];
+        _neighbors[offset + size]  = _neighbors[offset];
+
+        int i = siftDown(offset, size, d2);
+
+        _distances2[offset + i] = d2;
+        _neighbors[offset + i]  = neighbor;
+      }
+    }
+  }
+
+  /**
+   * Prepares a search.
+   *
+   * @param query The tree containing the query points.
+   * @param reference The tree containing the candidate neighbors.
+   * @param numNeighbors The number of neighbors to find for each point.
+   * @param excludeSelf If true, the query and reference trees must be
+   * the same, and no point is reported as its own neighbor.
+   */
+  DualTreeNeighbors(PackedKDTree<Coord,P,?> query,
+                    PackedKDTree<Coord,P,?> reference,
+                    int numNeighbors, boolean excludeSelf)
+  {
+    _query        = query;
+    _reference    = reference;
+    _numNeighbors = Math.max(0, numNeighbors);
+    _excludeSelf  = excludeSelf;
+    _neighbors    = new int[query._size*_numNeighbors];
+    _distances2   = new double[query._size*_numNeighbors];
+    _counts       = new int[query._size];
+    _bounds       = new double[query._nodeCount];
+
+    Arrays.fill(_bounds, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Runs the search, dividing the query tree among the threads of an
+   * executor if one is provided.
+   *
+   * @param executor The executor on which to run the search, or null
+   * to run it in the calling thread.
+   */
+  void run(ExecutorService executor) {
+    if(_numNeighbors > 0 && _query._size > 0 && _reference._size > 0) {
+      List<Search> tasks = new ArrayList<Search>();
+
+      if(executor == null)
+        tasks.add(new Search(0));
+      else {
+        for(int node : _query.partition(Math.max(1, _query._size / TASKS)))
+          tasks.add(new Search(node));
+      }
+
+      Tasks.run(executor, tasks);
+    }
+
+    sort();
+  }
+}
@@ -22,7 +22,7 @@ package com.savarese.spatial;
  */
 public class EuclideanDistance<Coord extends Number & Comparable<? super Coord>,
                                P extends Point<Coord>>
-  implements Distance<Coord, P>
+  implements BoundedDistance<Coord, P>
 {
   /**
    * Returns the euclidean distance between two points.
@@ -54,4 +54,32 @@ public class EuclideanDistance<Coord extends Number & Comparable<? super Coord>,
 
     return d;
   }
+
+  /**
+   * Returns the square of the euclidean distance between two points,
+   * stopping as soon as the partial sum exceeds the bound.  In high
+   * dimensions, most points examined by a nearest neighbors search
+   * are rejected after only a few terms.
+   *
+   * @param from The first end point.
+   * @param to The second end point.
+   * @param bound The value beyond which the exact result is not needed.
+   * @return The square of the euclidean distance between from and to,
+   * or a partial sum greater than bound.
+   */
+  public double distance2(P from, P to, double bound) {
+    double d = 0;
+    final int imax = from.getDimensions();
+
+    for(int i = 0; i < imax; ++i) {
+      double diff = (to.getCoord(i).doubleValue() -
+                     from.getCoord(i).doubleValue());
+      d+=(diff*diff);
+
+      if(d > bound)
+        return d;
+    }
+
+    return d;
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * FarthestNeighbors implements an algorithm for finding the k-farthest
+ * neighbors to a query point within the set of points contained by a
+ * {@link KDTree} instance, using euclidean distances.  The search
+ * visits subtrees in order of decreasing maximum possible distance and
+ * skips any subtree whose bounding box lies entirely closer to the
+ * query than the k-th farthest point found so far.  The bounding boxes
+ * are computed once a tree has been searched without them often
+ * enough to pay for them, and reused until the tree is modified.
+ * Until then, and after every modification, searches compare the
+ * query with every point instead.
+ */
+public class FarthestNeighbors<Coord extends Number & Comparable<? super Coord>,
+                               P extends Point<Coord>, V>
+{
+  private int __numNeighbors;
+  private double __maxDistance;
+  private double[] __query, __distances;
+  private PackedKDTree<Coord,P,V> __tree;
+  // Keeps the nearest of the farthest neighbors found so far on top.
+  private PriorityQueue<NearestNeighbors.Entry<Coord, P, V>> __pq;
+
+  // Adds a neighbor at squared distance d2 to the candidates if it is
+  // farther than the nearest of them.
+  private void __offer(double d2, Map.Entry<P,V> neighbor) {
+    if(__pq.size() < __numNeighbors) {
+      __pq.add(new NearestNeighbors.NNEntry<Coord,P,V>(d2, neighbor));
+      if(__pq.size() == __numNeighbors)
+        __maxDistance = __pq.peek().getDistance2();
+    } else if(d2 > __maxDistance) {
+      __pq.poll();
+      __pq.add(new NearestNeighbors.NNEntry<Coord,P,V>(d2, neighbor));
+      __maxDistance = __pq.peek().getDistance2();
+    }
+  }
+
+  // Offers every mapping of a tree for which no snapshot is built.
+  private void __scan(KDTree<Coord,P,V> tree) {
+    for(Map.Entry<P,V> e : tree.entrySet()) {
+      final P point = e.getKey();
+      double d2 = 0;
+
+      for(int d = 0; d < __query.length; ++d) {
+        double diff = point.getCoord(d).doubleValue() - __query[d];
+        d2+=(diff*diff);
+      }
+
+      __offer(d2, e);
+    }
+  }
+
+  private void find(int node) {
+    final PackedKDTree<Coord,P,V> tree = __tree;
+
+    if(__pq.size() == __numNeighbors &&
+       tree.maxDistance2(node, __query) <= __maxDistance)
+      return;
+
+    if(tree.isLeaf(node)) {
+      final int begin = tree._begin[node], end = tree._end[node];
+
+      tree._coords.distance2(__query, begin, end, __distances);
+
+      for(int i = begin; i < end; ++i)
+        __offer(__distances[i - begin], tree._entries[i]);
+    } else {
+      final int low = tree._low[node], high = tree._high[node];
+
+      if(tree.maxDistance2(low, __query) >= tree.maxDistance2(high, __query)) {
+        find(low);
+        find(high);
+      } else {
+        find(high);
+        find(low);
+      }
+    }
+  }
+
+  /**
+   * Finds the k-farthest neighbors to a query point within a KDTree
+   * instance.  The neighbors are returned as an array of
+   * {@link NearestNeighbors.Entry} instances, sorted from farthest to
+   * nearest.
+   *
+   * @param tree The KDTree to search.
+   * @param queryPoint The query point.
+   * @param numNeighbors The number of farthest neighbors to find.  This
+   *        should be a positive value.  Non-positive values result in no
+   *        neighbors being found.
+   * @return An array containing the farthest neighbors and their distances
+   *         sorted by greatest distance to least distance.  If no neighbors
+   *         are found, the array will have a length of zero.
+   */
+  public NearestNeighbors.Entry<Coord,P,V>[] get(KDTree<Coord,P,V> tree,
+                                                 P queryPoint,
+                                                 int numNeighbors)
+  {
+    __numNeighbors = numNeighbors;
+    __query = CoordinateBlock.toArray(queryPoint);
+    __maxDistance = Double.NEGATIVE_INFINITY;
+
+    __pq = new PriorityQueue<NearestNeighbors.Entry<Coord, P, V>>(
+                                                   Math.max(1, numNeighbors));
+
+    if(numNeighbors > 0 && tree.size() > 0) {
+      __tree = PackedKDTree.getIfWorthwhile(tree);
+
+      if(__tree == null)
+        __scan(tree);
+      else {
+        __distances = new double[__tree._maxLeafSize];
+        find(0);
+      }
+    }
+
+    NearestNeighbors.Entry<Coord,P,V>[] neighbors =
+      new NearestNeighbors.Entry[__pq.size()];
+
+    __pq.toArray(neighbors);
+    Arrays.sort(neighbors, Collections.reverseOrder());
+
+    __pq = null;
+    __query = __distances = null;
+    __tree = null;
+
+    return neighbors;
+  }
+}
@@ -0,0 +1,961 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>A GridIndex divides space into a uniform grid of cubic cells and
+ * keeps the point-value mappings of each nonempty cell in a hash table
+ * keyed by the cell's integer coordinates.  Exact lookups, insertions,
+ * and removals take constant expected time, and searches of small
+ * ranges and nearest neighbors searches of dense data visit only the
+ * few cells around the query, with no tree to descend.  A GridIndex
+ * suits data that is spread roughly uniformly over its extent;
+ * clustered data is better served by a {@link KDTree}.</p>
+ *
+ * <p>The cell size is a power of two, so that cell boundaries are
+ * exact and the cells searched by {@link NearestNeighbors} bound the
+ * distances of their points exactly.  A requested cell size is rounded
+ * to the nearest power of two.  Unless automatic rebucketing is turned
+ * off with {@link #setAdaptive setAdaptive}, the index rebuckets its
+ * mappings as they are inserted and removed, so as to keep the mean
+ * number of mappings per nonempty cell between {@link #MIN_OCCUPANCY}
+ * and {@link #MAX_OCCUPANCY}.  It first picks the cell size suited to
+ * mappings spread uniformly over their bounding box and then halves
+ * or doubles it as needed.  Rebucketing takes time linear in the size
+ * of the index and waits for as many modifications as there were mappings
+ * at the previous rebucketing or as there are now, whichever is
+ * fewer, so its amortized cost per modification is constant.</p>
+ *
+ * <p>Rectangular range searches look up each cell that overlaps the
+ * rectangle if there are fewer such cells than nonempty ones, and
+ * scan all the nonempty cells otherwise.  Searches of arbitrary
+ * regions scan all the nonempty cells, using the bounding boxes of
+ * their points to skip cells or return them whole.</p>
+ *
+ * <p>GridIndex conforms to the java.util.Map interface except that
+ * Iterator.remove is not supported by the returned views.</p>
+ */
+public class GridIndex<Coord extends Number & Comparable<? super Coord>,
+                       P extends Point<Coord>, V>
+  extends AbstractMap<P,V> implements RegionSearchTree<Coord, P, V>
+{
+  /**
+   * The mean number of mappings per nonempty cell below which the
+   * cell size is doubled.
+   */
+  public static final int MIN_OCCUPANCY = 2;
+
+  /**
+   * The mean number of mappings per nonempty cell above which the
+   * cell size is halved.
+   */
+  public static final int MAX_OCCUPANCY = 16;
+
+  // Mean number of mappings per cell sought by automatic rebucketing.
+  private static final int TARGET_OCCUPANCY = 4;
+
+  // Indices with fewer mappings are not rebucketed automatically.
+  private static final int MIN_REBUCKET_SIZE = 64;
+
+  static final class Mapping<P,V> implements Map.Entry<P,V> {
+    P _point;
+    V _value;
+
+    Mapping(P point, V value) {
+      _point = point;
+      _value = value;
+    }
+
+    public P getKey() {
+      return _point;
+    }
+
+    public V getValue() {
+      return _value;
+    }
+
+    public V setValue(V value) {
+      V old = _value;
+      _value = value;
+      return old;
+    }
+
+    public boolean equals(Object o) {
+      if(!(o instanceof Map.Entry))
+        return false;
+
+      Map.Entry e = (Map.Entry)o;
+
+      return
+        ((_point == null ? e.getKey() == null : _point.equals(e.getKey())) &&
+         (_value == null ? e.getValue() == null : _value.equals(e.getValue())));
+    }
+
+    public int hashCode() {
+      return
+        ((_point == null ? 0 : _point.hashCode()) ^
+         (_value == null ? 0 : _value.hashCode()));
+    }
+  }
+
+  final class Cell {
+    long[] _coords;
+    int _hash, _size;
+    Mapping<P,V>[] _entries;
+    Cell _next;
+    // Bounding box of the cell's points, or null if it must be
+    // recomputed.
+    GenericPoint<Coord> _lower, _upper;
+
+    Cell(long[] coords, int hash) {
+      _coords  = coords;
+      _hash    = hash;
+      _size    = 0;
+      _entries = new Mapping[4];
+    }
+
+    boolean holds(P point) {
+      for(int d = 0; d < _dimensions; ++d) {
+        if(_coords[d] != cell(point.getCoord(d)))
+          return false;
+      }
+
+      return true;
+    }
+
+    boolean isInRange(long[] low, long[] high) {
+      for(int d = 0; d < _dimensions; ++d) {
+        if(_coords[d] < low[d] || _coords[d] > high[d])
+          return false;
+      }
+
+      return true;
+    }
+
+    int indexOf(Object point) {
+      for(int i = 0; i < _size; ++i) {
+        if(_entries[i]._point.equals(point))
+          return i;
+      }
+
+      return -1;
+    }
+
+    void add(Mapping<P,V> mapping) {
+      if(_size == _entries.length) {
+        Mapping<P,V>[] entries = new Mapping[2*_size];
+
+        System.arraycopy(_entries, 0, entries, 0, _size);
+        _entries = entries;
+      }
+
+      _entries[_size++] = mapping;
+      _lower = _upper = null;
+    }
+
+    // Removes a mapping by moving the last mapping in its place.
+    void remove(int i) {
+      _entries[i] = _entries[--_size];
+      _entries[_size] = null;
+      _lower = _upper = null;
+    }
+
+    void computeBounds() {
+      GenericPoint<Coord> lower = new GenericPoint<Coord>(_dimensions);
+      GenericPoint<Coord> upper = new GenericPoint<Coord>(_dimensions);
+
+      for(int i = 0; i < _size; ++i) {
+        P point = _entries[i]._point;
+
+        for(int d = 0; d < _dimensions; ++d) {
+          Coord c = point.getCoord(d);
+
+          if(i == 0 || c.compareTo(lower.getCoord(d)) < 0)
+            lower.setCoord(d, c);
+          if(i == 0 || c.compareTo(upper.getCoord(d)) > 0)
+            upper.setCoord(d, c);
+        }
+      }
+
+      _lower = lower;
+      _upper = upper;
+    }
+  }
+
+  // Iterates over the nonempty cells in the order of the hash table.
+  class CellIterator {
+    Cell[] _table;
+    int _slot;
+    Cell _chain;
+
+    CellIterator() {
+      _table = GridIndex.this._table;
+      _slot  = 0;
+      _chain = null;
+    }
+
+    Cell nextCell() {
+      while(_chain == null) {
+        if(_slot >= _table.length)
+          return null;
+        _chain = _table[_slot++];
+      }
+
+      Cell cell = _chain;
+      _chain = cell._next;
+
+      return cell;
+    }
+  }
+
+  final class RangeIterator extends CellIterator
+    implements Iterator<Map.Entry<P,V>>
+  {
+    P _lower, _upper;
+    // Range of cell coordinates overlapping the rectangle.
+    long[] _low, _high;
+    // The next cell to look up if _lookup is true.
+    long[] _cell;
+    boolean _lookup, _done;
+    Cell _current;
+    int _position;
+    Mapping<P,V> _next;
+
+    RangeIterator(P lower, P upper) {
+      double cells = 1;
+
+      _lower = lower;
+      _upper = upper;
+      _low   = new long[_dimensions];
+      _high  = new long[_dimensions];
+      _done  = false;
+
+      for(int d = 0; d < _dimensions; ++d) {
+        _low[d]  = (lower == null ? Long.MIN_VALUE : cell(lower.getCoord(d)));
+        _high[d] = (upper == null ? Long.MAX_VALUE : cell(upper.getCoord(d)));
+
+        if(_low[d] > _high[d])
+          _done = true;
+
+        cells*=((double)_high[d] - _low[d] + 1);
+      }
+
+      _lookup = (cells <= _cellCount);
+
+      if(_lookup)
+        _cell = (long[])_low.clone();
+
+      advance();
+    }
+
+    // Advances _cell to the next cell of the range in row-major order,
+    // returning false after the last one.
+    boolean increment() {
+      for(int d = _dimensions - 1; d >= 0; --d) {
+        if(_cell[d] < _high[d]) {
+          ++_cell[d];
+          return true;
+        }
+
+        _cell[d] = _low[d];
+      }
+
+      return false;
+    }
+
+    Cell nextCell() {
+      if(_lookup) {
+        while(!_done) {
+          Cell cell = find(_cell);
+
+          _done = !increment();
+
+          if(cell != null)
+            return cell;
+        }
+
+        return null;
+      }
+
+      if(_done)
+        return null;
+
+      Cell cell = super.nextCell();
+
+      while(cell != null && !cell.isInRange(_low, _high))
+        cell = super.nextCell();
+
+      return cell;
+    }
+
+    void advance() {
+      while(true) {
+        if(_current != null) {
+          while(_position < _current._size) {
+            Mapping<P,V> mapping = _current._entries[_position++];
+
+            if(isInRange(mapping._point, _lower, _upper)) {
+              _next = mapping;
+              return;
+            }
+          }
+        }
+
+        _current  = nextCell();
+        _position = 0;
+
+        if(_current == null) {
+          _next = null;
+          return;
+        }
+      }
+    }
+
+    public boolean hasNext() {
+      return (_next != null);
+    }
+
+    public Map.Entry<P,V> next() {
+      Mapping<P,V> old = _next;
+
+      if(old == null)
+        throw new NoSuchElementException();
+
+      advance();
+
+      return old;
+    }
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  final class RegionIterator extends CellIterator
+    implements Iterator<Map.Entry<P,V>>
+  {
+    Region<Coord, ? super P> _region;
+    Cell _current;
+    int _position;
+    // True if the region contains all the mappings of _current.
+    boolean _contained;
+    Mapping<P,V> _next;
+
+    RegionIterator(Region<Coord, ? super P> region) {
+      _region = region;
+      advance();
+    }
+
+    void advance() {
+      while(true) {
+        if(_current != null) {
+          while(_position < _current._size) {
+            Mapping<P,V> mapping = _current._entries[_position++];
+
+            if(_contained || _region.contains(mapping._point)) {
+              _next = mapping;
+              return;
+            }
+          }
+        }
+
+        _current  = nextCell();
+        _position = 0;
+
+        if(_current == null) {
+          _next = null;
+          return;
+        }
+
+        if(_current._lower == null)
+          _current.computeBounds();
+
+        if(!_region.intersects(_current._lower, _current._upper))
+          _position = _current._size;
+        else
+          _contained = _region.contains(_current._lower, _current._upper);
+      }
+    }
+
+    public boolean hasNext() {
+      return (_next != null);
+    }
+
+    public Map.Entry<P,V> next() {
+      Mapping<P,V> old = _next;
+
+      if(old == null)
+        throw new NoSuchElementException();
+
+      advance();
+
+      return old;
+    }
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  final class MapEntrySet extends AbstractSet<Map.Entry<P,V>> {
+    public Iterator<Map.Entry<P,V>> iterator() {
+      return new RangeIterator(null, null);
+    }
+
+    public int size() {
+      return _size;
+    }
+
+    public boolean contains(Object o) {
+      if(!(o instanceof Map.Entry))
+        return false;
+
+      Mapping<P,V> mapping = mapping(((Map.Entry)o).getKey());
+
+      return (mapping != null && mapping.equals(o));
+    }
+  }
+
+  int _dimensions, _size, _cellCount, _modCount;
+  // The cell size and its inverse, both powers of two.
+  double _cellSize, _inverse;
+  Cell[] _table;
+  private boolean __adaptive;
+  // Modification count and size at the last rebucketing.
+  private int __rebucketModCount, __rebucketSize;
+
+  // Combines the grid coordinates of a cell by multiplying by the
+  // 64-bit golden ratio, so that the cells of a compact region spread
+  // over the whole table.
+  private static long __hash(long hash, long coord) {
+    return (hash + coord) * 0x9E3779B97F4A7C15L;
+  }
+
+  // Folds the high bits of a combined hash into the low bits, which
+  // alone select a slot of the table.
+  private static int __fold(long hash) {
+    return (int)(hash ^ (hash >>> 32));
+  }
+
+  // Returns the power of two nearest to a cell size.
+  private static double __powerOfTwo(double cellSize)
+    throws IllegalArgumentException
+  {
+    if(!(cellSize > 0) || Double.isInfinite(cellSize))
+      throw new IllegalArgumentException("Cell size must be positive.");
+
+    final double sqrt2 = StrictMath.sqrt(2);
+    double size = 1;
+
+    while(size*sqrt2 < cellSize)
+      size*=2;
+    while(size > cellSize*sqrt2)
+      size/=2;
+
+    if(size == 0 || Double.isInfinite(1 / size))
+      throw new IllegalArgumentException("Cell size is out of range.");
+
+    return size;
+  }
+
+  // Returns the grid coordinate of the cells containing a coordinate.
+  long cell(Coord coord) {
+    return (long)Math.floor(coord.doubleValue() * _inverse);
+  }
+
+  int hash(long[] coords) {
+    long hash = 0;
+
+    for(int d = 0; d < _dimensions; ++d)
+      hash = __hash(hash, coords[d]);
+
+    return __fold(hash);
+  }
+
+  int hash(P point) {
+    long hash = 0;
+
+    for(int d = 0; d < _dimensions; ++d)
+      hash = __hash(hash, cell(point.getCoord(d)));
+
+    return __fold(hash);
+  }
+
+  // Returns the cell with the given grid coordinates, or null if it is
+  // empty.
+  Cell find(long[] coords) {
+    final int hash = hash(coords);
+
+    for(Cell cell = _table[hash & (_table.length - 1)]; cell != null;
+        cell = cell._next)
+    {
+      if(cell._hash == hash) {
+        int d = 0;
+
+        while(d < _dimensions && cell._coords[d] == coords[d])
+          ++d;
+
+        if(d == _dimensions)
+          return cell;
+      }
+    }
+
+    return null;
+  }
+
+  private Cell __find(P point, int hash) {
+    for(Cell cell = _table[hash & (_table.length - 1)]; cell != null;
+        cell = cell._next)
+    {
+      if(cell._hash == hash && cell.holds(point))
+        return cell;
+    }
+
+    return null;
+  }
+
+  // Returns the mapping of a point, or null if there is none.
+  Mapping<P,V> mapping(Object o) {
+    P point = (P)o;
+    Cell cell = __find(point, hash(point));
+
+    if(cell != null) {
+      int i = cell.indexOf(point);
+
+      if(i >= 0)
+        return cell._entries[i];
+    }
+
+    return null;
+  }
+
+  boolean isInRange(P point, P lower, P upper) {
+    for(int d = 0; d < _dimensions; ++d) {
+      Coord c = point.getCoord(d);
+
+      if((lower != null && c.compareTo(lower.getCoord(d)) < 0) ||
+         (upper != null && c.compareTo(upper.getCoord(d)) > 0))
+        return false;
+    }
+
+    return true;
+  }
+
+  // Returns the cell that should hold a point, creating it if necessary.
+  private Cell __cellFor(P point, int hash) {
+    Cell cell = __find(point, hash);
+
+    if(cell == null) {
+      long[] coords = new long[_dimensions];
+
+      for(int d = 0; d < _dimensions; ++d)
+        coords[d] = cell(point.getCoord(d));
+
+      cell = new Cell(coords, hash);
+
+      if(++_cellCount > _table.length - (_table.length >> 2))
+        __setTableSize(2*_table.length);
+
+      int slot = hash & (_table.length - 1);
+
+      cell._next   = _table[slot];
+      _table[slot] = cell;
+    }
+
+    return cell;
+  }
+
+  private void __unlink(Cell cell) {
+    int slot = cell._hash & (_table.length - 1);
+
+    if(_table[slot] == cell)
+      _table[slot] = cell._next;
+    else {
+      Cell previous = _table[slot];
+
+      while(previous._next != cell)
+        previous = previous._next;
+
+      previous._next = cell._next;
+    }
+
+    --_cellCount;
+  }
+
+  private void __setTableSize(int slots) {
+    Cell[] table = new GridIndex.Cell[slots];
+
+    for(Cell chain : _table) {
+      while(chain != null) {
+        Cell next = chain._next;
+        int slot = chain._hash & (slots - 1);
+
+        chain._next = table[slot];
+        table[slot] = chain;
+        chain = next;
+      }
+    }
+
+    _table = table;
+  }
+
+  // Moves every mapping to the cells of a new cell size.
+  private void __rebucket(double cellSize) {
+    Mapping<P,V>[] entries = new Mapping[_size];
+    int n = 0, slots = 16;
+    CellIterator cells = new CellIterator();
+    Cell cell;
+
+    while((cell = cells.nextCell()) != null) {
+      System.arraycopy(cell._entries, 0, entries, n, cell._size);
+      n+=cell._size;
+    }
+
+    while(slots - (slots >> 2) < _cellCount)
+      slots <<= 1;
+
+    _cellSize  = cellSize;
+    _inverse   = 1 / cellSize;
+    _table     = new GridIndex.Cell[slots];
+    _cellCount = 0;
+
+    for(Mapping<P,V> mapping : entries)
+      __cellFor(mapping._point, hash(mapping._point)).add(mapping);
+  }
+
+  // Returns the cell size that would hold TARGET_OCCUPANCY mappings per
+  // cell if the mappings were spread uniformly over their bounding box,
+  // or 0 if the box is empty.
+  private double __estimateCellSize() {
+    double[] min = new double[_dimensions], max = new double[_dimensions];
+    double logVolume = Math.log((double)TARGET_OCCUPANCY / _size);
+    int dimensions = 0, n = 0;
+    CellIterator cells = new CellIterator();
+    Cell cell;
+
+    while((cell = cells.nextCell()) != null) {
+      for(int i = 0; i < cell._size; ++i, ++n) {
+        P point = cell._entries[i]._point;
+
+        for(int d = 0; d < _dimensions; ++d) {
+          double c = point.getCoord(d).doubleValue();
+
+          if(n == 0 || c < min[d])
+            min[d] = c;
+          if(n == 0 || c > max[d])
+            max[d] = c;
+        }
+      }
+    }
+
+    // Dimensions in which all the points agree do not count.
+    for(int d = 0; d < _dimensions; ++d) {
+      if(max[d] > min[d]) {
+        logVolume+=Math.log(max[d] - min[d]);
+        ++dimensions;
+      }
+    }
+
+    return (dimensions == 0 ? 0 : Math.exp(logVolume / dimensions));
+  }
+
+  // Rebuckets to the estimated cell size, then halves or doubles the
+  // cell size until the mean occupancy of the nonempty cells lies
+  // within bounds, stopping if a step overshoots them or does not
+  // change the number of nonempty cells.
+  private void __rebucket() {
+    int direction = 0;
+    double estimate = __estimateCellSize();
+
+    if(estimate > 0 && !Double.isInfinite(estimate)) {
+      try {
+        __rebucket(__powerOfTwo(estimate));
+      } catch(IllegalArgumentException iae) {
+        // The estimate is out of range, so keep the cell size.
+      }
+    }
+
+    while(true) {
+      double occupancy = (double)_size / _cellCount;
+      int step =
+        (occupancy > MAX_OCCUPANCY ? -1 : (occupancy < MIN_OCCUPANCY ? 1 : 0));
+
+      if(step == 0 || step == -direction)
+        break;
+
+      double cellSize = _cellSize;
+      double next = (step < 0 ? cellSize / 2 : cellSize * 2);
+      int cells = _cellCount;
+
+      if(next == 0 || Double.isInfinite(1 / next) || Double.isInfinite(next))
+        break;
+
+      __rebucket(next);
+
+      if(_cellCount == cells) {
+        __rebucket(cellSize);
+        break;
+      }
+
+      direction = step;
+    }
+
+    __rebucketModCount = _modCount;
+    __rebucketSize     = _size;
+  }
+
+  private void __adapt() {
+    if(__adaptive && _size >= MIN_REBUCKET_SIZE &&
+       _modCount - __rebucketModCount >= Math.min(__rebucketSize, _size))
+    {
+      double occupancy = (double)_size / _cellCount;
+
+      if(occupancy < MIN_OCCUPANCY || occupancy > MAX_OCCUPANCY)
+        __rebucket();
+    }
+  }
+
+  /**
+   * Creates a GridIndex of the specified number of dimensions with the
+   * given initial cell size.
+   *
+   * @param dimensions The number of dimensions.  Must be greater than 0.
+   * @param cellSize The length of a side of a cell, which is rounded
+   * to the nearest power of two.
+   * @exception IllegalArgumentException If the cell size is not
+   * positive and finite.
+   */
+  public GridIndex(int dimensions, double cellSize)
+    throws IllegalArgumentException
+  {
+    assert(dimensions > 0);
+
+    _dimensions = dimensions;
+    _cellSize   = __powerOfTwo(cellSize);
+    _inverse    = 1 / _cellSize;
+    __adaptive  = true;
+
+    clear();
+  }
+
+  /**
+   * Creates a GridIndex of the specified number of dimensions with an
+   * initial cell size of 1.
+   *
+   * @param dimensions The number of dimensions.  Must be greater than 0.
+   */
+  public GridIndex(int dimensions) {
+    this(dimensions, 1);
+  }
+
+  /**
+   * Creates a two-dimensional GridIndex with an initial cell size of 1.
+   */
+  public GridIndex() {
+    this(2);
+  }
+
+  /**
+   * Returns the length of a side of a cell.
+   *
+   * @return The length of a side of a cell.
+   */
+  public double getCellSize() {
+    return _cellSize;
+  }
+
+  /**
+   * Moves every mapping to the cells of a new cell size.
+   *
+   * @param cellSize The length of a side of a cell, which is rounded
+   * to the nearest power of two.
+   * @exception IllegalArgumentException If the cell size is not
+   * positive and finite.
+   */
+  public void setCellSize(double cellSize)
+    throws IllegalArgumentException
+  {
+    __rebucket(__powerOfTwo(cellSize));
+    __rebucketModCount = _modCount;
+    __rebucketSize     = _size;
+  }
+
+  /**
+   * Turns automatic rebucketing on or off.  It is on by default.
+   *
+   * @param adaptive true if the cell size should follow the density of
+   * the mappings, false if it should only change on calls to
+   * {@link #setCellSize setCellSize}.
+   */
+  public void setAdaptive(boolean adaptive) {
+    __adaptive = adaptive;
+  }
+
+  /**
+   * Returns true if the cell size follows the density of the mappings.
+   *
+   * @return true if the cell size follows the density of the mappings.
+   */
+  public boolean isAdaptive() {
+    return __adaptive;
+  }
+
+  /**
+   * Returns the number of nonempty cells.
+   *
+   * @return The number of nonempty cells.
+   */
+  public int getCellCount() {
+    return _cellCount;
+  }
+
+  /**
+   * Removes all elements from the container, leaving it empty.  The
+   * cell size is kept.
+   */
+  public void clear() {
+    _table     = new GridIndex.Cell[16];
+    _size      = 0;
+    _cellCount = 0;
+    __rebucketModCount = ++_modCount;
+    __rebucketSize     = 0;
+  }
+
+  /**
+   * Returns true if the container contains a mapping for the specified key.
+   *
+   * @param key The point key to search for.
+   * @return true if the container contains a mapping for the specified key.
+   * @exception ClassCastException if the key is not an instance of P.
+   */
+  public boolean containsKey(Object key)
+    throws ClassCastException
+  {
+    return (mapping(key) != null);
+  }
+
+  /**
+   * Returns a Set view of the point to value mappings in the index.
+   *
+   * @return A Set view of the point to value mappings in the index.
+   */
+  public Set<Map.Entry<P,V>> entrySet() {
+    return new MapEntrySet();
+  }
+
+  /**
+   * Retrieves the value at the given location.
+   *
+   * @param point The location from which to retrieve the value.
+   * @return The value at the given location, or null if no value is present.
+   * @exception ClassCastException If the given point is not of the
+   * expected type.
+   */
+  public V get(Object point) throws ClassCastException {
+    Mapping<P,V> mapping = mapping(point);
+
+    return (mapping == null ? null : mapping._value);
+  }
+
+  /**
+   * Inserts a point value pair into the index.
+   *
+   * @param point The point serving as a key.
+   * @param value The value to insert at the point.
+   * @return The old value if an existing value is replaced by the
+   * inserted value.
+   */
+  public V put(P point, V value) {
+    Cell cell = __cellFor(point, hash(point));
+    int i = cell.indexOf(point);
+
+    if(i >= 0)
+      return cell._entries[i].setValue(value);
+
+    cell.add(new Mapping<P,V>(point, value));
+    ++_size;
+    ++_modCount;
+    __adapt();
+
+    return null;
+  }
+
+  /**
+   * Removes the point-value mapping corresponding to the given point key.
+   *
+   * @param key The point key of the mapping to remove.
+   * @return The value part of the mapping, if a mapping existed and
+   * was removed.  Null if not.
+   * @exception ClassCastException If the key is not an instance of P.
+   */
+  public V remove(Object key)
+    throws ClassCastException
+  {
+    P point = (P)key;
+    Cell cell = __find(point, hash(point));
+
+    if(cell == null)
+      return null;
+
+    int i = cell.indexOf(point);
+
+    if(i < 0)
+      return null;
+
+    V old = cell._entries[i]._value;
+
+    cell.remove(i);
+
+    if(cell._size == 0)
+      __unlink(cell);
+
+    --_size;
+    ++_modCount;
+    __adapt();
+
+    return old;
+  }
+
+  /**
+   * Returns the number of point-value mappings in the index.
+   *
+   * @return The number of point-value mappings in the index.
+   */
+  public int size() {
+    return _size;
+  }
+
+  public Iterator<Map.Entry<P,V>> iterator(P lower, P upper) {
+    return new RangeIterator(lower, upper);
+  }
+
+  public Iterator<Map.Entry<P,V>> iterator(Region<Coord, ? super P> region) {
+    return new RegionIterator(region);
+  }
+}
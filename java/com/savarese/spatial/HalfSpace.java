@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+/**
+ * A HalfSpace is the {@link Region} of points <em>x</em> satisfying
+ * <em>normal &middot; x &lt;= offset</em>.  Its box tests are exact.
+ */
+public class HalfSpace<Coord extends Number & Comparable<? super Coord>,
+                       P extends Point<Coord>>
+  extends NumericRegion<Coord, P>
+{
+  private double[] __normal;
+  private double __offset;
+
+  /**
+   * Creates the half-space of points whose dot product with the
+   * normal is less than or equal to the offset.
+   *
+   * @param normal The outward normal of the bounding hyperplane.  Its
+   * length determines the number of dimensions.
+   * @param offset The offset of the bounding hyperplane.
+   */
+  public HalfSpace(double[] normal, double offset) {
+    __normal = (double[])normal.clone();
+    __offset = offset;
+  }
+
+  /**
+   * Returns the dot product of the normal and a point.
+   *
+   * @param point The point.
+   * @return The dot product of the normal and the point.
+   */
+  public double dot(Point<Coord> point) {
+    double result = 0;
+
+    for(int i = 0; i < __normal.length; ++i)
+      result+=(__normal[i]*point.getCoord(i).doubleValue());
+
+    return result;
+  }
+
+  public boolean contains(P point) {
+    return (dot(point) <= __offset);
+  }
+
+  public boolean intersects(Point<Coord> lower, Point<Coord> upper) {
+    double min = 0;
+
+    for(int i = 0; i < __normal.length; ++i) {
+      double n = __normal[i];
+
+      if(n > 0)
+        min+=(n*lowerBound(lower, i));
+      else if(n < 0)
+        min+=(n*upperBound(upper, i));
+    }
+
+    return (min <= __offset);
+  }
+
+  public boolean contains(Point<Coord> lower, Point<Coord> upper) {
+    double max = 0;
+
+    for(int i = 0; i < __normal.length; ++i) {
+      double n = __normal[i];
+
+      if(n > 0)
+        max+=(n*upperBound(upper, i));
+      else if(n < 0)
+        max+=(n*lowerBound(lower, i));
+    }
+
+    return (max <= __offset);
+  }
+}
@@ -0,0 +1,621 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>A KDForest is a log-structured spatial index in the manner of the
+ * Bentley-Saxe logarithmic method.  New mappings are put into a small
+ * KDTree buffer.  When the buffer fills, it is balanced and becomes a
+ * level of the forest, and levels of similar size are merged into
+ * balanced trees of roughly doubling size, so that a forest of
+ * <em>n</em> mappings holds <em>O(lg(n))</em> levels.  Insertions
+ * therefore never descend a large unbalanced tree, and the cost of
+ * balancing is shared among the insertions.  Searches visit the
+ * buffer and every level.</p>
+ *
+ * <p>Merges can be run on an ExecutorService, in which case they
+ * proceed in the background while the forest continues to be used.  A
+ * finished merge is installed by the next operation on the forest.
+ * Changing or removing a mapping held by a level that is being merged,
+ * whether through the forest or through an entry returned by one of
+ * its views or searches, waits for the merge to finish.  Apart from its
+ * merges, a KDForest is not thread-safe.</p>
+ *
+ * <p>Each point is mapped by at most one tree of the forest.  KDForest
+ * conforms to the java.util.Map interface except that Iterator.remove
+ * is not supported by the returned views.  {@link NearestNeighbors}
+ * searches all the trees of a forest at once.</p>
+ */
+public class KDForest<Coord extends Comparable<? super Coord>,
+                      P extends Point<Coord>, V>
+  extends AbstractMap<P,V> implements RegionSearchTree<Coord, P, V>
+{
+  /**
+   * The number of mappings held by the buffer of a KDForest unless
+   * specified otherwise.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+  // Bits of a level's filter per point, and the filter's probes.
+  private static final int FILTER_BITS = 10;
+  private static final int FILTER_PROBES = 3;
+
+  private int __dimensions, __bufferSize, __size;
+  private ExecutorService __executor;
+  private KDTree<Coord,P,V> __buffer;
+  // Balanced trees, from the oldest and largest to the newest.
+  private ArrayList<Level<Coord,P,V>> __levels;
+  // The pending merge of the levels from __mergeBegin to __mergeEnd.
+  private Future<Level<Coord,P,V>> __merge;
+  private int __mergeBegin, __mergeEnd;
+
+  // A balanced tree of the forest together with a Bloom filter of its
+  // points, so that most lookups of points the tree does not map need
+  // not search it.  Removals leave the filter unchanged.
+  static final class Level<Coord extends Comparable<? super Coord>,
+                           P extends Point<Coord>, V>
+  {
+    KDTree<Coord,P,V> _tree;
+    long[] _filter;
+
+    Level(KDTree<Coord,P,V> tree) {
+      _tree   = tree;
+      _filter = new long[Math.max(1, (FILTER_BITS*tree.size() + 63) >>> 6)];
+
+      for(P point : tree.keySet()) {
+        int hash = hash(point), step = (hash >>> 17) | 1;
+
+        for(int i = 0; i < FILTER_PROBES; ++i, hash+=step) {
+          int bit = (hash & 0x7fffffff) % (_filter.length << 6);
+          _filter[bit >>> 6] |= (1L << bit);
+        }
+      }
+    }
+
+    KDTree<Coord,P,V>.KDNode getNode(P point) {
+      int hash = hash(point), step = (hash >>> 17) | 1;
+
+      for(int i = 0; i < FILTER_PROBES; ++i, hash+=step) {
+        int bit = (hash & 0x7fffffff) % (_filter.length << 6);
+
+        if((_filter[bit >>> 6] & (1L << bit)) == 0)
+          return null;
+      }
+
+      return _tree.getNode(point);
+    }
+
+    // Hashes the coordinates rather than relying on Point.hashCode.
+    static int hash(Point<?> point) {
+      int hash = 0;
+
+      for(int i = 0; i < point.getDimensions(); ++i)
+        hash = 31*hash + point.getCoord(i).hashCode();
+
+      hash*=0x9e3779b9;
+
+      return (hash ^ (hash >>> 15));
+    }
+  }
+
+  // A mapping returned by a view or search of the forest.  A merge
+  // replaces the nodes of the levels it merges by copies, so setValue
+  // looks the point up again and changes the node that maps it now.
+  final class ForestEntry implements Map.Entry<P,V> {
+    Map.Entry<P,V> _entry;
+
+    ForestEntry(Map.Entry<P,V> entry) {
+      _entry = entry;
+    }
+
+    public P getKey() {
+      return _entry.getKey();
+    }
+
+    public V getValue() {
+      return _entry.getValue();
+    }
+
+    public V setValue(V value) {
+      KDTree<Coord,P,V>.KDNode node = __findNode(_entry.getKey());
+
+      if(node == null || node == _entry)
+        return _entry.setValue(value);
+
+      _entry.setValue(value);
+
+      return node.setValue(value);
+    }
+
+    public boolean equals(Object o) {
+      if(!(o instanceof Map.Entry))
+        return false;
+
+      Map.Entry e = (Map.Entry)o;
+
+      return
+        ((getKey() == null ?
+          e.getKey() == null : getKey().equals(e.getKey()))  &&
+         (getValue() == null ?
+          e.getValue() == null : getValue().equals(e.getValue())));
+    }
+
+    public int hashCode() {
+      return
+        ((getKey() == null ? 0 : getKey().hashCode()) ^
+         (getValue() == null ? 0 : getValue().hashCode()));
+    }
+  }
+
+  // Returns the mappings of several iterators over trees of the forest
+  // as ForestEntry instances.
+  final class EntryIterator implements Iterator<Map.Entry<P,V>> {
+    Iterator<Map.Entry<P,V>> _iterator;
+
+    EntryIterator(List<Iterator<Map.Entry<P,V>>> iterators) {
+      _iterator = new ChainIterator<Map.Entry<P,V>>(iterators);
+    }
+
+    public boolean hasNext() {
+      return _iterator.hasNext();
+    }
+
+    public Map.Entry<P,V> next() {
+      return new ForestEntry(_iterator.next());
+    }
+
+    public void remove() throws UnsupportedOperationException {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  final class MapEntrySet extends AbstractSet<Map.Entry<P,V>> {
+    public Iterator<Map.Entry<P,V>> iterator() {
+      List<Iterator<Map.Entry<P,V>>> iterators =
+        new ArrayList<Iterator<Map.Entry<P,V>>>();
+
+      for(KDTree<Coord,P,V> tree : _trees())
+        iterators.add(tree.entrySet().iterator());
+
+      return new EntryIterator(iterators);
+    }
+
+    public int size() {
+      return __size;
+    }
+
+    public boolean contains(Object o) {
+      if(!(o instanceof Map.Entry))
+        return false;
+
+      Map.Entry e = (Map.Entry)o;
+      KDTree<Coord,P,V>.KDNode node = __getNode((P)e.getKey());
+
+      if(node == null)
+        return false;
+
+      Object value = e.getValue();
+
+      return (value == null ? node.getValue() == null :
+              value.equals(node.getValue()));
+    }
+  }
+
+  // Installs the pending merge if it has finished or, if wait is true,
+  // once it finishes.
+  private void __finishMerge(boolean wait) {
+    if(__merge == null || (!wait && !__merge.isDone()))
+      return;
+
+    Level<Coord,P,V> merged;
+
+    try {
+      merged = __merge.get();
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while merging.", ie);
+    } catch(ExecutionException ee) {
+      Throwable cause = ee.getCause();
+
+      // The levels are left as they were.
+      __merge = null;
+
+      if(cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if(cause instanceof Error)
+        throw (Error)cause;
+      throw new IllegalStateException(cause);
+    }
+
+    __merge = null;
+    __levels.subList(__mergeBegin, __mergeEnd).clear();
+
+    if(!merged._tree.isEmpty())
+      __levels.add(__mergeBegin, merged);
+  }
+
+  // Installs a finished merge and starts merging the newest levels if
+  // their combined size approaches that of the level preceding them.
+  private void __maintain() {
+    __finishMerge(false);
+
+    while(__merge == null) {
+      final int last = __levels.size() - 1;
+      int first = last, total;
+
+      if(last < 1)
+        return;
+
+      total = __levels.get(last)._tree.size();
+
+      while(first > 0 && __levels.get(first - 1)._tree.size() < 2*total)
+        total+=__levels.get(--first)._tree.size();
+
+      if(first == last)
+        return;
+
+      final List<KDTree<Coord,P,V>> trees =
+        new ArrayList<KDTree<Coord,P,V>>(last + 1 - first);
+
+      for(int i = first; i <= last; ++i)
+        trees.add(__levels.get(i)._tree);
+
+      Callable<Level<Coord,P,V>> merge = new Callable<Level<Coord,P,V>>() {
+          public Level<Coord,P,V> call() {
+            return new Level<Coord,P,V>(KDTree.union(__dimensions, trees));
+          }
+        };
+
+      __mergeBegin = first;
+      __mergeEnd   = last + 1;
+
+      if(__executor == null) {
+        FutureTask<Level<Coord,P,V>> task =
+          new FutureTask<Level<Coord,P,V>>(merge);
+
+        task.run();
+        __merge = task;
+      } else
+        __merge = __executor.submit(merge);
+
+      __finishMerge(false);
+    }
+  }
+
+  // Turns the buffer into the newest level.
+  private void __flushBuffer() {
+    __buffer.optimize();
+    __levels.add(new Level<Coord,P,V>(__buffer));
+    __buffer = new KDTree<Coord,P,V>(__dimensions);
+    __maintain();
+  }
+
+  // Returns the index of the level that maps a point, or -1 if no
+  // level does.  A level that is being merged is first replaced by the
+  // result of the merge, so that the level returned can be modified.
+  private int __findLevel(P point) {
+    for(int i = __levels.size() - 1; i >= 0; --i) {
+      if(__levels.get(i).getNode(point) != null) {
+        if(__merge != null && i >= __mergeBegin && i < __mergeEnd) {
+          __finishMerge(true);
+          return __findLevel(point);
+        }
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  // Returns the node that maps a point, or null if no tree does.  The
+  // node returned can be modified.
+  private KDTree<Coord,P,V>.KDNode __findNode(P point) {
+    __maintain();
+
+    KDTree<Coord,P,V>.KDNode node = __buffer.getNode(point);
+
+    if(node != null)
+      return node;
+
+    int level = __findLevel(point);
+
+    return (level < 0 ? null : __levels.get(level)._tree.getNode(point));
+  }
+
+  private KDTree<Coord,P,V>.KDNode __getNode(P point) {
+    KDTree<Coord,P,V>.KDNode node = __buffer.getNode(point);
+
+    for(int i = __levels.size() - 1; node == null && i >= 0; --i)
+      node = __levels.get(i).getNode(point);
+
+    return node;
+  }
+
+  // Returns the buffer followed by the levels.
+  List<KDTree<Coord,P,V>> _trees() {
+    ArrayList<KDTree<Coord,P,V>> trees =
+      new ArrayList<KDTree<Coord,P,V>>(__levels.size() + 1);
+
+    __maintain();
+    trees.add(__buffer);
+    for(Level<Coord,P,V> level : __levels)
+      trees.add(level._tree);
+
+    return trees;
+  }
+
+  // Wraps a mapping found in one of the trees returned by _trees().
+  Map.Entry<P,V> _entry(Map.Entry<P,V> entry) {
+    return new ForestEntry(entry);
+  }
+
+  /**
+   * Creates a KDForest of the specified number of dimensions whose
+   * merges run on the given executor.
+   *
+   * @param dimensions The number of dimensions.  Must be greater than 0.
+   * @param bufferSize The number of mappings the buffer holds before it
+   *                   becomes a level of the forest.  Must be greater
+   *                   than 0.
+   * @param executor The executor on which to run merges, or null to
+   *                 run them in the calling thread.
+   */
+  public KDForest(int dimensions, int bufferSize, ExecutorService executor) {
+    assert(dimensions > 0 && bufferSize > 0);
+    __dimensions = dimensions;
+    __bufferSize = bufferSize;
+    __executor   = executor;
+    __levels     = new ArrayList<Level<Coord,P,V>>();
+    clear();
+  }
+
+  /**
+   * Creates a KDForest of the specified number of dimensions whose
+   * merges run in the calling thread.
+   *
+   * @param dimensions The number of dimensions.  Must be greater than 0.
+   * @param bufferSize The number of mappings the buffer holds before it
+   *                   becomes a level of the forest.  Must be greater
+   *                   than 0.
+   */
+  public KDForest(int dimensions, int bufferSize) {
+    this(dimensions, bufferSize, null);
+  }
+
+  /**
+   * Creates a KDForest of the specified number of dimensions with a
+   * buffer of {@link #DEFAULT_BUFFER_SIZE} mappings.
+   *
+   * @param dimensions The number of dimensions.  Must be greater than 0.
+   */
+  public KDForest(int dimensions) {
+    this(dimensions, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a two-dimensional KDForest.
+   */
+  public KDForest() {
+    this(2);
+  }
+
+  /**
+   * Sets the executor on which to run merges.  A merge that is already
+   * running is not affected.
+   *
+   * @param executor The executor on which to run merges, or null to
+   *                 run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Turns the buffered mappings into a level of the forest and waits
+   * for all the merges this causes to finish.
+   */
+  public void flush() {
+    if(!__buffer.isEmpty())
+      __flushBuffer();
+
+    while(__merge != null) {
+      __finishMerge(true);
+      __maintain();
+    }
+  }
+
+  /**
+   * Returns the number of trees the forest searches, counting the
+   * buffer.
+   *
+   * @return The number of trees the forest searches.
+   */
+  public int getTreeCount() {
+    return __levels.size() + 1;
+  }
+
+  // Begin Map interface methods
+
+  /**
+   * Removes all elements from the container, leaving it empty.  A
+   * pending merge is abandoned.
+   */
+  public void clear() {
+    if(__merge != null) {
+      __merge.cancel(false);
+      __merge = null;
+    }
+
+    __levels.clear();
+    __buffer = new KDTree<Coord,P,V>(__dimensions);
+    __size = 0;
+  }
+
+  /**
+   * Returns true if the container contains a mapping for the specified key.
+   *
+   * @param key The point key to search for.
+   * @return true if the container contains a mapping for the specified key.
+   * @exception ClassCastException if the key is not an instance of P.
+   */
+  public boolean containsKey(Object key)
+    throws ClassCastException
+  {
+    __maintain();
+    return (__getNode((P)key) != null);
+  }
+
+  /**
+   * Returns a Set view of the point to value mappings in the forest.
+   * Modifications to the resulting set will be reflected in the
+   * forest and vice versa, except that {@code Iterator.remove} is not
+   * supported.
+   *
+   * @return A Set view of the point to value mappings in the forest.
+   */
+  public Set<Map.Entry<P,V>> entrySet() {
+    return new MapEntrySet();
+  }
+
+  /**
+   * Retrieves the value at the given location.
+   *
+   * @param point The location from which to retrieve the value.
+   * @return The value at the given location, or null if no value is present.
+   * @exception ClassCastException If the given point is not of the
+   * expected type.
+   */
+  public V get(Object point) throws ClassCastException {
+    __maintain();
+
+    KDTree<Coord,P,V>.KDNode node = __getNode((P)point);
+
+    return (node == null ? null : node.getValue());
+  }
+
+  /**
+   * Inserts a point value pair into the forest, preserving the
+   * spatial ordering.  A new mapping is put into the buffer, while the
+   * value of an existing mapping is replaced where it is held.
+   *
+   * @param point The point serving as a key.
+   * @param value The value to insert at the point.
+   * @return The old value if an existing value is replaced by the
+   * inserted value.
+   */
+  public V put(P point, V value) {
+    KDTree<Coord,P,V>.KDNode node = __findNode(point);
+
+    if(node != null)
+      return node.setValue(value);
+
+    __buffer.put(point, value);
+    ++__size;
+
+    if(__buffer.size() >= __bufferSize)
+      __flushBuffer();
+
+    return null;
+  }
+
+  /**
+   * Removes the point-value mapping corresponding to the given point key.
+   *
+   * @param key The point key of the mapping to remove.
+   * @return The value part of the mapping, if a mapping existed and
+   * was removed.  Null if not.
+   * @exception ClassCastException If the key is not an instance of P.
+   */
+  public V remove(Object key)
+    throws ClassCastException
+  {
+    P point = (P)key;
+
+    __maintain();
+
+    if(__buffer.containsKey(point)) {
+      --__size;
+      return __buffer.remove(point);
+    }
+
+    int level = __findLevel(point);
+
+    if(level < 0)
+      return null;
+
+    KDTree<Coord,P,V> tree = __levels.get(level)._tree;
+    V value = tree.remove(point);
+
+    --__size;
+
+    if(tree.isEmpty()) {
+      __levels.remove(level);
+
+      if(__merge != null && level < __mergeBegin) {
+        --__mergeBegin;
+        --__mergeEnd;
+      }
+    }
+
+    return value;
+  }
+
+  /**
+   * Returns the number of point-value mappings in the forest.
+   *
+   * @return The number of point-value mappings in the forest.
+   */
+  public int size() {
+    return __size;
+  }
+
+  // End Map interface methods
+
+  public Iterator<Map.Entry<P,V>> iterator(P lower, P upper) {
+    List<Iterator<Map.Entry<P,V>>> iterators =
+      new ArrayList<Iterator<Map.Entry<P,V>>>();
+
+    for(KDTree<Coord,P,V> tree : _trees())
+      iterators.add(tree.iterator(lower, upper));
+
+    return new EntryIterator(iterators);
+  }
+
+  public Iterator<Map.Entry<P,V>> iterator(Region<Coord, ? super P> region) {
+    List<Iterator<Map.Entry<P,V>>> iterators =
+      new ArrayList<Iterator<Map.Entry<P,V>>>();
+
+    for(KDTree<Coord,P,V> tree : _trees())
+      iterators.add(tree.iterator(region));
+
+    return new EntryIterator(iterators);
+  }
+}
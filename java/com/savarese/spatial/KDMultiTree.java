@@ -0,0 +1,256 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * <p>A KDMultiTree is a KDTree that maps each point to a list of
+ * values, for data sets in which many values share a point.  Adding a
+ * value at a point that is already mapped appends the value to the
+ * point's list rather than adding a node, so that co-located values do
+ * not deepen the tree.  Each list is stored compactly in an array.</p>
+ *
+ * <p>As a Map, a KDMultiTree maps distinct points to unmodifiable
+ * lists of values, so that range searches and searches such as
+ * {@link NearestNeighbors} return all the values at each point they
+ * find together.  Values are added and removed one at a time with
+ * {@link #add add} and {@link #removeValue removeValue}, while
+ * {@link #put put} replaces all the values at a point.</p>
+ */
+public class KDMultiTree<Coord extends Comparable<? super Coord>,
+                         P extends Point<Coord>, V>
+  extends KDTree<Coord, P, Collection<V>>
+{
+  // The values at a point, in the order in which they were added.
+  static final class Bucket<V> extends AbstractList<V>
+    implements RandomAccess
+  {
+    Object[] _values;
+    int _size, _hashCode;
+
+    Bucket(V value) {
+      _values = new Object[] { value };
+      _size = 1;
+      _hashCode = 31 + (value == null ? 0 : value.hashCode());
+    }
+
+    Bucket(Collection<? extends V> values) {
+      _values = values.toArray();
+      _size = _values.length;
+      _hashCode = super.hashCode();
+    }
+
+    public V get(int index) {
+      if(index >= _size)
+        throw new IndexOutOfBoundsException();
+      return (V)_values[index];
+    }
+
+    public int size() {
+      return _size;
+    }
+
+    // Cached, because the tree's hash code includes that of each list.
+    public int hashCode() {
+      return _hashCode;
+    }
+
+    void append(V value) {
+      if(_size == _values.length) {
+        Object[] values = new Object[Math.max(2*_size, 4)];
+        System.arraycopy(_values, 0, values, 0, _size);
+        _values = values;
+      }
+
+      _values[_size++] = value;
+      _hashCode = 31*_hashCode + (value == null ? 0 : value.hashCode());
+      ++modCount;
+    }
+
+    boolean removeValue(Object value) {
+      int index = indexOf(value);
+
+      if(index < 0)
+        return false;
+
+      System.arraycopy(_values, index + 1, _values, index, _size - index - 1);
+      _values[--_size] = null;
+      _hashCode = super.hashCode();
+      ++modCount;
+
+      return true;
+    }
+  }
+
+  // Returns the values of a node as a Bucket, converting any other
+  // collection stored through Map.Entry.setValue.
+  private Bucket<V> __bucket(KDNode node) {
+    if(!(node._value instanceof Bucket))
+      node._value = new Bucket<V>(node._value);
+    return (Bucket<V>)node._value;
+  }
+
+  /**
+   * Creates a two-dimensional KDMultiTree.
+   */
+  public KDMultiTree() {
+    super();
+  }
+
+  /**
+   * Creates a KDMultiTree of the specified number of dimensions.
+   *
+   * @param dimensions The number of dimensions.  Must be greater than 0.
+   */
+  public KDMultiTree(int dimensions) {
+    super(dimensions);
+  }
+
+  /**
+   * Adds a value at a point.  If the point is already mapped, the value
+   * is appended to its values without changing the tree.
+   *
+   * @param point The point at which to add the value.
+   * @param value The value to add.
+   * @return true if the point was not mapped before, false if not.
+   */
+  public boolean add(P point, V value) {
+    KDNode[] parent = new KDTree.KDNode[1];
+    KDNode node =
+      (_index == null ? getNode(point, parent) : _index.get(point));
+
+    if(node == null) {
+      if(_index != null)
+        getNode(point, parent);
+
+      addNode(parent[0], point, new Bucket<V>(value));
+      return true;
+    }
+
+    _hashCode-=node.hashCode();
+    if(_valueIndex != null)
+      unindexValue(node);
+    __bucket(node).append(value);
+    if(_valueIndex != null)
+      indexValue(node);
+    _hashCode+=node.hashCode();
+
+    return false;
+  }
+
+  /**
+   * Removes one occurrence of a value at a point.  The point is
+   * removed from the tree along with its last value.
+   *
+   * @param point The point from which to remove the value.
+   * @param value The value to remove.
+   * @return true if the value was found and removed, false if not.
+   */
+  public boolean removeValue(P point, Object value) {
+    KDNode node = getNode(point);
+
+    if(node == null || !node._value.contains(value))
+      return false;
+
+    if(node._value.size() == 1) {
+      remove(point);
+      return true;
+    }
+
+    _hashCode-=node.hashCode();
+    if(_valueIndex != null)
+      unindexValue(node);
+    __bucket(node).removeValue(value);
+    if(_valueIndex != null)
+      indexValue(node);
+    _hashCode+=node.hashCode();
+
+    return true;
+  }
+
+  /**
+   * Returns true if a value is mapped at a point.
+   *
+   * @param point The point to search.
+   * @param value The value to search for.
+   * @return true if the value is mapped at the point, false if not.
+   */
+  public boolean contains(P point, Object value) {
+    KDNode node = getNode(point);
+
+    return (node != null && node._value.contains(value));
+  }
+
+  /**
+   * Returns the total number of values at all the points of the tree.
+   * This takes time proportional to the number of points; the number
+   * of points is returned by {@link #size size}.
+   *
+   * @return The total number of values at all the points of the tree.
+   */
+  public int getValueCount() {
+    int count = 0;
+
+    for(Collection<V> values : values())
+      count+=values.size();
+
+    return count;
+  }
+
+  /**
+   * Replaces the values at a point with the contents of a collection.
+   * An empty collection removes the point.
+   *
+   * @param point The point serving as a key.
+   * @param values The values to store at the point.
+   * @return The old values at the point, or null if it was not mapped.
+   */
+  public Collection<V> put(P point, Collection<V> values) {
+    if(values == null || values.isEmpty())
+      return remove(point);
+
+    return super.put(point, new Bucket<V>(values));
+  }
+
+  /**
+   * Replaces the values at the points of a Map with the contents of
+   * the collections it maps them to, as by {@link #put put}.
+   *
+   * @param map The Map from which to copy the mappings.
+   */
+  public void putAll(Map<? extends P, ? extends Collection<V>> map) {
+    HashMap<P, Collection<V>> buckets = new HashMap<P, Collection<V>>();
+
+    for(Map.Entry<? extends P, ? extends Collection<V>> e : map.entrySet()) {
+      Collection<V> values = e.getValue();
+
+      if(values == null || values.isEmpty())
+        remove(e.getKey());
+      else
+        buckets.put(e.getKey(), new Bucket<V>(values));
+    }
+
+    super.putAll(buckets);
+  }
+}
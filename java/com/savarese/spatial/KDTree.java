@@ -32,10 +32,16 @@ import java.util.*;
  */
 public class KDTree<Coord extends Comparable<? super Coord>,
                         P extends Point<Coord>, V>
-  implements RangeSearchTree<Coord, P, V>
+  implements RegionSearchTree<Coord, P, V>
 {
   final class KDNode implements Map.Entry<P,V>{
     int _discriminator;
+    // Number of nodes in the subtree rooted at this node, or 0 if the
+    // node has been removed from the tree.
+    int _count;
+    // Value of _generation when the node was created.  The node was
+    // removed by clear() if it differs from the tree's.
+    int _generation;
     P _point;
     V _value;
     KDNode _low, _high;
@@ -45,6 +51,8 @@ public class KDTree<Coord extends Comparable<? super Coord>,
       _value = value;
       _low  = _high = null;
       _discriminator = discriminator;
+      _count = 1;
+      _generation = KDTree.this._generation;
     }
 
     public boolean equals(Object o) {
@@ -68,11 +76,21 @@ public class KDTree<Coord extends Comparable<? super Coord>,
       return _value;
     }
 
-    // Only call if the node is in the tree.
     public V setValue(V value) {
       V old = _value;
+
+      // An entry removed from the tree no longer affects it.
+      if(_count == 0 || _generation != KDTree.this._generation) {
+        _value = value;
+        return old;
+      }
+
       _hashCode-=hashCode();
+      if(_valueIndex != null)
+        unindexValue(this);
       _value = value;
+      if(_valueIndex != null)
+        indexValue(this);
       _hashCode+=hashCode();
       return old;
     }
@@ -149,6 +167,576 @@ public class KDTree<Coord extends Comparable<? super Coord>,
     }
   }
 
+  final class RegionCell {
+    KDNode _node;
+    GenericPoint<Coord> _lower, _upper;
+    boolean _contained;
+
+    RegionCell(KDNode node, GenericPoint<Coord> lower,
+               GenericPoint<Coord> upper, boolean contained)
+    {
+      _node      = node;
+      _lower     = lower;
+      _upper     = upper;
+      _contained = contained;
+    }
+  }
+
+  final class RegionIterator implements Iterator<Map.Entry<P,V>> {
+    LinkedList<RegionCell> _stack;
+    KDNode _next;
+    Region<Coord, ? super P> _region;
+
+    // Descends into a child cell only if it intersects the region,
+    // noting whether the region contains the whole cell.
+    void push(KDNode node, GenericPoint<Coord> lower,
+              GenericPoint<Coord> upper)
+    {
+      if(_region.intersects(lower, upper))
+        _stack.addLast(new RegionCell(node, lower, upper,
+                                      _region.contains(lower, upper)));
+    }
+
+    RegionIterator(Region<Coord, ? super P> region) {
+      _stack  = new LinkedList<RegionCell>();
+      _region = region;
+      _next   = null;
+
+      if(_root != null)
+        push(_root, new GenericPoint<Coord>(_dimensions),
+             new GenericPoint<Coord>(_dimensions));
+      next();
+    }
+
+    public boolean hasNext() {
+      return (_next != null);
+    }
+
+    public Map.Entry<P,V> next() {
+      KDNode old = _next;
+
+      while(!_stack.isEmpty()) {
+        RegionCell cell = _stack.removeLast();
+        KDNode node = cell._node;
+
+        if(cell._contained) {
+          if(node._high != null)
+            _stack.addLast(new RegionCell(node._high, null, null, true));
+          if(node._low != null)
+            _stack.addLast(new RegionCell(node._low, null, null, true));
+          _next = node;
+          return old;
+        }
+
+        int discriminator = node._discriminator;
+        Coord split = node._point.getCoord(discriminator);
+
+        if(node._high != null) {
+          GenericPoint<Coord> lower = (GenericPoint<Coord>)cell._lower.clone();
+          lower.setCoord(discriminator, split);
+          push(node._high, lower, cell._upper);
+        }
+
+        if(node._low != null) {
+          GenericPoint<Coord> upper = (GenericPoint<Coord>)cell._upper.clone();
+          upper.setCoord(discriminator, split);
+          push(node._low, cell._lower, upper);
+        }
+
+        if(_region.contains(node._point)) {
+          _next = node;
+          return old;
+        }
+      }
+
+      _next = null;
+
+      return old;
+    }
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  // Counts and samples the mappings inside a rectangle, further
+  // limited along one dimension to coordinates strictly between _after
+  // and _before, using subtree counts for cells inside the range.
+  final class RangeCounter {
+    P _lower, _upper;
+    int _dimension, _position, _sample;
+    Coord _after, _before;
+    // Bounds of the current cell: _cellLow inclusive, _cellHigh exclusive.
+    Object[] _cellLow, _cellHigh;
+    // Pivots of partition() and the numbers of mappings in range whose
+    // coordinates are less than or equal to each of them.
+    Coord _lowPivot, _highPivot;
+    int _belowLow, _throughLow, _belowHigh, _throughHigh;
+    // Explicit stack of the walk.  Each entry sets a bound of the
+    // current cell and then visits its node, if any; entries without a
+    // node restore the bounds of enclosing cells.
+    KDNode[] _nodes;
+    Object[][] _cells;
+    int[] _boundDimensions;
+    Object[] _bounds;
+    int _top;
+
+    RangeCounter(int dimension, P lower, P upper) {
+      _dimension = dimension;
+      _lower     = lower;
+      _upper     = upper;
+      _after     = _before = null;
+      _cellLow   = new Object[_dimensions];
+      _cellHigh  = new Object[_dimensions];
+      _nodes     = (KDNode[])Array.newInstance(KDNode.class, 64);
+      _cells     = new Object[64][];
+      _boundDimensions = new int[64];
+      _bounds    = new Object[64];
+      _top       = 0;
+    }
+
+    boolean isInRange(P point) {
+      if(!KDTree.this.isInRange(point, _lower, _upper))
+        return false;
+
+      Coord c = point.getCoord(_dimension);
+
+      return ((_after == null || c.compareTo(_after) > 0) &&
+              (_before == null || c.compareTo(_before) < 0));
+    }
+
+    boolean containsCell() {
+      for(int i = 0; i < _dimensions; ++i) {
+        Coord low = (Coord)_cellLow[i], high = (Coord)_cellHigh[i];
+
+        if((_lower != null &&
+            (low == null || low.compareTo(_lower.getCoord(i)) < 0)) ||
+           (_upper != null &&
+            (high == null || high.compareTo(_upper.getCoord(i)) > 0)))
+          return false;
+      }
+
+      Coord low = (Coord)_cellLow[_dimension];
+      Coord high = (Coord)_cellHigh[_dimension];
+
+      return ((_after == null || (low != null && low.compareTo(_after) > 0)) &&
+              (_before == null ||
+               (high != null && high.compareTo(_before) <= 0)));
+    }
+
+    boolean searchLow(KDNode node) {
+      int discriminator = node._discriminator;
+      Coord split = node._point.getCoord(discriminator);
+
+      return (node._low != null &&
+              (_lower == null ||
+               split.compareTo(_lower.getCoord(discriminator)) > 0) &&
+              (_after == null || discriminator != _dimension ||
+               split.compareTo(_after) > 0));
+    }
+
+    boolean searchHigh(KDNode node) {
+      int discriminator = node._discriminator;
+      Coord split = node._point.getCoord(discriminator);
+
+      return (node._high != null &&
+              (_upper == null ||
+               split.compareTo(_upper.getCoord(discriminator)) <= 0) &&
+              (_before == null || discriminator != _dimension ||
+               split.compareTo(_before) < 0));
+    }
+
+    // Starts a preorder walk of the tree from the root cell.
+    void start() {
+      Arrays.fill(_cellLow, null);
+      Arrays.fill(_cellHigh, null);
+      _top = 0;
+
+      if(_root != null)
+        push(_root, _cellLow, 0, null);
+    }
+
+    void push(KDNode node, Object[] cell, int dimension, Object bound) {
+      if(_top == _nodes.length) {
+        int length = 2*_top;
+        KDNode[] nodes = (KDNode[])Array.newInstance(KDNode.class, length);
+        Object[][] cells = new Object[length][];
+        int[] dimensions = new int[length];
+        Object[] bounds = new Object[length];
+
+        System.arraycopy(_nodes, 0, nodes, 0, _top);
+        System.arraycopy(_cells, 0, cells, 0, _top);
+        System.arraycopy(_boundDimensions, 0, dimensions, 0, _top);
+        System.arraycopy(_bounds, 0, bounds, 0, _top);
+        _nodes = nodes;
+        _cells = cells;
+        _boundDimensions = dimensions;
+        _bounds = bounds;
+      }
+
+      _nodes[_top] = node;
+      _cells[_top] = cell;
+      _boundDimensions[_top] = dimension;
+      _bounds[_top] = bound;
+      ++_top;
+    }
+
+    // Schedules the low and then the high child of node to be visited
+    // within their cells, each followed by restoring the bound of the
+    // current cell that its cell replaces.
+    void pushChildren(KDNode node, boolean low, boolean high) {
+      int discriminator = node._discriminator;
+      Coord split = node._point.getCoord(discriminator);
+
+      if(high) {
+        push(null, _cellLow, discriminator, _cellLow[discriminator]);
+        push(node._high, _cellLow, discriminator, split);
+      }
+
+      if(low) {
+        push(null, _cellHigh, discriminator, _cellHigh[discriminator]);
+        push(node._low, _cellHigh, discriminator, split);
+      }
+    }
+
+    // Returns the next node of the walk with the current cell set to
+    // its cell, or null if the walk is done.
+    KDNode next() {
+      while(_top > 0) {
+        --_top;
+
+        KDNode node = _nodes[_top];
+
+        _cells[_top][_boundDimensions[_top]] = _bounds[_top];
+        _nodes[_top] = null;
+        _bounds[_top] = null;
+
+        if(node != null)
+          return node;
+      }
+
+      return null;
+    }
+
+    int count() {
+      int result = 0;
+      KDNode node;
+
+      start();
+
+      while((node = next()) != null) {
+        if(containsCell()) {
+          result+=node._count;
+          continue;
+        }
+
+        if(isInRange(node._point))
+          ++result;
+
+        pushChildren(node, searchLow(node), searchHigh(node));
+      }
+
+      return result;
+    }
+
+    // Counts the mappings in range relative to lowPivot and highPivot.
+    void partition(Coord lowPivot, Coord highPivot) {
+      KDNode node;
+
+      _lowPivot  = lowPivot;
+      _highPivot = highPivot;
+      _belowLow  = _throughLow = _belowHigh = _throughHigh = 0;
+
+      start();
+
+      while((node = next()) != null) {
+        if(containsCell()) {
+          Coord low = (Coord)_cellLow[_dimension];
+          Coord high = (Coord)_cellHigh[_dimension];
+
+          if(low != null && low.compareTo(_highPivot) > 0)
+            continue;
+
+          if(high != null && high.compareTo(_highPivot) <= 0) {
+            if(high.compareTo(_lowPivot) <= 0) {
+              _belowLow+=node._count;
+              _throughLow+=node._count;
+            }
+
+            if(high.compareTo(_lowPivot) <= 0 ||
+               (low != null && low.compareTo(_lowPivot) > 0))
+              {
+                _belowHigh+=node._count;
+                _throughHigh+=node._count;
+                continue;
+              }
+          }
+        }
+
+        int discriminator = node._discriminator;
+        Coord split = node._point.getCoord(discriminator);
+
+        if(isInRange(node._point)) {
+          Coord c = node._point.getCoord(_dimension);
+
+          if(c.compareTo(_lowPivot) < 0)
+            ++_belowLow;
+          if(c.compareTo(_lowPivot) <= 0)
+            ++_throughLow;
+          if(c.compareTo(_highPivot) < 0)
+            ++_belowHigh;
+          if(c.compareTo(_highPivot) <= 0)
+            ++_throughHigh;
+        }
+
+        // Mappings above _highPivot are not counted.
+        pushChildren(node, searchLow(node),
+                     searchHigh(node) &&
+                     (discriminator != _dimension ||
+                      split.compareTo(_highPivot) <= 0));
+      }
+    }
+
+    // Returns the node at the given position of the subtree in preorder.
+    KDNode find(KDNode node, int position) {
+      while(position > 0) {
+        --position;
+
+        if(node._low != null && position < node._low._count)
+          node = node._low;
+        else {
+          if(node._low != null)
+            position-=node._low._count;
+          node = node._high;
+        }
+      }
+
+      return node;
+    }
+
+    // Stores in samples the mappings found at the given sorted
+    // positions among the mappings in range, in preorder.
+    void sample(int[] positions, KDNode[] samples) {
+      KDNode node;
+
+      _position = _sample = 0;
+
+      start();
+
+      while(_sample < positions.length && (node = next()) != null) {
+        if(containsCell()) {
+          while(_sample < positions.length &&
+                positions[_sample] < _position + node._count)
+            {
+              samples[_sample] = find(node, positions[_sample] - _position);
+              ++_sample;
+            }
+
+          _position+=node._count;
+          continue;
+        }
+
+        if(isInRange(node._point)) {
+          while(_sample < positions.length && positions[_sample] == _position)
+            samples[_sample++] = node;
+          ++_position;
+        }
+
+        pushChildren(node, searchLow(node), searchHigh(node));
+      }
+    }
+
+    // Stores the mappings in range in nodes, in preorder, starting at
+    // _position.
+    void collect(KDNode[] nodes) {
+      KDNode node;
+
+      start();
+
+      while((node = next()) != null) {
+        if(isInRange(node._point))
+          nodes[_position++] = node;
+
+        pushChildren(node, searchLow(node), searchHigh(node));
+      }
+    }
+  }
+
+  // Removes the mappings inside a rectangle that satisfy a predicate,
+  // working bottom-up.  Subtrees that lose nearly all of their nodes
+  // are rebuilt from the few that survive, and other removed nodes are
+  // replaced in place within their already pruned subtrees.
+  final class RangeRemover {
+    P _lower, _upper;
+    Predicate<? super Map.Entry<P,V>> _predicate;
+    int _removed;
+    // Surviving nodes of subtrees that are to be rebuilt.
+    ArrayList<KDNode> _survivors;
+    // Returned in place of a subtree whose surviving nodes were
+    // appended to _survivors.
+    KDNode _listed;
+    NodeComparator _comparator;
+
+    RangeRemover(P lower, P upper,
+                 Predicate<? super Map.Entry<P,V>> predicate)
+    {
+      _lower      = lower;
+      _upper      = upper;
+      _predicate  = predicate;
+      _removed    = 0;
+      _survivors  = new ArrayList<KDNode>();
+      _listed     = new KDNode(0, null, null);
+      _comparator = new NodeComparator();
+    }
+
+    void collect(KDNode node) {
+      if(node != null)
+        fillList(_survivors, node);
+    }
+
+    // Builds a subtree from _survivors[begin, size()) and removes those
+    // nodes from _survivors.
+    KDNode build(int begin, int discriminator) {
+      int end = _survivors.size();
+      KDNode[] nodes =
+        (KDNode[])Array.newInstance(KDNode.class, end - begin);
+
+      for(int i = end - 1; i >= begin; --i)
+        nodes[i - begin] = _survivors.remove(i);
+
+      _comparator.setDiscriminator(discriminator);
+
+      return optimize(nodes, 0, nodes.length, _comparator);
+    }
+
+    // A subtree being processed by remove().  _low and _high hold the
+    // results of removing from the children once they are done.
+    final class Frame {
+      KDNode _node, _low, _high;
+      int _mark, _middle, _removed, _stage;
+
+      Frame(KDNode node) {
+        _node    = node;
+        _low     = node._low;
+        _high    = node._high;
+        _mark    = _survivors.size();
+        _removed = RangeRemover.this._removed;
+        _stage   = 0;
+      }
+    }
+
+    // Removes the matching mappings from the subtree rooted at node
+    // and returns the new root of the subtree, or _listed.  Uses an
+    // explicit stack so that degenerate trees of any depth can be
+    // handled.
+    KDNode remove(KDNode node) {
+      ArrayList<Frame> stack = new ArrayList<Frame>();
+      KDNode result = null;
+
+      stack.add(new Frame(node));
+
+      while(!stack.isEmpty()) {
+        Frame frame = stack.get(stack.size() - 1);
+        int discriminator;
+        Coord split;
+
+        node = frame._node;
+        discriminator = node._discriminator;
+        split = node._point.getCoord(discriminator);
+
+        if(frame._stage == 0) {
+          frame._stage = 1;
+
+          if(frame._low != null &&
+             (_lower == null ||
+              split.compareTo(_lower.getCoord(discriminator)) > 0))
+            {
+              stack.add(new Frame(frame._low));
+              continue;
+            }
+        }
+
+        if(frame._stage == 1) {
+          frame._stage  = 2;
+          frame._middle = _survivors.size();
+
+          if(frame._high != null &&
+             (_upper == null ||
+              split.compareTo(_upper.getCoord(discriminator)) <= 0))
+            {
+              stack.add(new Frame(frame._high));
+              continue;
+            }
+        }
+
+        stack.remove(stack.size() - 1);
+        result = finish(frame);
+
+        if(!stack.isEmpty()) {
+          Frame parent = stack.get(stack.size() - 1);
+
+          if(parent._stage == 1)
+            parent._low = result;
+          else
+            parent._high = result;
+        }
+      }
+
+      return result;
+    }
+
+    // Completes the removal from a subtree once its children are done.
+    KDNode finish(Frame frame) {
+      KDNode node = frame._node, low = frame._low, high = frame._high;
+      int removed;
+      boolean matches;
+
+      matches = (isInRange(node._point, _lower, _upper) &&
+                 (_predicate == null || _predicate.evaluate(node)));
+
+      if(matches) {
+        ++_removed;
+        _hashCode-=node.hashCode();
+        unindex(node);
+      }
+
+      removed = _removed - frame._removed;
+
+      if((long)REBUILD_RATIO*(node._count - removed) <= removed) {
+        if(low != _listed)
+          collect(low);
+        if(high != _listed)
+          collect(high);
+        if(matches)
+          release(node);
+        else
+          _survivors.add(node);
+        return _listed;
+      }
+
+      // Rebuild the high survivors first because they follow the low ones.
+      if(high == _listed)
+        high = build(frame._middle, node._high._discriminator);
+      if(low == _listed)
+        low = build(frame._mark, node._low._discriminator);
+
+      node._low   = low;
+      node._high  = high;
+      node._count = 1 + (low == null ? 0 : low._count) +
+        (high == null ? 0 : high._count);
+
+      if(!matches)
+        return node;
+
+      KDNode child = recursiveRemoveNode(node);
+      release(node);
+
+      return child;
+    }
+  }
+
   final class KeyIterator implements Iterator<P> {
     MapEntryIterator iterator;
 
@@ -409,7 +997,7 @@ public class KDTree<Coord extends Comparable<? super Coord>,
     public boolean remove(Object o)
       throws ClassCastException
     {
-      KDNode node = findValue(_root, o);
+      KDNode node = findValue(o);
 
       if(node != null) {
         KDTree.this.remove(node.getKey());
@@ -419,47 +1007,75 @@ public class KDTree<Coord extends Comparable<? super Coord>,
       return false;
     }
 
-    public boolean removeAll(Collection<?> c)
+    // Without a value index, the mappings to remove are found in a
+    // single traversal rather than by a search for each value.
+    public boolean removeAll(final Collection<?> c)
       throws ClassCastException
     {
+      if(_valueIndex == null) {
+        Predicate<Map.Entry<P,V>> contained =
+          new Predicate<Map.Entry<P,V>>() {
+            public boolean evaluate(Map.Entry<P,V> e) {
+              return c.contains(e.getValue());
+            }
+          };
+
+        return (KDTree.this.removeIf(contained) > 0);
+      }
+
       int size = size();
 
       for(Object o : c) {
-        KDNode node = findValue(_root, o);
+        KDNode node;
 
-        while(node != null) {
-          KDTree.this.remove(o);
-          node = findValue(_root, o);
-        }
+        while((node = findValue(o)) != null)
+          KDTree.this.remove(node.getKey());
       }
 
       return (size != size());
     }
 
-    public boolean retainAll(Collection<?> c)
+    public boolean retainAll(final Collection<?> c)
       throws ClassCastException
     {
-      HashMap<P,V> map = new HashMap<P,V>();
-      int size = size();
-
-      for(Object o : c) {
-        KDNode node = findValue(_root, o);
-
-        while(node != null) {
-          map.put(node.getKey(), node.getValue());
-          node = findValue(_root, o);
-        }
-      }
-
-      clear();
-      putAll(map);
-
-      return (size != size());
+      Predicate<Map.Entry<P,V>> excluded =
+        new Predicate<Map.Entry<P,V>>() {
+          public boolean evaluate(Map.Entry<P,V> e) {
+            return !c.contains(e.getValue());
+          }
+        };
+
+      return (KDTree.this.removeIf(excluded) > 0);
     }
   }
 
+  // select() sorts ranges with no more mappings than SELECT_SORT_SIZE.
+  // Larger ranges are narrowed with pivots chosen SELECT_SPREAD places
+  // to either side of the rank among SELECT_SAMPLES random mappings.
+  static final int SELECT_SORT_SIZE = 256;
+  static final int SELECT_SAMPLES = 64;
+  static final int SELECT_SPREAD = 8;
+  // removeRange() rebuilds subtrees that lose at least REBUILD_RATIO
+  // times as many nodes as survive.
+  static final int REBUILD_RATIO = 16;
+
   int _size, _hashCode, _dimensions;
+  // Incremented by clear() to mark all existing nodes as removed.
+  int _generation;
   KDNode _root;
+  // Snapshot with per-node bounds built by PackedKDTree.get() and
+  // released by modified().  Volatile so that a snapshot built by one
+  // reader is safely published to the others.
+  volatile PackedKDTree<?,P,V> _packed;
+  // Number of searches since the last modification that scanned the
+  // mappings linearly rather than build _packed.  See
+  // PackedKDTree.getIfWorthwhile().
+  int _scans;
+  // Optional index from points to their nodes, or null if disabled.
+  HashMap<P,KDNode> _index;
+  // Optional index from values to the node, or to an ArrayList of the
+  // nodes, that map them, or null if disabled.
+  HashMap<Object,Object> _valueIndex;
 
   KDNode getNode(P point, KDNode[] parent) {
     int discriminator;
@@ -493,120 +1109,248 @@ public class KDTree<Coord extends Comparable<? super Coord>,
   }
 
   KDNode getNode(P point) {
+    if(_index != null)
+      return _index.get(point);
+
     return getNode(point, null);
   }
 
-  KDNode getMinimumNode(KDNode node, KDNode p, int discriminator,
-                        KDNode[] parent)
-  {
-    KDNode result;
+  // Adds node to the indexes that are enabled.
+  void index(KDNode node) {
+    if(_index != null)
+      _index.put(node._point, node);
+    if(_valueIndex != null)
+      indexValue(node);
+  }
 
-    if(discriminator == node._discriminator) {
-      if(node._low != null)
-        return getMinimumNode(node._low, node, discriminator, parent);
-      else
-        result = node;
-    } else {
-      KDNode nlow = null, nhigh = null;
-      KDNode[] plow = new KDTree.KDNode[1], phigh = new KDTree.KDNode[1];
+  // Removes node from the indexes that are enabled.  The hash index
+  // entry is kept if its point has already been taken over by another
+  // node.
+  void unindex(KDNode node) {
+    if(_index != null && _index.get(node._point) == node)
+      _index.remove(node._point);
+    if(_valueIndex != null)
+      unindexValue(node);
+  }
 
-      if(node._low != null)
-        nlow = getMinimumNode(node._low, node, discriminator, plow);
+  void indexValue(KDNode node) {
+    Object nodes = _valueIndex.put(node._value, node);
 
-      if(node._high != null)
-        nhigh = getMinimumNode(node._high, node, discriminator, phigh);
+    if(nodes != null) {
+      ArrayList<KDNode> list;
 
-      if(nlow != null && nhigh != null) {
-        if(nlow._point.getCoord(discriminator).compareTo(nhigh._point.getCoord(discriminator)) < 0) {
-          result    = nlow;
-          parent[0] = plow[0];
-        } else {
-          result    = nhigh;
-          parent[0] = phigh[0];
-        }
-      } else if(nlow != null) {
-        result    = nlow;
-        parent[0] = plow[0];
-      } else if(nhigh != null) {
-        result    = nhigh;
-        parent[0] = phigh[0];
-      } else
-        result = node;
-    }
+      if(nodes instanceof ArrayList)
+        list = (ArrayList<KDNode>)nodes;
+      else {
+        list = new ArrayList<KDNode>(2);
+        list.add((KDNode)nodes);
+      }
 
-    if(result == node)
-      parent[0] = p;
-    else if(node._point.getCoord(discriminator).compareTo(result._point.getCoord(discriminator)) < 0) {
-      result    = node;
-      parent[0] = p;
+      list.add(node);
+      _valueIndex.put(node._value, list);
     }
-
-    return result;
   }
 
-  KDNode recursiveRemoveNode(KDNode node) {
-    int discriminator;
-
-    if(node._low == null && node._high == null)
-      return null;
-    else
-      discriminator = node._discriminator;
+  // Takes time proportional to the number of nodes sharing the value.
+  void unindexValue(KDNode node) {
+    Object nodes = _valueIndex.get(node._value);
+
+    if(nodes == node)
+      _valueIndex.remove(node._value);
+    else if(nodes instanceof ArrayList) {
+      ArrayList<KDNode> list = (ArrayList<KDNode>)nodes;
+      int last = list.size() - 1;
+
+      for(int i = 0; i <= last; ++i) {
+        if(list.get(i) == node) {
+          list.set(i, list.get(last));
+          list.remove(last);
+          break;
+        }
+      }
 
-    if(node._high == null) {
-      node._high = node._low;
-      node._low = null;
+      if(list.size() == 1)
+        _valueIndex.put(node._value, list.get(0));
     }
+  }
 
-    KDNode[] parent = new KDTree.KDNode[1];
-    KDNode newRoot =
-      getMinimumNode(node._high, node, discriminator, parent);
-    KDNode child = recursiveRemoveNode(newRoot);
+  // Adds delta to the subtree counts of the nodes on the path from
+  // node down to target, excluding target, and returns the parent of
+  // target.  The path is found by descending with target's point.
+  KDNode adjustCounts(KDNode parent, KDNode node, KDNode target, int delta) {
+    P point = target._point;
 
-    if(parent[0]._low == newRoot)
-      parent[0]._low = child;
-    else
-      parent[0]._high = child;
+    while(node != target) {
+      int discriminator = node._discriminator;
+
+      node._count+=delta;
+      parent = node;
 
-    newRoot._low  = node._low;
-    newRoot._high = node._high;
-    newRoot._discriminator = node._discriminator;
+      if(point.getCoord(discriminator).compareTo(
+                                node._point.getCoord(discriminator)) < 0)
+        node = node._low;
+      else
+        node = node._high;
+    }
 
-    return newRoot;
+    return parent;
   }
 
-  KDNode findValue(KDNode node, Object value) {
-    if(node == null || (value == null ? node.getValue() == null :
-                        value.equals(node.getValue())))
-      return node;
+  // Returns a node of the subtree rooted at node whose point has the
+  // smallest coordinate along discriminator.  Subtrees that split on
+  // discriminator are searched only on their low side.
+  KDNode getMinimumNode(KDNode node, int discriminator) {
+    ArrayList<KDNode> stack = new ArrayList<KDNode>();
+    KDNode result = node;
+    Coord min = node._point.getCoord(discriminator);
+
+    while(true) {
+      Coord c = node._point.getCoord(discriminator);
 
-    KDNode result;
+      if(c.compareTo(min) < 0) {
+        result = node;
+        min = c;
+      }
 
-    if((result = findValue(node._low, value)) == null)
-      result = findValue(node._high, value);
+      if(node._discriminator != discriminator && node._high != null)
+        stack.add(node._high);
 
-    return result;
+      if(node._low != null)
+        node = node._low;
+      else if(!stack.isEmpty())
+        node = stack.remove(stack.size() - 1);
+      else
+        return result;
+    }
   }
 
-  boolean isInRange(P point, P lower, P upper) {
-    Coord coordinate1, coordinate2 = null, coordinate3 = null;
+  // Points equal to the discriminator are stored in the high subtree,
+  // so subtrees that split on discriminator are searched only on their
+  // high side.
+  KDNode getMaximumNode(KDNode node, int discriminator) {
+    ArrayList<KDNode> stack = new ArrayList<KDNode>();
+    KDNode result = node;
+    Coord max = node._point.getCoord(discriminator);
 
-    if(lower != null || upper != null) {
-      int dimensions;
-      dimensions = point.getDimensions();
+    while(true) {
+      Coord c = node._point.getCoord(discriminator);
 
-      for(int i = 0; i < dimensions; ++i) {
-        coordinate1 = point.getCoord(i);
-        if(lower != null)
-          coordinate2 = lower.getCoord(i);
-        if(upper != null)
-          coordinate3 = upper.getCoord(i);
-        if((coordinate2 != null && coordinate1.compareTo(coordinate2) < 0) ||
-           (coordinate3 != null && coordinate1.compareTo(coordinate3) > 0))
-          return false;
+      if(c.compareTo(max) > 0) {
+        result = node;
+        max = c;
       }
-    }
 
-    return true;
+      if(node._discriminator != discriminator && node._low != null)
+        stack.add(node._low);
+
+      if(node._high != null)
+        node = node._high;
+      else if(!stack.isEmpty())
+        node = stack.remove(stack.size() - 1);
+      else
+        return result;
+    }
+  }
+
+  // Removes node from the subtree rooted at it and returns the new root
+  // of the subtree.  Each removed node is replaced by the node with the
+  // smallest coordinate along its discriminator in its high subtree,
+  // which in turn is removed from there.  The chain of replacements is
+  // recorded first and then applied from the bottom up, so that
+  // degenerate trees of any depth can be handled.
+  KDNode recursiveRemoveNode(KDNode node) {
+    // Triples of a removed node, its replacement, and the replacement's
+    // parent.
+    ArrayList<KDNode> chain = new ArrayList<KDNode>();
+    KDNode child = null;
+
+    while(node._low != null || node._high != null) {
+      int discriminator = node._discriminator;
+
+      if(node._high == null) {
+        node._high = node._low;
+        node._low = null;
+      }
+
+      KDNode newRoot = getMinimumNode(node._high, discriminator);
+
+      chain.add(node);
+      chain.add(newRoot);
+      chain.add(adjustCounts(node, node._high, newRoot, -1));
+      node = newRoot;
+    }
+
+    for(int i = chain.size() - 3; i >= 0; i-=3) {
+      KDNode removed = chain.get(i), newRoot = chain.get(i + 1);
+      KDNode parent = chain.get(i + 2);
+
+      if(parent._low == newRoot)
+        parent._low = child;
+      else
+        parent._high = child;
+
+      newRoot._low  = removed._low;
+      newRoot._high = removed._high;
+      newRoot._discriminator = removed._discriminator;
+      newRoot._count = removed._count - 1;
+      child = newRoot;
+    }
+
+    return child;
+  }
+
+  // Returns a node mapping value, or null if there is none.
+  KDNode findValue(Object value) {
+    if(_valueIndex != null) {
+      Object nodes = _valueIndex.get(value);
+
+      if(nodes instanceof ArrayList)
+        return ((ArrayList<KDNode>)nodes).get(0);
+
+      return (KDNode)nodes;
+    }
+
+    ArrayList<KDNode> stack = new ArrayList<KDNode>();
+    KDNode node = _root;
+
+    while(node != null) {
+      if(value == null ? node._value == null : value.equals(node._value))
+        return node;
+
+      if(node._high != null)
+        stack.add(node._high);
+
+      if(node._low != null)
+        node = node._low;
+      else if(!stack.isEmpty())
+        node = stack.remove(stack.size() - 1);
+      else
+        node = null;
+    }
+
+    return null;
+  }
+
+  boolean isInRange(P point, P lower, P upper) {
+    Coord coordinate1, coordinate2 = null, coordinate3 = null;
+
+    if(lower != null || upper != null) {
+      int dimensions;
+      dimensions = point.getDimensions();
+
+      for(int i = 0; i < dimensions; ++i) {
+        coordinate1 = point.getCoord(i);
+        if(lower != null)
+          coordinate2 = lower.getCoord(i);
+        if(upper != null)
+          coordinate3 = upper.getCoord(i);
+        if((coordinate2 != null && coordinate1.compareTo(coordinate2) < 0) ||
+           (coordinate3 != null && coordinate1.compareTo(coordinate3) > 0))
+          return false;
+      }
+    }
+
+    return true;
   }
 
   /**
@@ -627,14 +1371,29 @@ public class KDTree<Coord extends Comparable<? super Coord>,
     clear();
   }
 
+  // Records a structural modification and releases the packed
+  // snapshot, which no longer matches the tree.
+  void modified() {
+    _scans = 0;
+    if(_packed != null)
+      _packed = null;
+  }
+
   // Begin Map interface methods
 
   /**
    * Removes all elements from the container, leaving it empty.
    */
   public void clear() {
+    // Rather than releasing every node, mark them all as removed.
+    ++_generation;
     _root = null;
     _size = _hashCode = 0;
+    if(_index != null)
+      _index.clear();
+    if(_valueIndex != null)
+      _valueIndex.clear();
+    modified();
   }
 
   /**
@@ -652,14 +1411,15 @@ public class KDTree<Coord extends Comparable<? super Coord>,
 
   /**
    * Returns true if the container contains a mapping with the specified value.
-   * Note: this is very inefficient for KDTrees because it requires searching
-   * the entire tree.
+   * Note: unless a value index is enabled with
+   * {@link #setValueIndex setValueIndex}, this is very inefficient for
+   * KDTrees because it requires searching the entire tree.
    *
    * @param value The value to search for.
    * @return true If the container contains a mapping with the specified value.
    */
   public boolean containsValue(Object value) {
-    return (findValue(_root, value) != null);
+    return (findValue(value) != null);
   }
 
   /**
@@ -749,44 +1509,266 @@ public class KDTree<Coord extends Comparable<? super Coord>,
    */
   public V put(P point, V value) {
     KDNode[] parent = new KDTree.KDNode[1];
-    KDNode node = getNode(point, parent);
-    V old = null;
+    KDNode node =
+      (_index == null ? getNode(point, parent) : _index.get(point));
 
-    if(node != null) {
-      old = node.getValue();
-      _hashCode-=node.hashCode();
-      node._value = value;
-    } else {
-      if(parent[0] == null)
-        node = _root = new KDNode(0, point, value); 
-      else {
-        int discriminator = parent[0]._discriminator;
+    if(node != null)
+      return node.setValue(value);
 
-        if(point.getCoord(discriminator).compareTo(
-                          parent[0]._point.getCoord(discriminator)) >= 0)
-          node = parent[0]._high =
-            new KDNode((discriminator + 1) % _dimensions, point, value);
-        else
-          node = parent[0]._low =
-            new KDNode((discriminator + 1) % _dimensions, point, value);
-      }
+    if(_index != null)
+      getNode(point, parent);
+
+    addNode(parent[0], point, value);
+
+    return null;
+  }
 
-      ++_size;
+  // Adds a node for a point that is not in the tree as a child of
+  // parent, which must be the parent found by getNode(point, parent).
+  KDNode addNode(KDNode parent, P point, V value) {
+    KDNode node;
+
+    if(parent == null)
+      node = _root = new KDNode(0, point, value);
+    else {
+      int discriminator = parent._discriminator;
+
+      if(point.getCoord(discriminator).compareTo(
+                        parent._point.getCoord(discriminator)) >= 0)
+        node = parent._high =
+          new KDNode((discriminator + 1) % _dimensions, point, value);
+      else
+        node = parent._low =
+          new KDNode((discriminator + 1) % _dimensions, point, value);
+
+      adjustCounts(null, _root, node, 1);
     }
 
+    ++_size;
+    modified();
     _hashCode+=node.hashCode();
+    index(node);
 
-    return old;
+    return node;
+  }
+
+  // A range of nodes moving down the subtree rooted at a node during
+  // insert().  The nodes added below the node are counted until the
+  // frames of its children are done, and then added to its count.
+  final class InsertFrame {
+    InsertFrame _parent;
+    KDNode _node;
+    int _begin, _end, _added, _pending;
+
+    InsertFrame(InsertFrame parent, KDNode node, int begin, int end) {
+      _parent  = parent;
+      _node    = node;
+      _begin   = begin;
+      _end     = end;
+      _added   = _pending = 0;
+    }
+  }
+
+  // Inserts nodes[begin, end) into the subtree rooted at node, moving
+  // them down the tree together and building balanced subtrees where
+  // they fall off it.  Nodes whose points are already present replace
+  // the existing values instead.  Returns the number of nodes added.
+  // Uses an explicit stack so that degenerate trees of any depth can
+  // be handled.
+  int insert(KDNode node, KDNode[] nodes, int begin, int end,
+             NodeComparator comp)
+  {
+    ArrayList<InsertFrame> stack = new ArrayList<InsertFrame>();
+    InsertFrame root = new InsertFrame(null, node, begin, end);
+
+    stack.add(root);
+
+    while(!stack.isEmpty()) {
+      InsertFrame frame = stack.remove(stack.size() - 1);
+      int discriminator;
+      Coord split;
+
+      node          = frame._node;
+      begin         = frame._begin;
+      end           = frame._end;
+      discriminator = node._discriminator;
+      split         = node._point.getCoord(discriminator);
+
+      int middle = begin;
+
+      for(int i = begin; i < end; ++i) {
+        int c = nodes[i]._point.getCoord(discriminator).compareTo(split);
+
+        if(c < 0)
+          swap(nodes, i, middle++);
+        else if(c == 0 && nodes[i]._point.equals(node._point)) {
+          node.setValue(nodes[i]._value);
+          release(nodes[i]);
+          swap(nodes, i--, --end);
+        }
+      }
+
+      if(end > middle) {
+        if(node._high != null) {
+          stack.add(new InsertFrame(frame, node._high, middle, end));
+          ++frame._pending;
+        } else {
+          node._high = build(nodes, middle, end, discriminator + 1, comp);
+          frame._added+=(end - middle);
+        }
+      }
+
+      if(middle > begin) {
+        if(node._low != null) {
+          stack.add(new InsertFrame(frame, node._low, begin, middle));
+          ++frame._pending;
+        } else {
+          node._low = build(nodes, begin, middle, discriminator + 1, comp);
+          frame._added+=(middle - begin);
+        }
+      }
+
+      // Pass the counts of finished frames up to their parents.
+      while(frame != null && frame._pending == 0) {
+        frame._node._count+=frame._added;
+
+        if(frame._parent != null) {
+          frame._parent._added+=frame._added;
+          --frame._parent._pending;
+        }
+
+        frame = frame._parent;
+      }
+    }
+
+    return root._added;
+  }
+
+  // Builds a balanced subtree of new nodes.
+  KDNode build(KDNode[] nodes, int begin, int end, int discriminator,
+               NodeComparator comp)
+  {
+    for(int i = begin; i < end; ++i) {
+      _hashCode+=nodes[i].hashCode();
+      index(nodes[i]);
+    }
+
+    comp.setDiscriminator(discriminator % _dimensions);
+
+    return optimize(nodes, begin, end, comp);
   }
 
   /**
-   * Copies all of the point-value mappings from the given Map into the KDTree.
+   * Copies all of the point-value mappings from the given Map into the
+   * KDTree.  Rather than inserting the mappings one at a time, the
+   * whole batch is moved down the tree at once, and the mappings that
+   * reach the same empty subtree are added to it as a balanced subtree.
    *
    * @param map The Map from which to copy the mappings.
    */
   public void putAll(Map<? extends P, ? extends V> map) {
+    KDNode[] nodes =
+      (KDNode[])Array.newInstance(KDNode.class, map.size());
+    NodeComparator comp = new NodeComparator();
+    int count = 0, added;
+
     for(Map.Entry<? extends P, ? extends V> pair : map.entrySet())
-      put(pair.getKey(), pair.getValue());
+      nodes[count++] = new KDNode(0, pair.getKey(), pair.getValue());
+
+    if(count == 0)
+      return;
+
+    if(_root == null) {
+      _root = build(nodes, 0, count, 0, comp);
+      added = count;
+    } else
+      added = insert(_root, nodes, 0, count, comp);
+
+    if(added > 0) {
+      _size+=added;
+      modified();
+    }
+  }
+
+  /**
+   * Creates a balanced KDTree containing the mappings of two KDTrees.
+   * Where both trees map the same point, the value from the second tree
+   * is used.  Neither tree is modified.  The mappings are gathered in
+   * time proportional to the sizes of the trees and the result is built
+   * by splitting on medians found by selection rather than by sorting.
+   *
+   * @param first The first tree.
+   * @param second The second tree, whose values take precedence.
+   * @return A new, balanced KDTree containing the mappings of both trees.
+   * @exception IllegalArgumentException If the trees have different
+   * numbers of dimensions.
+   */
+  public static <Coord extends Comparable<? super Coord>,
+                 P extends Point<Coord>, V>
+    KDTree<Coord,P,V> merge(KDTree<Coord,P,? extends V> first,
+                            KDTree<Coord,P,? extends V> second)
+    throws IllegalArgumentException
+  {
+    if(first._dimensions != second._dimensions)
+      throw new IllegalArgumentException("Trees differ in dimensions.");
+
+    KDTree<Coord,P,V> result = new KDTree<Coord,P,V>(first._dimensions);
+    KDTree<Coord,P,V>.KDNode[] nodes =
+      (KDTree<Coord,P,V>.KDNode[])new KDTree.KDNode[first.size() +
+                                                     second.size()];
+    HashSet<P> points = null;
+    int count = 0;
+
+    if(!first.isEmpty() && !second.isEmpty()) {
+      points = new HashSet<P>(2*second.size());
+
+      for(P point : second.keySet())
+        points.add(point);
+    }
+
+    for(Map.Entry<P,? extends V> e : first.entrySet()) {
+      if(points == null || !points.contains(e.getKey()))
+        nodes[count++] = result.new KDNode(0, e.getKey(), e.getValue());
+    }
+
+    for(Map.Entry<P,? extends V> e : second.entrySet())
+      nodes[count++] = result.new KDNode(0, e.getKey(), e.getValue());
+
+    result._size = count;
+    result._root =
+      result.build(nodes, 0, count, 0, result.new NodeComparator());
+
+    return result;
+  }
+
+  // Builds a balanced tree of the mappings of trees that share no
+  // points.  The trees are only read, so they may be read concurrently
+  // by other threads.
+  static <Coord extends Comparable<? super Coord>, P extends Point<Coord>, V>
+    KDTree<Coord,P,V> union(int dimensions,
+                            List<? extends KDTree<Coord,P,? extends V>> trees)
+  {
+    KDTree<Coord,P,V> result = new KDTree<Coord,P,V>(dimensions);
+    int count = 0;
+
+    for(KDTree<Coord,P,? extends V> tree : trees)
+      count+=tree.size();
+
+    KDTree<Coord,P,V>.KDNode[] nodes =
+      (KDTree<Coord,P,V>.KDNode[])new KDTree.KDNode[count];
+
+    count = 0;
+
+    for(KDTree<Coord,P,? extends V> tree : trees) {
+      for(Map.Entry<P,? extends V> e : tree.entrySet())
+        nodes[count++] = result.new KDNode(0, e.getKey(), e.getValue());
+    }
+
+    result._size = count;
+    result._root =
+      result.build(nodes, 0, count, 0, result.new NodeComparator());
+
+    return result;
   }
 
   /**
@@ -800,6 +1782,9 @@ public class KDTree<Coord extends Comparable<? super Coord>,
   public V remove(Object key)
     throws ClassCastException
   {
+    if(_index != null && !_index.containsKey(key))
+      return null;
+
     KDNode[] parent = new KDTree.KDNode[1];
     KDNode node = getNode((P)key, parent);
     V old = null;
@@ -807,6 +1792,7 @@ public class KDTree<Coord extends Comparable<? super Coord>,
     if(node != null) {
       KDNode child = node;
 
+      adjustCounts(null, _root, child, -1);
       node = recursiveRemoveNode(child);
 
       if(parent[0] == null)
@@ -817,13 +1803,342 @@ public class KDTree<Coord extends Comparable<? super Coord>,
         parent[0]._high = node;
 
       --_size;
+      modified();
       _hashCode-=child.hashCode();
+      unindex(child);
+      release(child);
       old = child.getValue();
     }
 
     return old;
   }
 
+  // Descends from the root along the path of key until reaching
+  // target or, if target is null, a node whose point equals key.
+  // Returns the node reached, or null if there is none, storing its
+  // parent in nodes[0] and, in nodes[1], the first node on the path at
+  // which point would take a different branch, or null if point
+  // follows the whole path.
+  KDNode findBranch(P key, KDNode target, P point, KDNode[] nodes) {
+    KDNode current = _root;
+
+    nodes[0] = nodes[1] = null;
+
+    while(current != null) {
+      int discriminator = current._discriminator;
+      Coord split = current._point.getCoord(discriminator);
+      int c = key.getCoord(discriminator).compareTo(split);
+
+      if(target == null ? (c == 0 && current._point.equals(key)) :
+         current == target)
+        break;
+
+      if(nodes[1] == null &&
+         (c < 0) != (point.getCoord(discriminator).compareTo(split) < 0))
+        nodes[1] = current;
+
+      nodes[0] = current;
+      current = (c < 0 ? current._low : current._high);
+    }
+
+    return current;
+  }
+
+  // Returns true if node's subtrees remain on the correct sides of its
+  // split when its point is replaced by point.
+  boolean fitsSplit(KDNode node, P point) {
+    int discriminator = node._discriminator;
+    Coord coord = point.getCoord(discriminator);
+    int c = coord.compareTo(node._point.getCoord(discriminator));
+
+    if(c > 0 && node._high != null)
+      return (getMinimumNode(node._high, discriminator)._point.
+              getCoord(discriminator).compareTo(coord) >= 0);
+    else if(c < 0 && node._low != null)
+      return (getMaximumNode(node._low, discriminator)._point.
+              getCoord(discriminator).compareTo(coord) < 0);
+
+    return true;
+  }
+
+  // Unlinks node from the tree, replacing it with a node from its
+  // subtrees.  The counts of the nodes from top down to node must
+  // already have been adjusted.
+  void unlink(KDNode parent, KDNode node) {
+    KDNode child = recursiveRemoveNode(node);
+
+    if(parent == null)
+      _root = child;
+    else if(parent._low == node)
+      parent._low = child;
+    else
+      parent._high = child;
+
+    _hashCode-=node.hashCode();
+    unindex(node);
+    node._low = node._high = null;
+    node._count = 1;
+  }
+
+  // Marks a node removed from the tree for good, so that entries still
+  // held by callers no longer affect the tree, and drops its links.
+  // clear() marks all of the nodes at once by advancing _generation.
+  void release(KDNode node) {
+    node._low = node._high = null;
+    node._count = 0;
+  }
+
+  // Adds a detached node to the subtree rooted at node, whose region
+  // must contain the detached node's point.
+  void attach(KDNode node, KDNode leaf) {
+    P point = leaf._point;
+
+    while(true) {
+      int discriminator = node._discriminator;
+      KDNode next;
+
+      ++node._count;
+
+      if(point.getCoord(discriminator).compareTo(
+                                node._point.getCoord(discriminator)) < 0)
+      {
+        if((next = node._low) == null)
+          node._low = leaf;
+      } else if((next = node._high) == null)
+        node._high = leaf;
+
+      if(next == null)
+        break;
+
+      node = next;
+    }
+
+    leaf._discriminator = (node._discriminator + 1) % _dimensions;
+    _hashCode+=leaf.hashCode();
+    index(leaf);
+  }
+
+  /**
+   * Moves the value mapped by a point to a new point, as if the
+   * mapping were removed and the value put at the new point, but
+   * without creating a new mapping.  If the new point lies on the same
+   * side of the splits of all the mapping's ancestors as the old
+   * point, and its own subtrees remain on the correct sides of its
+   * split, the mapping is changed in place.  Otherwise it is unlinked
+   * and added back below the deepest ancestor whose part of space
+   * contains the new point.  A mapping already at the new point is
+   * replaced.
+   *
+   * @param oldPoint The point of the mapping to move.
+   * @param newPoint The point to which the mapping should be moved.
+   * @return true if a mapping was moved, false if no mapping exists
+   * at oldPoint.
+   */
+  public boolean move(P oldPoint, P newPoint) {
+    KDNode[] nodes = new KDTree.KDNode[2];
+    KDNode node = findBranch(oldPoint, null, newPoint, nodes);
+
+    if(node == null)
+      return false;
+
+    KDNode parent = nodes[0], branch = nodes[1];
+
+    // The new point may be mapped by a node above the branch as well
+    // as below it.
+    KDNode existing = getNode(newPoint);
+
+    if(existing == node)
+      return true;
+
+    if(existing != null) {
+      existing.setValue(node._value);
+      remove(oldPoint);
+      return true;
+    }
+
+    modified();
+
+    if(branch == null && fitsSplit(node, newPoint)) {
+      _hashCode-=node.hashCode();
+      unindex(node);
+      node._point = newPoint;
+      _hashCode+=node.hashCode();
+      index(node);
+      return true;
+    }
+
+    boolean low = (parent != null && parent._low == node);
+
+    // The counts above the branching node are unchanged.
+    adjustCounts(null, (branch == null ? node : branch), node, -1);
+    unlink(parent, node);
+    node._point = newPoint;
+
+    // A node that fails only its own split has a subtree, whose new
+    // root takes its place.
+    if(branch == null)
+      branch = (parent == null ? _root : (low ? parent._low : parent._high));
+
+    attach(branch, node);
+
+    return true;
+  }
+
+  /**
+   * Moves many mappings at once, as for one tick of updates to moving
+   * objects.  The moves take effect together, so mappings may trade
+   * places, and a mapping moved away from a point does not collide
+   * with one moved onto it.  Where several mappings are moved to the
+   * same point, the last one in the map's iteration order is kept.
+   * Mappings that can be changed in place are, as by
+   * {@link #move move}.  The rest are unlinked and added back as a
+   * batch, as by {@link #putAll putAll}.
+   *
+   * @param moves A map from the points of the mappings to move to the
+   *              points to which they should be moved.  Points that are
+   *              not mapped are ignored.
+   * @return The number of mappings at their new points after the moves.
+   */
+  public int moveAll(Map<? extends P, ? extends P> moves) {
+    ArrayList<KDNode> movers = new ArrayList<KDNode>(moves.size());
+    ArrayList<P> targets = new ArrayList<P>(moves.size());
+    ArrayList<KDNode> replaced = new ArrayList<KDNode>();
+    HashMap<P, Integer> owners = new HashMap<P, Integer>(2*moves.size());
+    int moved = 0;
+
+    // Find all the nodes before changing any of them.
+    for(Map.Entry<? extends P, ? extends P> move : moves.entrySet()) {
+      KDNode node = getNode(move.getKey());
+
+      if(node == null)
+        continue;
+
+      Integer previous = owners.put(move.getValue(), movers.size());
+
+      if(previous != null) {
+        replaced.add(movers.get(previous));
+        movers.set(previous, null);
+      } else
+        ++moved;
+
+      movers.add(node);
+      targets.add(move.getValue());
+    }
+
+    // Mappings that do not move are replaced by those moved onto them.
+    for(int i = 0; i < movers.size(); ++i) {
+      if(movers.get(i) != null) {
+        KDNode node = getNode(targets.get(i));
+
+        if(node != null && !moves.containsKey(node._point))
+          replaced.add(node);
+      }
+    }
+
+    if(moved == 0)
+      return 0;
+
+    modified();
+
+    for(KDNode node : replaced) {
+      unlink(adjustCounts(null, _root, node, -1), node);
+      release(node);
+      --_size;
+    }
+
+    KDNode[] path = new KDTree.KDNode[2];
+    KDNode[] nodes = (KDNode[])Array.newInstance(KDNode.class, moved);
+    int count = 0;
+
+    for(int i = 0; i < movers.size(); ++i) {
+      KDNode node = movers.get(i);
+      P point = targets.get(i);
+
+      if(node == null)
+        continue;
+
+      findBranch(node._point, node, point, path);
+
+      if(path[1] == null && fitsSplit(node, point)) {
+        _hashCode-=node.hashCode();
+        unindex(node);
+        node._point = point;
+        _hashCode+=node.hashCode();
+        index(node);
+      } else {
+        unlink(adjustCounts(null, _root, node, -1), node);
+        node._point = point;
+        nodes[count++] = node;
+      }
+    }
+
+    if(count > 0) {
+      NodeComparator comp = new NodeComparator();
+
+      if(_root == null)
+        _root = build(nodes, 0, count, 0, comp);
+      else
+        insert(_root, nodes, 0, count, comp);
+    }
+
+    return moved;
+  }
+
+  int removeRange(P lower, P upper,
+                  Predicate<? super Map.Entry<P,V>> predicate)
+  {
+    if(_root == null)
+      return 0;
+
+    RangeRemover remover = new RangeRemover(lower, upper, predicate);
+    KDNode root = remover.remove(_root);
+
+    if(root == remover._listed)
+      root = remover.build(0, _root._discriminator);
+
+    _root = root;
+
+    if(remover._removed > 0) {
+      _size-=remover._removed;
+      modified();
+    }
+
+    return remover._removed;
+  }
+
+  /**
+   * Removes the mappings that are contained in the rectangle defined by
+   * the given lower left-hand and upper right-hand corners, treating
+   * the bounds as {@link #iterator(Point, Point)} does.  The mappings
+   * are found and detached in a single bottom-up traversal, and
+   * subtrees that lose nearly all of their mappings are rebuilt from
+   * the remaining ones, so that the cost depends on the part of the
+   * tree that is touched rather than on a separate search and removal
+   * for each mapping.
+   *
+   * @param lower The lower left-hand corner of the bounding rectangle,
+   * or null if the rectangle is unbounded in that direction.
+   * @param upper The upper right-hand corner of the bounding rectangle,
+   * or null if the rectangle is unbounded in that direction.
+   * @return The number of mappings removed.
+   */
+  public int removeRange(P lower, P upper) {
+    return removeRange(lower, upper, null);
+  }
+
+  /**
+   * Removes the mappings that satisfy a predicate, in a single
+   * traversal of the tree.  Subtrees are rebuilt as by
+   * {@link #removeRange(Point, Point)}.  The predicate must not modify
+   * the tree.
+   *
+   * @param predicate The predicate selecting the mappings to remove.
+   * @return The number of mappings removed.
+   */
+  public int removeIf(Predicate<? super Map.Entry<P,V>> predicate) {
+    return removeRange(null, null, predicate);
+  }
+
   /**
    * Returns the number of point-value mappings in the KDTree.
    *
@@ -836,7 +2151,11 @@ public class KDTree<Coord extends Comparable<? super Coord>,
   /**
    * Returns a Collection view of the values contained in the KDTree.
    * Changes to the Collection are reflected in the KDTree and vice versa.
-   * Note: the resulting Collection is very inefficient.
+   * Note: unless a value index is enabled with
+   * {@link #setValueIndex setValueIndex}, searching the resulting
+   * Collection or removing single values from it requires searching the
+   * entire tree.  <code>removeAll</code> and <code>retainAll</code>
+   * traverse the tree once.
    *
    * @return A Collection view of the values contained in the KDTree.
    */
@@ -850,12 +2169,189 @@ public class KDTree<Coord extends Comparable<? super Coord>,
     return new MapEntryIterator(lower, upper);
   }
 
+  public Iterator<Map.Entry<P,V>> iterator(Region<Coord, ? super P> region) {
+    return new RegionIterator(region);
+  }
+
+  /**
+   * Returns the mapping whose point has the smallest coordinate in the
+   * given dimension.  If several points share the smallest coordinate,
+   * any one of them may be returned.
+   *
+   * @param dimension The dimension whose coordinates are compared.
+   * @return The mapping with the smallest coordinate, or null if the
+   * tree is empty.
+   */
+  public Map.Entry<P,V> getMinimum(int dimension) {
+    return (_root == null ? null : getMinimumNode(_root, dimension));
+  }
+
+  /**
+   * Returns the mapping whose point has the largest coordinate in the
+   * given dimension.  If several points share the largest coordinate,
+   * any one of them may be returned.
+   *
+   * @param dimension The dimension whose coordinates are compared.
+   * @return The mapping with the largest coordinate, or null if the
+   * tree is empty.
+   */
+  public Map.Entry<P,V> getMaximum(int dimension) {
+    return (_root == null ? null : getMaximumNode(_root, dimension));
+  }
+
+  /**
+   * Returns the number of mappings that are contained in the rectangle
+   * defined by the given lower left-hand and upper right-hand corners,
+   * without visiting the mappings of subtrees that lie entirely inside
+   * the rectangle.  The bounds are treated as in
+   * {@link #iterator(Point, Point)}.
+   *
+   * @param lower The lower left-hand corner of the bounding rectangle,
+   * or null if the rectangle is unbounded in that direction.
+   * @param upper The upper right-hand corner of the bounding rectangle,
+   * or null if the rectangle is unbounded in that direction.
+   * @return The number of mappings in the rectangle.
+   */
+  public int count(P lower, P upper) {
+    return new RangeCounter(0, lower, upper).count();
+  }
+
+  /**
+   * Returns the mapping of the given rank when the mappings contained
+   * in a rectangle are ordered by their coordinate in one dimension.
+   * Rank 0 selects the smallest coordinate, and rank
+   * <code>count(lower, upper) / 2</code> the median.  Mappings with
+   * equal coordinates are ranked in no particular order.  The
+   * selection repeatedly narrows the range of coordinates between two
+   * pivots taken from a random sample of the mappings, using subtree
+   * counts to count the mappings on either side, until few enough
+   * mappings remain to sort them.
+   *
+   * @param dimension The dimension whose coordinates are ranked.
+   * @param rank The rank of the mapping to return, starting from 0.
+   * @param lower The lower left-hand corner of the bounding rectangle,
+   * or null if the rectangle is unbounded in that direction.
+   * @param upper The upper right-hand corner of the bounding rectangle,
+   * or null if the rectangle is unbounded in that direction.
+   * @return The mapping of the given rank, or null if rank is negative
+   * or the rectangle contains no more than rank mappings.
+   */
+  public Map.Entry<P,V> select(int dimension, int rank, P lower, P upper) {
+    RangeCounter counter = new RangeCounter(dimension, lower, upper);
+    int size = counter.count();
+
+    if(rank < 0 || rank >= size)
+      return null;
+
+    NodeComparator comp = new NodeComparator();
+    comp.setDiscriminator(dimension);
+
+    if(size > SELECT_SORT_SIZE) {
+      Random random = new Random();
+      int[] positions = new int[SELECT_SAMPLES];
+      KDNode[] samples =
+        (KDNode[])Array.newInstance(KDNode.class, SELECT_SAMPLES);
+
+      do {
+        for(int i = 0; i < SELECT_SAMPLES; ++i)
+          positions[i] = random.nextInt(size);
+
+        Arrays.sort(positions);
+        counter.sample(positions, samples);
+        Arrays.sort(samples, comp);
+
+        // Choose pivots that likely bracket the mapping of the given rank.
+        int target = (int)((long)rank * SELECT_SAMPLES / size);
+        KDNode low = samples[Math.max(0, target - SELECT_SPREAD)];
+        KDNode high =
+          samples[Math.min(SELECT_SAMPLES - 1, target + SELECT_SPREAD)];
+        Coord after = low._point.getCoord(dimension);
+        Coord before = high._point.getCoord(dimension);
+
+        counter.partition(after, before);
+
+        if(rank < counter._belowLow) {
+          counter._before = after;
+          size = counter._belowLow;
+        } else if(rank < counter._throughLow)
+          return low;
+        else if(rank < counter._belowHigh) {
+          rank-=counter._throughLow;
+          counter._after  = after;
+          counter._before = before;
+          size = counter._belowHigh - counter._throughLow;
+        } else if(rank < counter._throughHigh)
+          return high;
+        else {
+          rank-=counter._throughHigh;
+          counter._after = before;
+          size-=counter._throughHigh;
+        }
+      } while(size > SELECT_SORT_SIZE);
+    }
+
+    KDNode[] nodes = (KDNode[])Array.newInstance(KDNode.class, size);
+
+    counter._position = 0;
+    counter.collect(nodes);
+    Arrays.sort(nodes, comp);
+
+    return nodes[rank];
+  }
+
+  /**
+   * Returns the mapping of the given rank when all of the mappings are
+   * ordered by their coordinate in one dimension.  This is equivalent
+   * to <code>select(dimension, rank, null, null)</code>.
+   *
+   * @param dimension The dimension whose coordinates are ranked.
+   * @param rank The rank of the mapping to return, starting from 0.
+   * @return The mapping of the given rank, or null if rank is negative
+   * or not less than the size of the tree.
+   */
+  public Map.Entry<P,V> select(int dimension, int rank) {
+    return select(dimension, rank, null, null);
+  }
+
+  // Stores the nodes of the subtree rooted at node in a, in preorder,
+  // starting at index, and returns the index following the last one.
   int fillArray(KDNode[] a, int index, KDNode node) {
-    if(node == null)
-      return index;
-    a[index] = node;
-    index = fillArray(a, index + 1, node._low);
-    return fillArray(a, index, node._high);
+    ArrayList<KDNode> stack = new ArrayList<KDNode>();
+
+    while(node != null) {
+      a[index++] = node;
+
+      if(node._high != null)
+        stack.add(node._high);
+
+      if(node._low != null)
+        node = node._low;
+      else if(!stack.isEmpty())
+        node = stack.remove(stack.size() - 1);
+      else
+        node = null;
+    }
+
+    return index;
+  }
+
+  // Appends the nodes of the subtree rooted at node to list, in preorder.
+  void fillList(List<KDNode> list, KDNode node) {
+    ArrayList<KDNode> stack = new ArrayList<KDNode>();
+
+    while(node != null) {
+      list.add(node);
+
+      if(node._high != null)
+        stack.add(node._high);
+
+      if(node._low != null)
+        node = node._low;
+      else if(!stack.isEmpty())
+        node = stack.remove(stack.size() - 1);
+      else
+        node = null;
+    }
   }
 
   final class NodeComparator implements Comparator<KDNode> {
@@ -875,27 +2371,76 @@ public class KDTree<Coord extends Comparable<? super Coord>,
     }
   }
 
+  static void swap(Object[] a, int i, int j) {
+    Object o = a[i];
+    a[i] = a[j];
+    a[j] = o;
+  }
+
+  // Rearranges a[begin, end) so that a[nth] holds the element that
+  // would be there if the range were sorted, preceded by no greater
+  // elements and followed by no lesser ones.
+  static <T> void selectNth(T[] a, int begin, int end, int nth,
+                            Comparator<? super T> comp)
+  {
+    while(end - begin > 3) {
+      int middle = begin + ((end - begin) >> 1), last = end - 1;
+
+      // Move the median of three to begin to serve as the pivot.
+      if(comp.compare(a[middle], a[begin]) < 0)
+        swap(a, middle, begin);
+      if(comp.compare(a[last], a[middle]) < 0) {
+        swap(a, last, middle);
+        if(comp.compare(a[middle], a[begin]) < 0)
+          swap(a, middle, begin);
+      }
+      swap(a, begin, middle);
+
+      T pivot = a[begin];
+      int i = begin, j = end;
+
+      while(true) {
+        do { ++i; } while(i < end && comp.compare(a[i], pivot) < 0);
+        do { --j; } while(comp.compare(a[j], pivot) > 0);
+
+        if(i >= j)
+          break;
+
+        swap(a, i, j);
+      }
+
+      swap(a, begin, j);
+
+      if(j == nth)
+        return;
+      else if(j < nth)
+        begin = j + 1;
+      else
+        end = j;
+    }
+
+    Arrays.sort(a, begin, end, comp);
+  }
+
   KDNode optimize(KDNode[] nodes, int begin, int end, NodeComparator comp) {
     KDNode midpoint= null;
     int size = end - begin;
 
     if(size > 1) {
       int nth = begin + (size >> 1);
-      int nthprev = nth - 1;
       int d = comp.getDiscriminator();
 
-      Arrays.sort(nodes, begin, end, comp);
+      selectNth(nodes, begin, end, nth, comp);
 
-      while(nth > begin &&
-            nodes[nth]._point.getCoord(d).compareTo(
-                                    nodes[nthprev]._point.getCoord(d)) == 0)
-        {
-          --nth;
-          --nthprev;
-        }
+      // Nodes equal to the median along d belong in the high subtree.
+      for(int i = nth - 1; i >= begin; --i) {
+        if(comp.compare(nodes[i], nodes[nth]) == 0)
+          swap(nodes, i, --nth);
+      }
 
       midpoint = nodes[nth];
       midpoint._discriminator = d;
+      midpoint._count = size;
 
       if(++d >= _dimensions)
         d = 0;
@@ -910,6 +2455,7 @@ public class KDTree<Coord extends Comparable<? super Coord>,
     } else if(size == 1) {
       midpoint = nodes[begin];
       midpoint._discriminator = comp.getDiscriminator();
+      midpoint._count = 1;
       midpoint._low = midpoint._high = null;
     }
 
@@ -933,4 +2479,79 @@ public class KDTree<Coord extends Comparable<? super Coord>,
 
     _root = optimize(nodes, 0, nodes.length, new NodeComparator());
   }
+
+  /**
+   * Enables or disables an auxiliary hash index from points to the
+   * mappings of the KDTree.  While the index is enabled,
+   * <code>get</code>, <code>containsKey</code>, and <code>put</code>
+   * of an already mapped point take expected constant time instead of
+   * descending the tree, and <code>remove</code> of an unmapped point
+   * returns without descending it.  In exchange, the index costs a
+   * HashMap entry per mapping and must be updated by every operation
+   * that adds, removes, or moves mappings.  Operations that only
+   * rearrange the tree, such as {@link #optimize optimize}, leave it
+   * unchanged.  The index relies on the <code>equals</code> and
+   * <code>hashCode</code> methods of P.
+   *
+   * @param enabled true to build and maintain the index, false to
+   * discard it.
+   */
+  public void setHashIndex(boolean enabled) {
+    if(!enabled)
+      _index = null;
+    else if(_index == null) {
+      _index = new HashMap<P,KDNode>(Math.max(16, 2*_size));
+
+      for(Map.Entry<P,V> e : entrySet())
+        _index.put(e.getKey(), (KDNode)e);
+    }
+  }
+
+  /**
+   * Returns true if the KDTree maintains a hash index from points to
+   * mappings, false if not.
+   *
+   * @return true if the KDTree maintains a hash index, false if not.
+   */
+  public boolean isHashIndexed() {
+    return (_index != null);
+  }
+
+  /**
+   * Enables or disables an auxiliary index from values to the mappings
+   * of the KDTree.  While the index is enabled,
+   * <code>containsValue</code>, and <code>contains</code> and
+   * <code>remove</code> of the {@link #values values} view, take
+   * expected constant time instead of searching the whole tree, so a
+   * mapping can be removed by its value at the cost of a single removal
+   * from the tree.  The index suits values that identify their
+   * mappings, such as entity IDs: updating it takes time proportional
+   * to the number of mappings that share a value.  It costs a HashMap
+   * entry per distinct value and relies on the <code>equals</code> and
+   * <code>hashCode</code> methods of the values, which must not change
+   * while they are in the tree.
+   *
+   * @param enabled true to build and maintain the index, false to
+   * discard it.
+   */
+  public void setValueIndex(boolean enabled) {
+    if(!enabled)
+      _valueIndex = null;
+    else if(_valueIndex == null) {
+      _valueIndex = new HashMap<Object,Object>(Math.max(16, 2*_size));
+
+      for(Map.Entry<P,V> e : entrySet())
+        indexValue((KDNode)e);
+    }
+  }
+
+  /**
+   * Returns true if the KDTree maintains an index from values to
+   * mappings, false if not.
+   *
+   * @return true if the KDTree maintains a value index, false if not.
+   */
+  public boolean isValueIndexed() {
+    return (_valueIndex != null);
+  }
 }
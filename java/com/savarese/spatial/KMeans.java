@@ -0,0 +1,378 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>KMeans implements k-means clustering of the points of a
+ * {@link KDTree} instance using the filtering algorithm of Kanungo et
+ * al.  Each iteration assigns points to their nearest centers by
+ * traversing the tree with a shrinking list of candidate centers.  A
+ * candidate is dropped for a subtree when another candidate is nearer
+ * to every point of the subtree's bounding box.  Once a single
+ * candidate remains, the whole subtree is assigned to it at once using
+ * the coordinate sums and point counts cached for every subtree.</p>
+ *
+ * <p>The sums are computed the first time a tree is clustered and
+ * reused until the tree is modified.  Each iteration can be divided
+ * among the threads of an ExecutorService.  Centers are represented as
+ * arrays of coordinates.</p>
+ */
+public class KMeans<Coord extends Number & Comparable<? super Coord>,
+                    P extends Point<Coord>, V>
+{
+  private ExecutorService __executor;
+  private PackedKDTree<Coord,P,V> __tree;
+  // Coordinate sums of the points under each node, indexed by
+  // node*dimensions + dimension.
+  private double[] __sums;
+  private double[][] __centers;
+  // Assigned center of each point, in packed order, or null.
+  private int[] __labels;
+
+  private final class Filter implements Runnable {
+    int _root;
+    int[][] _candidates;
+    double[] _sums, _point;
+    int[] _counts;
+
+    Filter(int root) {
+      final int k = __centers.length, dimensions = __tree._dimensions;
+
+      _root       = root;
+      _candidates = new int[8][];
+      _sums       = new double[k*dimensions];
+      _counts     = new int[k];
+      _point      = new double[dimensions];
+      _candidates[0] = new int[k];
+
+      for(int i = 0; i < k; ++i)
+        _candidates[0][i] = i;
+    }
+
+    public void run() {
+      filter(_root, 0, __centers.length);
+    }
+
+    double distance2(double[] center, double[] point) {
+      double d2 = 0;
+
+      for(int d = 0; d < point.length; ++d) {
+        double diff = center[d] - point[d];
+        d2+=(diff*diff);
+      }
+
+      return d2;
+    }
+
+    // Returns the candidate nearest to _point among the first count
+    // candidates at a given depth.
+    int nearest(int depth, int count) {
+      final int[] candidates = _candidates[depth];
+      int best = candidates[0];
+      double min = distance2(__centers[best], _point);
+
+      for(int c = 1; c < count; ++c) {
+        double d2 = distance2(__centers[candidates[c]], _point);
+
+        if(d2 < min) {
+          min  = d2;
+          best = candidates[c];
+        }
+      }
+
+      return best;
+    }
+
+    // Returns true if center z is no nearer than center best to every
+    // point of a node's bounding box.
+    boolean dominated(int node, double[] z, double[] best) {
+      final int offset = node*_point.length;
+      final double[] lower = __tree._lower, upper = __tree._upper;
+      double dz = 0, dbest = 0;
+
+      // Only the box vertex farthest in the direction from best to z
+      // needs to be checked.
+      for(int d = 0; d < _point.length; ++d) {
+        double v = (z[d] > best[d] ? upper[offset + d] : lower[offset + d]);
+        double diff = z[d] - v;
+
+        dz+=(diff*diff);
+        diff = best[d] - v;
+        dbest+=(diff*diff);
+      }
+
+      return (dz >= dbest);
+    }
+
+    void assign(int node, int center) {
+      final int dimensions = _point.length;
+
+      for(int d = 0; d < dimensions; ++d)
+        _sums[center*dimensions + d]+=__sums[node*dimensions + d];
+
+      _counts[center]+=__tree.count(node);
+
+      if(__labels != null) {
+        for(int i = __tree._begin[node]; i < __tree._end[node]; ++i)
+          __labels[i] = center;
+      }
+    }
+
+    void filter(int node, int depth, int count) {
+      final PackedKDTree<Coord,P,V> tree = __tree;
+      final int offset = node*_point.length;
+      final int[] candidates = _candidates[depth];
+
+      for(int d = 0; d < _point.length; ++d)
+        _point[d] = 0.5*(tree._lower[offset + d] + tree._upper[offset + d]);
+
+      final int best = nearest(depth, count);
+
+      if(depth + 1 == _candidates.length) {
+        int[][] grown = new int[2*_candidates.length][];
+        System.arraycopy(_candidates, 0, grown, 0, _candidates.length);
+        _candidates = grown;
+      }
+
+      int[] next = _candidates[depth + 1];
+
+      if(next == null)
+        next = _candidates[depth + 1] = new int[__centers.length];
+
+      int remaining = 0;
+
+      for(int c = 0; c < count; ++c) {
+        int z = candidates[c];
+
+        if(z == best || !dominated(node, __centers[z], __centers[best]))
+          next[remaining++] = z;
+      }
+
+      if(remaining == 1)
+        assign(node, best);
+      else if(tree.isLeaf(node)) {
+        final int dimensions = _point.length;
+
+        for(int i = tree._begin[node]; i < tree._end[node]; ++i) {
+          for(int d = 0; d < dimensions; ++d)
+            _point[d] = tree._coords.getCoord(i, d);
+
+          int center = nearest(depth + 1, remaining);
+
+          for(int d = 0; d < dimensions; ++d)
+            _sums[center*dimensions + d]+=_point[d];
+
+          ++_counts[center];
+
+          if(__labels != null)
+            __labels[i] = center;
+        }
+      } else {
+        filter(tree._low[node], depth + 1, remaining);
+        filter(tree._high[node], depth + 1, remaining);
+      }
+    }
+  }
+
+  private void __prepare(KDTree<Coord,P,V> tree) {
+    PackedKDTree<Coord,P,V> packed = PackedKDTree.get(tree);
+
+    if(packed == __tree)
+      return;
+
+    final int dimensions = packed._dimensions;
+
+    __tree = null;
+    __sums = new double[packed._nodeCount*dimensions];
+
+    // Children always follow their parents in preorder.
+    for(int node = packed._nodeCount - 1; node >= 0; --node) {
+      final int offset = node*dimensions;
+
+      if(packed.isLeaf(node)) {
+        for(int i = packed._begin[node]; i < packed._end[node]; ++i)
+          for(int d = 0; d < dimensions; ++d)
+            __sums[offset + d]+=packed._coords.getCoord(i, d);
+      } else {
+        final int low = packed._low[node]*dimensions;
+        final int high = packed._high[node]*dimensions;
+
+        for(int d = 0; d < dimensions; ++d)
+          __sums[offset + d] = __sums[low + d] + __sums[high + d];
+      }
+    }
+
+    __tree = packed;
+  }
+
+  // Assigns every point to its nearest center and returns the
+  // resulting centroids, keeping the previous center of any cluster
+  // left without points.
+  private double[][] __step(KDTree<Coord,P,V> tree, double[][] centers,
+                            int[] labels)
+  {
+    __prepare(tree);
+
+    final int k = centers.length, dimensions = __tree._dimensions;
+    double[][] result = new double[k][];
+
+    for(int c = 0; c < k; ++c)
+      result[c] = (double[])centers[c].clone();
+
+    if(k == 0 || __tree._size == 0)
+      return result;
+
+    List<Filter> tasks = new ArrayList<Filter>();
+
+    __centers = centers;
+    __labels  = labels;
+
+    try {
+      if(__executor == null)
+        tasks.add(new Filter(0));
+      else {
+        for(int node :
+              __tree.partition(Math.max(1, __tree._size / DualTreeNeighbors.TASKS)))
+          tasks.add(new Filter(node));
+      }
+
+      Tasks.run(__executor, tasks);
+    } finally {
+      __centers = null;
+      __labels  = null;
+    }
+
+    double[] sums = new double[k*dimensions];
+    int[] counts = new int[k];
+
+    for(Filter task : tasks) {
+      for(int i = 0; i < sums.length; ++i)
+        sums[i]+=task._sums[i];
+      for(int c = 0; c < k; ++c)
+        counts[c]+=task._counts[c];
+    }
+
+    for(int c = 0; c < k; ++c)
+      if(counts[c] > 0)
+        for(int d = 0; d < dimensions; ++d)
+          result[c][d] = sums[c*dimensions + d] / counts[c];
+
+    return result;
+  }
+
+  /**
+   * Constructs a KMeans instance that runs iterations on the given
+   * executor.
+   *
+   * @param executor The executor on which to run iterations, or null to
+   *                 run them in the calling thread.
+   */
+  public KMeans(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Constructs a KMeans instance that runs iterations in the calling
+   * thread.
+   */
+  public KMeans() {
+    this(null);
+  }
+
+  /**
+   * Sets the executor on which to run iterations.
+   *
+   * @param executor The executor on which to run iterations, or null to
+   *                 run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Performs a single k-means iteration, assigning every point of a
+   * KDTree instance to its nearest center and computing the centroid of
+   * the points assigned to each center.
+   *
+   * @param tree The KDTree to cluster.
+   * @param centers The current centers, each with one coordinate per
+   *        dimension of the tree.
+   * @return The centroids of the points assigned to each center.  A
+   *         center to which no points are assigned is left unchanged.
+   */
+  public double[][] step(KDTree<Coord,P,V> tree, double[][] centers) {
+    return __step(tree, centers, null);
+  }
+
+  /**
+   * Performs k-means iterations until the centers stop changing or a
+   * maximum number of iterations is reached.
+   *
+   * @param tree The KDTree to cluster.
+   * @param centers The initial centers, each with one coordinate per
+   *        dimension of the tree.
+   * @param maxIterations The maximum number of iterations to perform.
+   * @return The final centers.
+   */
+  public double[][] cluster(KDTree<Coord,P,V> tree, double[][] centers,
+                            int maxIterations)
+  {
+    for(int i = 0; i < maxIterations; ++i) {
+      double[][] next = __step(tree, centers, null);
+      boolean converged = true;
+
+      for(int c = 0; c < centers.length && converged; ++c)
+        converged = Arrays.equals(centers[c], next[c]);
+
+      centers = next;
+
+      if(converged)
+        break;
+    }
+
+    return centers;
+  }
+
+  /**
+   * Assigns every point of a KDTree instance to its nearest center.
+   * The assignments are returned in the order in which the tree's
+   * <code>entrySet</code>, <code>keySet</code>, and <code>values</code>
+   * iterators return the points.
+   *
+   * @param tree The KDTree whose points should be assigned.
+   * @param centers The centers, each with one coordinate per dimension
+   *        of the tree.
+   * @return The index of the center nearest to each point.
+   */
+  public int[] assign(KDTree<Coord,P,V> tree, double[][] centers) {
+    int[] packed = new int[tree.size()];
+
+    __step(tree, centers, packed);
+
+    int[] labels = new int[packed.length];
+
+    for(int i = 0; i < packed.length; ++i)
+      labels[__tree._index[i]] = packed[i];
+
+    return labels;
+  }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>KernelDensity estimates the density of the points of a
+ * {@link KDTree} instance at query locations using a Gaussian kernel.
+ * The density at a query q is</p>
+ *
+ * <pre>
+ *   (2 pi h<sup>2</sup>)<sup>-D/2</sup> / N * sum over points p of exp(-|q - p|<sup>2</sup> / (2 h<sup>2</sup>))
+ * </pre>
+ *
+ * <p>where h is the bandwidth, D the number of dimensions, and N the
+ * number of points.</p>
+ *
+ * <p>Queries are grouped into bounding boxes no wider than the
+ * bandwidth, and each group traverses the tree, bounding the contribution of every subtree by
+ * the kernel values at the nearest and farthest distances between the
+ * group's box and the subtree's box.  The subtree with the widest
+ * bounds is refined until the sum of the remaining uncertainty is
+ * within a relative error of the lower bound on the density.  The
+ * contributions of the remaining subtrees are then approximated from
+ * their point counts.  A relative error of zero computes densities
+ * exactly, only skipping subtrees whose contributions underflow to
+ * zero.  The query groups can be divided among the threads of an
+ * ExecutorService.</p>
+ */
+public class KernelDensity<Coord extends Number & Comparable<? super Coord>,
+                           P extends Point<Coord>, V>
+{
+  private ExecutorService __executor;
+  private double __bandwidth, __scale, __relativeError;
+  private PackedKDTree<Coord,P,?> __query, __reference;
+  private double[] __result;
+  private double __normalization;
+
+  private final class Evaluation implements Runnable {
+    int _root;
+    // Max-heap of unresolved reference nodes, keyed by the width of the
+    // bounds on their contribution.
+    int[] _heap, _resolved;
+    double[] _keys;
+    int _heapSize, _resolvedCount;
+    double _lower, _error, _popped;
+    double[] _point, _distances, _lowerCorner, _upperCorner;
+
+    Evaluation(int root) {
+      _root      = root;
+      _heap      = new int[64];
+      _keys      = new double[64];
+      _resolved  = new int[64];
+      _point     = new double[__reference._dimensions];
+      _distances = new double[__reference._maxLeafSize];
+      _lowerCorner = new double[_point.length];
+      _upperCorner = new double[_point.length];
+    }
+
+    public void run() {
+      evaluate(_root);
+    }
+
+    void evaluate(int node) {
+      final PackedKDTree<Coord,P,?> query = __query;
+
+      // Groups much wider than the bandwidth have loose bounds, so their
+      // queries are evaluated individually.
+      if(query.maxDistance2(node, query, node) <= __bandwidth*__bandwidth) {
+        final int offset = node*_point.length;
+
+        for(int d = 0; d < _point.length; ++d) {
+          _lowerCorner[d] = query._lower[offset + d];
+          _upperCorner[d] = query._upper[offset + d];
+        }
+
+        group(query._begin[node], query._end[node]);
+      } else if(query.isLeaf(node)) {
+        for(int i = query._begin[node]; i < query._end[node]; ++i) {
+          for(int d = 0; d < _point.length; ++d)
+            _lowerCorner[d] = _upperCorner[d] = query._coords.getCoord(i, d);
+
+          group(i, i + 1);
+        }
+      } else {
+        evaluate(query._low[node]);
+        evaluate(query._high[node]);
+      }
+    }
+
+    // Returns the square of the minimum distance between the group's
+    // bounding box and a reference node's bounding box.
+    double minDistance2(int r) {
+      final int offset = r*_point.length;
+      final double[] lower = __reference._lower, upper = __reference._upper;
+      double d2 = 0;
+
+      for(int d = 0; d < _point.length; ++d) {
+        double diff = lower[offset + d] - _upperCorner[d];
+
+        if(diff <= 0) {
+          diff = _lowerCorner[d] - upper[offset + d];
+
+          if(diff <= 0)
+            continue;
+        }
+
+        d2+=(diff*diff);
+      }
+
+      return d2;
+    }
+
+    // Returns the square of the maximum distance between the group's
+    // bounding box and a reference node's bounding box.
+    double maxDistance2(int r) {
+      final int offset = r*_point.length;
+      final double[] lower = __reference._lower, upper = __reference._upper;
+      double d2 = 0;
+
+      for(int d = 0; d < _point.length; ++d) {
+        double diff = Math.max(upper[offset + d] - _lowerCorner[d],
+                               _upperCorner[d] - lower[offset + d]);
+        d2+=(diff*diff);
+      }
+
+      return d2;
+    }
+
+    void push(int node, double key) {
+      if(_heapSize == _heap.length) {
+        int[] heap = new int[2*_heapSize];
+        double[] keys = new double[2*_heapSize];
+        System.arraycopy(_heap, 0, heap, 0, _heapSize);
+        System.arraycopy(_keys, 0, keys, 0, _heapSize);
+        _heap = heap;
+        _keys = keys;
+      }
+
+      int i = _heapSize++;
+
+      while(i > 0) {
+        int parent = (i - 1) >>> 1;
+
+        if(_keys[parent] >= key)
+          break;
+
+        _heap[i] = _heap[parent];
+        _keys[i] = _keys[parent];
+        i = parent;
+      }
+
+      _heap[i] = node;
+      _keys[i] = key;
+    }
+
+    // Removes the top node, leaving its key in _popped.
+    int pop() {
+      final int top = _heap[0];
+      final int node = _heap[--_heapSize];
+      final double key = _keys[_heapSize];
+      int i = 0;
+
+      _popped = _keys[0];
+
+      while(true) {
+        int child = 2*i + 1;
+
+        if(child >= _heapSize)
+          break;
+        if(child + 1 < _heapSize && _keys[child + 1] > _keys[child])
+          ++child;
+        if(_keys[child] <= key)
+          break;
+
+        _heap[i] = _heap[child];
+        _keys[i] = _keys[child];
+        i = child;
+      }
+
+      _heap[i] = node;
+      _keys[i] = key;
+
+      return top;
+    }
+
+    // Adds the bounds on the contribution of reference node r to the
+    // densities of the queries in the group.
+    void consider(int r) {
+      final double max = Math.exp(-__scale*minDistance2(r));
+
+      if(max == 0)
+        return;
+
+      final double min = Math.exp(-__scale*maxDistance2(r));
+      final int count = __reference.count(r);
+
+      _lower+=(count*min);
+
+      if(__reference.isLeaf(r) || max == min) {
+        if(_resolvedCount == _resolved.length) {
+          int[] resolved = new int[2*_resolvedCount];
+          System.arraycopy(_resolved, 0, resolved, 0, _resolvedCount);
+          _resolved = resolved;
+        }
+        _resolved[_resolvedCount++] = r;
+      } else {
+        double key = count*(max - min);
+
+        _error+=(0.5*key);
+        push(r, key);
+      }
+    }
+
+    // Evaluates the queries in [begin, end), which lie within the
+    // group's bounding box.
+    void group(int begin, int end) {
+      _heapSize = _resolvedCount = 0;
+      _lower = _error = 0;
+
+      consider(0);
+
+      while(_heapSize > 0 && _error > __relativeError*_lower) {
+        final int r = pop();
+        final int count = __reference.count(r);
+
+        // Replace the node's bounds by those of its children.
+        _lower-=(count*Math.exp(-__scale*maxDistance2(r)));
+        _error-=(0.5*_popped);
+
+        consider(__reference._low[r]);
+        consider(__reference._high[r]);
+      }
+
+      for(int i = begin; i < end; ++i) {
+        double sum = 0;
+
+        for(int d = 0; d < _point.length; ++d)
+          _point[d] = __query._coords.getCoord(i, d);
+
+        for(int j = 0; j < _resolvedCount; ++j) {
+          final int r = _resolved[j];
+
+          if(__reference.isLeaf(r)) {
+            final int count = __reference.count(r);
+
+            __reference._coords.distance2(_point, __reference._begin[r],
+                                          __reference._end[r], _distances);
+
+            for(int m = 0; m < count; ++m)
+              sum+=Math.exp(-__scale*_distances[m]);
+          } else
+            sum+=(__reference.count(r)*
+                  Math.exp(-__scale*__reference.minDistance2(r, _point)));
+        }
+
+        for(int j = 0; j < _heapSize; ++j) {
+          final int r = _heap[j];
+
+          sum+=(0.5*__reference.count(r)*
+                (Math.exp(-__scale*__reference.minDistance2(r, _point)) +
+                 Math.exp(-__scale*__reference.maxDistance2(r, _point))));
+        }
+
+        __result[__query._index[i]] = __normalization*sum;
+      }
+    }
+  }
+
+  /**
+   * Constructs a KernelDensity instance with a given bandwidth that
+   * runs evaluations on the given executor.  The relative error is
+   * initially zero.
+   *
+   * @param bandwidth The bandwidth of the kernel.
+   * @param executor The executor on which to run evaluations, or null
+   *                 to run them in the calling thread.
+   */
+  public KernelDensity(double bandwidth, ExecutorService executor) {
+    __bandwidth     = bandwidth;
+    __scale         = 0.5 / (bandwidth*bandwidth);
+    __relativeError = 0;
+    __executor      = executor;
+  }
+
+  /**
+   * Constructs a KernelDensity instance with a given bandwidth that
+   * runs evaluations in the calling thread.  The relative error is
+   * initially zero.
+   *
+   * @param bandwidth The bandwidth of the kernel.
+   */
+  public KernelDensity(double bandwidth) {
+    this(bandwidth, null);
+  }
+
+  /**
+   * Sets the executor on which to run evaluations.
+   *
+   * @param executor The executor on which to run evaluations, or null
+   *                 to run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Returns the bandwidth of the kernel.
+   *
+   * @return The bandwidth of the kernel.
+   */
+  public double getBandwidth() {
+    return __bandwidth;
+  }
+
+  /**
+   * Sets the maximum relative error of the estimated densities.  Zero
+   * requests exact densities.
+   *
+   * @param relativeError The maximum relative error of the estimated
+   *        densities.
+   */
+  public void setRelativeError(double relativeError) {
+    __relativeError = Math.max(0, relativeError);
+  }
+
+  /**
+   * Returns the maximum relative error of the estimated densities.
+   *
+   * @return The maximum relative error of the estimated densities.
+   */
+  public double getRelativeError() {
+    return __relativeError;
+  }
+
+  private double[] __evaluate(KDTree<Coord,P,V> tree,
+                              PackedKDTree<Coord,P,?> query)
+  {
+    final PackedKDTree<Coord,P,V> reference = PackedKDTree.get(tree);
+    final double[] result = new double[query._size];
+
+    if(query._size == 0 || reference._size == 0)
+      return result;
+
+    try {
+      __query     = query;
+      __reference = reference;
+      __result    = result;
+      __normalization =
+        Math.pow(2*Math.PI*__bandwidth*__bandwidth, -0.5*reference._dimensions) /
+        reference._size;
+
+      List<Evaluation> tasks = new ArrayList<Evaluation>();
+
+      if(__executor == null)
+        tasks.add(new Evaluation(0));
+      else {
+        for(int node :
+              query.partition(Math.max(1, query._size / DualTreeNeighbors.TASKS)))
+          tasks.add(new Evaluation(node));
+      }
+
+      Tasks.run(__executor, tasks);
+    } finally {
+      __query = __reference = null;
+      __result = null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Estimates the density of the points of a KDTree instance at a list
+   * of query locations.
+   *
+   * @param tree The KDTree whose density should be estimated.
+   * @param queries The query locations.
+   * @return The estimated densities, in the same order as the queries.
+   */
+  public double[] evaluate(KDTree<Coord,P,V> tree, List<? extends P> queries) {
+    return __evaluate(tree,
+                      new PackedKDTree<Coord,P,Object>(tree._dimensions,
+                                                       new ArrayList<P>(queries),
+                                                       null));
+  }
+
+  /**
+   * Estimates the density of the points of a KDTree instance at the
+   * points of another KDTree instance.  The densities are returned in
+   * the order in which the query tree's <code>entrySet</code>,
+   * <code>keySet</code>, and <code>values</code> iterators return the
+   * points.
+   *
+   * @param tree The KDTree whose density should be estimated.
+   * @param queries The KDTree containing the query locations.
+   * @return The estimated densities at the points of the query tree.
+   */
+  public double[] evaluate(KDTree<Coord,P,V> tree, KDTree<Coord,P,?> queries) {
+    return __evaluate(tree, PackedKDTree.get(queries));
+  }
+
+  /**
+   * Estimates the density of the points of a KDTree instance at a
+   * single query location.
+   *
+   * @param tree The KDTree whose density should be estimated.
+   * @param query The query location.
+   * @return The estimated density at the query location.
+   */
+  public double evaluate(KDTree<Coord,P,V> tree, P query) {
+    List<P> queries = new ArrayList<P>(1);
+
+    queries.add(query);
+
+    return evaluate(tree, queries)[0];
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>MinimumSpanningTree computes the euclidean minimum spanning tree
+ * of the points of a {@link KDTree} instance with the dual-tree
+ * Bor&#367;vka algorithm.  Each round finds the shortest edge leaving
+ * every component of the forest built so far and adds those edges,
+ * at least halving the number of components.  The shortest edges are
+ * found by traversing the tree against itself, skipping pairs of
+ * subtrees whose points all belong to the same component and pairs
+ * farther apart than the shortest edges already found for the
+ * components of the first subtree.  Edges of equal length are ordered
+ * by the indices of their points, so the result is exact and contains
+ * no cycles.</p>
+ *
+ * <p>The traversal of each round can be divided among the threads of
+ * an ExecutorService.</p>
+ */
+public class MinimumSpanningTree<Coord extends Number & Comparable<? super Coord>,
+                                 P extends Point<Coord>, V>
+{
+  private static final int LOCKS = 64;
+
+  private ExecutorService __executor;
+  private PackedKDTree<Coord,P,V> __tree;
+  private Object[] __locks;
+  // Union-find parents, in packed order.
+  private int[] __parent;
+  // Component of each point for the current round.
+  private int[] __component;
+  // Component of all the points under each node, or -1 if they belong
+  // to several.
+  private int[] __nodeComponent;
+  // Shortest edge found so far leaving each component, indexed by the
+  // component's representative point.
+  private AtomicLongArray __best;
+  private int[] __from, __to;
+  // Largest shortest-edge length of the components under each node.
+  private double[] __bounds;
+
+  private final class Search implements Runnable {
+    int _root;
+    double[] _point, _distances;
+
+    Search(int root) {
+      _root      = root;
+      _point     = new double[__tree._dimensions];
+      _distances = new double[__tree._maxLeafSize];
+    }
+
+    public void run() {
+      search(_root, 0);
+    }
+
+    void search(int q, int r) {
+      final PackedKDTree<Coord,P,V> tree = __tree;
+
+      if(__nodeComponent[q] >= 0 && __nodeComponent[q] == __nodeComponent[r])
+        return;
+
+      if(tree.minDistance2(q, tree, r) > __bounds[q])
+        return;
+
+      final boolean qleaf = tree.isLeaf(q), rleaf = tree.isLeaf(r);
+
+      if(qleaf && rleaf) {
+        baseCase(q, r);
+      } else if(rleaf || (!qleaf && tree.count(q) >= tree.count(r))) {
+        final int low = tree._low[q], high = tree._high[q];
+
+        search(low, r);
+        search(high, r);
+
+        __bounds[q] = Math.max(__bounds[low], __bounds[high]);
+      } else {
+        int near = tree._low[r], far = tree._high[r];
+
+        if(tree.minDistance2(q, tree, far) < tree.minDistance2(q, tree, near)) {
+          near = far;
+          far  = tree._low[r];
+        }
+
+        search(q, near);
+        search(q, far);
+      }
+    }
+
+    void baseCase(int q, int r) {
+      final PackedKDTree<Coord,P,V> tree = __tree;
+      final int rbegin = tree._begin[r], rend = tree._end[r];
+      double bound = 0;
+
+      for(int i = tree._begin[q]; i < tree._end[q]; ++i) {
+        final int c = __component[i];
+        double best = Double.longBitsToDouble(__best.get(c));
+
+        if(tree.minDistance2(r, point(i)) <= best) {
+          tree._coords.distance2(_point, rbegin, rend, _distances);
+
+          for(int j = rbegin; j < rend; ++j) {
+            double d2 = _distances[j - rbegin];
+
+            if(d2 <= best && __component[j] != c) {
+              __offer(c, i, j, d2);
+              best = Double.longBitsToDouble(__best.get(c));
+            }
+          }
+        }
+
+        bound = Math.max(bound, best);
+      }
+
+      __bounds[q] = bound;
+    }
+
+    double[] point(int i) {
+      for(int d = 0; d < _point.length; ++d)
+        _point[d] = __tree._coords.getCoord(i, d);
+      return _point;
+    }
+  }
+
+  // Returns true if edge (i, j) of squared length d2 precedes the
+  // current shortest edge of component c.
+  private boolean __precedes(int c, int i, int j, double d2) {
+    final double best = Double.longBitsToDouble(__best.get(c));
+
+    if(d2 != best)
+      return (d2 < best);
+
+    final int from = __from[c], to = __to[c];
+
+    if(from < 0)
+      return true;
+
+    final int min = Math.min(i, j), max = Math.max(i, j);
+    final int bmin = Math.min(from, to), bmax = Math.max(from, to);
+
+    return (min < bmin || (min == bmin && max < bmax));
+  }
+
+  private void __offer(int c, int i, int j, double d2) {
+    synchronized(__locks[c % LOCKS]) {
+      if(__precedes(c, i, j, d2)) {
+        __from[c] = i;
+        __to[c]   = j;
+        __best.set(c, Double.doubleToLongBits(d2));
+      }
+    }
+  }
+
+  private int __find(int i) {
+    while(__parent[i] != i) {
+      __parent[i] = __parent[__parent[i]];
+      i = __parent[i];
+    }
+    return i;
+  }
+
+  // Prepares the per-point and per-node components for a round.
+  private void __prepareRound() {
+    final PackedKDTree<Coord,P,V> tree = __tree;
+    final int size = tree._size;
+
+    for(int i = 0; i < size; ++i) {
+      __component[i] = __find(i);
+      __best.set(i, Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+    }
+
+    Arrays.fill(__from, -1);
+    Arrays.fill(__to, -1);
+    Arrays.fill(__bounds, Double.POSITIVE_INFINITY);
+
+    // Children always follow their parents in preorder.
+    for(int node = tree._nodeCount - 1; node >= 0; --node) {
+      if(tree.isLeaf(node)) {
+        int c = __component[tree._begin[node]];
+
+        for(int i = tree._begin[node] + 1; i < tree._end[node] && c >= 0; ++i)
+          if(__component[i] != c)
+            c = -1;
+
+        __nodeComponent[node] = c;
+      } else {
+        int low = __nodeComponent[tree._low[node]];
+
+        __nodeComponent[node] =
+          (low == __nodeComponent[tree._high[node]] ? low : -1);
+      }
+    }
+  }
+
+  /**
+   * Constructs a MinimumSpanningTree instance that runs searches on
+   * the given executor.
+   *
+   * @param executor The executor on which to run searches, or null to
+   *                 run them in the calling thread.
+   */
+  public MinimumSpanningTree(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Constructs a MinimumSpanningTree instance that runs searches in the
+   * calling thread.
+   */
+  public MinimumSpanningTree() {
+    this(null);
+  }
+
+  /**
+   * Sets the executor on which to run searches.
+   *
+   * @param executor The executor on which to run searches, or null to
+   *                 run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Computes the euclidean minimum spanning tree of the points of a
+   * KDTree instance.
+   *
+   * @param tree The KDTree whose points should be spanned.
+   * @return The minimum spanning tree of the points of the tree.
+   */
+  public SpanningTree<Coord,P,V> get(KDTree<Coord,P,V> tree) {
+    final PackedKDTree<Coord,P,V> packed = PackedKDTree.get(tree);
+    final int size = packed._size;
+    final int edgeCount = Math.max(0, size - 1);
+    int[] first = new int[edgeCount], second = new int[edgeCount];
+    double[] distances2 = new double[edgeCount];
+    Map.Entry<P,V>[] entries = new Map.Entry[size];
+    int edges = 0;
+
+    for(int i = 0; i < size; ++i)
+      entries[packed._index[i]] = packed._entries[i];
+
+    try {
+      __tree          = packed;
+      __locks         = new Object[LOCKS];
+      __parent        = new int[size];
+      __component     = new int[size];
+      __nodeComponent = new int[packed._nodeCount];
+      __best          = new AtomicLongArray(size);
+      __from          = new int[size];
+      __to            = new int[size];
+      __bounds        = new double[packed._nodeCount];
+
+      for(int i = 0; i < LOCKS; ++i)
+        __locks[i] = new Object();
+
+      for(int i = 0; i < size; ++i)
+        __parent[i] = i;
+
+      while(edges < edgeCount) {
+        List<Search> tasks = new ArrayList<Search>();
+        final int previous = edges;
+
+        __prepareRound();
+
+        if(__executor == null)
+          tasks.add(new Search(0));
+        else {
+          for(int node :
+                packed.partition(Math.max(1, size / DualTreeNeighbors.TASKS)))
+            tasks.add(new Search(node));
+        }
+
+        Tasks.run(__executor, tasks);
+
+        for(int c = 0; c < size; ++c) {
+          if(__from[c] < 0)
+            continue;
+
+          int a = __find(__from[c]), b = __find(__to[c]);
+
+          // Two components may select the same edge.
+          if(a != b) {
+            __parent[Math.max(a, b)] = Math.min(a, b);
+            first[edges]      = __from[c];
+            second[edges]     = __to[c];
+            distances2[edges] = Double.longBitsToDouble(__best.get(c));
+            ++edges;
+          }
+        }
+
+        // Only coordinates such as NaN can leave components unconnected.
+        if(edges == previous)
+          throw new IllegalStateException("Points cannot be connected.");
+      }
+    } finally {
+      __tree = null;
+      __locks = null;
+      __parent = __component = __nodeComponent = __from = __to = null;
+      __best = null;
+      __bounds = null;
+    }
+
+    __sortEdges(first, second, distances2);
+
+    for(int e = 0; e < edgeCount; ++e) {
+      first[e]  = packed._index[first[e]];
+      second[e] = packed._index[second[e]];
+    }
+
+    return new SpanningTree<Coord,P,V>(first, second, distances2, entries);
+  }
+
+  // Sorts the edges by increasing length.
+  private static void __sortEdges(int[] first, int[] second,
+                                  final double[] distances2)
+  {
+    final int count = first.length;
+    int[] f = (int[])first.clone(), s = (int[])second.clone();
+    double[] d = (double[])distances2.clone();
+    Integer[] edges = new Integer[count];
+
+    for(int e = 0; e < count; ++e)
+      edges[e] = e;
+
+    Arrays.sort(edges, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          return Double.compare(distances2[a.intValue()],
+                                distances2[b.intValue()]);
+        }
+      });
+
+    for(int e = 0; e < count; ++e) {
+      int from = edges[e].intValue();
+
+      first[e]      = f[from];
+      second[e]     = s[from];
+      distances2[e] = d[from];
+    }
+  }
+}
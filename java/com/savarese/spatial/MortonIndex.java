@@ -0,0 +1,842 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>A MortonIndex keeps point-value mappings in an array sorted by the
+ * Morton, or Z-order, keys of their points.  A key interleaves the bits
+ * of a point's coordinates, so that points near one another in space
+ * tend to lie near one another in the array.  Compared with a
+ * {@link KDTree}, a MortonIndex needs no nodes, stores its keys in a
+ * single array of longs that searches traverse sequentially, and is
+ * bulk loaded by {@link #putAll putAll} with a radix sort.  Inserting
+ * or removing a single mapping moves the part of the array that
+ * follows it, so a MortonIndex suits data that is loaded in batches
+ * and searched often.  Against a KDTree loaded with
+ * <code>putAll</code>, bulk loads are several times faster and exact
+ * lookups about twice as fast, range searches take about as long, and
+ * nearest neighbors searches somewhat longer.
+ * <code>MortonIndexBenchmark</code> in the benchmarks directory
+ * measures both on uniform and clustered points.</p>
+ *
+ * <p>Coordinates are quantized to the greatest integer not greater than
+ * them, so integer coordinates are kept exactly and other coordinates
+ * should be scaled so that their integer parts are distinct enough.
+ * Each quantized coordinate must fit in the number of bits per
+ * dimension given to the constructor as a two's complement integer.
+ * Points that share a key are distinguished by <code>equals</code>.</p>
+ *
+ * <p>Rectangular range searches scan the part of the array between the
+ * keys of the rectangle's corners, skipping runs of keys that lie
+ * outside the rectangle by computing the next key inside it, the
+ * BIGMIN of Tropf and Herzog.  {@link NearestNeighbors} searches the
+ * array as an implicit tree of the cells defined by the bits of the
+ * keys.  Searches of arbitrary regions use the bounding boxes of
+ * blocks of consecutive mappings, which are computed on the first such
+ * search after the index is modified.</p>
+ *
+ * <p>MortonIndex conforms to the java.util.Map interface except that
+ * Iterator.remove is not supported by the returned views.</p>
+ */
+public class MortonIndex<Coord extends Number & Comparable<? super Coord>,
+                         P extends Point<Coord>, V>
+  extends AbstractMap<P,V> implements RegionSearchTree<Coord, P, V>
+{
+  // Mappings per block of the bounding box hierarchy searched for
+  // regions.
+  static final int BLOCK_SIZE = 32;
+  // Nearest neighbor searches scan ranges of at most LEAF_SIZE mappings.
+  static final int LEAF_SIZE = 16;
+  // Bits sorted per pass of the radix sort.
+  private static final int RADIX_BITS = 11;
+
+  static final class Mapping<P,V> implements Map.Entry<P,V> {
+    P _point;
+    V _value;
+
+    Mapping(P point, V value) {
+      _point = point;
+      _value = value;
+    }
+
+    public P getKey() {
+      return _point;
+    }
+
+    public V getValue() {
+      return _value;
+    }
+
+    public V setValue(V value) {
+      V old = _value;
+      _value = value;
+      return old;
+    }
+
+    public boolean equals(Object o) {
+      if(!(o instanceof Map.Entry))
+        return false;
+
+      Map.Entry e = (Map.Entry)o;
+
+      return
+        ((_point == null ? e.getKey() == null : _point.equals(e.getKey())) &&
+         (_value == null ? e.getValue() == null : _value.equals(e.getValue())));
+    }
+
+    public int hashCode() {
+      return
+        ((_point == null ? 0 : _point.hashCode()) ^
+         (_value == null ? 0 : _value.hashCode()));
+    }
+  }
+
+  // Bounding boxes of a complete binary tree over blocks of BLOCK_SIZE
+  // consecutive mappings.  Node 1 is the root, the children of node n
+  // are 2n and 2n + 1, and nodes from _leaves on are the blocks.
+  final class Boxes {
+    int _modCount, _leaves;
+    GenericPoint<Coord>[] _lower, _upper;
+
+    Boxes() {
+      int blocks = (_size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+      _modCount = MortonIndex.this._modCount;
+      _leaves = 1;
+
+      while(_leaves < blocks)
+        _leaves <<= 1;
+
+      _lower = new GenericPoint[2*_leaves];
+      _upper = new GenericPoint[2*_leaves];
+
+      for(int b = 0; b < blocks; ++b) {
+        int node = _leaves + b, end = Math.min(_size, (b + 1)*BLOCK_SIZE);
+        GenericPoint<Coord> lower = new GenericPoint<Coord>(_dimensions);
+        GenericPoint<Coord> upper = new GenericPoint<Coord>(_dimensions);
+
+        for(int i = b*BLOCK_SIZE; i < end; ++i) {
+          P point = _entries[i]._point;
+
+          for(int d = 0; d < _dimensions; ++d) {
+            Coord c = point.getCoord(d);
+
+            if(i == b*BLOCK_SIZE || c.compareTo(lower.getCoord(d)) < 0)
+              lower.setCoord(d, c);
+            if(i == b*BLOCK_SIZE || c.compareTo(upper.getCoord(d)) > 0)
+              upper.setCoord(d, c);
+          }
+        }
+
+        _lower[node] = lower;
+        _upper[node] = upper;
+      }
+
+      for(int node = _leaves - 1; node > 0; --node) {
+        GenericPoint<Coord> low = _lower[2*node], high = _lower[2*node + 1];
+
+        if(high == null) {
+          _lower[node] = low;
+          _upper[node] = _upper[2*node];
+        } else {
+          GenericPoint<Coord> lower = new GenericPoint<Coord>(_dimensions);
+          GenericPoint<Coord> upper = new GenericPoint<Coord>(_dimensions);
+
+          for(int d = 0; d < _dimensions; ++d) {
+            lower.setCoord(d, min(low.getCoord(d), high.getCoord(d)));
+            upper.setCoord(d, max(_upper[2*node].getCoord(d),
+                                  _upper[2*node + 1].getCoord(d)));
+          }
+
+          _lower[node] = lower;
+          _upper[node] = upper;
+        }
+      }
+    }
+
+    int begin(int node) {
+      int level = 31 - Integer.numberOfLeadingZeros(node);
+
+      return (node - (1 << level))*(_leaves >> level)*BLOCK_SIZE;
+    }
+
+    int end(int node) {
+      int level = 31 - Integer.numberOfLeadingZeros(node);
+
+      return Math.min(_size, begin(node) + (_leaves >> level)*BLOCK_SIZE);
+    }
+  }
+
+  final class RangeIterator implements Iterator<Map.Entry<P,V>> {
+    P _lower, _upper;
+    // Keys of the rectangle's corners and their bits in each dimension.
+    long _min, _max;
+    long[] _minBits, _maxBits;
+    int _position, _end;
+    Mapping<P,V> _next;
+
+    RangeIterator(P lower, P upper) {
+      long[] low = new long[_dimensions], high = new long[_dimensions];
+
+      _lower    = lower;
+      _upper    = upper;
+      _position = _end = 0;
+
+      for(int d = 0; d < _dimensions; ++d) {
+        low[d]  = (lower == null ? 0 : clamp(lower.getCoord(d)));
+        high[d] = (upper == null ? _limit : clamp(upper.getCoord(d)));
+
+        if(low[d] > high[d]) {
+          _next = null;
+          return;
+        }
+      }
+
+      _min     = interleave(low);
+      _max     = interleave(high);
+      _minBits = new long[_dimensions];
+      _maxBits = new long[_dimensions];
+
+      for(int d = 0; d < _dimensions; ++d) {
+        _minBits[d] = _min & _masks[d];
+        _maxBits[d] = _max & _masks[d];
+      }
+
+      _position = lowerBound(_min, 0, _size);
+      _end = (_max == Long.MAX_VALUE ? _size : lowerBound(_max + 1, 0, _size));
+
+      advance();
+    }
+
+    boolean contains(long key) {
+      for(int d = 0; d < _dimensions; ++d) {
+        long bits = key & _masks[d];
+
+        if(bits < _minBits[d] || bits > _maxBits[d])
+          return false;
+      }
+
+      return true;
+    }
+
+    void advance() {
+      while(_position < _end) {
+        long key = _keys[_position];
+
+        if(contains(key)) {
+          Mapping<P,V> mapping = _entries[_position++];
+
+          if(isInRange(mapping._point, _lower, _upper)) {
+            _next = mapping;
+            return;
+          }
+        } else {
+          long next = bigmin(key, _min, _max);
+
+          if(next < 0)
+            break;
+
+          _position = lowerBound(next, _position + 1, _end);
+        }
+      }
+
+      _next = null;
+    }
+
+    public boolean hasNext() {
+      return (_next != null);
+    }
+
+    public Map.Entry<P,V> next() {
+      Mapping<P,V> old = _next;
+
+      if(old == null)
+        throw new NoSuchElementException();
+
+      advance();
+
+      return old;
+    }
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  final class RegionIterator implements Iterator<Map.Entry<P,V>> {
+    Region<Coord, ? super P> _region;
+    Boxes _boxes;
+    int[] _stack;
+    int _depth, _position, _end;
+    // True if the region contains all the mappings up to _end.
+    boolean _contained;
+    Mapping<P,V> _next;
+
+    RegionIterator(Region<Coord, ? super P> region) {
+      _region = region;
+      _boxes  = boxes();
+      _stack  = new int[64];
+      _depth  = _position = _end = 0;
+
+      if(_size > 0)
+        _stack[_depth++] = 1;
+
+      advance();
+    }
+
+    void advance() {
+      while(true) {
+        while(_position < _end) {
+          Mapping<P,V> mapping = _entries[_position++];
+
+          if(_contained || _region.contains(mapping._point)) {
+            _next = mapping;
+            return;
+          }
+        }
+
+        if(_depth == 0) {
+          _next = null;
+          return;
+        }
+
+        int node = _stack[--_depth];
+        GenericPoint<Coord> lower = _boxes._lower[node];
+        GenericPoint<Coord> upper = _boxes._upper[node];
+
+        if(lower == null || !_region.intersects(lower, upper))
+          continue;
+
+        _contained = _region.contains(lower, upper);
+
+        if(_contained || node >= _boxes._leaves) {
+          _position = _boxes.begin(node);
+          _end      = _boxes.end(node);
+        } else {
+          _stack[_depth++] = 2*node + 1;
+          _stack[_depth++] = 2*node;
+        }
+      }
+    }
+
+    public boolean hasNext() {
+      return (_next != null);
+    }
+
+    public Map.Entry<P,V> next() {
+      Mapping<P,V> old = _next;
+
+      if(old == null)
+        throw new NoSuchElementException();
+
+      advance();
+
+      return old;
+    }
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  final class MapEntrySet extends AbstractSet<Map.Entry<P,V>> {
+    public Iterator<Map.Entry<P,V>> iterator() {
+      return new RangeIterator(null, null);
+    }
+
+    public int size() {
+      return _size;
+    }
+
+    public boolean contains(Object o) {
+      if(!(o instanceof Map.Entry))
+        return false;
+
+      int i = indexOf(((Map.Entry)o).getKey());
+
+      return (i >= 0 && _entries[i].equals(o));
+    }
+  }
+
+  int _dimensions, _bits, _totalBits, _size, _modCount;
+  // Quantized coordinates are offset by _bias to lie in [0, _limit].
+  long _bias, _limit;
+  // Masks of the key bits of each dimension.
+  long[] _masks;
+  long[] _keys;
+  Mapping<P,V>[] _entries;
+  private Boxes __boxes;
+
+  private static <Coord extends Comparable<? super Coord>>
+    Coord min(Coord c1, Coord c2)
+  {
+    return (c1.compareTo(c2) <= 0 ? c1 : c2);
+  }
+
+  private static <Coord extends Comparable<? super Coord>>
+    Coord max(Coord c1, Coord c2)
+  {
+    return (c1.compareTo(c2) >= 0 ? c1 : c2);
+  }
+
+  // Returns the offset quantized coordinate, which is out of range if
+  // it is negative or greater than _limit.  Coordinates far out of
+  // range, including infinities, saturate to -1 and _limit + 1 before
+  // the bias is added so that the result cannot overflow.
+  long quantize(Coord coord) {
+    double value = coord.doubleValue();
+
+    // -_bias and _limit + 1 - _bias are powers of two, so they are
+    // compared exactly.
+    if(value < -_bias)
+      return -1;
+    if(value >= _limit + 1 - _bias)
+      return _limit + 1;
+
+    long q = coord.longValue();
+
+    // longValue() truncates toward zero.
+    if(q > coord.doubleValue())
+      --q;
+
+    return q + _bias;
+  }
+
+  long clamp(Coord coord) {
+    return Math.max(0, Math.min(_limit, quantize(coord)));
+  }
+
+  // Bit b of dimension d is stored at bit b*_dimensions + _dimensions -
+  // 1 - d of a key, so that the most significant bit of a key belongs
+  // to dimension 0.
+  long interleave(long[] coords) {
+    long key = 0;
+
+    for(int b = _bits - 1; b >= 0; --b) {
+      for(int d = 0; d < _dimensions; ++d)
+        key = (key << 1) | ((coords[d] >>> b) & 1);
+    }
+
+    return key;
+  }
+
+  int dimensionOf(int bit) {
+    return _dimensions - 1 - bit % _dimensions;
+  }
+
+  // Returns the key of a point, or -1 if a coordinate is out of range.
+  long key(P point) {
+    long key = 0;
+
+    for(int d = 0; d < _dimensions; ++d) {
+      long q = quantize(point.getCoord(d));
+
+      if(q < 0 || q > _limit)
+        return -1;
+
+      for(int b = 0, shift = _dimensions - 1 - d; b < _bits;
+          ++b, shift+=_dimensions)
+        key |= ((q >>> b) & 1) << shift;
+    }
+
+    return key;
+  }
+
+  // Returns the smallest key greater than key whose bits in every
+  // dimension lie between those of min and max, or -1 if there is none.
+  // key must lie between min and max but outside the box they define.
+  long bigmin(long key, long min, long max) {
+    long result = -1;
+
+    for(int i = _totalBits - 1; i >= 0; --i) {
+      long bit = 1L << i;
+      // The less significant bits of the same dimension.
+      long below = _masks[dimensionOf(i)] & (bit - 1);
+      boolean k = ((key & bit) != 0);
+      boolean lo = ((min & bit) != 0), hi = ((max & bit) != 0);
+
+      if(!k) {
+        if(!lo && hi) {
+          result = (min | bit) & ~below;
+          max = (max & ~bit) | below;
+        } else if(lo)
+          return min;
+      } else if(!hi)
+        return result;
+      else if(!lo)
+        min = (min | bit) & ~below;
+    }
+
+    return result;
+  }
+
+  // Returns the first position in [begin, end) whose key is not less
+  // than key, or end if there is none.
+  int lowerBound(long key, int begin, int end) {
+    while(begin < end) {
+      int middle = (begin + end) >>> 1;
+
+      if(_keys[middle] < key)
+        begin = middle + 1;
+      else
+        end = middle;
+    }
+
+    return begin;
+  }
+
+  // Returns the position of the mapping of a point, or -1 if there is
+  // none.
+  int indexOf(Object o) {
+    P point = (P)o;
+    long key = key(point);
+
+    if(key < 0)
+      return -1;
+
+    for(int i = lowerBound(key, 0, _size); i < _size && _keys[i] == key; ++i) {
+      if(_entries[i]._point.equals(point))
+        return i;
+    }
+
+    return -1;
+  }
+
+  boolean isInRange(P point, P lower, P upper) {
+    for(int d = 0; d < _dimensions; ++d) {
+      Coord c = point.getCoord(d);
+
+      if((lower != null && c.compareTo(lower.getCoord(d)) < 0) ||
+         (upper != null && c.compareTo(upper.getCoord(d)) > 0))
+        return false;
+    }
+
+    return true;
+  }
+
+  Boxes boxes() {
+    if(__boxes == null || __boxes._modCount != _modCount)
+      __boxes = new Boxes();
+    return __boxes;
+  }
+
+  private void __ensureCapacity(int capacity) {
+    if(capacity > _keys.length) {
+      long[] keys = new long[Math.max(capacity, 2*_keys.length)];
+      Mapping<P,V>[] entries = new Mapping[keys.length];
+
+      System.arraycopy(_keys, 0, keys, 0, _size);
+      System.arraycopy(_entries, 0, entries, 0, _size);
+      _keys    = keys;
+      _entries = entries;
+    }
+  }
+
+  // Sorts keys[0, count) together with entries by a least significant
+  // digit radix sort of the low bits bits of the keys.
+  static void sort(long[] keys, Object[] entries, int count, int bits) {
+    long[] keyBuffer = new long[count];
+    Object[] entryBuffer = new Object[count];
+    int[] positions = new int[1 << RADIX_BITS];
+
+    for(int shift = 0; shift < bits; shift+=RADIX_BITS) {
+      final int mask = (1 << RADIX_BITS) - 1;
+
+      Arrays.fill(positions, 0);
+
+      for(int i = 0; i < count; ++i)
+        ++positions[(int)(keys[i] >>> shift) & mask];
+
+      for(int digit = 0, position = 0; digit <= mask; ++digit) {
+        int n = positions[digit];
+        positions[digit] = position;
+        position+=n;
+      }
+
+      for(int i = 0; i < count; ++i) {
+        int p = positions[(int)(keys[i] >>> shift) & mask]++;
+
+        keyBuffer[p]   = keys[i];
+        entryBuffer[p] = entries[i];
+      }
+
+      System.arraycopy(keyBuffer, 0, keys, 0, count);
+      System.arraycopy(entryBuffer, 0, entries, 0, count);
+    }
+  }
+
+  /**
+   * Creates a MortonIndex of the specified number of dimensions whose
+   * quantized coordinates must lie in [-2<sup>bits - 1</sup>,
+   * 2<sup>bits - 1</sup>).
+   *
+   * @param dimensions The number of dimensions.  Must be greater than 0.
+   * @param bits The number of bits per dimension.  Must be greater than
+   * 0, with no more than 63 bits in all.
+   * @exception IllegalArgumentException If the keys would need more
+   * than 63 bits.
+   */
+  public MortonIndex(int dimensions, int bits)
+    throws IllegalArgumentException
+  {
+    assert(dimensions > 0);
+
+    if(bits < 1 || dimensions*bits > 63)
+      throw new IllegalArgumentException("Keys would exceed 63 bits.");
+
+    _dimensions = dimensions;
+    _bits       = bits;
+    _totalBits  = dimensions*bits;
+    _bias       = 1L << (bits - 1);
+    _limit      = (1L << bits) - 1;
+    _masks      = new long[dimensions];
+
+    for(int i = 0; i < _totalBits; ++i)
+      _masks[dimensionOf(i)] |= (1L << i);
+
+    clear();
+  }
+
+  /**
+   * Creates a MortonIndex of the specified number of dimensions with
+   * as many bits per dimension as fit in 63 bits.  In two dimensions,
+   * quantized coordinates must lie in [-2<sup>30</sup>,
+   * 2<sup>30</sup>), and in three, in [-2<sup>20</sup>,
+   * 2<sup>20</sup>).
+   *
+   * @param dimensions The number of dimensions.  Must be between 1 and
+   * 63.
+   */
+  public MortonIndex(int dimensions) {
+    this(dimensions, 63 / dimensions);
+  }
+
+  /**
+   * Creates a two-dimensional MortonIndex.
+   */
+  public MortonIndex() {
+    this(2);
+  }
+
+  /**
+   * Removes all elements from the container, leaving it empty.
+   */
+  public void clear() {
+    _keys    = new long[16];
+    _entries = new Mapping[16];
+    _size    = 0;
+    __boxes  = null;
+    ++_modCount;
+  }
+
+  /**
+   * Returns true if the container contains a mapping for the specified key.
+   *
+   * @param key The point key to search for.
+   * @return true if the container contains a mapping for the specified key.
+   * @exception ClassCastException if the key is not an instance of P.
+   */
+  public boolean containsKey(Object key)
+    throws ClassCastException
+  {
+    return (indexOf(key) >= 0);
+  }
+
+  /**
+   * Returns a Set view of the point to value mappings in the index, in
+   * the order of their keys.
+   *
+   * @return A Set view of the point to value mappings in the index.
+   */
+  public Set<Map.Entry<P,V>> entrySet() {
+    return new MapEntrySet();
+  }
+
+  /**
+   * Retrieves the value at the given location.
+   *
+   * @param point The location from which to retrieve the value.
+   * @return The value at the given location, or null if no value is present.
+   * @exception ClassCastException If the given point is not of the
+   * expected type.
+   */
+  public V get(Object point) throws ClassCastException {
+    int i = indexOf(point);
+
+    return (i < 0 ? null : _entries[i]._value);
+  }
+
+  /**
+   * Inserts a point value pair into the index.
+   *
+   * @param point The point serving as a key.
+   * @param value The value to insert at the point.
+   * @return The old value if an existing value is replaced by the
+   * inserted value.
+   * @exception IllegalArgumentException If a quantized coordinate of the
+   * point is out of range.
+   */
+  public V put(P point, V value)
+    throws IllegalArgumentException
+  {
+    long key = key(point);
+
+    if(key < 0)
+      throw new IllegalArgumentException("Point is out of range.");
+
+    int i = lowerBound(key, 0, _size);
+
+    for(int j = i; j < _size && _keys[j] == key; ++j) {
+      if(_entries[j]._point.equals(point))
+        return _entries[j].setValue(value);
+    }
+
+    __ensureCapacity(_size + 1);
+    System.arraycopy(_keys, i, _keys, i + 1, _size - i);
+    System.arraycopy(_entries, i, _entries, i + 1, _size - i);
+    _keys[i]    = key;
+    _entries[i] = new Mapping<P,V>(point, value);
+    ++_size;
+    ++_modCount;
+
+    return null;
+  }
+
+  /**
+   * Copies all of the point-value mappings from the given Map into the
+   * index.  The new mappings are sorted by key with a radix sort and
+   * merged with the existing ones in a single pass, so that loading
+   * many mappings at once takes time linear in the size of the index.
+   *
+   * @param map The Map from which to copy the mappings.
+   * @exception IllegalArgumentException If a quantized coordinate of a
+   * point is out of range, in which case the index is not modified.
+   */
+  public void putAll(Map<? extends P, ? extends V> map)
+    throws IllegalArgumentException
+  {
+    long[] keys = new long[map.size()];
+    Object[] entries = new Object[map.size()];
+    int count = 0;
+
+    for(Map.Entry<? extends P, ? extends V> e : map.entrySet()) {
+      if((keys[count] = key(e.getKey())) < 0)
+        throw new IllegalArgumentException("Point is out of range.");
+      entries[count++] = new Mapping<P,V>(e.getKey(), e.getValue());
+    }
+
+    // Replace the values of mapped points.
+    if(_size > 0) {
+      int added = 0;
+
+      for(int i = 0; i < count; ++i) {
+        Mapping<P,V> mapping = (Mapping<P,V>)entries[i];
+        int j = indexOf(mapping._point);
+
+        if(j >= 0)
+          _entries[j]._value = mapping._value;
+        else {
+          keys[added]    = keys[i];
+          entries[added] = mapping;
+          ++added;
+        }
+      }
+
+      count = added;
+    }
+
+    if(count == 0)
+      return;
+
+    sort(keys, entries, count, _totalBits);
+
+    long[] mergedKeys = new long[Math.max(16, _size + count)];
+    Mapping<P,V>[] merged = new Mapping[mergedKeys.length];
+    int i = 0, j = 0, n = 0;
+
+    while(i < _size || j < count) {
+      if(j == count || (i < _size && _keys[i] <= keys[j])) {
+        mergedKeys[n] = _keys[i];
+        merged[n++]   = _entries[i++];
+      } else {
+        mergedKeys[n] = keys[j];
+        merged[n++]   = (Mapping<P,V>)entries[j++];
+      }
+    }
+
+    _keys    = mergedKeys;
+    _entries = merged;
+    _size    = n;
+    ++_modCount;
+  }
+
+  /**
+   * Removes the point-value mapping corresponding to the given point key.
+   *
+   * @param key The point key of the mapping to remove.
+   * @return The value part of the mapping, if a mapping existed and
+   * was removed.  Null if not.
+   * @exception ClassCastException If the key is not an instance of P.
+   */
+  public V remove(Object key)
+    throws ClassCastException
+  {
+    int i = indexOf(key);
+
+    if(i < 0)
+      return null;
+
+    V old = _entries[i]._value;
+
+    System.arraycopy(_keys, i + 1, _keys, i, _size - i - 1);
+    System.arraycopy(_entries, i + 1, _entries, i, _size - i - 1);
+    _entries[--_size] = null;
+    ++_modCount;
+
+    return old;
+  }
+
+  /**
+   * Returns the number of point-value mappings in the index.
+   *
+   * @return The number of point-value mappings in the index.
+   */
+  public int size() {
+    return _size;
+  }
+
+  public Iterator<Map.Entry<P,V>> iterator(P lower, P upper) {
+    return new RangeIterator(lower, upper);
+  }
+
+  public Iterator<Map.Entry<P,V>> iterator(Region<Coord, ? super P> region) {
+    return new RegionIterator(region);
+  }
+}
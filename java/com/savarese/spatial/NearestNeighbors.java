@@ -17,6 +17,7 @@
 package com.savarese.spatial;
 
 import java.util.PriorityQueue;
+import java.util.List;
 import java.util.Map;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -66,7 +67,8 @@ public class NearestNeighbors<Coord extends Number & Comparable<? super Coord>,
     public Map.Entry<P,V> getNeighbor();
   }
 
-  private final class NNEntry
+  static final class NNEntry<Coord extends Number & Comparable<? super Coord>,
+                             P extends Point<Coord>, V>
     implements Entry<Coord, P, V>, Comparable<Entry<Coord, P, V>>
   {
     double _distance2;
@@ -122,53 +124,308 @@ public class NearestNeighbors<Coord extends Number & Comparable<? super Coord>,
     }
   }
 
+  // The query and the candidate neighbors found so far, shared by the
+  // searches of every kind of structure.
   private boolean __omitQueryPoint;
   private int __numNeighbors;
   private double __minDistance;
   private Distance<Coord, P> __distance;
+  // __distance if it can abandon computations early, else null.
+  private BoundedDistance<Coord, P> __bounded;
   private PriorityQueue<Entry<Coord, P, V>> __pq;
-  private P __query;
-
-  private void find(KDTree<Coord,P,V>.KDNode node) {
-    if(node == null)
-      return;
-
-    final int discriminator = node._discriminator;
-    final P point = node.getKey();
-    double d2 = __distance.distance2(__query, point);
+  private P __query, __lower, __upper;
+  // The tree being searched by find().  MortonIndex and GridIndex
+  // instances are searched by MortonSearch and GridSearch.
+  private KDTree<Coord,P,V> __tree;
+
+  // Returns the squared distance from the query to a point, or a value
+  // not less than __minDistance if the point is farther than that.
+  private double __distance2(P point) {
+    if(__bounded != null)
+      return __bounded.distance2(__query, point, __minDistance);
+
+    return __distance.distance2(__query, point);
+  }
 
+  // Adds a neighbor at squared distance d2 to the candidates if it is
+  // nearer than the farthest of them.
+  private void __offer(double d2, Map.Entry<P,V> neighbor) {
     if(d2 < __minDistance && (d2 != 0.0 || !__omitQueryPoint)) {
       if(__pq.size() == __numNeighbors) {
         __pq.poll();
-        __pq.add(new NNEntry(d2, node));
+        __pq.add(new NNEntry<Coord,P,V>(d2, neighbor));
         __minDistance = __pq.peek().getDistance2();
       } else {
-        __pq.add(new NNEntry(d2, node));
+        __pq.add(new NNEntry<Coord,P,V>(d2, neighbor));
         if(__pq.size() == __numNeighbors) {
           __minDistance = __pq.peek().getDistance2();
         }
       }
     }
+  }
+
+  private void find(KDTree<Coord,P,V>.KDNode node) {
+    if(node == null)
+      return;
+
+    final int discriminator = node._discriminator;
+    final P point = node.getKey();
+    double d2;
+
+    if(__tree.isInRange(point, __lower, __upper))
+      __offer(__distance2(point), node);
 
+    final Coord split = point.getCoord(discriminator);
+    final boolean searchLow =
+      (__lower == null || split.compareTo(__lower.getCoord(discriminator)) > 0);
+    final boolean searchHigh =
+      (__upper == null || split.compareTo(__upper.getCoord(discriminator)) <= 0);
     double dp =
-      __query.getCoord(discriminator).doubleValue() -
-      point.getCoord(discriminator).doubleValue();
+      __query.getCoord(discriminator).doubleValue() - split.doubleValue();
 
     d2 = dp*dp;
 
     if(dp < 0) {
-      find(node._low);
-      if(d2 < __minDistance) {
+      if(searchLow) {
+        find(node._low);
+      }
+      if(searchHigh && d2 < __minDistance) {
         find(node._high);
       }
     } else {
-      find(node._high);
-      if(d2 < __minDistance) {
+      if(searchHigh) {
+        find(node._high);
+      }
+      if(searchLow && d2 < __minDistance) {
         find(node._low);
       }
     }
   }
 
+  // Searches a MortonIndex as an implicit tree of the cells defined by
+  // the bits of its keys.
+  private final class MortonSearch {
+    final MortonIndex<Coord,P,V> _index;
+    // Lower corner of the cell being searched, in the index's offset
+    // quantized coordinates.
+    final long[] _cell;
+
+    MortonSearch(MortonIndex<Coord,P,V> index) {
+      _index = index;
+      _cell  = new long[index._dimensions];
+    }
+
+    void search() {
+      searchCell(0, _index._size, _index._totalBits - 1);
+    }
+
+    // Searches the mappings [begin, end) of the index, whose keys
+    // agree in the bits above bit.  Each bit splits the cell of such
+    // mappings in half along one dimension.
+    void searchCell(int begin, int end, int bit) {
+      final MortonIndex<Coord,P,V> index = _index;
+
+      if(bit < 0 || end - begin <= MortonIndex.LEAF_SIZE) {
+        for(int i = begin; i < end; ++i) {
+          final P point = index._entries[i]._point;
+
+          if(index.isInRange(point, __lower, __upper))
+            __offer(__distance2(point), index._entries[i]);
+        }
+
+        return;
+      }
+
+      final int dimension = index.dimensionOf(bit);
+      final long low = _cell[dimension];
+      final long split = low + (1L << (bit / index._dimensions));
+      final long prefix = index._keys[begin] & (-1L << (bit + 1));
+      final int middle = index.lowerBound(prefix | (1L << bit), begin, end);
+      // Quantization rounds down, so the low half holds coordinates
+      // less than split and the high half those not less than split.
+      final double coord = split - index._bias;
+      final boolean searchLow = (middle > begin &&
+        (__lower == null ||
+         __lower.getCoord(dimension).doubleValue() < coord));
+      final boolean searchHigh = (middle < end &&
+        (__upper == null ||
+         __upper.getCoord(dimension).doubleValue() >= coord));
+      final double dp = __query.getCoord(dimension).doubleValue() - coord;
+      final double d2 = dp*dp;
+
+      if(dp < 0) {
+        if(searchLow)
+          searchCell(begin, middle, bit - 1);
+        if(searchHigh && d2 < __minDistance) {
+          _cell[dimension] = split;
+          searchCell(middle, end, bit - 1);
+          _cell[dimension] = low;
+        }
+      } else {
+        if(searchHigh) {
+          _cell[dimension] = split;
+          searchCell(middle, end, bit - 1);
+          _cell[dimension] = low;
+        }
+        if(searchLow && d2 < __minDistance)
+          searchCell(begin, middle, bit - 1);
+      }
+    }
+  }
+
+  // Searches a GridIndex by cells of increasing distance from the
+  // query.
+  private final class GridSearch {
+    final GridIndex<Coord,P,V> _grid;
+    // Grid coordinates of the cell being searched, and ranges of grid
+    // coordinates of the cells being searched.
+    final long[] _cell, _from, _to;
+
+    GridSearch(GridIndex<Coord,P,V> grid) {
+      _grid = grid;
+      _cell = new long[grid._dimensions];
+      _from = new long[grid._dimensions];
+      _to   = new long[grid._dimensions];
+    }
+
+    // Searches the grid cells whose coordinates in dimensions from d
+    // on lie between _from and _to, and in dimensions before d equal
+    // _cell.  d2 is the squared distance from the query to the slab
+    // of space those cells occupy.
+    void searchCells(int d, double d2) {
+      final GridIndex<Coord,P,V> grid = _grid;
+
+      if(d2 >= __minDistance)
+        return;
+
+      if(d == grid._dimensions) {
+        GridIndex<Coord,P,V>.Cell cell = grid.find(_cell);
+
+        if(cell != null) {
+          for(int i = 0; i < cell._size; ++i) {
+            final P point = cell._entries[i]._point;
+
+            if(grid.isInRange(point, __lower, __upper))
+              __offer(__distance2(point), cell._entries[i]);
+          }
+        }
+
+        return;
+      }
+
+      final double x = __query.getCoord(d).doubleValue();
+
+      for(long c = _from[d]; c <= _to[d]; ++c) {
+        final double low = c * grid._cellSize, high = low + grid._cellSize;
+        final double dp = (x < low ? low - x : (x > high ? x - high : 0));
+
+        _cell[d] = c;
+        searchCells(d + 1, d2 + dp*dp);
+      }
+    }
+
+    // Searches the grid ring by ring outward from the cell of the
+    // query, where ring r holds the cells whose grid coordinates differ
+    // from those of the query's cell by at most r in every dimension
+    // and by exactly r in some.  The search ends when the nearest point
+    // of the next ring is farther than the neighbors found, when the
+    // rings cover the bounding rectangle, or when the next ring has
+    // more cells than remain nonempty, in which case the remaining
+    // nonempty cells are scanned instead.
+    void search() {
+      final GridIndex<Coord,P,V> grid = _grid;
+      final int dimensions = grid._dimensions;
+      final double size = grid._cellSize;
+      final long[] query = new long[dimensions];
+      final long[] low = new long[dimensions], high = new long[dimensions];
+      final double[] x = new double[dimensions];
+
+      for(int d = 0; d < dimensions; ++d) {
+        x[d]     = __query.getCoord(d).doubleValue();
+        query[d] = grid.cell(__query.getCoord(d));
+        low[d]   =
+          (__lower == null ? Long.MIN_VALUE : grid.cell(__lower.getCoord(d)));
+        high[d]  =
+          (__upper == null ? Long.MAX_VALUE : grid.cell(__upper.getCoord(d)));
+
+        if(low[d] > high[d])
+          return;
+      }
+
+      for(long r = 0; grid._cellCount > 0; ++r) {
+        double bound = Double.POSITIVE_INFINITY, cells = 1, inner = 1;
+        boolean covered = true;
+
+        for(int d = 0; d < dimensions; ++d) {
+          bound = Math.min(bound, Math.min(x[d] - (query[d] - r + 1)*size,
+                                           (query[d] + r)*size - x[d]));
+          cells*=(2*r + 1);
+          inner*=Math.max(0, 2*r - 1);
+          covered&=(query[d] - r <= low[d] && query[d] + r >= high[d]);
+        }
+
+        if(r > 0 && bound*bound >= __minDistance)
+          return;
+
+        if(cells - inner > grid._cellCount) {
+          scan(query, low, high, r);
+          return;
+        }
+
+        // Each cell of the ring lies on a face where dimension f is
+        // farthest from the query.  Dimensions before f are kept off
+        // their own faces so that no cell is searched twice.
+        for(int f = 0; f < dimensions; ++f) {
+          for(long side = -r; side <= r; side+=Math.max(1, 2*r)) {
+            long c = query[f] + side;
+            boolean empty = (c < low[f] || c > high[f]);
+
+            for(int d = 0; d < dimensions && !empty; ++d) {
+              long extent = (d < f ? r - 1 : r);
+
+              if(d == f)
+                _from[d] = _to[d] = c;
+              else {
+                _from[d] = Math.max(low[d], query[d] - extent);
+                _to[d]   = Math.min(high[d], query[d] + extent);
+              }
+
+              empty = (_from[d] > _to[d]);
+            }
+
+            if(!empty)
+              searchCells(0, 0);
+          }
+        }
+
+        if(covered)
+          return;
+      }
+    }
+
+    // Searches the nonempty cells of the grid outside the first r rings.
+    void scan(long[] query, long[] low, long[] high, long r) {
+      final int dimensions = _grid._dimensions;
+      GridIndex<Coord,P,V>.CellIterator cells = _grid.new CellIterator();
+      GridIndex<Coord,P,V>.Cell cell;
+
+      while((cell = cells.nextCell()) != null) {
+        long ring = 0;
+
+        for(int d = 0; d < dimensions; ++d)
+          ring = Math.max(ring, Math.abs(cell._coords[d] - query[d]));
+
+        if(ring < r || !cell.isInRange(low, high))
+          continue;
+
+        for(int d = 0; d < dimensions; ++d)
+          _from[d] = _to[d] = cell._coords[d];
+
+        searchCells(0, 0);
+      }
+    }
+  }
+
   /**
    * Constructs a new NearestNeighbors instance, using the specified
    * distance-finding functor to calculate distances during searches.
@@ -177,7 +434,7 @@ public class NearestNeighbors<Coord extends Number & Comparable<? super Coord>,
    *                 the {@link Distance} interface.
    */
   public NearestNeighbors(Distance<Coord, P> distance) {
-    __distance = distance;
+    setDistance(distance);
   }
 
   /**
@@ -190,60 +447,134 @@ public class NearestNeighbors<Coord extends Number & Comparable<? super Coord>,
 
   /**
    * Sets the distance-finding functor used to calculate distances during
-   * searches.
+   * searches.  If it implements {@link BoundedDistance}, distance
+   * computations are abandoned once they exceed the distance of the
+   * farthest candidate neighbor.
    *
    * @param distance The distance-finding functor to use for distance
    *                 calculations.
    */
   public void setDistance(Distance<Coord, P> distance) {
     __distance = distance;
+    __bounded  = (distance instanceof BoundedDistance ?
+                  (BoundedDistance<Coord, P>)distance : null);
   }
 
   /**
-   * Finds the k-nearest neighbors to a query point withina KDTree instance.
-   * The neighbors are returned as an array of {@link Entry} instances, sorted
-   * from nearest to farthest.
+   * Finds the k-nearest neighbors to a query point among the points of a
+   * KDTree instance that lie inside a bounding rectangle.  The search
+   * prunes subtrees that lie outside of the rectangle as well as those
+   * that are too far from the query point, in a single traversal of the
+   * tree.  The neighbors are returned as an array of {@link Entry}
+   * instances, sorted from nearest to farthest.
    *
    * @param tree The KDTree to search.
-   * @param queryPoint The query point.
+   * @param queryPoint The query point.  It need not lie inside the
+   *        bounding rectangle.
    * @param numNeighbors The number of nearest neighbors to find.  This should
    *        be a positive value.  Non-positive values result in no neighbors
    *        being found.
+   * @param lower The lower left-hand corner of the bounding rectangle.
+   *        A null value can be used to specify the region is unbounded
+   *        in that direction.
+   * @param upper The upper right-hand corner of the bounding rectangle.
+   *        A null value can be used to specify the region is unbounded
+   *        in that direction.
    * @param omitQueryPoint If true, point-value mappings at a distance of
    *        zero are omitted from the result.  If false, mappings at a
    *        distance of zero are included.
-   * @return An array containing the nearest neighbors and their distances
-   *         sorted by least distance to greatest distance.  If no neighbors
-   *         are found, the array will have a length of zero.
+   * @return An array containing the nearest neighbors inside the bounding
+   *         rectangle and their distances sorted by least distance to
+   *         greatest distance.  If no neighbors are found, the array will
+   *         have a length of zero.
    */
   public Entry<Coord,P,V>[] get(KDTree<Coord,P,V> tree,
                                 P queryPoint,
                                 int numNeighbors,
+                                P lower,
+                                P upper,
                                 boolean omitQueryPoint)
+  {
+    __begin(queryPoint, numNeighbors, lower, upper, omitQueryPoint);
+    __search(tree);
+    return __end();
+  }
+
+  private void __begin(P queryPoint, int numNeighbors, P lower, P upper,
+                       boolean omitQueryPoint)
   {
     __omitQueryPoint = omitQueryPoint;
     __numNeighbors = numNeighbors;
     __query = queryPoint;
+    __lower = lower;
+    __upper = upper;
     __minDistance = Double.POSITIVE_INFINITY;
 
     __pq = new PriorityQueue<Entry<Coord, P, V>>(numNeighbors,
                                                  new EntryComparator());
+  }
 
-    if(numNeighbors > 0) {
+  // Searches one more tree, keeping the neighbors found in earlier
+  // trees and the pruning distance they impose.
+  private void __search(KDTree<Coord,P,V> tree) {
+    __tree = tree;
+
+    if(__numNeighbors > 0) {
       find(tree._root);
     }
+  }
 
+  // Searches several trees for the neighbors of a single query.
+  private Entry<Coord,P,V>[] __get(List<KDTree<Coord,P,V>> trees,
+                                   P queryPoint, int numNeighbors,
+                                   P lower, P upper, boolean omitQueryPoint)
+  {
+    __begin(queryPoint, numNeighbors, lower, upper, omitQueryPoint);
+
+    for(KDTree<Coord,P,V> tree : trees)
+      __search(tree);
+
+    return __end();
+  }
+
+  private Entry<Coord,P,V>[] __end() {
     Entry<Coord,P,V>[] neighbors = new Entry[__pq.size()];
 
     __pq.toArray(neighbors);
     Arrays.sort(neighbors);
 
     __pq = null;
-    __query = null;
+    __query = __lower = __upper = null;
+    __tree = null;
 
     return neighbors;
   }
 
+  /**
+   * Finds the k-nearest neighbors to a query point withina KDTree instance.
+   * The neighbors are returned as an array of {@link Entry} instances, sorted
+   * from nearest to farthest.
+   *
+   * @param tree The KDTree to search.
+   * @param queryPoint The query point.
+   * @param numNeighbors The number of nearest neighbors to find.  This should
+   *        be a positive value.  Non-positive values result in no neighbors
+   *        being found.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.  If false, mappings at a
+   *        distance of zero are included.
+   * @return An array containing the nearest neighbors and their distances
+   *         sorted by least distance to greatest distance.  If no neighbors
+   *         are found, the array will have a length of zero.
+   */
+  public Entry<Coord,P,V>[] get(KDTree<Coord,P,V> tree,
+                                P queryPoint,
+                                int numNeighbors,
+                                boolean omitQueryPoint)
+  {
+    return get(tree, queryPoint, numNeighbors, null, null, omitQueryPoint);
+  }
+
   /**
    * Same as {@link #get get(tree, queryPoint, numNeighbors, true)}.
    */
@@ -252,4 +583,284 @@ public class NearestNeighbors<Coord extends Number & Comparable<? super Coord>,
   {
     return get(tree, queryPoint, numNeighbors, true);
   }
+
+  /**
+   * Finds the k-nearest neighbors to a query point among the points of a
+   * KDForest instance that lie inside a bounding rectangle.  All the
+   * trees of the forest are searched with a single set of candidate
+   * neighbors, so that the neighbors found in one tree prune the search
+   * of the next.
+   *
+   * @param forest The KDForest to search.
+   * @param queryPoint The query point.  It need not lie inside the
+   *        bounding rectangle.
+   * @param numNeighbors The number of nearest neighbors to find.  This should
+   *        be a positive value.  Non-positive values result in no neighbors
+   *        being found.
+   * @param lower The lower left-hand corner of the bounding rectangle.
+   *        A null value can be used to specify the region is unbounded
+   *        in that direction.
+   * @param upper The upper right-hand corner of the bounding rectangle.
+   *        A null value can be used to specify the region is unbounded
+   *        in that direction.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.  If false, mappings at a
+   *        distance of zero are included.
+   * @return An array containing the nearest neighbors inside the bounding
+   *         rectangle and their distances sorted by least distance to
+   *         greatest distance.  If no neighbors are found, the array will
+   *         have a length of zero.
+   */
+  public Entry<Coord,P,V>[] get(KDForest<Coord,P,V> forest,
+                                P queryPoint,
+                                int numNeighbors,
+                                P lower,
+                                P upper,
+                                boolean omitQueryPoint)
+  {
+    List<KDTree<Coord,P,V>> trees = forest._trees();
+    Entry<Coord,P,V>[] neighbors;
+
+    // Search the levels from the largest down and the buffer last, so
+    // that most neighbors are found early.
+    trees.add(trees.remove(0));
+
+    neighbors = __get(trees, queryPoint, numNeighbors, lower, upper,
+                      omitQueryPoint);
+
+    // Let the neighbors be changed through the forest.
+    for(Entry<Coord,P,V> neighbor : neighbors) {
+      NNEntry<Coord,P,V> entry = (NNEntry<Coord,P,V>)neighbor;
+      entry._neighbor = forest._entry(entry._neighbor);
+    }
+
+    return neighbors;
+  }
+
+  /**
+   * Finds the k-nearest neighbors to a query point within a KDForest
+   * instance.
+   *
+   * @param forest The KDForest to search.
+   * @param queryPoint The query point.
+   * @param numNeighbors The number of nearest neighbors to find.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.
+   * @return An array containing the nearest neighbors and their distances
+   *         sorted by least distance to greatest distance.
+   */
+  public Entry<Coord,P,V>[] get(KDForest<Coord,P,V> forest,
+                                P queryPoint,
+                                int numNeighbors,
+                                boolean omitQueryPoint)
+  {
+    return get(forest, queryPoint, numNeighbors, null, null, omitQueryPoint);
+  }
+
+  /**
+   * Same as {@link #get(KDForest,Point,int,boolean)
+   * get(forest, queryPoint, numNeighbors, true)}.
+   */
+  public Entry<Coord,P,V>[]
+    get(KDForest<Coord,P,V> forest, P queryPoint, int numNeighbors)
+  {
+    return get(forest, queryPoint, numNeighbors, true);
+  }
+
+  /**
+   * Finds the k-nearest neighbors to a query point among the mappings
+   * of the buckets of a WindowedKDTree that overlap an interval of
+   * time.  All the buckets are searched with a single set of candidate
+   * neighbors.  A point mapped by several buckets may be returned once
+   * for each of them.
+   *
+   * @param window The WindowedKDTree to search.
+   * @param begin The beginning of the interval, inclusive.
+   * @param end The end of the interval, exclusive.
+   * @param queryPoint The query point.
+   * @param numNeighbors The number of nearest neighbors to find.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.
+   * @return An array containing the nearest neighbors and their distances
+   *         sorted by least distance to greatest distance.
+   */
+  public Entry<Coord,P,V>[] get(WindowedKDTree<Coord,P,V> window,
+                                long begin,
+                                long end,
+                                P queryPoint,
+                                int numNeighbors,
+                                boolean omitQueryPoint)
+  {
+    return __get(window._trees(begin, end), queryPoint, numNeighbors,
+                 null, null, omitQueryPoint);
+  }
+
+  /**
+   * Finds the k-nearest neighbors to a query point among all the
+   * mappings of a WindowedKDTree.
+   *
+   * @param window The WindowedKDTree to search.
+   * @param queryPoint The query point.
+   * @param numNeighbors The number of nearest neighbors to find.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.
+   * @return An array containing the nearest neighbors and their distances
+   *         sorted by least distance to greatest distance.
+   */
+  public Entry<Coord,P,V>[] get(WindowedKDTree<Coord,P,V> window,
+                                P queryPoint,
+                                int numNeighbors,
+                                boolean omitQueryPoint)
+  {
+    return __get(window._trees(), queryPoint, numNeighbors, null, null,
+                 omitQueryPoint);
+  }
+
+  /**
+   * Same as {@link #get(WindowedKDTree,Point,int,boolean)
+   * get(window, queryPoint, numNeighbors, true)}.
+   */
+  public Entry<Coord,P,V>[]
+    get(WindowedKDTree<Coord,P,V> window, P queryPoint, int numNeighbors)
+  {
+    return get(window, queryPoint, numNeighbors, true);
+  }
+
+  /**
+   * Finds the k-nearest neighbors to a query point among the points of a
+   * MortonIndex instance that lie inside a bounding rectangle.
+   *
+   * @param index The MortonIndex to search.
+   * @param queryPoint The query point.  It need not lie inside the
+   *        bounding rectangle.
+   * @param numNeighbors The number of nearest neighbors to find.  This should
+   *        be a positive value.  Non-positive values result in no neighbors
+   *        being found.
+   * @param lower The lower left-hand corner of the bounding rectangle.
+   *        A null value can be used to specify the region is unbounded
+   *        in that direction.
+   * @param upper The upper right-hand corner of the bounding rectangle.
+   *        A null value can be used to specify the region is unbounded
+   *        in that direction.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.  If false, mappings at a
+   *        distance of zero are included.
+   * @return An array containing the nearest neighbors inside the bounding
+   *         rectangle and their distances sorted by least distance to
+   *         greatest distance.  If no neighbors are found, the array will
+   *         have a length of zero.
+   */
+  public Entry<Coord,P,V>[] get(MortonIndex<Coord,P,V> index,
+                                P queryPoint,
+                                int numNeighbors,
+                                P lower,
+                                P upper,
+                                boolean omitQueryPoint)
+  {
+    __begin(queryPoint, numNeighbors, lower, upper, omitQueryPoint);
+
+    if(numNeighbors > 0)
+      new MortonSearch(index).search();
+
+    return __end();
+  }
+
+  /**
+   * Finds the k-nearest neighbors to a query point within a MortonIndex
+   * instance.
+   *
+   * @param index The MortonIndex to search.
+   * @param queryPoint The query point.
+   * @param numNeighbors The number of nearest neighbors to find.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.
+   * @return An array containing the nearest neighbors and their distances
+   *         sorted by least distance to greatest distance.
+   */
+  public Entry<Coord,P,V>[] get(MortonIndex<Coord,P,V> index,
+                                P queryPoint,
+                                int numNeighbors,
+                                boolean omitQueryPoint)
+  {
+    return get(index, queryPoint, numNeighbors, null, null, omitQueryPoint);
+  }
+
+  /**
+   * Same as {@link #get(MortonIndex,Point,int,boolean)
+   * get(index, queryPoint, numNeighbors, true)}.
+   */
+  public Entry<Coord,P,V>[]
+    get(MortonIndex<Coord,P,V> index, P queryPoint, int numNeighbors)
+  {
+    return get(index, queryPoint, numNeighbors, true);
+  }
+
+  /**
+   * Finds the k-nearest neighbors to a query point among the points of a
+   * GridIndex instance that lie inside a bounding rectangle.
+   *
+   * @param grid The GridIndex to search.
+   * @param queryPoint The query point.  It need not lie inside the
+   *        bounding rectangle.
+   * @param numNeighbors The number of nearest neighbors to find.  This should
+   *        be a positive value.  Non-positive values result in no neighbors
+   *        being found.
+   * @param lower The lower left-hand corner of the bounding rectangle.
+   *        A null value can be used to specify the region is unbounded
+   *        in that direction.
+   * @param upper The upper right-hand corner of the bounding rectangle.
+   *        A null value can be used to specify the region is unbounded
+   *        in that direction.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.  If false, mappings at a
+   *        distance of zero are included.
+   * @return An array containing the nearest neighbors inside the bounding
+   *         rectangle and their distances sorted by least distance to
+   *         greatest distance.  If no neighbors are found, the array will
+   *         have a length of zero.
+   */
+  public Entry<Coord,P,V>[] get(GridIndex<Coord,P,V> grid,
+                                P queryPoint,
+                                int numNeighbors,
+                                P lower,
+                                P upper,
+                                boolean omitQueryPoint)
+  {
+    __begin(queryPoint, numNeighbors, lower, upper, omitQueryPoint);
+
+    if(numNeighbors > 0)
+      new GridSearch(grid).search();
+
+    return __end();
+  }
+
+  /**
+   * Finds the k-nearest neighbors to a query point within a GridIndex
+   * instance.
+   *
+   * @param grid The GridIndex to search.
+   * @param queryPoint The query point.
+   * @param numNeighbors The number of nearest neighbors to find.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.
+   * @return An array containing the nearest neighbors and their distances
+   *         sorted by least distance to greatest distance.
+   */
+  public Entry<Coord,P,V>[] get(GridIndex<Coord,P,V> grid,
+                                P queryPoint,
+                                int numNeighbors,
+                                boolean omitQueryPoint)
+  {
+    return get(grid, queryPoint, numNeighbors, null, null, omitQueryPoint);
+  }
+
+  /**
+   * Same as {@link #get(GridIndex,Point,int,boolean)
+   * get(grid, queryPoint, numNeighbors, true)}.
+   */
+  public Entry<Coord,P,V>[]
+    get(GridIndex<Coord,P,V> grid, P queryPoint, int numNeighbors)
+  {
+    return get(grid, queryPoint, numNeighbors, true);
+  }
 }
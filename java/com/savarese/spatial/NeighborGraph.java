@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.Map;
+
+/**
+ * <p>A NeighborGraph is the k-nearest neighbors graph of the points of
+ * a {@link KDTree}, as computed by {@link AllNearestNeighbors}.  The
+ * points are identified by indices from 0 to {@link #size} - 1, and
+ * each point's neighbors are stored as indices sorted from nearest to
+ * farthest.  The graph is held in a few flat arrays rather than in one
+ * object per edge.</p>
+ *
+ * <p>The graph refers to the tree's mappings but is not updated when
+ * the tree is modified.</p>
+ */
+public class NeighborGraph<Coord extends Number & Comparable<? super Coord>,
+                           P extends Point<Coord>, V>
+{
+  private int __numNeighbors;
+  private int[] __neighbors, __counts;
+  private double[] __distances2;
+  private Map.Entry<P,V>[] __entries;
+
+  NeighborGraph(DualTreeNeighbors<Coord,P> search, Map.Entry<P,V>[] entries) {
+    __numNeighbors = search._numNeighbors;
+    __neighbors    = search._neighbors;
+    __counts       = search._counts;
+    __distances2   = search._distances2;
+    __entries      = entries;
+  }
+
+  /**
+   * Returns the number of points in the graph.
+   *
+   * @return The number of points in the graph.
+   */
+  public int size() {
+    return __counts.length;
+  }
+
+  /**
+   * Returns the number of neighbors that was requested for each point.
+   *
+   * @return The number of neighbors that was requested for each point.
+   */
+  public int getNumNeighbors() {
+    return __numNeighbors;
+  }
+
+  /**
+   * Returns the point-value mapping identified by an index.
+   *
+   * @param index The index of the point.
+   * @return The point-value mapping identified by the index.
+   */
+  public Map.Entry<P,V> getEntry(int index) {
+    return __entries[index];
+  }
+
+  /**
+   * Returns the number of neighbors found for a point.  This is
+   * less than {@link #getNumNeighbors} only if the tree contains too
+   * few points.
+   *
+   * @param index The index of the point.
+   * @return The number of neighbors found for the point.
+   */
+  public int getNeighborCount(int index) {
+    return __counts[index];
+  }
+
+  /**
+   * Returns the index of one of the neighbors of a point.
+   *
+   * @param index The index of the point.
+   * @param rank The rank of the neighbor, starting from 0 for the
+   * nearest neighbor.
+   * @return The index of the neighbor.
+   * @exception IndexOutOfBoundsException If rank is not less than
+   * {@link #getNeighborCount getNeighborCount(index)}.
+   */
+  public int getNeighbor(int index, int rank) {
+    if(rank < 0 || rank >= __counts[index])
+      throw new IndexOutOfBoundsException();
+    return __neighbors[index*__numNeighbors + rank];
+  }
+
+  /**
+   * Returns the square of the distance from a point to one of its
+   * neighbors.
+   *
+   * @param index The index of the point.
+   * @param rank The rank of the neighbor, starting from 0 for the
+   * nearest neighbor.
+   * @return The square of the distance from the point to the neighbor.
+   * @exception IndexOutOfBoundsException If rank is not less than
+   * {@link #getNeighborCount getNeighborCount(index)}.
+   */
+  public double getDistance2(int index, int rank) {
+    if(rank < 0 || rank >= __counts[index])
+      throw new IndexOutOfBoundsException();
+    return __distances2[index*__numNeighbors + rank];
+  }
+
+  /**
+   * Returns the distance from a point to one of its neighbors.
+   *
+   * @param index The index of the point.
+   * @param rank The rank of the neighbor, starting from 0 for the
+   * nearest neighbor.
+   * @return The distance from the point to the neighbor.
+   * @exception IndexOutOfBoundsException If rank is not less than
+   * {@link #getNeighborCount getNeighborCount(index)}.
+   */
+  public double getDistance(int index, int rank) {
+    return StrictMath.sqrt(getDistance2(index, rank));
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+/**
+ * NumericRegion is the base class of regions defined over numeric
+ * coordinates.  It converts box corners to doubles, mapping unbounded
+ * coordinates to infinities.
+ */
+abstract class NumericRegion<Coord extends Number & Comparable<? super Coord>,
+                             P extends Point<Coord>>
+  implements Region<Coord, P>
+{
+  static double lowerBound(Point<? extends Number> lower, int dimension) {
+    Number coord;
+
+    if(lower == null || (coord = lower.getCoord(dimension)) == null)
+      return Double.NEGATIVE_INFINITY;
+
+    return coord.doubleValue();
+  }
+
+  static double upperBound(Point<? extends Number> upper, int dimension) {
+    Number coord;
+
+    if(upper == null || (coord = upper.getCoord(dimension)) == null)
+      return Double.POSITIVE_INFINITY;
+
+    return coord.doubleValue();
+  }
+}
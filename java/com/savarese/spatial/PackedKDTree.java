@@ -0,0 +1,466 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A PackedKDTree is an immutable, array-based k-d tree built over a
+ * snapshot of a set of points.  Points are grouped into buckets at the
+ * leaves and every node records the bounding box of, and the range of
+ * indices occupied by, the points beneath it.  Because the points of
+ * each subtree are stored contiguously, a subtree can be scanned with
+ * the {@link CoordinateBlock} kernels and counted in constant time.</p>
+ *
+ * <p>PackedKDTree supports the search algorithms of this package that
+ * need per-node bounds, which {@link KDTree} does not maintain.  All
+ * of its bounds are euclidean.</p>
+ */
+final class PackedKDTree<Coord extends Number & Comparable<? super Coord>,
+                         P extends Point<Coord>, V>
+{
+  static final int LEAF_SIZE = 16;
+
+  // Builds the node arrays over a permutation of raw coordinates.
+  private static final class Builder {
+    final int _dimensions;
+    final double[] _raw;
+    int _nodeCount, _maxLeafSize;
+    int[] _begin, _end, _low, _high;
+    double[] _lower, _upper;
+
+    Builder(int dimensions, double[] raw, int size) {
+      int capacity = Math.max(1, 4*size/LEAF_SIZE);
+
+      _dimensions = dimensions;
+      _raw        = raw;
+      _nodeCount  = _maxLeafSize = 0;
+      _begin = new int[capacity];
+      _end   = new int[capacity];
+      _low   = new int[capacity];
+      _high  = new int[capacity];
+      _lower = new double[capacity*dimensions];
+      _upper = new double[capacity*dimensions];
+    }
+
+    private void __ensureCapacity(int nodes) {
+      if(nodes <= _begin.length)
+        return;
+
+      int capacity = Math.max(nodes, 2*_begin.length);
+
+      _begin = __grow(_begin, capacity);
+      _end   = __grow(_end, capacity);
+      _low   = __grow(_low, capacity);
+      _high  = __grow(_high, capacity);
+      _lower = __grow(_lower, capacity*_dimensions);
+      _upper = __grow(_upper, capacity*_dimensions);
+    }
+
+    private double __raw(int[] perm, int i, int dimension) {
+      return _raw[perm[i]*_dimensions + dimension];
+    }
+
+    // Rearranges perm[begin,end) so that perm[nth] holds the point with
+    // the nth smallest coordinate along the dimension, preceded by points
+    // with coordinates no greater and followed by points no smaller.
+    private void __select(int[] perm, int begin, int end, int nth,
+                          int dimension)
+    {
+      int left = begin, right = end - 1;
+
+      while(right > left) {
+        int mid = (left + right) >>> 1;
+
+        // Median of three pivot.
+        if(__raw(perm, mid, dimension) < __raw(perm, left, dimension))
+          __swap(perm, mid, left);
+        if(__raw(perm, right, dimension) < __raw(perm, left, dimension))
+          __swap(perm, right, left);
+        if(__raw(perm, right, dimension) < __raw(perm, mid, dimension))
+          __swap(perm, right, mid);
+
+        double pivot = __raw(perm, mid, dimension);
+        int i = left, j = right;
+
+        while(i <= j) {
+          while(__raw(perm, i, dimension) < pivot)
+            ++i;
+          while(__raw(perm, j, dimension) > pivot)
+            --j;
+          if(i <= j)
+            __swap(perm, i++, j--);
+        }
+
+        if(nth <= j)
+          right = j;
+        else if(nth >= i)
+          left = i;
+        else
+          break;
+      }
+    }
+
+    int build(int[] perm, int begin, int end) {
+      final int node = _nodeCount++;
+      final int offset = node*_dimensions;
+
+      __ensureCapacity(_nodeCount);
+
+      for(int d = 0; d < _dimensions; ++d) {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+        for(int i = begin; i < end; ++i) {
+          double c = __raw(perm, i, d);
+          if(c < min)
+            min = c;
+          if(c > max)
+            max = c;
+        }
+
+        _lower[offset + d] = min;
+        _upper[offset + d] = max;
+      }
+
+      _begin[node] = begin;
+      _end[node]   = end;
+      _low[node]   = _high[node] = -1;
+
+      if(end - begin > LEAF_SIZE) {
+        int dimension = 0;
+        double width = -1;
+
+        for(int d = 0; d < _dimensions; ++d) {
+          double w = _upper[offset + d] - _lower[offset + d];
+          if(w > width) {
+            width     = w;
+            dimension = d;
+          }
+        }
+
+        // A bucket of identical points cannot be split.
+        if(width > 0) {
+          int mid = (begin + end) >>> 1;
+
+          __select(perm, begin, end, mid, dimension);
+
+          _low[node]  = build(perm, begin, mid);
+          _high[node] = build(perm, mid, end);
+
+          return node;
+        }
+      }
+
+      if(end - begin > _maxLeafSize)
+        _maxLeafSize = end - begin;
+
+      return node;
+    }
+  }
+
+  // All fields are final so that a tree cached by get() is safely
+  // published to threads that did not build it.
+  final int _dimensions, _size, _nodeCount, _maxLeafSize;
+  // Points, mappings (if any), and original positions in packed order.
+  final Object[] _points;
+  final Map.Entry<P,V>[] _entries;
+  final int[] _index;
+  final CoordinateBlock _coords;
+  // Per-node index ranges and children.  Nodes are numbered in
+  // preorder, so the root is node 0.  Leaves have no children (-1).
+  final int[] _begin, _end, _low, _high;
+  // Per-node bounding boxes.  Dimension d of node n is at n*_dimensions + d.
+  final double[] _lower, _upper;
+
+  private static int[] __grow(int[] a, int length) {
+    int[] result = new int[length];
+    System.arraycopy(a, 0, result, 0, a.length);
+    return result;
+  }
+
+  private static double[] __grow(double[] a, int length) {
+    double[] result = new double[length];
+    System.arraycopy(a, 0, result, 0, a.length);
+    return result;
+  }
+
+  private static void __swap(int[] a, int i, int j) {
+    int tmp = a[i];
+    a[i] = a[j];
+    a[j] = tmp;
+  }
+
+  /**
+   * Builds a tree over a list of points.
+   *
+   * @param dimensions The number of dimensions of the points.
+   * @param points The points to store in the tree.
+   * @param entries The mappings corresponding to the points, in the
+   * same order, or null if the tree stores only points.
+   */
+  PackedKDTree(int dimensions, List<? extends P> points,
+               List<? extends Map.Entry<P,V>> entries)
+  {
+    final int size = points.size();
+    final double[] raw = new double[size*dimensions];
+    int[] perm = new int[size];
+    int i = 0;
+
+    for(P point : points) {
+      for(int d = 0; d < dimensions; ++d)
+        raw[i*dimensions + d] = point.getCoord(d).doubleValue();
+      perm[i] = i;
+      ++i;
+    }
+
+    Builder builder = new Builder(dimensions, raw, size);
+
+    if(size > 0)
+      builder.build(perm, 0, size);
+
+    _dimensions  = dimensions;
+    _size        = size;
+    _nodeCount   = builder._nodeCount;
+    _maxLeafSize = builder._maxLeafSize;
+    _begin       = builder._begin;
+    _end         = builder._end;
+    _low         = builder._low;
+    _high        = builder._high;
+    _lower       = builder._lower;
+    _upper       = builder._upper;
+    _points      = new Object[size];
+    _index       = perm;
+    _coords      = new CoordinateBlock(dimensions, size);
+
+    for(i = 0; i < size; ++i) {
+      _points[i] = points.get(perm[i]);
+
+      for(int d = 0; d < dimensions; ++d)
+        _coords.setCoord(i, d, raw[perm[i]*dimensions + d]);
+    }
+
+    if(entries != null) {
+      _entries = new Map.Entry[size];
+
+      for(i = 0; i < size; ++i)
+        _entries[i] = entries.get(perm[i]);
+    } else
+      _entries = null;
+  }
+
+  /**
+   * Returns a PackedKDTree over the mappings of a KDTree.  Building
+   * one takes O(n log n) time and holds the coordinates of every
+   * mapping in arrays, so the result is cached in the KDTree and
+   * reused by later calls until the KDTree is next modified, which
+   * releases it.  Searches interleaved with modifications therefore
+   * pay for a rebuild each time unless they use
+   * {@link #getIfWorthwhile}.  The cache is published through a
+   * volatile field, so concurrent read-only searches may share it.
+   *
+   * @param tree The KDTree whose mappings should be packed.
+   * @return A PackedKDTree over the mappings of the KDTree.
+   */
+  static <Coord extends Number & Comparable<? super Coord>,
+          P extends Point<Coord>, V>
+    PackedKDTree<Coord,P,V> get(KDTree<Coord,P,V> tree)
+  {
+    PackedKDTree<Coord,P,V> packed = (PackedKDTree<Coord,P,V>)tree._packed;
+
+    if(packed == null) {
+      KDTree<Coord,P,V>.KDNode[] nodes =
+        (KDTree<Coord,P,V>.KDNode[])new KDTree.KDNode[tree.size()];
+      P[] points = (P[])new Point[nodes.length];
+
+      tree.fillArray(nodes, 0, tree._root);
+
+      for(int i = 0; i < nodes.length; ++i)
+        points[i] = nodes[i]._point;
+
+      packed = new PackedKDTree<Coord,P,V>(tree._dimensions,
+                                           Arrays.asList(points),
+                                           Arrays.asList(nodes));
+      tree._packed = packed;
+    }
+
+    return packed;
+  }
+
+  /**
+   * Returns the PackedKDTree over the mappings of a KDTree if it is
+   * cached or worth building, or null if the caller should scan the
+   * mappings linearly instead.  Building a snapshot costs about as
+   * much as log<sub>2</sub>(n) linear scans, so a snapshot is built
+   * only once that many searches have scanned the tree since it was
+   * last modified.  A tree modified between every search is thus
+   * always scanned, and searches of a tree that is no longer modified
+   * cost at most twice as much as if the snapshot had been built at
+   * once.  Concurrent searches may miscount their scans, which only
+   * changes when the snapshot is built.
+   *
+   * @param tree The KDTree whose mappings should be packed.
+   * @return A PackedKDTree over the mappings of the KDTree, or null.
+   */
+  static <Coord extends Number & Comparable<? super Coord>,
+          P extends Point<Coord>, V>
+    PackedKDTree<Coord,P,V> getIfWorthwhile(KDTree<Coord,P,V> tree)
+  {
+    if(tree._packed == null &&
+       tree._scans < 32 - Integer.numberOfLeadingZeros(tree.size()))
+      {
+        ++tree._scans;
+        return null;
+      }
+
+    return get(tree);
+  }
+
+  boolean isLeaf(int node) {
+    return (_low[node] < 0);
+  }
+
+  int count(int node) {
+    return (_end[node] - _begin[node]);
+  }
+
+  P getPoint(int index) {
+    return (P)_points[index];
+  }
+
+  /**
+   * Divides the tree into disjoint subtrees that together cover every
+   * point, each containing no more than the given number of points
+   * unless it is a leaf.  Parallel searches use the subtrees as
+   * independent units of work.
+   *
+   * @param maxCount The preferred maximum number of points per subtree.
+   * @return The subtree roots, in index order.
+   */
+  int[] partition(int maxCount) {
+    if(_size == 0)
+      return new int[0];
+
+    int[] stack = new int[64], result = new int[16];
+    int top = 0, count = 0;
+
+    stack[top++] = 0;
+
+    while(top > 0) {
+      int node = stack[--top];
+
+      if(isLeaf(node) || count(node) <= maxCount) {
+        if(count == result.length)
+          result = __grow(result, 2*count);
+        result[count++] = node;
+      } else {
+        if(top + 2 > stack.length)
+          stack = __grow(stack, 2*stack.length);
+        stack[top++] = _high[node];
+        stack[top++] = _low[node];
+      }
+    }
+
+    int[] nodes = new int[count];
+    System.arraycopy(result, 0, nodes, 0, count);
+    return nodes;
+  }
+
+  /**
+   * Returns the square of the minimum distance from a query to the
+   * bounding box of a node.
+   */
+  double minDistance2(int node, double[] query) {
+    final int offset = node*_dimensions;
+    double d2 = 0;
+
+    for(int d = 0; d < _dimensions; ++d) {
+      double q = query[d], diff;
+
+      if(q < (diff = _lower[offset + d]))
+        diff-=q;
+      else if(q > (diff = _upper[offset + d]))
+        diff = q - diff;
+      else
+        continue;
+
+      d2+=(diff*diff);
+    }
+
+    return d2;
+  }
+
+  /**
+   * Returns the square of the maximum distance from a query to the
+   * bounding box of a node.
+   */
+  double maxDistance2(int node, double[] query) {
+    final int offset = node*_dimensions;
+    double d2 = 0;
+
+    for(int d = 0; d < _dimensions; ++d) {
+      double q = query[d];
+      double diff = Math.max(q - _lower[offset + d], _upper[offset + d] - q);
+      d2+=(diff*diff);
+    }
+
+    return d2;
+  }
+
+  /**
+   * Returns the square of the minimum distance between the bounding
+   * box of a node and the bounding box of a node of another tree.
+   */
+  double minDistance2(int node, PackedKDTree<Coord,P,?> other, int otherNode) {
+    final int offset = node*_dimensions, otherOffset = otherNode*_dimensions;
+    double d2 = 0;
+
+    for(int d = 0; d < _dimensions; ++d) {
+      double diff = other._lower[otherOffset + d] - _upper[offset + d];
+
+      if(diff <= 0) {
+        diff = _lower[offset + d] - other._upper[otherOffset + d];
+
+        if(diff <= 0)
+          continue;
+      }
+
+      d2+=(diff*diff);
+    }
+
+    return d2;
+  }
+
+  /**
+   * Returns the square of the maximum distance between the bounding
+   * box of a node and the bounding box of a node of another tree.
+   */
+  double maxDistance2(int node, PackedKDTree<Coord,P,?> other, int otherNode) {
+    final int offset = node*_dimensions, otherOffset = otherNode*_dimensions;
+    double d2 = 0;
+
+    for(int d = 0; d < _dimensions; ++d) {
+      double diff =
+        Math.max(other._upper[otherOffset + d] - _lower[offset + d],
+                 _upper[offset + d] - other._lower[otherOffset + d]);
+      d2+=(diff*diff);
+    }
+
+    return d2;
+  }
+}
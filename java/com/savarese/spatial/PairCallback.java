@@ -0,0 +1,40 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.Map;
+
+/**
+ * The PairCallback interface receives the pairs of point-value
+ * mappings produced by searches that match points against each
+ * other, such as {@link SpatialJoin}.  Searches running on an
+ * ExecutorService may invoke a callback from several threads at once.
+ */
+public interface PairCallback<Coord extends Comparable<? super Coord>,
+                              P extends Point<Coord>, V, W>
+{
+  /**
+   * Receives a matching pair of mappings.
+   *
+   * @param first The first mapping of the pair.
+   * @param second The second mapping of the pair.
+   * @param distance2 The square of the distance between the points of
+   * the two mappings.
+   */
+  public void pair(Map.Entry<P,V> first, Map.Entry<P,W> second,
+                   double distance2);
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.Map;
+
+/**
+ * The RangeCallback interface receives the point-value mappings found
+ * by searches that run several range queries at once, such as
+ * {@link BatchRangeSearch}.  Searches running on an ExecutorService
+ * may invoke a callback from several threads at once, but always
+ * report the mappings of any one query from a single thread.
+ */
+public interface RangeCallback<Coord extends Comparable<? super Coord>,
+                               P extends Point<Coord>, V>
+{
+  /**
+   * Receives a mapping found by a query.
+   *
+   * @param query The index of the query whose range contains the mapping.
+   * @param entry The mapping found.
+   */
+  public void found(int query, Map.Entry<P,V> entry);
+}
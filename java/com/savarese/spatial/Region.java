@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+/**
+ * <p>The Region interface describes an arbitrarily shaped query region
+ * for range searches.  Besides testing whether a single point lies
+ * inside it, a region must be able to classify an axis-aligned box
+ * so that a {@link RegionSearchTree} can skip subtrees that do not
+ * intersect the region and report subtrees that lie entirely inside
+ * it without testing each of their points.</p>
+ *
+ * <p>Boxes are described by their lower and upper corners.  A null
+ * corner, or a null coordinate within a corner, means the box is
+ * unbounded in that direction.</p>
+ */
+public interface Region<Coord extends Comparable<? super Coord>,
+                        P extends Point<Coord>>
+{
+  /**
+   * Returns true if the point lies inside the region, including its
+   * boundary.
+   *
+   * @param point The point to test.
+   * @return true if the point lies inside the region, false if not.
+   */
+  public boolean contains(P point);
+
+  /**
+   * Returns false if no point of the box lies inside the region.  The
+   * test may be conservative, returning true for some boxes that do
+   * not actually intersect the region, at the cost of less pruning.
+   *
+   * @param lower The lower corner of the box.
+   * @param upper The upper corner of the box.
+   * @return false if the box and the region are known to be disjoint,
+   * true otherwise.
+   */
+  public boolean intersects(Point<Coord> lower, Point<Coord> upper);
+
+  /**
+   * Returns true if every point of the box lies inside the region.  The
+   * test may be conservative, returning false for some boxes that are
+   * actually contained in the region.
+   *
+   * @param lower The lower corner of the box.
+   * @param upper The upper corner of the box.
+   * @return true if the box is known to lie inside the region, false
+   * otherwise.
+   */
+  public boolean contains(Point<Coord> lower, Point<Coord> upper);
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+/**
+ * A RegionSearchTree is a {@link RangeSearchTree} that can also search
+ * arbitrarily shaped {@link Region}s.  The method is kept out of
+ * RangeSearchTree so that existing implementations of RangeSearchTree
+ * remain compatible.
+ */
+public interface RegionSearchTree<Coord extends Comparable<? super Coord>,
+                                  P extends Point<Coord>, V>
+  extends RangeSearchTree<Coord, P, V>
+{
+  /**
+   * Returns an iterator for mappings whose points lie inside the
+   * given region.  Parts of the tree that the region does not
+   * intersect are skipped, and parts that lie entirely inside the
+   * region are returned without testing each of their points.
+   *
+   * @param region The region to search.
+   * @return An iterator for mappings whose points lie inside the region.
+   */
+  public Iterator<Map.Entry<P,V>> iterator(Region<Coord, ? super P> region);
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>ReverseNearestNeighbors finds the points of a {@link KDTree}
+ * instance that have a query point among their k-nearest neighbors,
+ * using euclidean distances.  A point qualifies when the query point
+ * is no farther from it than its k-th nearest neighbor in the tree.</p>
+ *
+ * <p>The distance from every point to its k-th nearest neighbor is
+ * computed once, with an all k-nearest neighbors search, and cached
+ * together with the largest such distance under each subtree.  A
+ * search skips every subtree whose bounding box lies farther from the
+ * query point than that largest distance.  The cache is rebuilt the
+ * first time a tree is searched after it has been modified, or ahead
+ * of time by calling {@link #precompute}.  Unlike
+ * {@link FarthestNeighbors}, a search of a modified tree does not fall
+ * back to a linear scan, because it needs the k-th neighbor distance
+ * of every point, which costs more to find without the cache than to
+ * rebuild it.</p>
+ */
+public class ReverseNearestNeighbors<Coord extends Number & Comparable<? super Coord>,
+                                     P extends Point<Coord>, V>
+{
+  private ExecutorService __executor;
+  private int __numNeighbors;
+  private boolean __omitQueryPoint;
+  private PackedKDTree<Coord,P,V> __tree;
+  // Square of the k-th neighbor distance of each point, in packed order.
+  private double[] __kDistances2;
+  // Largest of __kDistances2 under each node.
+  private double[] __bounds;
+  private double[] __query, __distances;
+  private List<NearestNeighbors.Entry<Coord,P,V>> __result;
+
+  private void find(int node) {
+    final PackedKDTree<Coord,P,V> tree = __tree;
+
+    if(tree.minDistance2(node, __query) > __bounds[node])
+      return;
+
+    if(tree.isLeaf(node)) {
+      final int begin = tree._begin[node], end = tree._end[node];
+
+      tree._coords.distance2(__query, begin, end, __distances);
+
+      for(int i = begin; i < end; ++i) {
+        double d2 = __distances[i - begin];
+
+        if(d2 <= __kDistances2[i] && (d2 != 0.0 || !__omitQueryPoint))
+          __result.add(new NearestNeighbors.NNEntry<Coord,P,V>(d2,
+                                                           tree._entries[i]));
+      }
+    } else {
+      find(tree._low[node]);
+      find(tree._high[node]);
+    }
+  }
+
+  /**
+   * Constructs a ReverseNearestNeighbors instance for a given number
+   * of neighbors that computes its cache on the given executor.
+   *
+   * @param numNeighbors The number of nearest neighbors among which a
+   *        point must have the query point.  Non-positive values result
+   *        in no points being found.
+   * @param executor The executor on which to compute the cache, or
+   *                 null to compute it in the calling thread.
+   */
+  public ReverseNearestNeighbors(int numNeighbors, ExecutorService executor) {
+    __numNeighbors = numNeighbors;
+    __executor     = executor;
+  }
+
+  /**
+   * Constructs a ReverseNearestNeighbors instance for a given number
+   * of neighbors that computes its cache in the calling thread.
+   *
+   * @param numNeighbors The number of nearest neighbors among which a
+   *        point must have the query point.  Non-positive values result
+   *        in no points being found.
+   */
+  public ReverseNearestNeighbors(int numNeighbors) {
+    this(numNeighbors, null);
+  }
+
+  /**
+   * Sets the executor on which to compute the cache.
+   *
+   * @param executor The executor on which to compute the cache, or
+   *                 null to compute it in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Returns the number of nearest neighbors among which a point must
+   * have the query point.
+   *
+   * @return The number of nearest neighbors among which a point must
+   * have the query point.
+   */
+  public int getNumNeighbors() {
+    return __numNeighbors;
+  }
+
+  /**
+   * Computes the k-th neighbor distances of the points of a tree,
+   * unless they are already cached and the tree has not been modified
+   * since.  Only the most recently computed tree is cached.
+   *
+   * @param tree The KDTree for which to compute the distances.
+   */
+  public void precompute(KDTree<Coord,P,V> tree) {
+    PackedKDTree<Coord,P,V> packed = PackedKDTree.get(tree);
+
+    if(packed == __tree)
+      return;
+
+    __tree = null;
+    __kDistances2 = new double[packed._size];
+    __bounds = new double[packed._nodeCount];
+
+    if(__numNeighbors > 0) {
+      DualTreeNeighbors<Coord,P> search =
+        new DualTreeNeighbors<Coord,P>(packed, packed, __numNeighbors, true);
+
+      search.run(__executor);
+
+      for(int i = 0; i < packed._size; ++i)
+        __kDistances2[i] = (search._counts[i] == __numNeighbors ?
+                            search._distances2[(i + 1)*__numNeighbors - 1] :
+                            Double.POSITIVE_INFINITY);
+    }
+
+    // Children always follow their parents in preorder.
+    for(int node = packed._nodeCount - 1; node >= 0; --node) {
+      if(packed.isLeaf(node)) {
+        double max = Double.NEGATIVE_INFINITY;
+
+        for(int i = packed._begin[node]; i < packed._end[node]; ++i)
+          max = Math.max(max, __kDistances2[i]);
+
+        __bounds[node] = max;
+      } else
+        __bounds[node] = Math.max(__bounds[packed._low[node]],
+                                  __bounds[packed._high[node]]);
+    }
+
+    __tree = packed;
+  }
+
+  /**
+   * Finds the points within a KDTree instance that have a query point
+   * among their k-nearest neighbors.  The points are returned as an
+   * array of {@link NearestNeighbors.Entry} instances, sorted by their
+   * distance to the query point from least to greatest.
+   *
+   * @param tree The KDTree to search.
+   * @param queryPoint The query point.
+   * @param omitQueryPoint If true, point-value mappings at a distance of
+   *        zero are omitted from the result.  If false, mappings at a
+   *        distance of zero are included.
+   * @return An array containing the points that have the query point
+   *         among their k-nearest neighbors.  If no points are found,
+   *         the array will have a length of zero.
+   */
+  public NearestNeighbors.Entry<Coord,P,V>[] get(KDTree<Coord,P,V> tree,
+                                                 P queryPoint,
+                                                 boolean omitQueryPoint)
+  {
+    precompute(tree);
+
+    __omitQueryPoint = omitQueryPoint;
+    __query = CoordinateBlock.toArray(queryPoint);
+    __distances = new double[__tree._maxLeafSize];
+    __result = new ArrayList<NearestNeighbors.Entry<Coord,P,V>>();
+
+    if(__numNeighbors > 0 && __tree._size > 0)
+      find(0);
+
+    NearestNeighbors.Entry<Coord,P,V>[] neighbors =
+      new NearestNeighbors.Entry[__result.size()];
+
+    __result.toArray(neighbors);
+    Arrays.sort(neighbors);
+
+    __result = null;
+    __query = __distances = null;
+
+    return neighbors;
+  }
+
+  /**
+   * Same as {@link #get get(tree, queryPoint, true)}.
+   *
+   * @param tree The KDTree to search.
+   * @param queryPoint The query point.
+   * @return An array containing the points that have the query point
+   *         among their k-nearest neighbors.
+   */
+  public NearestNeighbors.Entry<Coord,P,V>[] get(KDTree<Coord,P,V> tree,
+                                                 P queryPoint)
+  {
+    return get(tree, queryPoint, true);
+  }
+}
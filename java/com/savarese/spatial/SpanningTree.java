@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.Map;
+
+/**
+ * <p>A SpanningTree is a spanning tree of the points of a
+ * {@link KDTree}, as computed by {@link MinimumSpanningTree}.  The
+ * points are identified by indices from 0 to {@link #size} - 1, in the
+ * order in which the tree's <code>entrySet</code>, <code>keySet</code>,
+ * and <code>values</code> iterators return them.  The edges are
+ * identified by indices from 0 to {@link #getEdgeCount} - 1 and are
+ * sorted by increasing length.</p>
+ *
+ * <p>The spanning tree refers to the tree's mappings but is not
+ * updated when the tree is modified.</p>
+ */
+public class SpanningTree<Coord extends Number & Comparable<? super Coord>,
+                          P extends Point<Coord>, V>
+{
+  private int[] __first, __second;
+  private double[] __distances2;
+  private Map.Entry<P,V>[] __entries;
+
+  SpanningTree(int[] first, int[] second, double[] distances2,
+               Map.Entry<P,V>[] entries)
+  {
+    __first      = first;
+    __second     = second;
+    __distances2 = distances2;
+    __entries    = entries;
+  }
+
+  /**
+   * Returns the number of points in the spanning tree.
+   *
+   * @return The number of points in the spanning tree.
+   */
+  public int size() {
+    return __entries.length;
+  }
+
+  /**
+   * Returns the number of edges in the spanning tree.  This is one less
+   * than the number of points, unless there are no points.
+   *
+   * @return The number of edges in the spanning tree.
+   */
+  public int getEdgeCount() {
+    return __first.length;
+  }
+
+  /**
+   * Returns the point-value mapping identified by an index.
+   *
+   * @param index The index of the point.
+   * @return The point-value mapping identified by the index.
+   */
+  public Map.Entry<P,V> getEntry(int index) {
+    return __entries[index];
+  }
+
+  /**
+   * Returns the index of the first point of an edge.
+   *
+   * @param edge The index of the edge.
+   * @return The index of the first point of the edge.
+   */
+  public int getFirst(int edge) {
+    return __first[edge];
+  }
+
+  /**
+   * Returns the index of the second point of an edge.
+   *
+   * @param edge The index of the edge.
+   * @return The index of the second point of the edge.
+   */
+  public int getSecond(int edge) {
+    return __second[edge];
+  }
+
+  /**
+   * Returns the square of the length of an edge.
+   *
+   * @param edge The index of the edge.
+   * @return The square of the length of the edge.
+   */
+  public double getDistance2(int edge) {
+    return __distances2[edge];
+  }
+
+  /**
+   * Returns the length of an edge.
+   *
+   * @param edge The index of the edge.
+   * @return The length of the edge.
+   */
+  public double getDistance(int edge) {
+    return StrictMath.sqrt(__distances2[edge]);
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * SpatialJoin matches the points of one {@link KDTree} instance
+ * against the points of another, using euclidean distances.  Both
+ * trees are walked together and pairs of subtrees whose bounding boxes
+ * are too far apart are skipped as a whole.  Matching pairs are passed
+ * to a {@link PairCallback} as they are found.  The join can be divided
+ * among the threads of an ExecutorService by splitting the left tree
+ * into subtrees, in which case the callback must be thread-safe.
+ */
+public class SpatialJoin<Coord extends Number & Comparable<? super Coord>,
+                         P extends Point<Coord>, V, W>
+{
+  private ExecutorService __executor;
+
+  private final class RangeJoin implements Runnable {
+    PackedKDTree<Coord,P,V> _left;
+    PackedKDTree<Coord,P,W> _right;
+    PairCallback<Coord,P,V,W> _callback;
+    double _distance2;
+    int _root;
+    double[] _point, _distances;
+
+    RangeJoin(PackedKDTree<Coord,P,V> left, PackedKDTree<Coord,P,W> right,
+              double distance2, PairCallback<Coord,P,V,W> callback, int root)
+    {
+      _left      = left;
+      _right     = right;
+      _distance2 = distance2;
+      _callback  = callback;
+      _root      = root;
+      _point     = new double[left._dimensions];
+      _distances = new double[right._maxLeafSize];
+    }
+
+    public void run() {
+      join(_root, 0);
+    }
+
+    void join(int l, int r) {
+      if(_left.minDistance2(l, _right, r) > _distance2)
+        return;
+
+      final boolean inside = (_left.maxDistance2(l, _right, r) <= _distance2);
+      final boolean lleaf = _left.isLeaf(l), rleaf = _right.isLeaf(r);
+
+      if(rleaf && (lleaf || inside)) {
+        final int begin = _right._begin[r], end = _right._end[r];
+
+        for(int i = _left._begin[l]; i < _left._end[l]; ++i) {
+          for(int d = 0; d < _point.length; ++d)
+            _point[d] = _left._coords.getCoord(i, d);
+
+          _right._coords.distance2(_point, begin, end, _distances);
+
+          for(int j = begin; j < end; ++j) {
+            double d2 = _distances[j - begin];
+
+            if(inside || d2 <= _distance2)
+              _callback.pair(_left._entries[i], _right._entries[j], d2);
+          }
+        }
+      } else if(rleaf || (!lleaf && _left.count(l) >= _right.count(r))) {
+        join(_left._low[l], r);
+        join(_left._high[l], r);
+      } else {
+        join(l, _right._low[r]);
+        join(l, _right._high[r]);
+      }
+    }
+  }
+
+  /**
+   * Constructs a SpatialJoin instance that runs joins on the given
+   * executor.
+   *
+   * @param executor The executor on which to run joins, or null to
+   *                 run them in the calling thread.
+   */
+  public SpatialJoin(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Constructs a SpatialJoin instance that runs joins in the calling
+   * thread.
+   */
+  public SpatialJoin() {
+    this(null);
+  }
+
+  /**
+   * Sets the executor on which to run joins.
+   *
+   * @param executor The executor on which to run joins, or null to
+   *                 run them in the calling thread.
+   */
+  public void setExecutor(ExecutorService executor) {
+    __executor = executor;
+  }
+
+  /**
+   * Finds every pair of points, one from each tree, that lie within a
+   * given distance of each other.  Each pair is passed to the callback
+   * exactly once, in no particular order.
+   *
+   * @param left The first tree.  Its mappings are passed to the
+   *        callback as the first member of each pair.
+   * @param right The second tree.  Its mappings are passed to the
+   *        callback as the second member of each pair.
+   * @param distance The maximum distance between the points of a pair.
+   * @param callback The callback receiving the pairs.
+   */
+  public void withinDistance(KDTree<Coord,P,V> left, KDTree<Coord,P,W> right,
+                             double distance,
+                             PairCallback<Coord,P,V,W> callback)
+  {
+    PackedKDTree<Coord,P,V> l = PackedKDTree.get(left);
+    PackedKDTree<Coord,P,W> r = PackedKDTree.get(right);
+
+    if(l._size == 0 || r._size == 0 || distance < 0)
+      return;
+
+    List<RangeJoin> tasks = new ArrayList<RangeJoin>();
+
+    if(__executor == null)
+      tasks.add(new RangeJoin(l, r, distance*distance, callback, 0));
+    else {
+      int maxCount = Math.max(1, l._size / DualTreeNeighbors.TASKS);
+
+      for(int node : l.partition(maxCount))
+        tasks.add(new RangeJoin(l, r, distance*distance, callback, node));
+    }
+
+    Tasks.run(__executor, tasks);
+  }
+
+  /**
+   * Finds the k-nearest points of the right tree to each point of the
+   * left tree.  The neighbors of each left point are passed to the
+   * callback together, from nearest to farthest, after the search has
+   * completed.
+   *
+   * @param left The tree containing the query points.  Its mappings are
+   *        passed to the callback as the first member of each pair.
+   * @param right The tree containing the candidate neighbors.  Its
+   *        mappings are passed to the callback as the second member of
+   *        each pair.
+   * @param numNeighbors The number of nearest neighbors to find for each
+   *        point of the left tree.  Non-positive values result in no
+   *        neighbors being found.
+   * @param callback The callback receiving the pairs.
+   */
+  public void nearest(KDTree<Coord,P,V> left, KDTree<Coord,P,W> right,
+                      int numNeighbors, PairCallback<Coord,P,V,W> callback)
+  {
+    PackedKDTree<Coord,P,V> l = PackedKDTree.get(left);
+    PackedKDTree<Coord,P,W> r = PackedKDTree.get(right);
+    DualTreeNeighbors<Coord,P> search =
+      new DualTreeNeighbors<Coord,P>(l, r, numNeighbors, false);
+
+    search.run(__executor);
+
+    for(int i = 0; i < l._size; ++i) {
+      final int offset = i*search._numNeighbors;
+
+      for(int j = 0; j < search._counts[i]; ++j)
+        callback.pair(l._entries[i],
+                      r._entries[search._neighbors[offset + j]],
+                      search._distances2[offset + j]);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Tasks runs the independent pieces of a parallel search and waits for
+ * all of them to finish.
+ */
+final class Tasks {
+
+  private Tasks() { }
+
+  /**
+   * Runs a list of tasks, either on an executor or, if the executor
+   * is null, one after the other in the calling thread.  Returns
+   * after every task has completed.  If a task fails, the failure is
+   * rethrown in the calling thread.
+   *
+   * @param executor The executor on which to run the tasks, or null.
+   * @param tasks The tasks to run.
+   */
+  static void run(ExecutorService executor, List<? extends Runnable> tasks) {
+    if(executor == null || tasks.size() < 2) {
+      for(Runnable task : tasks)
+        task.run();
+      return;
+    }
+
+    List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+
+    for(Runnable task : tasks)
+      futures.add(executor.submit(task));
+
+    try {
+      for(Future<?> future : futures)
+        future.get();
+    } catch(InterruptedException ie) {
+      for(Future<?> future : futures)
+        future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while searching.", ie);
+    } catch(ExecutionException ee) {
+      Throwable cause = ee.getCause();
+
+      for(Future<?> future : futures)
+        future.cancel(true);
+
+      if(cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if(cause instanceof Error)
+        throw (Error)cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>A WindowedKDTree keeps the point-value mappings added during a
+ * sliding window of time.  Time is divided into buckets of equal
+ * length and the mappings of each bucket are kept in a KDTree of their
+ * own, which is balanced once later buckets are started.  As time
+ * advances, buckets that fall entirely outside the window are dropped
+ * whole, so that expiring a mapping costs constant amortized time
+ * instead of a {@link KDTree#remove}.</p>
+ *
+ * <p>Times are only kept to the precision of a bucket.  A bucket is
+ * part of the window for as long as any time it spans is, and searches
+ * restricted to an interval of time include every bucket that overlaps
+ * the interval.  Each bucket maps a point at most once, but the same
+ * point may be mapped by several buckets.  Searches return all such
+ * mappings.  {@link NearestNeighbors} searches the buckets of a
+ * WindowedKDTree at once.</p>
+ */
+public class WindowedKDTree<Coord extends Comparable<? super Coord>,
+                            P extends Point<Coord>, V>
+{
+  private int __dimensions, __size;
+  private long __bucketLength, __windowLength, __time;
+  // Trees indexed by bucket number.
+  private TreeMap<Long, KDTree<Coord,P,V>> __buckets;
+
+  private long __bucket(long time) {
+    return (time >= 0 ? time / __bucketLength :
+            (time + 1) / __bucketLength - 1);
+  }
+
+  // Returns true if a time lies before the window.
+  private boolean __isExpired(long time) {
+    long oldest = __time - __windowLength;
+
+    return (oldest < __time && time <= oldest);
+  }
+
+  // Returns the trees of the buckets that overlap the interval from
+  // begin, inclusive, to end, exclusive.
+  List<KDTree<Coord,P,V>> _trees(long begin, long end) {
+    List<KDTree<Coord,P,V>> trees = new ArrayList<KDTree<Coord,P,V>>();
+
+    if(begin < end) {
+      long last = __bucket(end - 1);
+
+      trees.addAll(last == Long.MAX_VALUE ?
+                   __buckets.tailMap(__bucket(begin)).values() :
+                   __buckets.subMap(__bucket(begin), last + 1).values());
+    }
+
+    return trees;
+  }
+
+  List<KDTree<Coord,P,V>> _trees() {
+    return new ArrayList<KDTree<Coord,P,V>>(__buckets.values());
+  }
+
+  /**
+   * Creates a WindowedKDTree of the specified number of dimensions.
+   *
+   * @param dimensions The number of dimensions.  Must be greater than 0.
+   * @param bucketLength The length of time spanned by a bucket.  Must be
+   *                     greater than 0.
+   * @param windowLength The length of time spanned by the window.
+   *                     Must be greater than 0.
+   */
+  public WindowedKDTree(int dimensions, long bucketLength, long windowLength)
+  {
+    assert(dimensions > 0 && bucketLength > 0 && windowLength > 0);
+    __dimensions   = dimensions;
+    __bucketLength = bucketLength;
+    __windowLength = windowLength;
+    __buckets      = new TreeMap<Long, KDTree<Coord,P,V>>();
+    clear();
+  }
+
+  /**
+   * Creates a two-dimensional WindowedKDTree.
+   *
+   * @param bucketLength The length of time spanned by a bucket.  Must be
+   *                     greater than 0.
+   * @param windowLength The length of time spanned by the window.
+   *                     Must be greater than 0.
+   */
+  public WindowedKDTree(long bucketLength, long windowLength) {
+    this(2, bucketLength, windowLength);
+  }
+
+  /**
+   * Returns the length of time spanned by a bucket.
+   *
+   * @return The length of time spanned by a bucket.
+   */
+  public long getBucketLength() {
+    return __bucketLength;
+  }
+
+  /**
+   * Returns the length of time spanned by the window.
+   *
+   * @return The length of time spanned by the window.
+   */
+  public long getWindowLength() {
+    return __windowLength;
+  }
+
+  /**
+   * Returns the latest time passed to {@link #put put} or
+   * {@link #expire expire}.  The window spans the times after the
+   * current time minus the window length, up to the current time.
+   *
+   * @return The current time of the window.
+   */
+  public long getTime() {
+    return __time;
+  }
+
+  /**
+   * Returns the number of buckets holding mappings.
+   *
+   * @return The number of buckets holding mappings.
+   */
+  public int getBucketCount() {
+    return __buckets.size();
+  }
+
+  /**
+   * Advances the window to a given time, dropping the buckets whose
+   * times all lie outside of it.  Times earlier than the current time
+   * are ignored.
+   *
+   * @param time The new current time.
+   * @return The number of mappings dropped.
+   */
+  public int expire(long time) {
+    if(time <= __time)
+      return 0;
+
+    __time = time;
+
+    long oldest = time - __windowLength;
+
+    if(oldest > time)
+      return 0;
+
+    // Drop the buckets whose last time is no later than oldest.
+    SortedMap<Long, KDTree<Coord,P,V>> expired =
+      __buckets.headMap(__bucket(oldest + 1));
+    int removed = 0;
+
+    for(KDTree<Coord,P,V> tree : expired.values())
+      removed+=tree.size();
+
+    expired.clear();
+    __size-=removed;
+
+    return removed;
+  }
+
+  /**
+   * Removes all mappings.  The current time is reset to
+   * Long.MIN_VALUE.
+   */
+  public void clear() {
+    __buckets.clear();
+    __size = 0;
+    __time = Long.MIN_VALUE;
+  }
+
+  /**
+   * Returns the number of point-value mappings in the window.
+   *
+   * @return The number of point-value mappings in the window.
+   */
+  public int size() {
+    return __size;
+  }
+
+  /**
+   * Returns true if the window holds no mappings.
+   *
+   * @return true if the window holds no mappings.
+   */
+  public boolean isEmpty() {
+    return (__size == 0);
+  }
+
+  /**
+   * Inserts a point value pair into the bucket of a given time,
+   * advancing the window to that time if it is later than the current
+   * time.  A mapping whose time already lies outside of the window is
+   * not inserted.
+   *
+   * @param time The time of the mapping.
+   * @param point The point serving as a key.
+   * @param value The value to insert at the point.
+   * @return The old value if an existing value in the same bucket is
+   * replaced by the inserted value.
+   */
+  public V put(long time, P point, V value) {
+    expire(time);
+
+    if(__isExpired(time))
+      return null;
+
+    Long bucket = __bucket(time);
+    KDTree<Coord,P,V> tree = __buckets.get(bucket);
+
+    if(tree == null) {
+      // The previous newest bucket is complete, so balance it.
+      if(!__buckets.isEmpty() && __buckets.lastKey() < bucket)
+        __buckets.get(__buckets.lastKey()).optimize();
+
+      tree = new KDTree<Coord,P,V>(__dimensions);
+      __buckets.put(bucket, tree);
+    }
+
+    int size = tree.size();
+    V old = tree.put(point, value);
+
+    __size+=tree.size() - size;
+
+    return old;
+  }
+
+  /**
+   * Retrieves the value at a given location in the bucket of a given
+   * time.
+   *
+   * @param time The time of the mapping.
+   * @param point The location from which to retrieve the value.
+   * @return The value at the given location, or null if no value is present.
+   */
+  public V get(long time, P point) {
+    KDTree<Coord,P,V> tree = __buckets.get(__bucket(time));
+
+    return (tree == null ? null : tree.get(point));
+  }
+
+  /**
+   * Removes the mapping of a point from the bucket of a given time.
+   *
+   * @param time The time of the mapping.
+   * @param point The point key of the mapping to remove.
+   * @return The value part of the mapping, if a mapping existed and
+   * was removed.  Null if not.
+   */
+  public V remove(long time, P point) {
+    Long bucket = __bucket(time);
+    KDTree<Coord,P,V> tree = __buckets.get(bucket);
+
+    if(tree == null || !tree.containsKey(point))
+      return null;
+
+    V value = tree.remove(point);
+
+    --__size;
+
+    if(tree.isEmpty())
+      __buckets.remove(bucket);
+
+    return value;
+  }
+
+  /**
+   * Returns an iterator for the mappings of the buckets that overlap
+   * an interval of time and that are contained in a bounding
+   * rectangle.
+   *
+   * @param begin The beginning of the interval, inclusive.
+   * @param end The end of the interval, exclusive.
+   * @param lower The lower left-hand corner of the bounding
+   * rectangle.  A null value can be used to specify the region is
+   * unbounded in that direction.
+   * @param upper The upper right-hand corner of the bounding
+   * rectangle.  A null value can be used to specify the region is
+   * unbounded in that direction.
+   * @return An iterator for the mappings of the buckets overlapping
+   * the interval that lie in the specified rectangle.
+   */
+  public Iterator<Map.Entry<P,V>> iterator(long begin, long end,
+                                           P lower, P upper)
+  {
+    List<Iterator<Map.Entry<P,V>>> iterators =
+      new ArrayList<Iterator<Map.Entry<P,V>>>();
+
+    for(KDTree<Coord,P,V> tree : _trees(begin, end))
+      iterators.add(tree.iterator(lower, upper));
+
+    return new ChainIterator<Map.Entry<P,V>>(iterators);
+  }
+
+  /**
+   * Returns an iterator for the mappings in the window that are
+   * contained in a bounding rectangle.
+   *
+   * @param lower The lower left-hand corner of the bounding
+   * rectangle.  A null value can be used to specify the region is
+   * unbounded in that direction.
+   * @param upper The upper right-hand corner of the bounding
+   * rectangle.  A null value can be used to specify the region is
+   * unbounded in that direction.
+   * @return An iterator for the mappings in the specified rectangle.
+   */
+  public Iterator<Map.Entry<P,V>> iterator(P lower, P upper) {
+    return iterator(Long.MIN_VALUE, Long.MAX_VALUE, lower, upper);
+  }
+
+  /**
+   * Returns an iterator for the mappings of the buckets that overlap
+   * an interval of time and whose points lie inside a region.
+   *
+   * @param begin The beginning of the interval, inclusive.
+   * @param end The end of the interval, exclusive.
+   * @param region The region to search.
+   * @return An iterator for the mappings of the buckets overlapping
+   * the interval whose points lie inside the region.
+   */
+  public Iterator<Map.Entry<P,V>> iterator(long begin, long end,
+                                           Region<Coord, ? super P> region)
+  {
+    List<Iterator<Map.Entry<P,V>>> iterators =
+      new ArrayList<Iterator<Map.Entry<P,V>>>();
+
+    for(KDTree<Coord,P,V> tree : _trees(begin, end))
+      iterators.add(tree.iterator(region));
+
+    return new ChainIterator<Map.Entry<P,V>>(iterators);
+  }
+
+  /**
+   * Returns an iterator for the mappings in the window whose points
+   * lie inside a region.
+   *
+   * @param region The region to search.
+   * @return An iterator for the mappings whose points lie inside the
+   * region.
+   */
+  public Iterator<Map.Entry<P,V>> iterator(Region<Coord, ? super P> region) {
+    return iterator(Long.MIN_VALUE, Long.MAX_VALUE, region);
+  }
+}
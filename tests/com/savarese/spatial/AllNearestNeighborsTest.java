@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * AllNearestNeighborsTest tests the AllNearestNeighbors class.
+ */
+public class AllNearestNeighborsTest extends TestCase {
+
+  private KDTree<Integer, GenericPoint<Integer>, Integer> __tree;
+  private ExecutorService __executor;
+
+  protected void setUp() {
+    Random random = new Random();
+
+    __tree = new KDTree<Integer, GenericPoint<Integer>, Integer>(3);
+    __executor = Executors.newFixedThreadPool(4);
+
+    for(int i = 0; i < 4096; ++i)
+      __tree.put(new GenericPoint<Integer>(random.nextInt(1024),
+                                           random.nextInt(1024),
+                                           random.nextInt(64)), i);
+  }
+
+  protected void tearDown() {
+    __executor.shutdown();
+  }
+
+  private void __verify(NeighborGraph<Integer, GenericPoint<Integer>, Integer>
+                        graph, int k)
+  {
+    NearestNeighbors<Integer, GenericPoint<Integer>, Integer> nn =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, Integer>();
+
+    assertEquals(__tree.size(), graph.size());
+    assertEquals(k, graph.getNumNeighbors());
+
+    for(int i = 0; i < graph.size(); ++i) {
+      GenericPoint<Integer> point = graph.getEntry(i).getKey();
+      NearestNeighbors.Entry<Integer, GenericPoint<Integer>, Integer>[] n =
+        nn.get(__tree, point, k, true);
+
+      assertEquals(n.length, graph.getNeighborCount(i));
+
+      for(int j = 0; j < n.length; ++j) {
+        assertEquals(n[j].getDistance2(), graph.getDistance2(i, j));
+        assertFalse(i == graph.getNeighbor(i, j));
+      }
+    }
+  }
+
+  /**
+   * Compares the neighbors found for every point against those found by
+   * NearestNeighbors, both in the calling thread and on an executor.
+   */
+  public void testGet() {
+    AllNearestNeighbors<Integer, GenericPoint<Integer>, Integer> all =
+      new AllNearestNeighbors<Integer, GenericPoint<Integer>, Integer>();
+
+    __verify(all.get(__tree, 1), 1);
+    __verify(all.get(__tree, 7), 7);
+
+    all.setExecutor(__executor);
+
+    __verify(all.get(__tree, 7), 7);
+  }
+
+  /**
+   * Verifies that trees with fewer points than requested neighbors
+   * produce partial neighbor lists.
+   */
+  public void testSmallTree() {
+    AllNearestNeighbors<Integer, GenericPoint<Integer>, Integer> all =
+      new AllNearestNeighbors<Integer, GenericPoint<Integer>, Integer>();
+
+    __tree.clear();
+
+    assertEquals(0, all.get(__tree, 3).size());
+
+    __tree.put(new GenericPoint<Integer>(0, 0, 0), 0);
+    __tree.put(new GenericPoint<Integer>(3, 4, 0), 1);
+
+    NeighborGraph<Integer, GenericPoint<Integer>, Integer> graph =
+      all.get(__tree, 3);
+
+    assertEquals(2, graph.size());
+
+    for(int i = 0; i < 2; ++i) {
+      assertEquals(1, graph.getNeighborCount(i));
+      assertEquals(1 - i, graph.getNeighbor(i, 0));
+      assertEquals(5.0, graph.getDistance(i, 0));
+    }
+
+    try {
+      graph.getNeighbor(0, 1);
+      fail();
+    } catch(IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * BatchRangeSearchTest tests the BatchRangeSearch class.
+ */
+public class BatchRangeSearchTest extends TestCase {
+
+  private KDTree<Integer, GenericPoint<Integer>, Integer> __tree;
+  private List<GenericPoint<Integer>> __lower, __upper;
+  private ExecutorService __executor;
+
+  protected void setUp() {
+    Random random = new Random();
+
+    __tree = new KDTree<Integer, GenericPoint<Integer>, Integer>(2);
+    __lower = new ArrayList<GenericPoint<Integer>>();
+    __upper = new ArrayList<GenericPoint<Integer>>();
+    __executor = Executors.newFixedThreadPool(4);
+
+    for(int i = 0; i < 20000; ++i)
+      __tree.put(new GenericPoint<Integer>(random.nextInt(10000),
+                                           random.nextInt(10000)), i);
+
+    // Enough queries to fill several blocks that share a traversal.
+    for(int i = 0; i < 2*BatchRangeSearch.BLOCK + 300; ++i) {
+      boolean small = (i % 6 != 0);
+      int x = random.nextInt(10000), y = random.nextInt(10000);
+      int width = random.nextInt(small ? 400 : 6000);
+      int height = random.nextInt(small ? 400 : 6000);
+
+      __lower.add(new GenericPoint<Integer>(x, y));
+      __upper.add(new GenericPoint<Integer>(x + width, y + height));
+    }
+
+    // Unbounded and empty rectangles.
+    __lower.add(null);
+    __upper.add(new GenericPoint<Integer>(5000, 2000));
+    __lower.add(new GenericPoint<Integer>(7000, 3000));
+    __upper.add(null);
+    __lower.add(null);
+    __upper.add(null);
+    __lower.add(new GenericPoint<Integer>(20000, 0));
+    __upper.add(new GenericPoint<Integer>(30000, 5000));
+  }
+
+  protected void tearDown() {
+    __executor.shutdown();
+  }
+
+  private void __testSearch(BatchRangeSearch<Integer, GenericPoint<Integer>,
+                            Integer> search)
+  {
+    final List<List<Map.Entry<GenericPoint<Integer>, Integer>>> found =
+      new ArrayList<List<Map.Entry<GenericPoint<Integer>, Integer>>>();
+
+    for(int i = 0; i < __lower.size(); ++i)
+      found.add(new ArrayList<Map.Entry<GenericPoint<Integer>, Integer>>());
+
+    search.search(__tree, __lower, __upper,
+                  new RangeCallback<Integer, GenericPoint<Integer>, Integer>() {
+                    public void found(int query,
+                                      Map.Entry<GenericPoint<Integer>,
+                                      Integer> entry)
+                    {
+                      found.get(query).add(entry);
+                    }
+                  });
+
+    for(int i = 0; i < __lower.size(); ++i) {
+      List<Map.Entry<GenericPoint<Integer>, Integer>> expected =
+        new ArrayList<Map.Entry<GenericPoint<Integer>, Integer>>();
+      Iterator<Map.Entry<GenericPoint<Integer>, Integer>> it =
+        __tree.iterator(__lower.get(i), __upper.get(i));
+
+      while(it.hasNext())
+        expected.add(it.next());
+
+      assertEquals(expected, found.get(i));
+    }
+
+    assertEquals(__tree.size(), found.get(__lower.size() - 2).size());
+    assertEquals(0, found.get(__lower.size() - 1).size());
+  }
+
+  /**
+   * Compares batched queries against range iterators, both in the
+   * calling thread and on an executor.
+   */
+  public void testSearch() {
+    BatchRangeSearch<Integer, GenericPoint<Integer>, Integer> search =
+      new BatchRangeSearch<Integer, GenericPoint<Integer>, Integer>();
+
+    __testSearch(search);
+
+    search.setExecutor(__executor);
+    __testSearch(search);
+
+    __tree.optimize();
+    __testSearch(search);
+  }
+
+  /**
+   * Searches a tree degenerated into a list by sorted insertions,
+   * which is deeper than a recursive search could handle.
+   */
+  public void testDegenerate() {
+    __tree.clear();
+
+    for(int i = 0; i < 20000; ++i)
+      __tree.put(new GenericPoint<Integer>(i, i / 2), i);
+
+    __testSearch(new BatchRangeSearch<Integer, GenericPoint<Integer>,
+                 Integer>());
+  }
+
+  /**
+   * Verifies searches of empty trees and batches.
+   */
+  public void testEmpty() {
+    BatchRangeSearch<Integer, GenericPoint<Integer>, Integer> search =
+      new BatchRangeSearch<Integer, GenericPoint<Integer>, Integer>();
+    RangeCallback<Integer, GenericPoint<Integer>, Integer> unexpected =
+      new RangeCallback<Integer, GenericPoint<Integer>, Integer>() {
+        public void found(int query,
+                          Map.Entry<GenericPoint<Integer>, Integer> entry)
+        {
+          fail();
+        }
+      };
+
+    search.search(__tree, new ArrayList<GenericPoint<Integer>>(),
+                  new ArrayList<GenericPoint<Integer>>(), unexpected);
+
+    __tree.clear();
+    search.search(__tree, __lower, __upper, unexpected);
+
+    try {
+      search.search(__tree, __lower, new ArrayList<GenericPoint<Integer>>(),
+                    unexpected);
+      fail();
+    } catch(IllegalArgumentException iae) {
+      // Expected.
+    }
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * ClosestPairsTest tests the ClosestPairs class.
+ */
+public class ClosestPairsTest extends TestCase {
+
+  private static final EuclideanDistance<Integer, GenericPoint<Integer>>
+    __distance = new EuclideanDistance<Integer, GenericPoint<Integer>>();
+
+  private KDTree<Integer, GenericPoint<Integer>, Integer> __tree;
+  private List<Map.Entry<GenericPoint<Integer>, Integer>> __entries;
+  private ExecutorService __executor;
+
+  private static final class PairSet
+    implements PairCallback<Integer, GenericPoint<Integer>, Integer, Integer>
+  {
+    Set<String> _pairs = Collections.synchronizedSet(new HashSet<String>());
+
+    public void pair(Map.Entry<GenericPoint<Integer>, Integer> first,
+                     Map.Entry<GenericPoint<Integer>, Integer> second,
+                     double distance2)
+    {
+      int a = first.getValue().intValue(), b = second.getValue().intValue();
+
+      assertFalse(a == b);
+      assertEquals(distance2,
+                   __distance.distance2(first.getKey(), second.getKey()));
+      assertTrue(_pairs.add(Math.min(a, b) + ":" + Math.max(a, b)));
+    }
+  }
+
+  protected void setUp() {
+    Random random = new Random();
+
+    __tree = new KDTree<Integer, GenericPoint<Integer>, Integer>(2);
+    __executor = Executors.newFixedThreadPool(4);
+
+    for(int i = 0; i < 3000; ++i)
+      __tree.put(new GenericPoint<Integer>(random.nextInt(8192),
+                                           random.nextInt(8192)), i);
+
+    __entries =
+      new ArrayList<Map.Entry<GenericPoint<Integer>, Integer>>(__tree.entrySet());
+  }
+
+  protected void tearDown() {
+    __executor.shutdown();
+  }
+
+  private void __testClosestPair(ClosestPairs<Integer, GenericPoint<Integer>,
+                                 Integer> cp)
+  {
+    double min = Double.POSITIVE_INFINITY;
+
+    for(int i = 0; i < __entries.size(); ++i)
+      for(int j = i + 1; j < __entries.size(); ++j)
+        min = Math.min(min, __distance.distance2(__entries.get(i).getKey(),
+                                                 __entries.get(j).getKey()));
+
+    ClosestPairs.Pair<Integer, GenericPoint<Integer>, Integer> pair =
+      cp.closestPair(__tree);
+
+    assertEquals(min, pair.getDistance2());
+    assertEquals(min, __distance.distance2(pair.getFirst().getKey(),
+                                           pair.getSecond().getKey()));
+    assertFalse(pair.getFirst().getValue().equals(pair.getSecond().getValue()));
+  }
+
+  private void __testPairsWithin(ClosestPairs<Integer, GenericPoint<Integer>,
+                                 Integer> cp, double distance)
+  {
+    PairSet expected = new PairSet(), actual = new PairSet();
+
+    for(int i = 0; i < __entries.size(); ++i)
+      for(int j = i + 1; j < __entries.size(); ++j) {
+        double d2 = __distance.distance2(__entries.get(i).getKey(),
+                                         __entries.get(j).getKey());
+        if(d2 <= distance*distance)
+          expected.pair(__entries.get(i), __entries.get(j), d2);
+      }
+
+    cp.pairsWithin(__tree, distance, actual);
+
+    assertEquals(expected._pairs, actual._pairs);
+  }
+
+  /**
+   * Compares closestPair against a brute force search, both in the
+   * calling thread and on an executor.
+   */
+  public void testClosestPair() {
+    ClosestPairs<Integer, GenericPoint<Integer>, Integer> cp =
+      new ClosestPairs<Integer, GenericPoint<Integer>, Integer>();
+
+    __testClosestPair(cp);
+
+    cp.setExecutor(__executor);
+
+    __testClosestPair(cp);
+
+    __tree.clear();
+    assertNull(cp.closestPair(__tree));
+    __tree.put(new GenericPoint<Integer>(0, 0), 0);
+    assertNull(cp.closestPair(__tree));
+    __tree.put(new GenericPoint<Integer>(3, 4), 1);
+    assertEquals(5.0, cp.closestPair(__tree).getDistance());
+  }
+
+  /**
+   * Compares pairsWithin against a brute force search, both in the
+   * calling thread and on an executor.
+   */
+  public void testPairsWithin() {
+    ClosestPairs<Integer, GenericPoint<Integer>, Integer> cp =
+      new ClosestPairs<Integer, GenericPoint<Integer>, Integer>();
+
+    __testPairsWithin(cp, 0);
+    __testPairsWithin(cp, 50);
+    __testPairsWithin(cp, 200);
+
+    cp.setExecutor(__executor);
+
+    __testPairsWithin(cp, 50);
+    __testPairsWithin(cp, 200);
+    __testPairsWithin(cp, 1500);
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * CoordinateBlockTest tests the CoordinateBlock class.
+ */
+public class CoordinateBlockTest extends TestCase {
+
+  private GenericPoint<Integer> __randomPoint(Random random, int dimensions) {
+    GenericPoint<Integer> point = new GenericPoint<Integer>(dimensions);
+
+    for(int d = 0; d < dimensions; ++d)
+      point.setCoord(d, random.nextInt(2048) - 1024);
+
+    return point;
+  }
+
+  /**
+   * Verifies that the stored coordinates equal those of the points
+   * used to fill the block.
+   */
+  public void testCoords() {
+    List<GenericPoint<Integer>> points = new ArrayList<GenericPoint<Integer>>();
+
+    points.add(new GenericPoint<Integer>(1, 2, 3));
+    points.add(new GenericPoint<Integer>(-4, 5, -6));
+
+    CoordinateBlock block = new CoordinateBlock(3, points);
+
+    assertEquals(3, block.getDimensions());
+    assertEquals(2, block.size());
+
+    for(int i = 0; i < points.size(); ++i) {
+      for(int d = 0; d < 3; ++d)
+        assertEquals(points.get(i).getCoord(d).doubleValue(),
+                     block.getCoord(i, d));
+    }
+
+    block.setCoord(1, 2, 7.5);
+    assertEquals(7.5, block.getCoord(1, 2));
+  }
+
+  /**
+   * Compares the distances computed by the block kernels against
+   * those computed by EuclideanDistance for a range of dimensions and
+   * block sizes spanning several chunks.
+   */
+  public void testDistance2() {
+    EuclideanDistance<Integer, Point<Integer>> distance =
+      new EuclideanDistance<Integer, Point<Integer>>();
+    Random random = new Random();
+
+    for(int dimensions = 1; dimensions <= 8; ++dimensions) {
+      List<GenericPoint<Integer>> points =
+        new ArrayList<GenericPoint<Integer>>();
+
+      for(int i = 0; i < 700; ++i)
+        points.add(__randomPoint(random, dimensions));
+
+      CoordinateBlock block = new CoordinateBlock(dimensions, points);
+      GenericPoint<Integer> query = __randomPoint(random, dimensions);
+      double[] q = CoordinateBlock.toArray(query);
+      double[] result = new double[points.size()];
+
+      block.distance2(q, result);
+
+      for(int i = 0; i < points.size(); ++i) {
+        double d2 = distance.distance2(query, points.get(i));
+        assertEquals(d2, result[i]);
+        assertEquals(d2, block.distance2(q, i));
+      }
+
+      block.distance2(q, 300, 650, result);
+
+      for(int i = 300; i < 650; ++i)
+        assertEquals(distance.distance2(query, points.get(i)),
+                     result[i - 300]);
+    }
+  }
+
+}
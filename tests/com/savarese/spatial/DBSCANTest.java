@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * DBSCANTest tests the DBSCAN class.
+ */
+public class DBSCANTest extends TestCase {
+
+  private static final EuclideanDistance<Integer, GenericPoint<Integer>>
+    __distance = new EuclideanDistance<Integer, GenericPoint<Integer>>();
+
+  private KDTree<Integer, GenericPoint<Integer>, Integer> __tree;
+  private ExecutorService __executor;
+
+  protected void setUp() {
+    Random random = new Random();
+
+    __tree = new KDTree<Integer, GenericPoint<Integer>, Integer>(2);
+    __executor = Executors.newFixedThreadPool(4);
+
+    // Dense blobs of various spreads over sparse background noise.
+    for(int i = 0; i < 12; ++i) {
+      int x = random.nextInt(2000), y = random.nextInt(2000);
+      double spread = 5 + random.nextInt(40);
+
+      for(int j = 0; j < 150; ++j)
+        __tree.put(new GenericPoint<Integer>(
+                     x + (int)(spread*random.nextGaussian()),
+                     y + (int)(spread*random.nextGaussian())), __tree.size());
+    }
+
+    for(int i = 0; i < 400; ++i)
+      __tree.put(new GenericPoint<Integer>(random.nextInt(2000),
+                                           random.nextInt(2000)),
+                 __tree.size());
+  }
+
+  protected void tearDown() {
+    __executor.shutdown();
+  }
+
+  private static int __find(int[] parent, int i) {
+    while(parent[i] != i)
+      i = parent[i];
+    return i;
+  }
+
+  private void __verify(Clustering<Integer, GenericPoint<Integer>, Integer>
+                        clustering, double distance, int minPoints)
+  {
+    List<Map.Entry<GenericPoint<Integer>, Integer>> entries =
+      new ArrayList<Map.Entry<GenericPoint<Integer>, Integer>>(__tree.entrySet());
+    int size = entries.size();
+    boolean[] core = new boolean[size];
+    int[] parent = new int[size];
+    List<List<Integer>> neighbors = new ArrayList<List<Integer>>();
+
+    assertEquals(size, clustering.size());
+
+    for(int i = 0; i < size; ++i) {
+      List<Integer> n = new ArrayList<Integer>();
+
+      assertEquals(entries.get(i), clustering.getEntry(i));
+
+      for(int j = 0; j < size; ++j)
+        if(__distance.distance2(entries.get(i).getKey(),
+                                entries.get(j).getKey()) <= distance*distance)
+          n.add(j);
+
+      neighbors.add(n);
+      core[i] = (n.size() >= minPoints);
+      parent[i] = i;
+      assertEquals(core[i], clustering.isCore(i));
+    }
+
+    for(int i = 0; i < size; ++i)
+      if(core[i])
+        for(int j : neighbors.get(i))
+          if(core[j])
+            parent[__find(parent, i)] = __find(parent, j);
+
+    Set<Integer> labels = new HashSet<Integer>();
+    Map<Integer, Integer> rootLabels = new HashMap<Integer, Integer>();
+
+    for(int i = 0; i < size; ++i) {
+      int label = clustering.getLabel(i);
+
+      assertEquals(label, clustering.getLabels()[i]);
+
+      if(core[i]) {
+        Integer root = __find(parent, i);
+
+        if(!rootLabels.containsKey(root)) {
+          assertFalse(rootLabels.containsValue(label));
+          rootLabels.put(root, label);
+        }
+
+        assertEquals(rootLabels.get(root).intValue(), label);
+      } else {
+        boolean border = false;
+
+        for(int j : neighbors.get(i))
+          if(core[j] && clustering.getLabel(j) == label)
+            border = true;
+
+        assertEquals(label != Clustering.NOISE, border);
+      }
+
+      if(label != Clustering.NOISE)
+        labels.add(label);
+    }
+
+    assertEquals(labels.size(), clustering.getClusterCount());
+
+    for(int label : labels)
+      assertTrue(label >= 0 && label < labels.size());
+  }
+
+  /**
+   * Compares clusterings against a brute force implementation, both in
+   * the calling thread and on an executor.
+   */
+  public void testCluster() {
+    DBSCAN<Integer, GenericPoint<Integer>, Integer> dbscan =
+      new DBSCAN<Integer, GenericPoint<Integer>, Integer>();
+
+    __verify(dbscan.cluster(__tree, 10, 5), 10, 5);
+    __verify(dbscan.cluster(__tree, 30, 8), 30, 8);
+    __verify(dbscan.cluster(__tree, 30, 1), 30, 1);
+
+    dbscan.setExecutor(__executor);
+
+    __verify(dbscan.cluster(__tree, 10, 5), 10, 5);
+    __verify(dbscan.cluster(__tree, 60, 20), 60, 20);
+  }
+
+  /**
+   * Verifies the clustering of an empty tree and of a tree containing
+   * no core points.
+   */
+  public void testNoise() {
+    DBSCAN<Integer, GenericPoint<Integer>, Integer> dbscan =
+      new DBSCAN<Integer, GenericPoint<Integer>, Integer>();
+
+    Clustering<Integer, GenericPoint<Integer>, Integer> clustering =
+      dbscan.cluster(__tree, 0, __tree.size() + 1);
+
+    assertEquals(0, clustering.getClusterCount());
+
+    for(int label : clustering.getLabels())
+      assertEquals(Clustering.NOISE, label);
+
+    __tree.clear();
+
+    assertEquals(0, dbscan.cluster(__tree, 10, 5).size());
+  }
+
+}
@@ -108,4 +108,28 @@ public class EuclideanDistanceTest extends TestCase {
 
   }
 
+  /**
+   * Verifies that the bounded square of the distance equals the
+   * unbounded value when within the bound and exceeds the bound
+   * otherwise.
+   */
+  public void testBoundedDistance() {
+    EuclideanDistance<Integer, Point<Integer>> d =
+      new EuclideanDistance<Integer, Point<Integer>>();
+    GenericPoint<Integer> from = new GenericPoint<Integer>(9, 0, 4);
+    GenericPoint<Integer> to = new GenericPoint<Integer>(100, 32, 0);
+
+    assertEquals(d.distance2(from, to, 9321.0), 9321.0);
+    assertEquals(d.distance2(from, to, Double.POSITIVE_INFINITY), 9321.0);
+    assertTrue(d.distance2(from, to, 9320.0) > 9320.0);
+    assertTrue(d.distance2(from, to, 100.0) > 100.0);
+    assertTrue(d.distance2(from, to, 100.0) < 9321.0);
+
+    from = new GenericPoint<Integer>(1, 1, 1, 1);
+    to = new GenericPoint<Integer>(2, 2, 2, 2);
+
+    assertEquals(d.distance2(from, to, 4.0), 4.0);
+    assertTrue(d.distance2(from, to, 0.0) > 0.0);
+  }
+
 }
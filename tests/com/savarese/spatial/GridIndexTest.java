@@ -0,0 +1,203 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+/**
+ * GridIndexTest tests the GridIndex class.
+ */
+public class GridIndexTest extends RangeSearchTreeTestCase<Integer> {
+
+  protected
+    RangeSearchTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+    _newTreeFixture_()
+  {
+    return
+      new GridIndex<Integer, GenericPoint<Integer>, GenericPoint<Integer>>();
+  }
+
+  protected NearestNeighbors.Entry<Integer,GenericPoint<Integer>,GenericPoint<Integer>>[]
+    _nearestNeighbors_(
+      NearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>> nn,
+      GenericPoint<Integer> query, int numNeighbors,
+      GenericPoint<Integer> lower, GenericPoint<Integer> upper,
+      boolean omitQueryPoint)
+  {
+    return
+      nn.get((GridIndex<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_,
+             query, numNeighbors, lower, upper, omitQueryPoint);
+  }
+
+  public Integer newCoord(int val) {
+    return val;
+  }
+
+  public Integer getMaxCoord() {
+    return 16384;
+  }
+
+  public Integer getMinCoord() {
+    return -16384;
+  }
+
+  public int getNumPoints() {
+    return 16384;
+  }
+
+  /**
+   * Verifies that cell sizes are rounded to powers of two and that the
+   * cell size follows the density of the mappings unless automatic
+   * rebucketing is turned off.
+   */
+  public void testRebucket() {
+    GridIndex<Integer, GenericPoint<Integer>, GenericPoint<Integer>> grid =
+      (GridIndex<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    Map<GenericPoint<Integer>, GenericPoint<Integer>> map =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+
+    assertEquals(1.0, grid.getCellSize());
+    assertTrue(grid.isAdaptive());
+
+    _fillMap_(grid);
+    _fillMap_(map);
+
+    double occupancy = (double)grid.size() / grid.getCellCount();
+
+    assertTrue(grid.getCellSize() > 1);
+    assertTrue(occupancy >= GridIndex.MIN_OCCUPANCY);
+    assertTrue(occupancy <= GridIndex.MAX_OCCUPANCY);
+
+    grid.setCellSize(2500);
+    assertEquals(2048.0, grid.getCellSize());
+    assertEquals(map, grid);
+
+    grid.setAdaptive(false);
+    grid.clear();
+    _fillMap_(grid);
+    assertEquals(2048.0, grid.getCellSize());
+    assertEquals(map, grid);
+
+    // Turning rebucketing back on lets the next modification split the
+    // crowded cells.
+    grid.setAdaptive(true);
+
+    List<GenericPoint<Integer>> points =
+      new ArrayList<GenericPoint<Integer>>(map.keySet());
+
+    // Remove mappings in random order so that the rest stay uniform.
+    Collections.shuffle(points);
+    map.remove(points.get(0));
+    grid.remove(points.get(0));
+    occupancy = (double)grid.size() / grid.getCellCount();
+
+    double cellSize = grid.getCellSize();
+
+    assertTrue(cellSize < 2048);
+    assertTrue(occupancy >= GridIndex.MIN_OCCUPANCY);
+    assertTrue(occupancy <= GridIndex.MAX_OCCUPANCY);
+
+    // Removing most mappings makes the remaining ones sparse.
+    for(int i = 1; i < 16000; ++i) {
+      map.remove(points.get(i));
+      grid.remove(points.get(i));
+    }
+
+    assertTrue(grid.getCellSize() > cellSize);
+    assertEquals(map, grid);
+
+    try {
+      grid.setCellSize(0);
+      fail();
+    } catch(IllegalArgumentException iae) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Verifies that points with fractional and negative coordinates on
+   * and near cell boundaries are searched exactly.
+   */
+  public void testFractional() {
+    GridIndex<Double, GenericPoint<Double>, Integer> grid =
+      new GridIndex<Double, GenericPoint<Double>, Integer>(2, 0.5);
+    NearestNeighbors<Double, GenericPoint<Double>, Integer> nn =
+      new NearestNeighbors<Double, GenericPoint<Double>, Integer>();
+    EuclideanDistance<Double, GenericPoint<Double>> distance =
+      new EuclideanDistance<Double, GenericPoint<Double>>();
+    ArrayList<GenericPoint<Double>> points = new ArrayList<GenericPoint<Double>>();
+    Random random = new Random();
+
+    for(int i = 0; i < 3000; ++i) {
+      // Half the points lie on multiples of 1/4.
+      double scale = (i % 2 == 0 ? 4 : 1000);
+      GenericPoint<Double> point =
+        new GenericPoint<Double>(Math.floor(random.nextDouble()*80*scale)/scale - 40,
+                                 Math.floor(random.nextDouble()*80*scale)/scale - 40);
+
+      if(!grid.containsKey(point)) {
+        points.add(point);
+        assertNull(grid.put(point, points.size() - 1));
+      }
+    }
+
+    assertEquals(points.size(), grid.size());
+
+    for(int i = 0; i < points.size(); ++i)
+      assertEquals(i, grid.get(points.get(i)).intValue());
+
+    GenericPoint<Double> lower = new GenericPoint<Double>(-3.5, -0.25);
+    GenericPoint<Double> upper = new GenericPoint<Double>(2.75, 5.5);
+    Iterator<Map.Entry<GenericPoint<Double>, Integer>> it =
+      grid.iterator(lower, upper);
+    int count = 0, expected = 0;
+
+    for(GenericPoint<Double> p : points) {
+      if(grid.isInRange(p, lower, upper))
+        ++expected;
+    }
+
+    while(it.hasNext()) {
+      assertTrue(grid.isInRange(it.next().getKey(), lower, upper));
+      ++count;
+    }
+
+    assertEquals(expected, count);
+
+    for(int trial = 0; trial < 50; ++trial) {
+      GenericPoint<Double> query =
+        (trial % 2 == 0 ? points.get(random.nextInt(points.size())) :
+         new GenericPoint<Double>(random.nextDouble()*200 - 100,
+                                  random.nextDouble()*200 - 100));
+      NearestNeighbors.Entry<Double, GenericPoint<Double>, Integer>[] neighbors =
+        nn.get(grid, query, 7, false);
+      double[] distances = new double[points.size()];
+
+      for(int i = 0; i < distances.length; ++i)
+        distances[i] = distance.distance2(query, points.get(i));
+
+      Arrays.sort(distances);
+
+      assertEquals(7, neighbors.length);
+
+      for(int i = 0; i < neighbors.length; ++i)
+        assertEquals(distances[i], neighbors[i].getDistance2());
+    }
+  }
+
+}
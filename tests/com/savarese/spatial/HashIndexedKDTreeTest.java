@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+/**
+ * HashIndexedKDTreeTest tests the KDTree class with its hash index
+ * enabled.
+ */
+public class HashIndexedKDTreeTest extends KDTreeTest {
+
+  protected
+    RangeSearchTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+    _newTreeFixture_()
+  {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      new KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>();
+
+    tree.setHashIndex(true);
+
+    return tree;
+  }
+
+  private void __checkIndex(
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree)
+  {
+    assertEquals(tree.size(), tree._index.size());
+
+    for(Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>> e :
+          tree.entrySet())
+      assertSame(tree.getNode(e.getKey(), null), tree._index.get(e.getKey()));
+  }
+
+  /**
+   * Verifies that the index survives being enabled on a full tree,
+   * optimization, and clearing, and that it can be disabled.
+   */
+  public void testHashIndex() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    GenericPoint<Integer> missing = new GenericPoint<Integer>(1 << 20, 0);
+
+    assertTrue(tree.isHashIndexed());
+    tree.setHashIndex(false);
+    assertFalse(tree.isHashIndexed());
+
+    _fillMap_(tree);
+    tree.setHashIndex(true);
+    __checkIndex(tree);
+
+    tree.optimize();
+    __checkIndex(tree);
+
+    GenericPoint<Integer> point = tree.keySet().iterator().next();
+
+    assertEquals(point, tree.put(point, missing));
+    assertEquals(missing, tree.get(point));
+    assertEquals(missing, tree.remove(point));
+    assertNull(tree.remove(missing));
+    assertFalse(tree.containsKey(point));
+    __checkIndex(tree);
+
+    tree.clear();
+    assertTrue(tree._index.isEmpty());
+    tree.put(point, point);
+    __checkIndex(tree);
+  }
+
+}
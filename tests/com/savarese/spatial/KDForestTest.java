@@ -0,0 +1,230 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * KDForestTest tests the KDForest class.
+ */
+public class KDForestTest extends RangeSearchTreeTestCase<Integer> {
+
+  protected
+    RangeSearchTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+    _newTreeFixture_()
+  {
+    // A small buffer produces many levels.
+    return
+      new KDForest<Integer, GenericPoint<Integer>, GenericPoint<Integer>>(2, 64);
+  }
+
+  protected NearestNeighbors.Entry<Integer,GenericPoint<Integer>,GenericPoint<Integer>>[]
+    _nearestNeighbors_(
+      NearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>> nn,
+      GenericPoint<Integer> query, int numNeighbors,
+      GenericPoint<Integer> lower, GenericPoint<Integer> upper,
+      boolean omitQueryPoint)
+  {
+    return
+      nn.get((KDForest<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_,
+             query, numNeighbors, lower, upper, omitQueryPoint);
+  }
+
+  public Integer newCoord(int val) {
+    return val;
+  }
+
+  public Integer getMaxCoord() {
+    return 16384;
+  }
+
+  public Integer getMinCoord() {
+    return -16384;
+  }
+
+  public int getNumPoints() {
+    return 16384;
+  }
+
+  /**
+   * Verifies that the number of levels stays logarithmic in the size
+   * of the forest.
+   */
+  public void testLevels() {
+    KDForest<Integer, GenericPoint<Integer>, GenericPoint<Integer>> forest =
+      (KDForest<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+
+    _fillMap_(forest);
+
+    int size = forest.size(), levels = forest.getTreeCount() - 1;
+
+    assertTrue(levels > 0);
+    assertTrue(levels <= 2 + (int)(Math.log(size / 64) / Math.log(2)));
+
+    for(KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree :
+          forest._trees())
+      size-=tree.size();
+
+    assertEquals(0, size);
+
+    forest.flush();
+
+    assertTrue(forest.getTreeCount() - 1 <= levels + 1);
+    assertEquals(0, forest._trees().get(0).size());
+  }
+
+  /**
+   * Verifies that the entry set compares equal to, and contains the
+   * entries of, a HashMap holding the same mappings.
+   */
+  public void testEntrySetEquals() {
+    KDForest<Integer, GenericPoint<Integer>, GenericPoint<Integer>> forest =
+      (KDForest<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> map =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+
+    _fillMap_(forest);
+    map.putAll(forest);
+
+    assertTrue(forest.entrySet().containsAll(map.entrySet()));
+    assertTrue(forest.entrySet().equals(map.entrySet()));
+    assertTrue(map.entrySet().equals(forest.entrySet()));
+
+    GenericPoint<Integer> point = map.keySet().iterator().next();
+
+    map.put(point, new GenericPoint<Integer>(1 << 20, 0));
+    assertFalse(forest.entrySet().equals(map.entrySet()));
+  }
+
+  /**
+   * Compares a forest whose merges run in the background against a
+   * HashMap under a random mix of insertions, replacements, and
+   * removals.
+   */
+  public void testBackgroundMerge() {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    KDForest<Integer, GenericPoint<Integer>, Integer> forest =
+      new KDForest<Integer, GenericPoint<Integer>, Integer>(2, 16, executor);
+    HashMap<GenericPoint<Integer>, Integer> map =
+      new HashMap<GenericPoint<Integer>, Integer>();
+    NearestNeighbors<Integer, GenericPoint<Integer>, Integer> nn =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, Integer>();
+    Random random = new Random();
+
+    try {
+      for(int i = 0; i < 50000; ++i) {
+        GenericPoint<Integer> point =
+          new GenericPoint<Integer>(random.nextInt(400), random.nextInt(400));
+
+        if(random.nextInt(4) == 0)
+          assertEquals(map.remove(point), forest.remove(point));
+        else
+          assertEquals(map.put(point, i), forest.put(point, i));
+
+        assertEquals(map.size(), forest.size());
+      }
+
+      for(Map.Entry<GenericPoint<Integer>, Integer> e : map.entrySet())
+        assertEquals(e.getValue(), forest.get(e.getKey()));
+
+      GenericPoint<Integer> query = new GenericPoint<Integer>(200, 200);
+      NearestNeighbors.Entry<Integer,GenericPoint<Integer>,Integer>[] n =
+        nn.get(forest, query, 20);
+      int closer = 0;
+
+      for(GenericPoint<Integer> point : map.keySet()) {
+        double d2 = n[n.length - 1].getDistance2();
+        double dx = point.getCoord(0) - 200, dy = point.getCoord(1) - 200;
+
+        if(dx*dx + dy*dy < d2 && (dx != 0 || dy != 0))
+          ++closer;
+      }
+
+      assertEquals(20, n.length);
+      assertTrue(closer < 20);
+
+      forest.flush();
+
+      assertEquals(map, forest);
+      assertEquals(forest, map);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Verifies that values set through entries obtained while a merge is
+   * pending are held by the forest once the merge is installed.
+   */
+  public void testSetValueDuringMerge() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    final CountDownLatch latch = new CountDownLatch(1);
+    KDForest<Integer, GenericPoint<Integer>, String> forest =
+      new KDForest<Integer, GenericPoint<Integer>, String>(2, 4, executor);
+    NearestNeighbors<Integer, GenericPoint<Integer>, String> nn =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, String>();
+    List<Map.Entry<GenericPoint<Integer>, String>> entries =
+      new ArrayList<Map.Entry<GenericPoint<Integer>, String>>();
+
+    try {
+      // Hold the merge of the two levels behind a blocked task.
+      executor.submit(new Runnable() {
+          public void run() {
+            try {
+              latch.await();
+            } catch(InterruptedException ie) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+
+      for(int i = 0; i < 8; ++i)
+        forest.put(new GenericPoint<Integer>(i, i), "old");
+
+      assertEquals(2, forest.getTreeCount() - 1);
+
+      entries.addAll(forest.entrySet());
+      entries.add(nn.get(forest, new GenericPoint<Integer>(0, 0), 2,
+                         false)[1].getNeighbor());
+      for(Iterator<Map.Entry<GenericPoint<Integer>, String>> it =
+            forest.iterator(new GenericPoint<Integer>(3, 3),
+                            new GenericPoint<Integer>(4, 4)); it.hasNext();)
+        entries.add(it.next());
+
+      latch.countDown();
+      forest.flush();
+
+      assertEquals(1, forest.getTreeCount() - 1);
+
+      for(Map.Entry<GenericPoint<Integer>, String> e : entries) {
+        String value = "new " + e.getKey().getCoord(0);
+
+        e.setValue(value);
+        assertEquals(value, e.getValue());
+        assertEquals(value, forest.get(e.getKey()));
+      }
+
+      assertEquals(8, forest.size());
+    } finally {
+      latch.countDown();
+      executor.shutdown();
+    }
+  }
+
+}
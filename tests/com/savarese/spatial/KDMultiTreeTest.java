@@ -0,0 +1,222 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * KDMultiTreeTest tests the KDMultiTree class.
+ */
+public class KDMultiTreeTest extends TestCase {
+
+  private KDMultiTree<Integer, GenericPoint<Integer>, Integer> __tree;
+  // The expected values at each point.
+  private HashMap<GenericPoint<Integer>, List<Integer>> __values;
+
+  protected void setUp() {
+    __tree   = new KDMultiTree<Integer, GenericPoint<Integer>, Integer>(2);
+    __values = new HashMap<GenericPoint<Integer>, List<Integer>>();
+  }
+
+  // Adds values at points snapped to a coarse grid, so that most points
+  // receive many values.
+  private void __fill(Random random, int count) {
+    for(int i = 0; i < count; ++i) {
+      GenericPoint<Integer> point =
+        new GenericPoint<Integer>(10*random.nextInt(30), 10*random.nextInt(30));
+      List<Integer> values = __values.get(point);
+
+      if(values == null) {
+        values = new ArrayList<Integer>();
+        __values.put(point, values);
+      }
+
+      values.add(i);
+      assertEquals(values.size() == 1, __tree.add(point, i));
+    }
+  }
+
+  private void __verify() {
+    int count = 0;
+
+    for(List<Integer> values : __values.values())
+      count+=values.size();
+
+    assertEquals(__values.size(), __tree.size());
+    assertEquals(count, __tree.getValueCount());
+    assertEquals(__values, __tree);
+    assertEquals(__values.hashCode(), __tree.hashCode());
+
+    for(Map.Entry<GenericPoint<Integer>, List<Integer>> e :
+          __values.entrySet())
+      assertEquals(e.getValue(), __tree.get(e.getKey()));
+  }
+
+  /**
+   * Verifies that duplicate points share a node and keep their values
+   * in order.
+   */
+  public void testAdd() {
+    __fill(new Random(), 20000);
+    __verify();
+
+    // The tree holds only the distinct points.
+    assertTrue(__tree.size() <= 900);
+
+    try {
+      __tree.values().iterator().next().add(0);
+      fail("Value lists should not be modifiable.");
+    } catch(UnsupportedOperationException e) {
+    }
+  }
+
+  /**
+   * Removes values one at a time until all the points are gone.
+   */
+  public void testRemoveValue() {
+    Random random = new Random();
+    GenericPoint<Integer> point = new GenericPoint<Integer>(1, 1);
+
+    assertFalse(__tree.removeValue(point, 0));
+
+    __fill(random, 5000);
+
+    List<GenericPoint<Integer>> points =
+      new ArrayList<GenericPoint<Integer>>(__values.keySet());
+
+    while(!__values.isEmpty()) {
+      point = points.get(random.nextInt(points.size()));
+
+      List<Integer> values = __values.get(point);
+
+      if(values == null) {
+        assertNull(__tree.get(point));
+        continue;
+      }
+
+      Integer value = values.get(random.nextInt(values.size()));
+
+      assertTrue(__tree.contains(point, value));
+      assertFalse(__tree.removeValue(point, -1));
+      assertTrue(__tree.removeValue(point, value));
+      assertFalse(__tree.contains(point, value));
+
+      values.remove(value);
+
+      if(values.isEmpty())
+        __values.remove(point);
+
+      if(__values.size() % 50 == 0)
+        __verify();
+    }
+
+    __verify();
+    assertTrue(__tree.isEmpty());
+  }
+
+  /**
+   * Verifies that put and putAll replace the values at a point.
+   */
+  public void testPut() {
+    GenericPoint<Integer> point = new GenericPoint<Integer>(5, 5);
+    Map<GenericPoint<Integer>, List<Integer>> map =
+      new HashMap<GenericPoint<Integer>, List<Integer>>();
+
+    __fill(new Random(), 2000);
+
+    __values.put(point, Arrays.asList(1, 2, 3));
+    assertNull(__tree.put(point, Arrays.asList(1, 2, 3)));
+    __tree.add(point, 4);
+    __values.put(point, Arrays.asList(1, 2, 3, 4));
+    __verify();
+
+    assertEquals(Arrays.asList(1, 2, 3, 4),
+                 __tree.put(point, new ArrayList<Integer>()));
+    __values.remove(point);
+    __verify();
+
+    map.put(point, Arrays.asList(7));
+    map.put(__values.keySet().iterator().next(), new ArrayList<Integer>());
+    __tree.putAll(map);
+    __values.remove(__values.keySet().iterator().next());
+    __values.put(point, Arrays.asList(7));
+    __verify();
+
+    // Values set through an entry are converted when added to.
+    __tree.entrySet().iterator().next().setValue(new HashSet<Integer>());
+    __tree.add(__tree.keySet().iterator().next(), 8);
+    assertEquals(Arrays.asList(8), __tree.values().iterator().next());
+  }
+
+  /**
+   * Verifies that range searches and nearest neighbor searches return
+   * all the values at each point.
+   */
+  public void testSearch() {
+    Random random = new Random();
+    NearestNeighbors<Integer, GenericPoint<Integer>, Collection<Integer>> nn =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, Collection<Integer>>();
+
+    __fill(random, 20000);
+
+    for(int i = 0; i < 50; ++i) {
+      GenericPoint<Integer> lower =
+        new GenericPoint<Integer>(random.nextInt(300), random.nextInt(300));
+      GenericPoint<Integer> upper =
+        new GenericPoint<Integer>(lower.getCoord(0) + random.nextInt(100),
+                                  lower.getCoord(1) + random.nextInt(100));
+      Iterator<Map.Entry<GenericPoint<Integer>, Collection<Integer>>> it =
+        __tree.iterator(lower, upper);
+      int expected = 0, found = 0;
+
+      for(Map.Entry<GenericPoint<Integer>, List<Integer>> e :
+            __values.entrySet())
+      {
+        GenericPoint<Integer> p = e.getKey();
+
+        if(p.getCoord(0) >= lower.getCoord(0) &&
+           p.getCoord(0) <= upper.getCoord(0) &&
+           p.getCoord(1) >= lower.getCoord(1) &&
+           p.getCoord(1) <= upper.getCoord(1))
+          expected+=e.getValue().size();
+      }
+
+      while(it.hasNext()) {
+        Map.Entry<GenericPoint<Integer>, Collection<Integer>> e = it.next();
+
+        assertEquals(__values.get(e.getKey()), e.getValue());
+        found+=e.getValue().size();
+      }
+
+      assertEquals(expected, found);
+    }
+
+    GenericPoint<Integer> query = new GenericPoint<Integer>(104, 96);
+    NearestNeighbors.Entry<Integer, GenericPoint<Integer>, Collection<Integer>>[]
+      neighbors = nn.get(__tree, query, 1);
+
+    assertEquals(1, neighbors.length);
+    assertEquals(new GenericPoint<Integer>(100, 100),
+                 neighbors[0].getNeighbor().getKey());
+    assertEquals(__values.get(neighbors[0].getNeighbor().getKey()),
+                 neighbors[0].getNeighbor().getValue());
+  }
+
+}
@@ -17,6 +17,8 @@
 
 package com.savarese.spatial;
 
+import java.util.*;
+
 /**
  * KDTreeTest tests the KDTree class.
  */
@@ -45,4 +47,945 @@ public class KDTreeTest extends RangeSearchTreeTestCase<Integer> {
     return 16384;
   }
 
+  public void testValuesRemove() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> expected =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    ArrayList<GenericPoint<Integer>> values = new ArrayList<GenericPoint<Integer>>();
+    GenericPoint<Integer> shared = __point(0, 0);
+    int i = 0;
+
+    _fillMap_(expected);
+
+    // Several mappings share a value.
+    for(GenericPoint<Integer> point : expected.keySet()) {
+      if(i++ % 10 == 0)
+        expected.put(point, shared);
+    }
+
+    tree.putAll(expected);
+
+    for(GenericPoint<Integer> point : expected.keySet()) {
+      if(expected.get(point) != shared) {
+        assertTrue(tree.values().remove(expected.remove(point)));
+        break;
+      }
+    }
+
+    assertFalse(tree.values().remove(__point(1, 1)));
+    assertEquals(expected, tree);
+
+    i = 0;
+    for(GenericPoint<Integer> v : expected.values()) {
+      if(i++ % 3 == 0)
+        values.add(v);
+    }
+    values.add(shared);
+
+    assertTrue(tree.values().removeAll(values));
+    expected.values().removeAll(values);
+    assertEquals(expected, tree);
+    assertFalse(tree.containsValue(shared));
+    __checkTree(tree);
+
+    values.clear();
+    i = 0;
+    for(GenericPoint<Integer> v : expected.values()) {
+      if(i++ % 2 == 0)
+        values.add(v);
+    }
+
+    assertTrue(tree.values().retainAll(values));
+    assertFalse(tree.values().retainAll(values));
+    expected.values().retainAll(values);
+    assertEquals(expected, tree);
+    __checkTree(tree);
+  }
+
+  public void testFarthestNeighbors() {
+    FarthestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>> fn =
+      new FarthestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>>();
+    final EuclideanDistance<Integer, GenericPoint<Integer>> d =
+      new EuclideanDistance<Integer, GenericPoint<Integer>>();
+    GenericPoint<Integer> query =
+      new GenericPoint<Integer>(newCoord(getMaxCoord().intValue() / 3),
+                                newCoord(getMinCoord().intValue() / 5));
+
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+
+    _fillMap_(tree);
+
+    ArrayList<Double> distances = new ArrayList<Double>();
+
+    for(GenericPoint<Integer> point : tree.keySet())
+      distances.add(d.distance2(query, point));
+
+    Collections.sort(distances, Collections.reverseOrder());
+
+    NearestNeighbors.Entry<Integer,GenericPoint<Integer>,GenericPoint<Integer>>[] n;
+
+    // The first searches scan the tree and later ones build and use
+    // its packed snapshot.
+    for(int round = 0; round < 3; ++round) {
+      for(int i = 1; i < 11; ++i) {
+        n = fn.get(tree, query, i);
+
+        assertEquals(i, n.length);
+
+        for(int j = 0; j < n.length; ++j) {
+          assertEquals(distances.get(j), n[j].getDistance2());
+          assertEquals(tree.get(n[j].getNeighbor().getKey()),
+                       n[j].getNeighbor().getValue());
+        }
+      }
+    }
+
+    assertNotNull(tree._packed);
+
+    n = fn.get(tree, query, 0);
+    assertEquals(0, n.length);
+
+    // Modifying the tree must invalidate cached bounds.
+    GenericPoint<Integer> far =
+      new GenericPoint<Integer>(newCoord(8*getMaxCoord().intValue()),
+                                newCoord(8*getMaxCoord().intValue()));
+    tree.put(far, far);
+
+    n = fn.get(tree, query, 1);
+    assertEquals(1, n.length);
+    assertEquals(far, n[0].getNeighbor().getKey());
+
+    tree.remove(far);
+
+    n = fn.get(tree, query, 1);
+    assertEquals(distances.get(0), n[0].getDistance2());
+  }
+
+  private void __testReverseNearestNeighbors(
+    ReverseNearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>> rnn,
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree,
+    GenericPoint<Integer> query, boolean omitQueryPoint)
+  {
+    NearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>> nn =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>>();
+    EuclideanDistance<Integer, GenericPoint<Integer>> d =
+      new EuclideanDistance<Integer, GenericPoint<Integer>>();
+    ArrayList<Double> expected = new ArrayList<Double>();
+    int k = rnn.getNumNeighbors();
+
+    for(GenericPoint<Integer> point : tree.keySet()) {
+      NearestNeighbors.Entry<Integer,GenericPoint<Integer>,GenericPoint<Integer>>[] n =
+        nn.get(tree, point, k, true);
+      double d2 = d.distance2(query, point);
+
+      if((n.length < k || d2 <= n[k - 1].getDistance2()) &&
+         (d2 != 0.0 || !omitQueryPoint))
+        expected.add(d2);
+    }
+
+    Collections.sort(expected);
+
+    NearestNeighbors.Entry<Integer,GenericPoint<Integer>,GenericPoint<Integer>>[] r =
+      rnn.get(tree, query, omitQueryPoint);
+
+    assertEquals(expected.size(), r.length);
+
+    for(int i = 0; i < r.length; ++i) {
+      assertEquals(expected.get(i), r[i].getDistance2());
+      assertEquals(d.distance2(query, r[i].getNeighbor().getKey()),
+                   r[i].getDistance2());
+    }
+  }
+
+  public void testReverseNearestNeighbors() {
+    GenericPoint<Integer> query =
+      new GenericPoint<Integer>(newCoord(getMaxCoord().intValue() / 3),
+                                newCoord(getMinCoord().intValue() / 5));
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+
+    _fillMap_(tree);
+
+    GenericPoint<Integer> member = tree.keySet().iterator().next();
+
+    for(int k = 1; k < 6; k += 2) {
+      ReverseNearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+        rnn =
+        new ReverseNearestNeighbors<Integer, GenericPoint<Integer>,
+                                    GenericPoint<Integer>>(k);
+
+      rnn.precompute(tree);
+      __testReverseNearestNeighbors(rnn, tree, query, true);
+      __testReverseNearestNeighbors(rnn, tree, member, true);
+      __testReverseNearestNeighbors(rnn, tree, member, false);
+    }
+
+    ReverseNearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+      rnn =
+      new ReverseNearestNeighbors<Integer, GenericPoint<Integer>,
+                                  GenericPoint<Integer>>(0);
+
+    assertEquals(0, rnn.get(tree, query).length);
+
+    rnn =
+      new ReverseNearestNeighbors<Integer, GenericPoint<Integer>,
+                                  GenericPoint<Integer>>(3);
+
+    __testReverseNearestNeighbors(rnn, tree, query, true);
+
+    // Modifying the tree must invalidate cached distances.
+    GenericPoint<Integer> far =
+      new GenericPoint<Integer>(newCoord(8*getMaxCoord().intValue()),
+                                newCoord(8*getMaxCoord().intValue()));
+    tree.put(far, far);
+
+    __testReverseNearestNeighbors(rnn, tree, query, true);
+    assertEquals(far, rnn.get(tree, far, false)[0].getNeighbor().getKey());
+
+    tree.remove(far);
+    tree.remove(member);
+
+    __testReverseNearestNeighbors(rnn, tree, query, true);
+    __testReverseNearestNeighbors(rnn, tree, member, true);
+  }
+
+  private void __testOrderStatistics(KDTree<Integer, GenericPoint<Integer>,
+                                     GenericPoint<Integer>> tree,
+                                     GenericPoint<Integer> lower,
+                                     GenericPoint<Integer> upper)
+  {
+    List<GenericPoint<Integer>> points = new ArrayList<GenericPoint<Integer>>();
+    Iterator<Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>>> it =
+      tree.iterator(lower, upper);
+
+    while(it.hasNext())
+      points.add(it.next().getKey());
+
+    assertEquals(points.size(), tree.count(lower, upper));
+
+    for(int d = 0; d < 2; ++d) {
+      List<Integer> coords = new ArrayList<Integer>();
+
+      for(GenericPoint<Integer> point : points)
+        coords.add(point.getCoord(d));
+
+      Collections.sort(coords);
+
+      for(int rank = 0; rank < coords.size();
+          rank+=Math.max(1, coords.size() / 37))
+        {
+          Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>> e =
+            tree.select(d, rank, lower, upper);
+
+          assertTrue(tree.isInRange(e.getKey(), lower, upper));
+          assertEquals(coords.get(rank), e.getKey().getCoord(d));
+        }
+
+      if(!coords.isEmpty())
+        assertEquals(coords.get(coords.size() - 1),
+                     tree.select(d, coords.size() - 1, lower, upper).getKey().getCoord(d));
+
+      assertNull(tree.select(d, coords.size(), lower, upper));
+      assertNull(tree.select(d, -1, lower, upper));
+    }
+  }
+
+  public void testOrderStatistics() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    int min = getMinCoord().intValue(), max = getMaxCoord().intValue();
+    GenericPoint<Integer> lower =
+      new GenericPoint<Integer>(newCoord(min / 3), newCoord(min / 2));
+    GenericPoint<Integer> upper =
+      new GenericPoint<Integer>(newCoord(max / 4), newCoord(max / 5));
+
+    assertNull(tree.getMinimum(0));
+    assertNull(tree.getMaximum(1));
+    assertNull(tree.select(0, 0));
+    assertEquals(0, tree.count(null, null));
+
+    _fillMap_(tree);
+
+    for(int d = 0; d < 2; ++d) {
+      List<Integer> coords = new ArrayList<Integer>();
+
+      for(GenericPoint<Integer> point : tree.keySet())
+        coords.add(point.getCoord(d));
+
+      Collections.sort(coords);
+
+      assertEquals(coords.get(0), tree.getMinimum(d).getKey().getCoord(d));
+      assertEquals(coords.get(coords.size() - 1),
+                   tree.getMaximum(d).getKey().getCoord(d));
+      assertEquals(coords.get(coords.size() / 2),
+                   tree.select(d, coords.size() / 2).getKey().getCoord(d));
+    }
+
+    __testOrderStatistics(tree, null, null);
+    __testOrderStatistics(tree, lower, upper);
+    __testOrderStatistics(tree, lower, null);
+    __testOrderStatistics(tree, null, upper);
+
+    // Removals must keep the subtree counts consistent.
+    List<GenericPoint<Integer>> points =
+      new ArrayList<GenericPoint<Integer>>(tree.keySet());
+
+    Collections.shuffle(points);
+
+    for(GenericPoint<Integer> point : points.subList(0, points.size() / 2))
+      tree.remove(point);
+
+    assertEquals(tree.size(), tree.count(null, null));
+    __testOrderStatistics(tree, lower, upper);
+
+    tree.put(lower, lower);
+    tree.put(upper, upper);
+
+    assertEquals(tree.size(), tree.count(null, null));
+    __testOrderStatistics(tree, lower, upper);
+    assertEquals(1, tree.count(lower, lower));
+  }
+
+  // Verifies the subtree counts and the ordering of a subtree,
+  // returning its size.
+  private int __checkSubtree(KDTree<Integer, GenericPoint<Integer>,
+                             GenericPoint<Integer>>.KDNode node)
+  {
+    if(node == null)
+      return 0;
+
+    int d = node._discriminator;
+    Integer split = node._point.getCoord(d);
+
+    if(node._low != null)
+      assertTrue(node._low._point.getCoord(d).compareTo(split) < 0);
+    if(node._high != null)
+      assertTrue(node._high._point.getCoord(d).compareTo(split) >= 0);
+
+    int count = 1 + __checkSubtree(node._low) + __checkSubtree(node._high);
+
+    assertEquals(count, node._count);
+
+    return count;
+  }
+
+  // Checks the structure of a tree and, if it has one, its hash index.
+  private void __checkTree(
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree)
+  {
+    assertEquals(tree.size(), __checkSubtree(tree._root));
+
+    if(tree.isHashIndexed()) {
+      assertEquals(tree.size(), tree._index.size());
+
+      for(Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>> e :
+            tree.entrySet())
+        assertSame(e, tree._index.get(e.getKey()));
+    }
+
+    if(tree.isValueIndexed()) {
+      int count = 0;
+
+      for(Object nodes : tree._valueIndex.values())
+        count+=(nodes instanceof List ? ((List)nodes).size() : 1);
+
+      assertEquals(tree.size(), count);
+
+      for(Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>> e :
+            tree.entrySet())
+      {
+        Object nodes = tree._valueIndex.get(e.getValue());
+
+        assertTrue(nodes == e || ((List)nodes).contains(e));
+      }
+    }
+  }
+
+  public void testRemoveRange() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> expected =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    int min = getMinCoord().intValue(), max = getMaxCoord().intValue();
+    GenericPoint<Integer>[] lower = new GenericPoint[] {
+      new GenericPoint<Integer>(newCoord(0), newCoord(0)),
+      new GenericPoint<Integer>(newCoord(min / 2), newCoord(min)),
+      new GenericPoint<Integer>(newCoord(min / 8), newCoord(max / 9)),
+      null
+    };
+    GenericPoint<Integer>[] upper = new GenericPoint[] {
+      new GenericPoint<Integer>(newCoord(max / 64), newCoord(max / 50)),
+      new GenericPoint<Integer>(newCoord(max), newCoord(max / 2)),
+      null,
+      new GenericPoint<Integer>(newCoord(min / 3), newCoord(max / 5))
+    };
+
+    assertEquals(0, tree.removeRange(null, null));
+
+    _fillMap_(tree);
+    _fillMap_(expected);
+
+    for(int i = 0; i < lower.length; ++i) {
+      Iterator<GenericPoint<Integer>> it = expected.keySet().iterator();
+      int removed = 0;
+
+      while(it.hasNext()) {
+        if(tree.isInRange(it.next(), lower[i], upper[i])) {
+          it.remove();
+          ++removed;
+        }
+      }
+
+      assertEquals(removed, tree.removeRange(lower[i], upper[i]));
+      assertEquals(expected.size(), tree.size());
+      assertEquals(expected, tree);
+      assertEquals(expected.hashCode(), tree.hashCode());
+      __checkTree(tree);
+      assertFalse(tree.iterator(lower[i], upper[i]).hasNext());
+    }
+
+    Predicate<Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>>> odd =
+      new Predicate<Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>>>() {
+        public boolean evaluate(Map.Entry<GenericPoint<Integer>,
+                                GenericPoint<Integer>> e)
+        {
+          return (e.getKey().getCoord(0).intValue() % 2 != 0);
+        }
+      };
+    Iterator<Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>>> it =
+      expected.entrySet().iterator();
+    int removed = 0;
+
+    while(it.hasNext()) {
+      if(odd.evaluate(it.next())) {
+        it.remove();
+        ++removed;
+      }
+    }
+
+    assertEquals(removed, tree.removeIf(odd));
+    assertEquals(expected, tree);
+    __checkTree(tree);
+
+    GenericPoint<Integer> point = expected.keySet().iterator().next();
+
+    assertEquals(1, tree.removeRange(point, point));
+    assertNull(tree.get(point));
+    assertEquals(expected.size() - 1, tree.size());
+
+    assertEquals(tree.size(), tree.removeRange(null, null));
+    assertTrue(tree.isEmpty());
+    assertNull(tree._root);
+  }
+
+  private int __depth(KDTree<Integer, GenericPoint<Integer>,
+                      GenericPoint<Integer>>.KDNode node)
+  {
+    if(node == null)
+      return 0;
+    return 1 + Math.max(__depth(node._low), __depth(node._high));
+  }
+
+  public void testBatchPutAll() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> first =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> second =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> expected =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    int i = 0;
+
+    _fillMap_(expected);
+
+    for(GenericPoint<Integer> point : expected.keySet()) {
+      if(i++ % 3 == 0)
+        second.put(point, point);
+      else
+        first.put(point, point);
+    }
+
+    // Overlapping points with new values.
+    i = 0;
+    for(GenericPoint<Integer> point : first.keySet()) {
+      if(i++ % 5 == 0) {
+        GenericPoint<Integer> value =
+          new GenericPoint<Integer>(newCoord(i), newCoord(-i));
+        second.put(point, value);
+        expected.put(point, value);
+      }
+    }
+
+    tree.putAll(new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>());
+    assertTrue(tree.isEmpty());
+
+    tree.putAll(first);
+
+    assertEquals(first, tree);
+    assertEquals(first.hashCode(), tree.hashCode());
+    __checkTree(tree);
+    // A batch inserted into an empty tree is balanced.
+    assertTrue(__depth(tree._root) <=
+               2 + (int)Math.ceil(Math.log(tree.size() + 1) / Math.log(2)));
+
+    tree.putAll(second);
+
+    assertEquals(expected.size(), tree.size());
+    assertEquals(expected, tree);
+    assertEquals(expected.hashCode(), tree.hashCode());
+    __checkTree(tree);
+
+    for(GenericPoint<Integer> point : expected.keySet())
+      assertEquals(expected.get(point), tree.get(point));
+  }
+
+  public void testMerge() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> other =
+      new KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>();
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> expected =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    int i = 0;
+
+    _fillMap_(expected);
+
+    for(GenericPoint<Integer> point : expected.keySet()) {
+      if(i % 2 == 0)
+        tree.put(point, point);
+      if(i % 3 == 0) {
+        GenericPoint<Integer> value =
+          new GenericPoint<Integer>(newCoord(i), newCoord(-i));
+        other.put(point, value);
+        expected.put(point, value);
+      }
+      ++i;
+    }
+
+    // Points in neither tree.
+    i = 0;
+    for(Iterator<GenericPoint<Integer>> it = expected.keySet().iterator();
+        it.hasNext(); ++i)
+      {
+        it.next();
+        if(i % 2 != 0 && i % 3 != 0)
+          it.remove();
+      }
+
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> merged =
+      KDTree.merge(tree, other);
+
+    assertEquals(expected, merged);
+    assertEquals(expected.hashCode(), merged.hashCode());
+    assertEquals(merged.size(), __checkSubtree(merged._root));
+    assertTrue(__depth(merged._root) <=
+               2 + (int)Math.ceil(Math.log(merged.size() + 1) / Math.log(2)));
+    assertEquals(merged.size(), merged.count(null, null));
+
+    assertEquals(tree, KDTree.merge(tree,
+      new KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>()));
+    assertEquals(other, KDTree.merge(
+      new KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>(), other));
+
+    try {
+      KDTree.merge(tree,
+        new KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>(3));
+      fail();
+    } catch(IllegalArgumentException iae) {
+      // Expected.
+    }
+  }
+
+  private void __checkMappings(
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree,
+    Map<GenericPoint<Integer>, GenericPoint<Integer>> expected)
+  {
+    assertEquals(expected.size(), tree.size());
+    __checkTree(tree);
+    assertEquals(expected.hashCode(), tree.hashCode());
+
+    // Lookups fail for nodes left on the wrong side of a split.
+    for(Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>> e :
+          expected.entrySet())
+    {
+      assertEquals(e.getValue(), tree.get(e.getKey()));
+      assertSame(tree.getNode(e.getKey()), tree.getNode(e.getKey(), null));
+    }
+  }
+
+  private GenericPoint<Integer> __point(int x, int y) {
+    return new GenericPoint<Integer>(newCoord(x), newCoord(y));
+  }
+
+  private GenericPoint<Integer> __displace(GenericPoint<Integer> point,
+                                           Random random)
+  {
+    int min = getMinCoord().intValue(), max = getMaxCoord().intValue();
+
+    // Mix small displacements with jumps anywhere.
+    if(random.nextInt(4) == 0)
+      return new GenericPoint<Integer>(
+        newCoord(min + random.nextInt(max - min)),
+        newCoord(min + random.nextInt(max - min)));
+
+    return new GenericPoint<Integer>(
+      newCoord(point.getCoord(0).intValue() + random.nextInt(7) - 3),
+      newCoord(point.getCoord(1).intValue() + random.nextInt(7) - 3));
+  }
+
+  public void testMove() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> expected =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    Random random = new Random();
+
+    _fillMap_(tree);
+    _fillMap_(expected);
+
+    List<GenericPoint<Integer>> points =
+      new ArrayList<GenericPoint<Integer>>(expected.keySet());
+
+    for(int i = 0; i < 4000; ++i) {
+      int index = random.nextInt(points.size());
+      GenericPoint<Integer> from = points.get(index);
+      GenericPoint<Integer> to = __displace(from, random);
+
+      if(random.nextInt(50) == 0)
+        to = points.get(random.nextInt(points.size()));
+
+      assertTrue(tree.move(from, to));
+
+      GenericPoint<Integer> value = expected.remove(from);
+
+      if(!from.equals(to) && expected.containsKey(to))
+        points.remove(to);
+      expected.put(to, value);
+      points.set(points.indexOf(from), to);
+    }
+
+    __checkMappings(tree, expected);
+
+    assertFalse(tree.move(new GenericPoint<Integer>(newCoord(8*getMaxCoord().intValue()),
+                                                    newCoord(0)),
+                          points.get(0)));
+    assertEquals(expected.size(), tree.size());
+  }
+
+  public void testMoveAll() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> expected =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    Random random = new Random();
+
+    _fillMap_(tree);
+    _fillMap_(expected);
+
+    for(int tick = 0; tick < 5; ++tick) {
+      LinkedHashMap<GenericPoint<Integer>, GenericPoint<Integer>> moves =
+        new LinkedHashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+      List<GenericPoint<Integer>> points =
+        new ArrayList<GenericPoint<Integer>>(expected.keySet());
+
+      for(GenericPoint<Integer> point : points) {
+        if(random.nextInt(3) == 0)
+          moves.put(point, __displace(point, random));
+      }
+
+      // Two mappings trading places, a move onto a stationary mapping,
+      // and a point that is not mapped.
+      moves.put(points.get(0), points.get(1));
+      moves.put(points.get(1), points.get(0));
+      moves.remove(points.get(2));
+      moves.put(points.get(3), points.get(2));
+      moves.put(new GenericPoint<Integer>(newCoord(8*getMaxCoord().intValue()),
+                                          newCoord(0)), points.get(4));
+
+      HashMap<GenericPoint<Integer>, GenericPoint<Integer>> moved =
+        new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+
+      for(Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>> move :
+            moves.entrySet())
+      {
+        GenericPoint<Integer> value = expected.get(move.getKey());
+
+        if(value != null)
+          moved.put(move.getValue(), value);
+      }
+
+      expected.keySet().removeAll(moves.keySet());
+      expected.putAll(moved);
+
+      assertEquals(moved.size(), tree.moveAll(moves));
+      __checkMappings(tree, expected);
+    }
+
+    tree.clear();
+    tree.put(__point(1, 1), __point(1, 1));
+
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> move =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+
+    move.put(__point(1, 1), __point(2, 2));
+
+    assertEquals(1, tree.moveAll(move));
+    assertEquals(__point(1, 1), tree.get(__point(2, 2)));
+    assertEquals(1, tree.size());
+  }
+
+  /**
+   * Verifies that nearest neighbors searches accept a Distance that is
+   * not a BoundedDistance and find the same neighbors with it.
+   */
+  public void testUnboundedDistance() {
+    final EuclideanDistance<Integer, GenericPoint<Integer>> euclidean =
+      new EuclideanDistance<Integer, GenericPoint<Integer>>();
+    Distance<Integer, GenericPoint<Integer>> plain =
+      new Distance<Integer, GenericPoint<Integer>>() {
+        public double distance(GenericPoint<Integer> from,
+                               GenericPoint<Integer> to)
+        {
+          return euclidean.distance(from, to);
+        }
+
+        public double distance2(GenericPoint<Integer> from,
+                                GenericPoint<Integer> to)
+        {
+          return euclidean.distance2(from, to);
+        }
+      };
+    NearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+      bounded =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>>(),
+      unbounded =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>>(plain);
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+
+    _fillMap_(tree);
+
+    for(int x = -16000; x < 16000; x+=4000) {
+      GenericPoint<Integer> query = new GenericPoint<Integer>(x, -x / 2);
+      NearestNeighbors.Entry<Integer, GenericPoint<Integer>, GenericPoint<Integer>>[]
+        expected = bounded.get(tree, query, 8),
+        found = unbounded.get(tree, query, 8);
+
+      assertEquals(expected.length, found.length);
+
+      for(int i = 0; i < found.length; ++i)
+        assertEquals(expected[i].getDistance2(), found[i].getDistance2());
+    }
+  }
+
+  public void testPackedSnapshot() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+
+    _fillMap_(tree);
+
+    PackedKDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+      packed = PackedKDTree.get(tree);
+
+    assertEquals(tree.size(), packed._size);
+    assertSame(packed, PackedKDTree.get(tree));
+
+    GenericPoint<Integer> point = new GenericPoint<Integer>(16384, 16384);
+
+    tree.put(point, point);
+    assertNull(tree._packed);
+
+    packed = PackedKDTree.get(tree);
+    assertEquals(tree.size(), packed._size);
+
+    tree.remove(point);
+    assertNull(tree._packed);
+  }
+
+  /**
+   * Adds batches to a tree degenerated into a list by sorted
+   * insertions, which is deeper than a recursive insertion could
+   * handle.
+   */
+  public void testDegenerateBatchInsert() {
+    final int size = 20000;
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> batch =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+
+    for(int i = 0; i < size; ++i) {
+      GenericPoint<Integer> point = new GenericPoint<Integer>(i, i);
+      tree.put(point, point);
+    }
+
+    GenericPoint<Integer> last = new GenericPoint<Integer>(size - 1, size - 1),
+      added = new GenericPoint<Integer>(size, size),
+      moved = new GenericPoint<Integer>(size + 1, size + 1);
+
+    batch.put(last, added);
+    batch.put(added, added);
+    tree.putAll(batch);
+
+    assertEquals(size + 1, tree.size());
+    assertEquals(size + 1, tree.count(null, null));
+    assertEquals(added, tree.get(last));
+    assertEquals(added, tree.get(added));
+
+    batch.clear();
+    batch.put(added, moved);
+    assertEquals(1, tree.moveAll(batch));
+
+    assertEquals(size + 1, tree.size());
+    assertEquals(size + 1, tree.count(null, null));
+    assertFalse(tree.containsKey(added));
+    assertEquals(added, tree.get(moved));
+  }
+
+  /**
+   * Verifies that counting, selecting, and removing ranges work on a
+   * degenerate tree whose depth exceeds what a small thread stack
+   * could recurse through.
+   */
+  public void testDegenerateRanges() throws Throwable {
+    final int size = 20000;
+    final KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    final Throwable[] failure = new Throwable[1];
+
+    for(int i = 0; i < size; ++i) {
+      GenericPoint<Integer> point = new GenericPoint<Integer>(i, i);
+      tree.put(point, point);
+    }
+
+    Thread thread = new Thread(null, new Runnable() {
+        public void run() {
+          try {
+            __testDegenerateRanges(tree, size);
+          } catch(Throwable t) {
+            failure[0] = t;
+          }
+        }
+      }, "testDegenerateRanges", 1 << 16);
+
+    thread.start();
+    thread.join();
+
+    if(failure[0] != null)
+      throw failure[0];
+  }
+
+  private void __testDegenerateRanges(
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree,
+    int size)
+  {
+    GenericPoint<Integer> odd = new GenericPoint<Integer>(1, 1);
+
+    assertEquals(size, tree.count(null, null));
+    assertEquals(size/2,
+                 tree.count(new GenericPoint<Integer>(size/4, size/4),
+                            new GenericPoint<Integer>(3*size/4 - 1,
+                                                      3*size/4 - 1)));
+    assertEquals(new GenericPoint<Integer>(size/2, size/2),
+                 tree.select(0, size/2).getKey());
+    assertEquals(new GenericPoint<Integer>(size/2, size/2),
+                 tree.select(1, size/4,
+                             new GenericPoint<Integer>(size/4, 0), null)
+                 .getKey());
+
+    // Remove a few mappings near the root so that removed nodes are
+    // replaced along the whole chain.
+    assertEquals(2, tree.removeRange(new GenericPoint<Integer>(0, 0),
+                                     new GenericPoint<Integer>(1, 1)));
+    assertEquals(size - 2, tree.size());
+    assertEquals(size - 2, tree.count(null, null));
+
+    assertEquals(size/2 - 1,
+                 tree.removeIf(new Predicate<Map.Entry<GenericPoint<Integer>,
+                                                       GenericPoint<Integer>>>() {
+                     public boolean evaluate(
+                       Map.Entry<GenericPoint<Integer>,
+                                 GenericPoint<Integer>> e)
+                     {
+                       return ((e.getKey().getCoord(0) & 1) == 1);
+                     }
+                   }));
+    assertEquals(size/2 - 1, tree.size());
+    assertEquals(size/2 - 1, tree.count(null, null));
+
+    HashSet<GenericPoint<Integer>> removed =
+      new HashSet<GenericPoint<Integer>>();
+
+    for(int i = 2; i < size/2; i+=2)
+      removed.add(new GenericPoint<Integer>(i, i));
+
+    assertTrue(tree.values().removeAll(removed));
+    assertEquals(size/2 - removed.size() - 1, tree.size());
+    assertEquals(tree.size(), tree.count(null, null));
+    assertFalse(tree.containsKey(odd));
+
+    for(int i = size/2; i < size; i+=2)
+      assertTrue(tree.containsKey(new GenericPoint<Integer>(i, i)));
+  }
+
+  /**
+   * Verifies that setting the value of an entry after its mapping has
+   * been removed leaves the tree unchanged.
+   */
+  public void testDetachedEntry() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> expected =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    GenericPoint<Integer> value = __point(1 << 20, 0);
+
+    for(int i = 0; i < 10; ++i)
+      expected.put(__point(i, i), __point(i, i));
+    tree.putAll(expected);
+
+    List<Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>>> entries =
+      new ArrayList<Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>>>(
+        tree.entrySet());
+    Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>> removed =
+      entries.get(3), ranged = entries.get(6);
+
+    tree.remove(removed.getKey());
+    expected.remove(removed.getKey());
+    removed.setValue(value);
+
+    assertEquals(9, tree.size());
+    assertFalse(tree.containsValue(value));
+    assertFalse(tree.values().remove(value));
+    assertEquals(9, tree.size());
+    assertEquals(expected, tree);
+    assertEquals(expected.hashCode(), tree.hashCode());
+
+    assertEquals(1, tree.removeRange(ranged.getKey(), ranged.getKey()));
+    expected.remove(ranged.getKey());
+    ranged.setValue(value);
+
+    assertFalse(tree.containsValue(value));
+    assertEquals(expected, tree);
+    assertEquals(expected.hashCode(), tree.hashCode());
+    __checkTree(tree);
+
+    Map.Entry<GenericPoint<Integer>, GenericPoint<Integer>> cleared =
+      tree.entrySet().iterator().next();
+
+    tree.clear();
+    cleared.setValue(value);
+    tree.put(cleared.getKey(), cleared.getKey());
+
+    expected.clear();
+    expected.put(cleared.getKey(), cleared.getKey());
+
+    assertFalse(tree.containsValue(value));
+    assertEquals(expected, tree);
+    assertEquals(expected.hashCode(), tree.hashCode());
+    __checkTree(tree);
+  }
+
 }
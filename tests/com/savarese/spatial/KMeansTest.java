@@ -0,0 +1,152 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * KMeansTest tests the KMeans class.
+ */
+public class KMeansTest extends TestCase {
+
+  private KDTree<Double, GenericPoint<Double>, Integer> __tree;
+  private double[][] __centers;
+  private ExecutorService __executor;
+
+  protected void setUp() {
+    Random random = new Random();
+
+    __tree = new KDTree<Double, GenericPoint<Double>, Integer>(3);
+    __executor = Executors.newFixedThreadPool(4);
+
+    for(int i = 0; i < 20000; ++i)
+      __tree.put(new GenericPoint<Double>(1000*random.nextDouble(),
+                                          1000*random.nextDouble(),
+                                          100*random.nextDouble()), i);
+
+    __centers = new double[9][];
+
+    for(int c = 0; c < __centers.length; ++c)
+      __centers[c] = new double[] { 1000*random.nextDouble(),
+                                    1000*random.nextDouble(),
+                                    100*random.nextDouble() };
+
+    // Duplicate centers must not confuse the search.
+    __centers[8] = (double[])__centers[0].clone();
+  }
+
+  protected void tearDown() {
+    __executor.shutdown();
+  }
+
+  private static double __distance2(double[] center, GenericPoint<Double> p) {
+    double d2 = 0;
+
+    for(int d = 0; d < center.length; ++d) {
+      double diff = center[d] - p.getCoord(d);
+      d2+=(diff*diff);
+    }
+
+    return d2;
+  }
+
+  private static int __nearest(double[][] centers, GenericPoint<Double> p) {
+    int best = 0;
+
+    for(int c = 1; c < centers.length; ++c)
+      if(__distance2(centers[c], p) < __distance2(centers[best], p))
+        best = c;
+
+    return best;
+  }
+
+  private void __testStep(KMeans<Double, GenericPoint<Double>, Integer> kmeans) {
+    final int k = __centers.length;
+    double[][] sums = new double[k][3];
+    int[] counts = new int[k];
+
+    for(GenericPoint<Double> p : __tree.keySet()) {
+      int c = __nearest(__centers, p);
+
+      ++counts[c];
+
+      for(int d = 0; d < 3; ++d)
+        sums[c][d]+=p.getCoord(d);
+    }
+
+    double[][] centers = kmeans.step(__tree, __centers);
+
+    for(int c = 0; c < k; ++c)
+      for(int d = 0; d < 3; ++d)
+        assertEquals(counts[c] > 0 ? sums[c][d] / counts[c] : __centers[c][d],
+                     centers[c][d], 1e-9);
+
+    int[] labels = kmeans.assign(__tree, centers);
+    int i = 0;
+
+    assertEquals(__tree.size(), labels.length);
+
+    for(GenericPoint<Double> p : __tree.keySet()) {
+      assertEquals(__distance2(centers[__nearest(centers, p)], p),
+                   __distance2(centers[labels[i++]], p));
+    }
+  }
+
+  /**
+   * Compares single iterations against brute force Lloyd iterations,
+   * both in the calling thread and on an executor.
+   */
+  public void testStep() {
+    KMeans<Double, GenericPoint<Double>, Integer> kmeans =
+      new KMeans<Double, GenericPoint<Double>, Integer>();
+
+    __testStep(kmeans);
+
+    kmeans.setExecutor(__executor);
+
+    __testStep(kmeans);
+
+    // Modifying the tree must invalidate cached sums.
+    for(int i = 0; i < 100; ++i)
+      __tree.put(new GenericPoint<Double>(2000.0 + i, 2000.0, 0.0), -i);
+
+    __testStep(kmeans);
+  }
+
+  /**
+   * Verifies that clustering converges to a fixed point.
+   */
+  public void testCluster() {
+    KMeans<Double, GenericPoint<Double>, Integer> kmeans =
+      new KMeans<Double, GenericPoint<Double>, Integer>(__executor);
+    double[][] centers = kmeans.cluster(__tree, __centers, 1000);
+    double[][] next = kmeans.step(__tree, centers);
+
+    for(int c = 0; c < centers.length; ++c)
+      assertTrue(Arrays.equals(centers[c], next[c]));
+
+    __tree.clear();
+
+    assertTrue(Arrays.equals(__centers[1],
+                             kmeans.cluster(__tree, __centers, 10)[1]));
+    assertEquals(0, kmeans.assign(__tree, __centers).length);
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * KernelDensityTest tests the KernelDensity class.
+ */
+public class KernelDensityTest extends TestCase {
+
+  private static final EuclideanDistance<Double, GenericPoint<Double>>
+    __distance = new EuclideanDistance<Double, GenericPoint<Double>>();
+
+  private KDTree<Double, GenericPoint<Double>, Integer> __tree, __queryTree;
+  private List<GenericPoint<Double>> __queries;
+  private ExecutorService __executor;
+
+  private static GenericPoint<Double> __point(Random random) {
+    // Mix clustered and uniformly distributed points.
+    if(random.nextBoolean())
+      return new GenericPoint<Double>(200 + 20*random.nextGaussian(),
+                                      700 + 50*random.nextGaussian());
+    return new GenericPoint<Double>(1000*random.nextDouble(),
+                                    1000*random.nextDouble());
+  }
+
+  protected void setUp() {
+    Random random = new Random();
+
+    __tree = new KDTree<Double, GenericPoint<Double>, Integer>(2);
+    __queryTree = new KDTree<Double, GenericPoint<Double>, Integer>(2);
+    __queries = new ArrayList<GenericPoint<Double>>();
+    __executor = Executors.newFixedThreadPool(4);
+
+    for(int i = 0; i < 8000; ++i)
+      __tree.put(__point(random), i);
+
+    for(int i = 0; i < 300; ++i) {
+      GenericPoint<Double> query = __point(random);
+
+      __queries.add(query);
+      __queryTree.put(query, i);
+    }
+  }
+
+  protected void tearDown() {
+    __executor.shutdown();
+  }
+
+  private double __density(GenericPoint<Double> query, double bandwidth) {
+    double sum = 0;
+
+    for(GenericPoint<Double> point : __tree.keySet())
+      sum+=Math.exp(-__distance.distance2(query, point) /
+                    (2*bandwidth*bandwidth));
+
+    return sum / (2*Math.PI*bandwidth*bandwidth) / __tree.size();
+  }
+
+  private void __testEvaluate(KernelDensity<Double, GenericPoint<Double>,
+                              Integer> kde, double tolerance)
+  {
+    double bandwidth = kde.getBandwidth();
+    double[] densities = kde.evaluate(__tree, __queries);
+
+    assertEquals(__queries.size(), densities.length);
+
+    for(int i = 0; i < densities.length; ++i) {
+      double expected = __density(__queries.get(i), bandwidth);
+
+      assertEquals(expected, densities[i], tolerance*expected);
+    }
+
+    densities = kde.evaluate(__tree, __queryTree);
+
+    int i = 0;
+
+    for(GenericPoint<Double> query : __queryTree.keySet()) {
+      double expected = __density(query, bandwidth);
+
+      assertEquals(expected, densities[i++], tolerance*expected);
+    }
+
+    double expected = __density(__queries.get(0), bandwidth);
+
+    assertEquals(expected, kde.evaluate(__tree, __queries.get(0)),
+                 tolerance*expected);
+  }
+
+  /**
+   * Compares exact densities against brute force sums, both in the
+   * calling thread and on an executor.
+   */
+  public void testExact() {
+    KernelDensity<Double, GenericPoint<Double>, Integer> kde =
+      new KernelDensity<Double, GenericPoint<Double>, Integer>(15);
+
+    assertEquals(0.0, kde.getRelativeError());
+
+    __testEvaluate(kde, 1e-10);
+
+    kde.setExecutor(__executor);
+
+    __testEvaluate(kde, 1e-10);
+  }
+
+  /**
+   * Verifies that approximate densities stay within the requested
+   * relative error.
+   */
+  public void testApproximate() {
+    KernelDensity<Double, GenericPoint<Double>, Integer> kde =
+      new KernelDensity<Double, GenericPoint<Double>, Integer>(40, __executor);
+
+    kde.setRelativeError(0.05);
+    __testEvaluate(kde, 0.05);
+
+    kde.setRelativeError(0.001);
+    __testEvaluate(kde, 0.001);
+  }
+
+  /**
+   * Verifies evaluations over empty trees and query lists.
+   */
+  public void testEmpty() {
+    KernelDensity<Double, GenericPoint<Double>, Integer> kde =
+      new KernelDensity<Double, GenericPoint<Double>, Integer>(1);
+
+    assertEquals(0, kde.evaluate(__tree,
+                                 new ArrayList<GenericPoint<Double>>()).length);
+
+    __tree.clear();
+
+    assertEquals(0.0, kde.evaluate(__tree, __queries.get(0)));
+  }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * MinimumSpanningTreeTest tests the MinimumSpanningTree class.
+ */
+public class MinimumSpanningTreeTest extends TestCase {
+
+  private static final EuclideanDistance<Integer, GenericPoint<Integer>>
+    __distance = new EuclideanDistance<Integer, GenericPoint<Integer>>();
+
+  private KDTree<Integer, GenericPoint<Integer>, Integer> __tree;
+  private ExecutorService __executor;
+
+  protected void setUp() {
+    __tree = new KDTree<Integer, GenericPoint<Integer>, Integer>(2);
+    __executor = Executors.newFixedThreadPool(4);
+  }
+
+  protected void tearDown() {
+    __executor.shutdown();
+  }
+
+  private void __fill(int size, int range) {
+    Random random = new Random();
+
+    __tree.clear();
+
+    while(__tree.size() < size)
+      __tree.put(new GenericPoint<Integer>(random.nextInt(range),
+                                           random.nextInt(range)),
+                 __tree.size());
+  }
+
+  // Computes the sorted edge lengths of a minimum spanning tree with
+  // Prim's algorithm.
+  private double[] __prim() {
+    List<GenericPoint<Integer>> points =
+      new ArrayList<GenericPoint<Integer>>(__tree.keySet());
+    int size = points.size();
+    boolean[] added = new boolean[size];
+    double[] distances = new double[size], result = new double[size - 1];
+
+    Arrays.fill(distances, Double.POSITIVE_INFINITY);
+    distances[0] = 0;
+
+    for(int n = 0; n < size; ++n) {
+      int next = -1;
+
+      for(int i = 0; i < size; ++i)
+        if(!added[i] && (next < 0 || distances[i] < distances[next]))
+          next = i;
+
+      added[next] = true;
+
+      if(n > 0)
+        result[n - 1] = distances[next];
+
+      for(int i = 0; i < size; ++i)
+        if(!added[i])
+          distances[i] = Math.min(distances[i],
+                                  __distance.distance2(points.get(next),
+                                                       points.get(i)));
+    }
+
+    Arrays.sort(result);
+
+    return result;
+  }
+
+  private void __verify(SpanningTree<Integer, GenericPoint<Integer>, Integer>
+                        mst)
+  {
+    List<Map.Entry<GenericPoint<Integer>, Integer>> entries =
+      new ArrayList<Map.Entry<GenericPoint<Integer>, Integer>>(__tree.entrySet());
+    double[] expected = __prim();
+    int[] parent = new int[entries.size()];
+
+    assertEquals(entries.size(), mst.size());
+    assertEquals(expected.length, mst.getEdgeCount());
+
+    for(int i = 0; i < parent.length; ++i) {
+      parent[i] = i;
+      assertEquals(entries.get(i), mst.getEntry(i));
+    }
+
+    for(int e = 0; e < mst.getEdgeCount(); ++e) {
+      int a = mst.getFirst(e), b = mst.getSecond(e);
+
+      assertEquals(expected[e], mst.getDistance2(e));
+      assertEquals(mst.getDistance2(e),
+                   __distance.distance2(entries.get(a).getKey(),
+                                        entries.get(b).getKey()));
+
+      while(parent[a] != a)
+        a = parent[a];
+      while(parent[b] != b)
+        b = parent[b];
+
+      // Every edge must join two separate components.
+      assertFalse(a == b);
+      parent[a] = b;
+    }
+  }
+
+  /**
+   * Compares spanning trees against Prim's algorithm, both in the
+   * calling thread and on an executor.
+   */
+  public void testGet() {
+    MinimumSpanningTree<Integer, GenericPoint<Integer>, Integer> emst =
+      new MinimumSpanningTree<Integer, GenericPoint<Integer>, Integer>();
+
+    __fill(2000, 100000);
+    __verify(emst.get(__tree));
+
+    emst.setExecutor(__executor);
+    __verify(emst.get(__tree));
+
+    // Many edges of equal length.
+    __fill(1500, 60);
+    __verify(emst.get(__tree));
+
+    emst.setExecutor(null);
+    __verify(emst.get(__tree));
+  }
+
+  /**
+   * Verifies the spanning trees of trees with fewer than two points.
+   */
+  public void testSmallTree() {
+    MinimumSpanningTree<Integer, GenericPoint<Integer>, Integer> emst =
+      new MinimumSpanningTree<Integer, GenericPoint<Integer>, Integer>();
+
+    assertEquals(0, emst.get(__tree).size());
+    assertEquals(0, emst.get(__tree).getEdgeCount());
+
+    __tree.put(new GenericPoint<Integer>(1, 1), 0);
+
+    assertEquals(1, emst.get(__tree).size());
+    assertEquals(0, emst.get(__tree).getEdgeCount());
+
+    __tree.put(new GenericPoint<Integer>(4, 5), 1);
+
+    assertEquals(5.0, emst.get(__tree).getDistance(0));
+  }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+/**
+ * MortonIndexTest tests the MortonIndex class.
+ */
+public class MortonIndexTest extends RangeSearchTreeTestCase<Integer> {
+
+  protected
+    RangeSearchTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+    _newTreeFixture_()
+  {
+    return
+      new MortonIndex<Integer, GenericPoint<Integer>, GenericPoint<Integer>>();
+  }
+
+  protected NearestNeighbors.Entry<Integer,GenericPoint<Integer>,GenericPoint<Integer>>[]
+    _nearestNeighbors_(
+      NearestNeighbors<Integer, GenericPoint<Integer>, GenericPoint<Integer>> nn,
+      GenericPoint<Integer> query, int numNeighbors,
+      GenericPoint<Integer> lower, GenericPoint<Integer> upper,
+      boolean omitQueryPoint)
+  {
+    return
+      nn.get((MortonIndex<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_,
+             query, numNeighbors, lower, upper, omitQueryPoint);
+  }
+
+  public Integer newCoord(int val) {
+    return val;
+  }
+
+  public Integer getMaxCoord() {
+    return 16384;
+  }
+
+  public Integer getMinCoord() {
+    return -16384;
+  }
+
+  public int getNumPoints() {
+    return 16384;
+  }
+
+  /**
+   * Compares BIGMIN against a scan of all the keys of a small space, in
+   * two and three dimensions.
+   */
+  public void testBigmin() {
+    for(int dimensions = 2; dimensions <= 3; ++dimensions) {
+      MortonIndex<Integer, GenericPoint<Integer>, Integer> index =
+        new MortonIndex<Integer, GenericPoint<Integer>, Integer>(dimensions, 3);
+      Random random = new Random();
+      long[] low = new long[dimensions], high = new long[dimensions];
+      long keys = 1L << (3*dimensions);
+
+      for(int trial = 0; trial < 200; ++trial) {
+        for(int d = 0; d < dimensions; ++d) {
+          low[d]  = random.nextInt(8);
+          high[d] = low[d] + random.nextInt(8 - (int)low[d]);
+        }
+
+        long min = index.interleave(low), max = index.interleave(high);
+
+        for(long key = min; key <= max; ++key) {
+          if(__inBox(index, key, min, max))
+            continue;
+
+          long expected = -1;
+
+          for(long next = key + 1; next < keys && expected < 0; ++next) {
+            if(__inBox(index, next, min, max))
+              expected = next;
+          }
+
+          assertEquals(expected, index.bigmin(key, min, max));
+        }
+      }
+    }
+  }
+
+  private static boolean __inBox(MortonIndex<?,?,?> index, long key,
+                                 long min, long max)
+  {
+    for(long mask : index._masks) {
+      if((key & mask) < (min & mask) || (key & mask) > (max & mask))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Verifies that keys follow the quantized coordinates and that points
+   * out of range are rejected without modifying the index.
+   */
+  public void testRange() {
+    MortonIndex<Integer, GenericPoint<Integer>, GenericPoint<Integer>> index =
+      new MortonIndex<Integer, GenericPoint<Integer>, GenericPoint<Integer>>(2, 4);
+    HashMap<GenericPoint<Integer>, GenericPoint<Integer>> map =
+      new HashMap<GenericPoint<Integer>, GenericPoint<Integer>>();
+    GenericPoint<Integer> out = new GenericPoint<Integer>(8, 0);
+
+    for(int x = -8; x < 8; ++x) {
+      for(int y = -8; y < 8; ++y) {
+        GenericPoint<Integer> point = new GenericPoint<Integer>(x, y);
+        map.put(point, point);
+      }
+    }
+
+    index.putAll(map);
+    assertEquals(map, index);
+
+    // Keys run in Z order from the lower corner.
+    assertEquals(0, index._keys[0]);
+    assertEquals(new GenericPoint<Integer>(-8, -8), index._entries[0]._point);
+    assertEquals(new GenericPoint<Integer>(-8, -7), index._entries[1]._point);
+    assertEquals(new GenericPoint<Integer>(-7, -8), index._entries[2]._point);
+
+    try {
+      index.put(out, out);
+      fail();
+    } catch(IllegalArgumentException iae) {
+      // Expected.
+    }
+
+    map.put(out, out);
+
+    try {
+      index.putAll(map);
+      fail();
+    } catch(IllegalArgumentException iae) {
+      // Expected.
+    }
+
+    map.remove(out);
+    assertEquals(map, index);
+    assertNull(index.get(out));
+    assertNull(index.remove(out));
+
+    try {
+      new MortonIndex<Integer, GenericPoint<Integer>, Integer>(3, 22);
+      fail();
+    } catch(IllegalArgumentException iae) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Verifies that fractional coordinates sharing a quantized key are
+   * kept apart and searched exactly.
+   */
+  public void testQuantization() {
+    MortonIndex<Double, GenericPoint<Double>, Integer> index =
+      new MortonIndex<Double, GenericPoint<Double>, Integer>(2, 8);
+    NearestNeighbors<Double, GenericPoint<Double>, Integer> nn =
+      new NearestNeighbors<Double, GenericPoint<Double>, Integer>();
+    ArrayList<GenericPoint<Double>> points = new ArrayList<GenericPoint<Double>>();
+    Random random = new Random();
+
+    for(int i = 0; i < 2000; ++i) {
+      GenericPoint<Double> point =
+        new GenericPoint<Double>(random.nextDouble()*40 - 20,
+                                 random.nextDouble()*40 - 20);
+      points.add(point);
+      assertNull(index.put(point, i));
+    }
+
+    assertEquals(points.size(), index.size());
+
+    for(int i = 0; i < points.size(); ++i)
+      assertEquals(i, index.get(points.get(i)).intValue());
+
+    GenericPoint<Double> lower = new GenericPoint<Double>(-3.5, -0.25);
+    GenericPoint<Double> upper = new GenericPoint<Double>(2.75, 5.5);
+    Iterator<Map.Entry<GenericPoint<Double>, Integer>> it =
+      index.iterator(lower, upper);
+    int count = 0, expected = 0;
+
+    for(GenericPoint<Double> p : points) {
+      if(p.getCoord(0) >= -3.5 && p.getCoord(0) <= 2.75 &&
+         p.getCoord(1) >= -0.25 && p.getCoord(1) <= 5.5)
+        ++expected;
+    }
+
+    while(it.hasNext()) {
+      GenericPoint<Double> p = it.next().getKey();
+
+      assertTrue(index.isInRange(p, lower, upper));
+      ++count;
+    }
+
+    assertEquals(expected, count);
+
+    GenericPoint<Double> query = new GenericPoint<Double>(0.3, -0.7);
+    NearestNeighbors.Entry<Double, GenericPoint<Double>, Integer>[] neighbors =
+      nn.get(index, query, 5);
+    double[] distances = new double[points.size()];
+
+    for(int i = 0; i < distances.length; ++i)
+      distances[i] = new EuclideanDistance<Double, GenericPoint<Double>>().
+        distance2(query, points.get(i));
+
+    Arrays.sort(distances);
+
+    for(int i = 0; i < neighbors.length; ++i)
+      assertEquals(distances[i], neighbors[i].getDistance2());
+  }
+
+  private static int __count(Iterator<?> it) {
+    int count = 0;
+
+    while(it.hasNext()) {
+      it.next();
+      ++count;
+    }
+
+    return count;
+  }
+
+  /**
+   * Verifies that range bounds and points far outside the range of
+   * quantized coordinates, including infinities, saturate instead of
+   * overflowing.
+   */
+  public void testHugeCoordinates() {
+    MortonIndex<Double, GenericPoint<Double>, Integer> index =
+      new MortonIndex<Double, GenericPoint<Double>, Integer>(2, 8);
+    MortonIndex<Long, GenericPoint<Long>, Integer> longIndex =
+      new MortonIndex<Long, GenericPoint<Long>, Integer>(2);
+    double[] huge = {
+      Double.POSITIVE_INFINITY, 1e300, (double)Long.MAX_VALUE, 128.0
+    };
+
+    for(int i = 0; i < 100; ++i) {
+      index.put(new GenericPoint<Double>(i - 50.0, 50.0 - i), i);
+      longIndex.put(new GenericPoint<Long>(i - 50L, 50L - i), i);
+    }
+
+    for(double h : huge) {
+      GenericPoint<Double> upper = new GenericPoint<Double>(h, h);
+
+      assertEquals(100,
+                   __count(index.iterator(new GenericPoint<Double>(-h, -h),
+                                          upper)));
+      assertEquals(50,
+                   __count(index.iterator(new GenericPoint<Double>(0.0, -h),
+                                          upper)));
+      assertEquals(0,
+                   __count(index.iterator(new GenericPoint<Double>(h, -h),
+                                          upper)));
+
+      try {
+        index.put(new GenericPoint<Double>(h, 0.0), -1);
+        fail();
+      } catch(IllegalArgumentException iae) {
+        // Expected.
+      }
+
+      try {
+        index.put(new GenericPoint<Double>(0.0, -h - 1), -1);
+        fail();
+      } catch(IllegalArgumentException iae) {
+        // Expected.
+      }
+
+      assertNull(index.get(new GenericPoint<Double>(-h, h)));
+    }
+
+    assertEquals(100, index.size());
+    assertEquals(100, __count(longIndex.iterator(
+                   new GenericPoint<Long>(Long.MIN_VALUE, Long.MIN_VALUE),
+                   new GenericPoint<Long>(Long.MAX_VALUE, Long.MAX_VALUE))));
+    assertEquals(50, __count(longIndex.iterator(
+                   new GenericPoint<Long>(0L, Long.MIN_VALUE),
+                   new GenericPoint<Long>(Long.MAX_VALUE, Long.MAX_VALUE))));
+  }
+}
@@ -90,6 +90,38 @@ public abstract class RangeSearchTreeTestCase<Coord extends Number & Comparable<
 
   public abstract int getNumPoints();
 
+  /**
+   * Finds the k-nearest neighbors to a query point in {@link #_tree_}.
+   * Fixtures that are not KDTree instances should override this method.
+   * Tests of operations specific to KDTree belong in {@link KDTreeTest}.
+   *
+   * @return The nearest neighbors, as found by
+   * {@link NearestNeighbors#get(KDTree,Point,int,Point,Point,boolean)}.
+   */
+  protected NearestNeighbors.Entry<Coord,GenericPoint<Coord>,GenericPoint<Coord>>[]
+    _nearestNeighbors_(
+      NearestNeighbors<Coord, GenericPoint<Coord>, GenericPoint<Coord>> nn,
+      GenericPoint<Coord> query, int numNeighbors,
+      GenericPoint<Coord> lower, GenericPoint<Coord> upper,
+      boolean omitQueryPoint)
+  {
+    return nn.get((KDTree<Coord, GenericPoint<Coord>, GenericPoint<Coord>>)_tree_,
+                  query, numNeighbors, lower, upper, omitQueryPoint);
+  }
+
+  private boolean __isInRange(GenericPoint<Coord> point,
+                              GenericPoint<Coord> lower,
+                              GenericPoint<Coord> upper)
+  {
+    for(int i = 0; i < point.getDimensions(); ++i) {
+      if((lower != null && point.getCoord(i).compareTo(lower.getCoord(i)) < 0) ||
+         (upper != null && point.getCoord(i).compareTo(upper.getCoord(i)) > 0))
+        return false;
+    }
+
+    return true;
+  }
+
   public void testSize() {
     _fillMap_(_tree_);
     assertEquals(__points.size(), _tree_.size());
@@ -234,6 +266,53 @@ public abstract class RangeSearchTreeTestCase<Coord extends Number & Comparable<
     assertEquals(_tree_.size(), size);
   }
 
+  private void __testRegion(Region<Coord, GenericPoint<Coord>> region) {
+    int expected = 0;
+
+    for(GenericPoint<Coord> point : __points) {
+      if(region.contains(point))
+        ++expected;
+    }
+
+    Iterator<Map.Entry<GenericPoint<Coord>,GenericPoint<Coord>>> range =
+      ((RegionSearchTree<Coord, GenericPoint<Coord>, GenericPoint<Coord>>)
+       _tree_).iterator(region);
+    int size = 0;
+
+    while(range.hasNext()) {
+      Map.Entry<GenericPoint<Coord>,GenericPoint<Coord>> e = range.next();
+      assertTrue(region.contains(e.getKey()));
+      assertEquals(_tree_.get(e.getKey()), e.getValue());
+      ++size;
+    }
+
+    assertEquals(expected, size);
+  }
+
+  public void testRegionIterator() {
+    _fillMap_(_tree_);
+
+    int min = getMinCoord().intValue(), max = getMaxCoord().intValue();
+    GenericPoint<Coord> center =
+      new GenericPoint<Coord>(newCoord(max / 2), newCoord(min / 3));
+
+    __testRegion(new Ball<Coord, GenericPoint<Coord>>(center,
+                                                      (max - min) / 4));
+    __testRegion(new Ball<Coord, GenericPoint<Coord>>(center,
+                                                      4.0*(max - min)));
+    __testRegion(new HalfSpace<Coord, GenericPoint<Coord>>(
+                   new double[] { 1, 1 }, max / 8));
+
+    List<GenericPoint<Coord>> vertices = new ArrayList<GenericPoint<Coord>>();
+
+    vertices.add(new GenericPoint<Coord>(newCoord(min), newCoord(min + 64)));
+    vertices.add(new GenericPoint<Coord>(newCoord(min + 64), newCoord(min)));
+    vertices.add(new GenericPoint<Coord>(newCoord(max), newCoord(max - 64)));
+    vertices.add(new GenericPoint<Coord>(newCoord(max - 64), newCoord(max)));
+
+    __testRegion(new ConvexPolygon<Coord, GenericPoint<Coord>>(vertices));
+  }
+
   public void testEquals() {
     _fillMap_(_tree_);
 
@@ -254,8 +333,8 @@ public abstract class RangeSearchTreeTestCase<Coord extends Number & Comparable<
     final EuclideanDistance<Coord, GenericPoint<Coord>> d =
       new EuclideanDistance<Coord, GenericPoint<Coord>>();
 
-    KDTree<Coord, GenericPoint<Coord>, GenericPoint<Coord>> tree =
-      (KDTree<Coord, GenericPoint<Coord>, GenericPoint<Coord>>)_tree_;
+    RangeSearchTree<Coord, GenericPoint<Coord>, GenericPoint<Coord>> tree =
+      _tree_;
 
     _fillMap_(tree);
 
@@ -279,7 +358,7 @@ public abstract class RangeSearchTreeTestCase<Coord extends Number & Comparable<
     NearestNeighbors.Entry<Coord,GenericPoint<Coord>,GenericPoint<Coord>>[] n;
 
     for(int i = 1; i < 11; ++i) {
-      n = nn.get(tree, query, i, false);
+      n = _nearestNeighbors_(nn, query, i, null, null, false);
 
       assertNotNull(n);
       assertEquals(i, n.length);
@@ -291,7 +370,7 @@ public abstract class RangeSearchTreeTestCase<Coord extends Number & Comparable<
 
     for(int i = 1; i < 11; ++i) {
       int j = 0;
-      n = nn.get(tree, query, i);
+      n = _nearestNeighbors_(nn, query, i, null, null, true);
 
       assertNotNull(n);
       assertEquals(i, n.length);
@@ -311,7 +390,7 @@ public abstract class RangeSearchTreeTestCase<Coord extends Number & Comparable<
       new GenericPoint<Coord>(newCoord(2), newCoord(2));
     tree.put(p, p);
 
-    n = nn.get(tree, q, 1);
+    n = _nearestNeighbors_(nn, q, 1, null, null, true);
 
     assertNotNull(n);
     assertEquals(1, n.length);
@@ -319,7 +398,7 @@ public abstract class RangeSearchTreeTestCase<Coord extends Number & Comparable<
     assertTrue(n[0].getNeighbor().getKey().equals(p) ||
                  d.distance2(q, n[0].getNeighbor().getKey()) < 2);
 
-    n = nn.get(tree, p, 1, false);
+    n = _nearestNeighbors_(nn, p, 1, null, null, false);
 
     assertNotNull(n);
     assertEquals(1, n.length);
@@ -348,16 +427,77 @@ public abstract class RangeSearchTreeTestCase<Coord extends Number & Comparable<
     final GenericPoint<Coord> p2 =
       new GenericPoint<Coord>(newCoord(0), newCoord(0));
 
-    n = nn.get(tree, q2, 2);
+    n = _nearestNeighbors_(nn, q2, 2, null, null, true);
 
     assertNotNull(n);
     assertEquals(2, n.length);
     assertEquals(p2, n[0].getNeighbor().getKey());
 
-    n = nn.get(tree, q2, 1);
+    n = _nearestNeighbors_(nn, q2, 1, null, null, true);
 
     assertNotNull(n);
     assertEquals(1, n.length);
     assertEquals(p2, n[0].getNeighbor().getKey());
   }
+
+  public void testNearestNeighborsInRange() {
+    NearestNeighbors<Coord, GenericPoint<Coord>, GenericPoint<Coord>> nn =
+      new NearestNeighbors<Coord, GenericPoint<Coord>, GenericPoint<Coord>>();
+    final EuclideanDistance<Coord, GenericPoint<Coord>> d =
+      new EuclideanDistance<Coord, GenericPoint<Coord>>();
+    int min = getMinCoord().intValue(), max = getMaxCoord().intValue();
+    GenericPoint<Coord> query =
+      new GenericPoint<Coord>(newCoord(min / 2), newCoord(min / 2));
+    GenericPoint<Coord> lower =
+      new GenericPoint<Coord>(newCoord(max / 8), newCoord(min / 4));
+    GenericPoint<Coord> upper =
+      new GenericPoint<Coord>(newCoord(max / 2), newCoord(max / 4));
+
+    RangeSearchTree<Coord, GenericPoint<Coord>, GenericPoint<Coord>> tree =
+      _tree_;
+
+    _fillMap_(tree);
+
+    ArrayList<Double> distances = new ArrayList<Double>();
+
+    for(GenericPoint<Coord> point : __points) {
+      if(__isInRange(point, lower, upper))
+        distances.add(d.distance2(query, point));
+    }
+
+    Collections.sort(distances);
+
+    NearestNeighbors.Entry<Coord,GenericPoint<Coord>,GenericPoint<Coord>>[] n;
+
+    for(int i = 1; i < 11; ++i) {
+      n = _nearestNeighbors_(nn, query, i, lower, upper, false);
+
+      assertEquals(Math.min(i, distances.size()), n.length);
+
+      for(int j = 0; j < n.length; ++j) {
+        assertTrue(__isInRange(n[j].getNeighbor().getKey(), lower, upper));
+        assertEquals(distances.get(j), n[j].getDistance2());
+      }
+    }
+
+    ArrayList<Double> open = new ArrayList<Double>();
+
+    for(GenericPoint<Coord> point : __points) {
+      if(__isInRange(point, lower, null))
+        open.add(d.distance2(query, point));
+    }
+
+    Collections.sort(open);
+
+    int k = distances.size() + 1;
+
+    n = _nearestNeighbors_(nn, query, k, lower, null, false);
+
+    assertEquals(Math.min(k, open.size()), n.length);
+
+    for(int j = 0; j < n.length; ++j) {
+      assertTrue(__isInRange(n[j].getNeighbor().getKey(), lower, null));
+      assertEquals(open.get(j), n[j].getDistance2());
+    }
+  }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * RegionTest tests the Region implementations.
+ */
+public class RegionTest extends TestCase {
+
+  private static GenericPoint<Integer> __point(Integer x, Integer y) {
+    GenericPoint<Integer> point = new GenericPoint<Integer>(2);
+    point.setCoord(0, x);
+    point.setCoord(1, y);
+    return point;
+  }
+
+  /**
+   * Tests point and box classification by a Ball.
+   */
+  public void testBall() {
+    Ball<Integer, GenericPoint<Integer>> ball =
+      new Ball<Integer, GenericPoint<Integer>>(__point(0, 0), 5);
+
+    assertTrue(ball.contains(__point(3, 4)));
+    assertFalse(ball.contains(__point(4, 4)));
+
+    assertTrue(ball.intersects(__point(3, 3), __point(10, 10)));
+    assertFalse(ball.intersects(__point(4, 4), __point(10, 10)));
+    assertTrue(ball.intersects(__point(-100, -1), __point(100, 1)));
+    assertTrue(ball.intersects(__point(null, null), __point(-3, -4)));
+    assertFalse(ball.intersects(null, __point(-4, -4)));
+
+    assertTrue(ball.contains(__point(-3, -3), __point(3, 3)));
+    assertFalse(ball.contains(__point(-3, -3), __point(3, 5)));
+    assertFalse(ball.contains(__point(0, 0), __point(1, null)));
+  }
+
+  /**
+   * Tests point and box classification by a HalfSpace.
+   */
+  public void testHalfSpace() {
+    // x - y <= 2
+    HalfSpace<Integer, GenericPoint<Integer>> h =
+      new HalfSpace<Integer, GenericPoint<Integer>>(new double[] { 1, -1 }, 2);
+
+    assertTrue(h.contains(__point(2, 0)));
+    assertTrue(h.contains(__point(-50, 7)));
+    assertFalse(h.contains(__point(3, 0)));
+
+    assertTrue(h.intersects(__point(3, 1), __point(5, 2)));
+    assertFalse(h.intersects(__point(5, 0), __point(8, 2)));
+    assertTrue(h.intersects(null, null));
+
+    assertTrue(h.contains(__point(0, 0), __point(2, 5)));
+    assertFalse(h.contains(__point(0, 0), __point(3, 5)));
+    assertTrue(h.contains(__point(null, 0), __point(2, null)));
+    assertFalse(h.contains(null, null));
+  }
+
+  /**
+   * Tests point and box classification by a thin diagonal
+   * ConvexPolygon, for vertices in both orientations.
+   */
+  public void testConvexPolygon() {
+    List<GenericPoint<Integer>> vertices = new ArrayList<GenericPoint<Integer>>();
+
+    vertices.add(__point(0, 1));
+    vertices.add(__point(1, 0));
+    vertices.add(__point(10, 9));
+    vertices.add(__point(9, 10));
+
+    for(int i = 0; i < 2; ++i) {
+      ConvexPolygon<Integer, GenericPoint<Integer>> polygon =
+        new ConvexPolygon<Integer, GenericPoint<Integer>>(vertices);
+
+      assertTrue(polygon.contains(__point(5, 5)));
+      assertTrue(polygon.contains(__point(0, 1)));
+      assertFalse(polygon.contains(__point(5, 7)));
+      assertFalse(polygon.contains(__point(0, 0)));
+
+      assertTrue(polygon.intersects(__point(4, 4), __point(6, 6)));
+      assertFalse(polygon.intersects(__point(0, 5), __point(3, 10)));
+      assertFalse(polygon.intersects(__point(-5, -5), __point(-1, 20)));
+
+      assertTrue(polygon.contains(__point(4, 4), __point(5, 5)));
+      assertFalse(polygon.contains(__point(4, 4), __point(6, 5)));
+
+      Collections.reverse(vertices);
+    }
+  }
+
+}
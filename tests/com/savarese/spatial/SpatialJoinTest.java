@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savarese.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * SpatialJoinTest tests the SpatialJoin class.
+ */
+public class SpatialJoinTest extends TestCase {
+
+  private KDTree<Integer, GenericPoint<Integer>, Integer> __left, __right;
+  private ExecutorService __executor;
+
+  private static final EuclideanDistance<Integer, GenericPoint<Integer>>
+    __distance = new EuclideanDistance<Integer, GenericPoint<Integer>>();
+
+  private static final class PairSet
+    implements PairCallback<Integer, GenericPoint<Integer>, Integer, Integer>
+  {
+    Set<String> _pairs = Collections.synchronizedSet(new HashSet<String>());
+
+    public void pair(Map.Entry<GenericPoint<Integer>, Integer> first,
+                     Map.Entry<GenericPoint<Integer>, Integer> second,
+                     double distance2)
+    {
+      assertEquals(distance2,
+                   __distance.distance2(first.getKey(), second.getKey()));
+      assertTrue(_pairs.add(first.getValue() + ":" + second.getValue()));
+    }
+  }
+
+  private KDTree<Integer, GenericPoint<Integer>, Integer>
+  __createTree(Random random, int size)
+  {
+    KDTree<Integer, GenericPoint<Integer>, Integer> tree =
+      new KDTree<Integer, GenericPoint<Integer>, Integer>(2);
+
+    for(int i = 0; i < size; ++i)
+      tree.put(new GenericPoint<Integer>(random.nextInt(512),
+                                         random.nextInt(512)), i);
+
+    return tree;
+  }
+
+  protected void setUp() {
+    Random random = new Random();
+
+    __left     = __createTree(random, 1500);
+    __right    = __createTree(random, 1000);
+    __executor = Executors.newFixedThreadPool(4);
+  }
+
+  protected void tearDown() {
+    __executor.shutdown();
+  }
+
+  private void __testWithinDistance(SpatialJoin<Integer, GenericPoint<Integer>,
+                                    Integer, Integer> join, double distance)
+  {
+    PairSet expected = new PairSet(), actual = new PairSet();
+    double distance2 = distance*distance;
+
+    for(Map.Entry<GenericPoint<Integer>, Integer> l : __left.entrySet())
+      for(Map.Entry<GenericPoint<Integer>, Integer> r : __right.entrySet()) {
+        double d2 = __distance.distance2(l.getKey(), r.getKey());
+
+        if(d2 <= distance2)
+          expected.pair(l, r, d2);
+      }
+
+    join.withinDistance(__left, __right, distance, actual);
+
+    assertEquals(expected._pairs, actual._pairs);
+  }
+
+  /**
+   * Compares the pairs found by withinDistance against a brute force
+   * join, both in the calling thread and on an executor.
+   */
+  public void testWithinDistance() {
+    SpatialJoin<Integer, GenericPoint<Integer>, Integer, Integer> join =
+      new SpatialJoin<Integer, GenericPoint<Integer>, Integer, Integer>();
+
+    __testWithinDistance(join, 0);
+    __testWithinDistance(join, 10);
+    __testWithinDistance(join, 40);
+
+    join.setExecutor(__executor);
+
+    __testWithinDistance(join, 10);
+    __testWithinDistance(join, 1000);
+  }
+
+  /**
+   * Compares the pairs found by nearest against NearestNeighbors.
+   */
+  public void testNearest() {
+    final int k = 3;
+    final NearestNeighbors<Integer, GenericPoint<Integer>, Integer> nn =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, Integer>();
+    final Map<Integer, Integer> ranks = new HashMap<Integer, Integer>();
+    SpatialJoin<Integer, GenericPoint<Integer>, Integer, Integer> join =
+      new SpatialJoin<Integer, GenericPoint<Integer>, Integer, Integer>(__executor);
+
+    join.nearest(__left, __right, k,
+     new PairCallback<Integer, GenericPoint<Integer>, Integer, Integer>() {
+       public void pair(Map.Entry<GenericPoint<Integer>, Integer> first,
+                        Map.Entry<GenericPoint<Integer>, Integer> second,
+                        double distance2)
+       {
+         Integer rank = ranks.get(first.getValue());
+         int r = (rank == null ? 0 : rank.intValue());
+         NearestNeighbors.Entry<Integer, GenericPoint<Integer>, Integer>[] n =
+           nn.get(__right, first.getKey(), k, false);
+
+         assertEquals(n[r].getDistance2(), distance2);
+         assertEquals(distance2,
+                      __distance.distance2(first.getKey(), second.getKey()));
+         ranks.put(first.getValue(), r + 1);
+       }
+     });
+
+    assertEquals(__left.size(), ranks.size());
+
+    for(Integer rank : ranks.values())
+      assertEquals(k, rank.intValue());
+  }
+
+}
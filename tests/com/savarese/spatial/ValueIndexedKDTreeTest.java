@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+/**
+ * ValueIndexedKDTreeTest tests the KDTree class with its value index
+ * enabled.
+ */
+public class ValueIndexedKDTreeTest extends KDTreeTest {
+
+  protected
+    RangeSearchTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>
+    _newTreeFixture_()
+  {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      new KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>();
+
+    tree.setValueIndex(true);
+
+    return tree;
+  }
+
+  /**
+   * Verifies that values are found through the index after it is
+   * enabled on a full tree, after values are replaced, and after
+   * mappings sharing a value are removed.
+   */
+  public void testValueIndex() {
+    KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>> tree =
+      (KDTree<Integer, GenericPoint<Integer>, GenericPoint<Integer>>)_tree_;
+    GenericPoint<Integer> shared = new GenericPoint<Integer>(-1, -1);
+
+    tree.setValueIndex(false);
+    assertFalse(tree.isValueIndexed());
+
+    _fillMap_(tree);
+    tree.setValueIndex(true);
+    assertEquals(tree.size(), tree._valueIndex.size());
+
+    Iterator<GenericPoint<Integer>> it = tree.keySet().iterator();
+    GenericPoint<Integer> first = it.next(), second = it.next();
+
+    assertTrue(tree.containsValue(first));
+    tree.put(first, shared);
+    tree.entrySet().iterator().next().setValue(shared);
+    tree.put(second, shared);
+    assertFalse(tree.containsValue(first));
+    assertFalse(tree.containsValue(second));
+
+    int size = tree.size();
+
+    while(tree.values().remove(shared))
+      --size;
+
+    assertEquals(size, tree.size());
+    assertFalse(tree.containsValue(shared));
+    assertNull(tree._valueIndex.get(shared));
+
+    tree.optimize();
+    assertEquals(tree.size(), tree._valueIndex.size());
+
+    for(GenericPoint<Integer> value : tree.values())
+      assertEquals(value, tree.findValue(value)._value);
+
+    tree.clear();
+    assertTrue(tree._valueIndex.isEmpty());
+  }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2010 Savarese Software Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.savarese.com/software/ApacheLicense-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.savarese.spatial;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * WindowedKDTreeTest tests the WindowedKDTree class.
+ */
+public class WindowedKDTreeTest extends TestCase {
+
+  private static final EuclideanDistance<Integer, GenericPoint<Integer>>
+    __distance = new EuclideanDistance<Integer, GenericPoint<Integer>>();
+
+  private WindowedKDTree<Integer, GenericPoint<Integer>, Integer> __window;
+  // The expected mappings of each bucket.
+  private TreeMap<Long, Map<GenericPoint<Integer>, Integer>> __buckets;
+
+  protected void setUp() {
+    __window =
+      new WindowedKDTree<Integer, GenericPoint<Integer>, Integer>(10, 100);
+    __buckets = new TreeMap<Long, Map<GenericPoint<Integer>, Integer>>();
+  }
+
+  // Puts random points at times from begin to end, dropping the
+  // expected buckets that expire.
+  private void __fill(Random random, long begin, long end) {
+    for(long time = begin; time < end; ++time) {
+      for(int i = 0; i < 20; ++i) {
+        GenericPoint<Integer> point =
+          new GenericPoint<Integer>(random.nextInt(1000), random.nextInt(1000));
+        Map<GenericPoint<Integer>, Integer> bucket = __buckets.get(time / 10);
+
+        if(bucket == null) {
+          bucket = new HashMap<GenericPoint<Integer>, Integer>();
+          __buckets.put(time / 10, bucket);
+        }
+
+        assertEquals(bucket.put(point, i), __window.put(time, point, i));
+      }
+
+      // Bucket b holds times up to 10*b + 9, which must exceed time - 100.
+      if(time >= 109)
+        __buckets.headMap((time - 109) / 10 + 1).clear();
+      assertEquals(__size(__buckets.values()), __window.size());
+    }
+  }
+
+  private static int __size(Collection<Map<GenericPoint<Integer>, Integer>>
+                            buckets)
+  {
+    int size = 0;
+
+    for(Map<GenericPoint<Integer>, Integer> bucket : buckets)
+      size+=bucket.size();
+
+    return size;
+  }
+
+  private static boolean __isInRange(GenericPoint<Integer> point,
+                                     GenericPoint<Integer> lower,
+                                     GenericPoint<Integer> upper)
+  {
+    for(int i = 0; i < 2; ++i) {
+      if(point.getCoord(i) < lower.getCoord(i) ||
+         point.getCoord(i) > upper.getCoord(i))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Verifies that buckets expire as time advances.
+   */
+  public void testExpire() {
+    Random random = new Random();
+
+    __fill(random, 0, 1000);
+
+    assertEquals(999, __window.getTime());
+    assertEquals(10, __window.getBucketCount());
+
+    // Times before the window are not inserted.
+    GenericPoint<Integer> point = new GenericPoint<Integer>(5, 5);
+
+    assertNull(__window.put(899, point, 1));
+    assertNull(__window.get(899, point));
+    assertEquals(__size(__buckets.values()), __window.size());
+
+    int size = __window.size();
+
+    assertEquals(0, __window.expire(999));
+    assertEquals(__buckets.get(90L).size(), __window.expire(1009));
+    assertEquals(size - __buckets.get(90L).size(), __window.size());
+    assertEquals(9, __window.getBucketCount());
+
+    assertEquals(__window.size(), __window.expire(2000));
+    assertTrue(__window.isEmpty());
+    assertEquals(0, __window.getBucketCount());
+  }
+
+  /**
+   * Compares range searches restricted to intervals of time against
+   * searches of the expected buckets.
+   */
+  public void testIterator() {
+    Random random = new Random();
+    GenericPoint<Integer> lower = new GenericPoint<Integer>(200, 100);
+    GenericPoint<Integer> upper = new GenericPoint<Integer>(700, 450);
+
+    __fill(random, 0, 550);
+
+    long[][] intervals = {
+      { Long.MIN_VALUE, Long.MAX_VALUE }, { 460, 470 }, { 465, 505 },
+      { 530, 531 }, { 0, 400 }, { 520, 520 }
+    };
+
+    for(long[] interval : intervals) {
+      long begin = interval[0], end = interval[1];
+      int expected = 0, size = 0;
+
+      for(Map.Entry<Long, Map<GenericPoint<Integer>, Integer>> bucket :
+            __buckets.entrySet())
+      {
+        long first = 10*bucket.getKey(), last = first + 9;
+
+        if(first < end && last >= begin) {
+          for(GenericPoint<Integer> point : bucket.getValue().keySet())
+            if(__isInRange(point, lower, upper))
+              ++expected;
+        }
+      }
+
+      Iterator<Map.Entry<GenericPoint<Integer>, Integer>> range =
+        __window.iterator(begin, end, lower, upper);
+
+      while(range.hasNext()) {
+        assertTrue(__isInRange(range.next().getKey(), lower, upper));
+        ++size;
+      }
+
+      assertEquals(expected, size);
+    }
+  }
+
+  /**
+   * Compares k-nearest neighbors searches across buckets against brute
+   * force searches.
+   */
+  public void testNearestNeighbors() {
+    NearestNeighbors<Integer, GenericPoint<Integer>, Integer> nn =
+      new NearestNeighbors<Integer, GenericPoint<Integer>, Integer>();
+    Random random = new Random();
+
+    __fill(random, 0, 300);
+
+    for(int q = 0; q < 50; ++q) {
+      GenericPoint<Integer> query =
+        new GenericPoint<Integer>(random.nextInt(1000), random.nextInt(1000));
+      ArrayList<Double> all = new ArrayList<Double>(),
+        recent = new ArrayList<Double>();
+
+      for(Map.Entry<Long, Map<GenericPoint<Integer>, Integer>> bucket :
+            __buckets.entrySet())
+      {
+        for(GenericPoint<Integer> point : bucket.getValue().keySet()) {
+          double d2 = __distance.distance2(query, point);
+
+          if(d2 == 0)
+            continue;
+
+          all.add(d2);
+          if(bucket.getKey() >= 28)
+            recent.add(d2);
+        }
+      }
+
+      Collections.sort(all);
+      Collections.sort(recent);
+
+      NearestNeighbors.Entry<Integer,GenericPoint<Integer>,Integer>[] n =
+        nn.get(__window, query, 15);
+
+      assertEquals(15, n.length);
+      for(int i = 0; i < n.length; ++i)
+        assertEquals(all.get(i), n[i].getDistance2());
+
+      n = nn.get(__window, 285, 1000, query, 15, true);
+
+      assertEquals(15, n.length);
+      for(int i = 0; i < n.length; ++i)
+        assertEquals(recent.get(i), n[i].getDistance2());
+    }
+  }
+
+  /**
+   * Verifies the removal of single mappings.
+   */
+  public void testRemove() {
+    Random random = new Random();
+
+    __fill(random, 0, 150);
+
+    for(Map.Entry<Long, Map<GenericPoint<Integer>, Integer>> bucket :
+          __buckets.entrySet())
+    {
+      long time = 10*bucket.getKey() + 3;
+
+      for(Map.Entry<GenericPoint<Integer>, Integer> e :
+            bucket.getValue().entrySet())
+      {
+        assertEquals(e.getValue(), __window.get(time, e.getKey()));
+        assertEquals(e.getValue(), __window.remove(time, e.getKey()));
+        assertNull(__window.remove(time, e.getKey()));
+      }
+    }
+
+    assertTrue(__window.isEmpty());
+    assertEquals(0, __window.getBucketCount());
+  }
+
+}